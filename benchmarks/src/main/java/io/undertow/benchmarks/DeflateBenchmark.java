@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import io.undertow.conduits.DeflatingStreamSinkConduit;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.MockServerConnection;
+import io.undertow.util.ImmediateConduitFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.IoUtils;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * Measures compressing a response with {@link DeflatingStreamSinkConduit}, over a next conduit that discards
+ * everything written to it.
+ * <p/>
+ * Each invocation creates a conduit, writes one response to it as a number of chunks, and then closes it, as a
+ * request would. The <code>unpooled</code> benchmark runs with the deflater pool disabled, so like the old
+ * conduit it creates and ends a deflater for every response, while <code>pooled</code> uses the default pool. The
+ * <code>direct</code> buffer type exercises the scratch array that data is copied through when it has no backing
+ * array. Run with <code>-prof gc</code> to see the difference in allocation rate.
+ *
+ * @author Stuart Douglas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeflateBenchmark {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    @Param({"1024", "16384", "262144"})
+    public int responseSize;
+
+    @Param({"heap", "direct"})
+    public String bufferType;
+
+    private ByteBuffer[] chunks;
+    private MockServerConnection connection;
+    private DiscardingConduit target;
+
+    @Setup
+    public void setup() {
+        //compressible, JSON like content
+        final StringBuilder builder = new StringBuilder();
+        final Random random = new Random(42);
+        while (builder.length() < responseSize) {
+            builder.append("{\"id\":").append(random.nextInt(100000)).append(",\"name\":\"item").append(random.nextInt(100)).append("\"},");
+        }
+        final byte[] data = builder.substring(0, responseSize).getBytes();
+        chunks = new ByteBuffer[(responseSize + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for (int i = 0; i < chunks.length; ++i) {
+            final int length = Math.min(CHUNK_SIZE, data.length - i * CHUNK_SIZE);
+            final ByteBuffer chunk = bufferType.equals("direct") ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            chunk.put(data, i * CHUNK_SIZE, length);
+            chunk.flip();
+            chunks[i] = chunk;
+        }
+        //the same buffers a server uses for its connections
+        connection = new MockServerConnection(new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, 16 * 1024, 16 * 1024 * 20));
+        target = new DiscardingConduit();
+    }
+
+    /**
+     * A new deflater for every response
+     */
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Dio.undertow.deflater-pool-size=0")
+    public long unpooled() throws IOException {
+        return deflate();
+    }
+
+    /**
+     * Deflaters reused from the pool
+     */
+    @Benchmark
+    public long pooled() throws IOException {
+        return deflate();
+    }
+
+    private long deflate() throws IOException {
+        target.written = 0;
+        final HttpServerExchange exchange = new HttpServerExchange(connection);
+        final DeflatingStreamSinkConduit conduit = new DeflatingStreamSinkConduit(new ImmediateConduitFactory<StreamSinkConduit>(target), exchange, Deflater.DEFAULT_COMPRESSION);
+        for (ByteBuffer chunk : chunks) {
+            final ByteBuffer src = chunk.duplicate();
+            while (src.hasRemaining()) {
+                conduit.write(src);
+            }
+        }
+        conduit.terminateWrites();
+        if (!conduit.flush()) {
+            throw new IllegalStateException();
+        }
+        return target.written;
+    }
+
+    /**
+     * Stands in for the connection, everything written to it is counted and then dropped
+     */
+    private static final class DiscardingConduit implements StreamSinkConduit {
+
+        private long written;
+
+        @Override
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+        }
+
+        @Override
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int length = src.remaining();
+            src.position(src.limit());
+            written += length;
+            return length;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            return Conduits.writeFinalBasic(this, src);
+        }
+
+        @Override
+        public long writeFinal(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return Conduits.writeFinalBasic(this, srcs, offset, length);
+        }
+
+        @Override
+        public void terminateWrites() throws IOException {
+        }
+
+        @Override
+        public boolean isWriteShutdown() {
+            return false;
+        }
+
+        @Override
+        public void resumeWrites() {
+        }
+
+        @Override
+        public void suspendWrites() {
+        }
+
+        @Override
+        public void wakeupWrites() {
+        }
+
+        @Override
+        public boolean isWriteResumed() {
+            return false;
+        }
+
+        @Override
+        public void awaitWritable() throws IOException {
+        }
+
+        @Override
+        public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        }
+
+        @Override
+        public XnioIoThread getWriteThread() {
+            return null;
+        }
+
+        @Override
+        public void setWriteReadyHandler(final WriteReadyHandler handler) {
+        }
+
+        @Override
+        public void truncateWrites() throws IOException {
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            return true;
+        }
+
+        @Override
+        public XnioWorker getWorker() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.protocol.ajp.AjpHeaderNameMatcher;
+import io.undertow.util.CookieNameMatcher;
+import io.undertow.util.HttpString;
+import io.undertow.util.QueryParameterNameMatcher;
+import io.undertow.util.TokenMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the way names used to be extracted, by copying them out of the value they were parsed from, against the
+ * generated token matchers.
+ * <p/>
+ * Each invocation extracts every name from a typical cookie header, query string or set of AJP header names. Most of
+ * the names are known to the matcher and a few are not, as they would be for a real application. Run with
+ * <code>-prof gc</code> to see the difference in allocation rate.
+ *
+ * @author Stuart Douglas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TokenMatcherBenchmark {
+
+    private static final String COOKIES = "$Version=1; JSESSIONID=7ZxTC4dAzgwPn3yqLoNr5Fbm.node1; $Path=/app; JSESSIONIDSSO=a8f3b2c1; theme=dark";
+
+    private static final String QUERY_STRING = "q=undertow&page=2&size=20&sort=name&order=asc&utm_source=newsletter";
+
+    private static final String[] AJP_HEADER_NAMES = {"Cache-Control", "If-Modified-Since", "If-None-Match", "Origin", "X-Forwarded-For", "X-Forwarded-Proto", "X-Correlation-Id"};
+
+    @Param({"cookie", "query", "ajp"})
+    public String table;
+
+    /**
+     * The names in the value, as [start, end) pairs
+     */
+    private int[] ranges;
+    private String value;
+    private StringBuilder[] headerNames;
+    private TokenMatcher matcher;
+
+    @Setup
+    public void setup() {
+        if (table.equals("ajp")) {
+            headerNames = new StringBuilder[AJP_HEADER_NAMES.length];
+            for (int i = 0; i < AJP_HEADER_NAMES.length; ++i) {
+                headerNames[i] = new StringBuilder(AJP_HEADER_NAMES[i]);
+            }
+            return;
+        }
+        final char separator;
+        if (table.equals("cookie")) {
+            value = COOKIES;
+            matcher = CookieNameMatcher.INSTANCE;
+            separator = ';';
+        } else {
+            value = QUERY_STRING;
+            matcher = QueryParameterNameMatcher.INSTANCE;
+            separator = '&';
+        }
+        final String[] parts = value.split(String.valueOf(separator));
+        ranges = new int[parts.length * 2];
+        int pos = 0;
+        for (int i = 0; i < parts.length; ++i) {
+            int start = pos;
+            while (value.charAt(start) == ' ') {
+                ++start;
+            }
+            ranges[i * 2] = start;
+            ranges[i * 2 + 1] = value.indexOf('=', start);
+            pos += parts[i].length() + 1;
+        }
+    }
+
+    /**
+     * The old path: every name is copied into a new string, AJP header names are then converted to a new
+     * {@link HttpString}
+     */
+    @Benchmark
+    public int copy() {
+        int result = 0;
+        if (headerNames != null) {
+            for (StringBuilder name : headerNames) {
+                result += HttpString.tryFromString(name.toString()).hashCode();
+            }
+            return result;
+        }
+        final int[] ranges = this.ranges;
+        for (int i = 0; i < ranges.length; i += 2) {
+            result += value.substring(ranges[i], ranges[i + 1]).hashCode();
+        }
+        return result;
+    }
+
+    /**
+     * The new path: known names are matched in place and the interned token or header constant is returned
+     */
+    @Benchmark
+    public int matched() {
+        int result = 0;
+        if (headerNames != null) {
+            for (StringBuilder name : headerNames) {
+                HttpString header = AjpHeaderNameMatcher.INSTANCE.matchHeader(name);
+                if (header == null) {
+                    header = HttpString.tryFromString(name.toString());
+                }
+                result += header.hashCode();
+            }
+            return result;
+        }
+        final int[] ranges = this.ranges;
+        for (int i = 0; i < ranges.length; i += 2) {
+            result += matcher.substring(value, ranges[i], ranges[i + 1]).hashCode();
+        }
+        return result;
+    }
+}
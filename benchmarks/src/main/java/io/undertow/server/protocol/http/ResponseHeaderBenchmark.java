@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.protocol.http;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.DateUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import io.undertow.util.StatusCodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the way {@link HttpResponseConduit} used to write the response head, a character at a time, against the
+ * current fast path that copies the status line and constant header lines as bytes.
+ * <p/>
+ * This benchmark lives in the same package as the conduit so it can use {@link HttpResponseHeaderCache} directly.
+ * Each invocation writes one typical JSON response head into a buffer that stands in for the pooled connection buffer.
+ *
+ * @author Stuart Douglas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseHeaderBenchmark {
+
+    private static final HttpString APPLICATION_JSON = new HttpString("application/json");
+
+    /**
+     * If the constant values are put into the map as {@link HttpString}s, or as plain strings that can only be found
+     * through the header line cache
+     */
+    @Param({"true", "false"})
+    public boolean preEncoded;
+
+    private HeaderMap headers;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        headers = new HeaderMap();
+        final HttpString date = new HttpString(DateUtils.toDateString(new Date()));
+        if (preEncoded) {
+            headers.put(Headers.CONTENT_TYPE, APPLICATION_JSON);
+            headers.put(Headers.DATE, date);
+            headers.put(Headers.CONNECTION, Headers.KEEP_ALIVE);
+        } else {
+            headers.put(Headers.CONTENT_TYPE, APPLICATION_JSON.toString());
+            headers.put(Headers.DATE, date.toString());
+            headers.put(Headers.CONNECTION, Headers.KEEP_ALIVE.toString());
+        }
+        headers.put(Headers.CONTENT_LENGTH, "1234");
+        headers.put(Headers.SERVER, "undertow");
+        buffer = ByteBuffer.allocateDirect(16 * 1024);
+    }
+
+    /**
+     * The old path: every part of the head is written out a character at a time
+     */
+    @Benchmark
+    public int perCharacter() {
+        final ByteBuffer buffer = this.buffer;
+        buffer.clear();
+        Protocols.HTTP_1_1.appendTo(buffer);
+        buffer.put((byte) ' ');
+        final int code = StatusCodes.OK;
+        buffer.put((byte) (code / 100 + '0'));
+        buffer.put((byte) (code / 10 % 10 + '0'));
+        buffer.put((byte) (code % 10 + '0'));
+        buffer.put((byte) ' ');
+        writeString(buffer, StatusCodes.getReason(code));
+        buffer.put((byte) '\r').put((byte) '\n');
+        long fiCookie = headers.fastIterateNonEmpty();
+        while (fiCookie != -1) {
+            final HeaderValues values = headers.fiCurrent(fiCookie);
+            final HttpString name = values.getHeaderName();
+            for (int i = 0; i < values.size(); ++i) {
+                name.appendTo(buffer);
+                buffer.put((byte) ':').put((byte) ' ');
+                writeString(buffer, values.get(i));
+                buffer.put((byte) '\r').put((byte) '\n');
+            }
+            fiCookie = headers.fiNextNonEmpty(fiCookie);
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+        return buffer.position();
+    }
+
+    /**
+     * The new path: cached status line, then pre-encoded values or cached header lines where they are available
+     */
+    @Benchmark
+    public int cached() {
+        final ByteBuffer buffer = this.buffer;
+        buffer.clear();
+        final HttpResponseHeaderCache cache = HttpResponseHeaderCache.get();
+        buffer.put(cache.getStatusLine(Protocols.HTTP_1_1, StatusCodes.OK));
+        long fiCookie = headers.fastIterateNonEmpty();
+        while (fiCookie != -1) {
+            final HeaderValues values = headers.fiCurrent(fiCookie);
+            final HttpString name = values.getHeaderName();
+            for (int i = 0; i < values.size(); ++i) {
+                final HttpString encodedValue = values.getEncodedValue(i);
+                if (encodedValue != null) {
+                    name.appendTo(buffer);
+                    buffer.put((byte) ':').put((byte) ' ');
+                    encodedValue.appendTo(buffer);
+                    buffer.put((byte) '\r').put((byte) '\n');
+                    continue;
+                }
+                final String value = values.get(i);
+                final byte[] line = cache.getHeaderLine(name, value);
+                if (line != null) {
+                    buffer.put(line);
+                } else {
+                    name.appendTo(buffer);
+                    buffer.put((byte) ':').put((byte) ' ');
+                    writeString(buffer, value);
+                    buffer.put((byte) '\r').put((byte) '\n');
+                }
+            }
+            fiCookie = headers.fiNextNonEmpty(fiCookie);
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+        return buffer.position();
+    }
+
+    private static void writeString(final ByteBuffer buffer, final String string) {
+        final int length = string.length();
+        for (int i = 0; i < length; ++i) {
+            buffer.put((byte) string.charAt(i));
+        }
+    }
+}
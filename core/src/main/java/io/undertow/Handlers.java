@@ -19,6 +19,7 @@ import io.undertow.server.handlers.PathTemplateHandler;
 import io.undertow.server.handlers.PredicateContextHandler;
 import io.undertow.server.handlers.PredicateHandler;
 import io.undertow.server.handlers.ProxyPeerAddressHandler;
+import io.undertow.server.handlers.RateLimitingHandler;
 import io.undertow.server.handlers.RedirectHandler;
 import io.undertow.server.handlers.RequestLimit;
 import io.undertow.server.handlers.RequestLimitingHandler;
@@ -391,6 +392,19 @@ public class Handlers {
         return new RequestLimitingHandler(requestLimit, next);
     }
 
+    /**
+     * Returns a handler that limits the rate of requests from each client.
+     *
+     * @param key   The attribute that identifies the client, for example {@link io.undertow.attribute.RemoteIPAttribute#INSTANCE}
+     * @param rate  The number of requests per second each client can make
+     * @param burst The number of requests each client can make in a burst
+     * @param next  The next handler
+     * @return      The handler
+     */
+    public static RateLimitingHandler rateLimitingHandler(final ExchangeAttribute key, final double rate, final int burst, HttpHandler next) {
+        return new RateLimitingHandler(next, key, rate, burst);
+    }
+
     private Handlers() {
 
     }
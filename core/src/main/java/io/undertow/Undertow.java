@@ -12,6 +12,7 @@ import io.undertow.security.api.GSSAPIServerSubjectFactory;
 import io.undertow.security.idm.IdentityManager;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.protocol.http.HttpOpenListener;
+import io.undertow.server.protocol.http2.Http2UpgradeHandler;
 import org.xnio.BufferAllocator;
 import org.xnio.ByteBufferSlicePool;
 import org.xnio.ChannelListener;
@@ -120,6 +121,13 @@ public class Undertow {
                     AcceptingChannel<? extends StreamConnection> server = worker.createStreamConnectionServer(new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), acceptListener, socketOptions);
                     server.resumeAccepts();
                     channels.add(server);
+                } else if (listener.type == ListenerType.HTTP2) {
+                    HttpOpenListener openListener = new HttpOpenListener(buffers, OptionMap.builder().set(UndertowOptions.BUFFER_PIPELINED_DATA, true).addAll(serverOptions).set(UndertowOptions.ENABLE_HTTP2, true).getMap(), bufferSize);
+                    openListener.setRootHandler(new Http2UpgradeHandler(rootHandler));
+                    ChannelListener<AcceptingChannel<StreamConnection>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
+                    AcceptingChannel<? extends StreamConnection> server = worker.createStreamConnectionServer(new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), acceptListener, socketOptions);
+                    server.resumeAccepts();
+                    channels.add(server);
                 } else if (listener.type == ListenerType.HTTPS){
                     HttpOpenListener openListener = new HttpOpenListener(buffers, OptionMap.builder().set(UndertowOptions.BUFFER_PIPELINED_DATA, true).addAll(serverOptions).getMap(), bufferSize);
                     openListener.setRootHandler(rootHandler);
@@ -157,7 +165,8 @@ public class Undertow {
     public static enum ListenerType {
         HTTP,
         HTTPS,
-        AJP
+        AJP,
+        HTTP2
     }
 
     private static class ListenerConfig {
@@ -317,6 +326,11 @@ public class Undertow {
             return this;
         }
 
+        public Builder addHttp2Listener(int port, String host) {
+            listeners.add(new ListenerConfig(ListenerType.HTTP2, port, host, null, null));
+            return this;
+        }
+
         @Deprecated
         public Builder addListener(int port, String host, ListenerType listenerType) {
             listeners.add(new ListenerConfig(listenerType, port, host, null, null));
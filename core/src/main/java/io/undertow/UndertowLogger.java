@@ -138,4 +138,12 @@ public interface UndertowLogger extends BasicLogger {
     @LogMessage(level = Logger.Level.ERROR)
     @Message(id = 5024, value = "Could not register resource change listener for caching resource manager, automatic invalidation of cached resource will not work")
     void couldNotRegisterChangeListener(@Cause Exception e);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5025, value = "Failed to pre-compress %s with encoding %s")
+    void failedToPrecompressResource(@Cause Exception e, String path, String encoding);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5026, value = "Failed to expire sessions")
+    void failedToExpireSessions(@Cause Throwable t);
 }
@@ -275,4 +275,19 @@ public interface UndertowMessages {
 
     @Message(id = 83, value = "Host %s has not been registered")
     RuntimeException hostHasNotBeenRegistered(Object host);
+
+    @Message(id = 84, value = "Host weight must be at least 1, was %s")
+    IllegalArgumentException invalidHostWeight(int weight);
+
+    @Message(id = 85, value = "Invalid compression levels %s to %s, levels must be between 1 and 9 and the minimum must not exceed the maximum")
+    IllegalArgumentException invalidCompressionLevels(int minimumLevel, int maximumLevel);
+
+    @Message(id = 86, value = "Incorrect HTTP/2 connection preface")
+    IOException incorrectHttp2Preface();
+
+    @Message(id = 87, value = "HTTP/2 connection error %s")
+    IOException http2ConnectionError(int errorCode);
+
+    @Message(id = 88, value = "Out of band responses are not supported by this connector")
+    IllegalStateException outOfBandResponseNotSupported();
 }
@@ -152,6 +152,45 @@ public class UndertowOptions {
      */
     public static final Option<Boolean> ALLOW_EQUALS_IN_COOKIE_VALUE = Option.simple(UndertowOptions.class, "ALLOW_EQUALS_IN_COOKIE_VALUE", Boolean.class);
 
+    /**
+     * If this is true then HTTP/2 connections will be accepted on a HTTP listener, either by a client that starts
+     * with the HTTP/2 connection preface, or through an <code>Upgrade: h2c</code> request.
+     * <p/>
+     * default is false
+     */
+    public static final Option<Boolean> ENABLE_HTTP2 = Option.simple(UndertowOptions.class, "ENABLE_HTTP2", Boolean.class);
+
+    /**
+     * The maximum number of concurrent streams a HTTP/2 client may open. Streams over this limit are refused.
+     * <p/>
+     * default is 100
+     */
+    public static final Option<Integer> HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS = Option.simple(UndertowOptions.class, "HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS", Integer.class);
+
+    /**
+     * The HTTP/2 flow control window of each request stream, in bytes. This is the amount of request data a client can
+     * send before the application has read it.
+     * <p/>
+     * default is 65535
+     */
+    public static final Option<Integer> HTTP2_SETTINGS_INITIAL_WINDOW_SIZE = Option.simple(UndertowOptions.class, "HTTP2_SETTINGS_INITIAL_WINDOW_SIZE", Integer.class);
+
+    /**
+     * The size of the HPACK dynamic table used to decode HTTP/2 request headers, in bytes.
+     * <p/>
+     * default is 4096
+     */
+    public static final Option<Integer> HTTP2_SETTINGS_HEADER_TABLE_SIZE = Option.simple(UndertowOptions.class, "HTTP2_SETTINGS_HEADER_TABLE_SIZE", Integer.class);
+
+    /**
+     * If this is true then the values of HTTP/1.x request headers are kept as bytes when the request is parsed, and are
+     * only converted to strings when they are first read. This saves work for headers that are never looked at by the
+     * application, however the values are no longer shared between requests on the same connection.
+     * <p/>
+     * default is false
+     */
+    public static final Option<Boolean> LAZY_HEADER_VALUES = Option.simple(UndertowOptions.class, "LAZY_HEADER_VALUES", Boolean.class);
+
     private UndertowOptions() {
 
     }
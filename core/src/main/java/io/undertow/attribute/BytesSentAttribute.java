@@ -19,6 +19,10 @@ public class BytesSentAttribute implements ExchangeAttribute {
         this.attribute = attribute;
     }
 
+    String getAttribute() {
+        return attribute;
+    }
+
     @Override
     public String readAttribute(final HttpServerExchange exchange) {
         if (attribute.equals(BYTES_SENT_SHORT_LOWER))  {
@@ -0,0 +1,283 @@
+package io.undertow.attribute;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.DateUtils;
+import io.undertow.util.HttpString;
+
+/**
+ * An exchange attribute that has been compiled into a single writer that appends to a {@link StringBuilder}.
+ * <p/>
+ * The common attributes are written directly into the builder rather than being converted to a string first,
+ * constant parts of the pattern are merged and stored as character arrays, and the date is formatted at most once
+ * a second. Attributes that are not known to the compiler are read using {@link ExchangeAttribute#readAttribute(HttpServerExchange)}
+ * as normal. The output is the same as the output of the attribute that was compiled.
+ * <p/>
+ * When combined with a per thread builder this means that formatting an exchange creates very little garbage.
+ *
+ * @author Stuart Douglas
+ */
+public class CompiledExchangeAttribute implements ExchangeAttribute {
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private static volatile CachedDate cachedDate = new CachedDate(-1, null);
+
+    private final ExchangeAttribute attribute;
+    private final Segment[] segments;
+
+    private CompiledExchangeAttribute(final ExchangeAttribute attribute, final Segment[] segments) {
+        this.attribute = attribute;
+        this.segments = segments;
+    }
+
+    /**
+     * Compiles an exchange attribute, which is normally the result of parsing a pattern.
+     *
+     * @param attribute The attribute to compile
+     * @return The compiled attribute
+     */
+    public static CompiledExchangeAttribute compile(final ExchangeAttribute attribute) {
+        if (attribute instanceof CompiledExchangeAttribute) {
+            return (CompiledExchangeAttribute) attribute;
+        }
+        final List<ExchangeAttribute> parts = new ArrayList<ExchangeAttribute>();
+        flatten(attribute, parts);
+        final List<Segment> segments = new ArrayList<Segment>();
+        StringBuilder constant = null;
+        for (ExchangeAttribute part : parts) {
+            if (part instanceof ConstantExchangeAttribute) {
+                //adjacent constants are merged into a single segment
+                if (constant == null) {
+                    constant = new StringBuilder();
+                }
+                constant.append(((ConstantExchangeAttribute) part).getValue());
+                continue;
+            }
+            if (constant != null) {
+                segments.add(new ConstantSegment(constant.toString()));
+                constant = null;
+            }
+            segments.add(createSegment(part));
+        }
+        if (constant != null) {
+            segments.add(new ConstantSegment(constant.toString()));
+        }
+        return new CompiledExchangeAttribute(attribute, segments.toArray(new Segment[segments.size()]));
+    }
+
+    private static void flatten(final ExchangeAttribute attribute, final List<ExchangeAttribute> parts) {
+        if (attribute instanceof CompositeExchangeAttribute) {
+            for (ExchangeAttribute part : ((CompositeExchangeAttribute) attribute).getAttributes()) {
+                flatten(part, parts);
+            }
+        } else {
+            parts.add(attribute);
+        }
+    }
+
+    private static Segment createSegment(final ExchangeAttribute attribute) {
+        if (attribute == DateTimeAttribute.INSTANCE) {
+            return DATE_TIME;
+        } else if (attribute == ResponseCodeAttribute.INSTANCE) {
+            return RESPONSE_CODE;
+        } else if (attribute == RequestLineAttribute.INSTANCE) {
+            return REQUEST_LINE;
+        } else if (attribute == RequestMethodAttribute.INSTANCE) {
+            return REQUEST_METHOD;
+        } else if (attribute == RequestProtocolAttribute.INSTANCE) {
+            return REQUEST_PROTOCOL;
+        } else if (attribute instanceof BytesSentAttribute) {
+            return new BytesSentSegment(((BytesSentAttribute) attribute).getAttribute().equals(BytesSentAttribute.BYTES_SENT_SHORT_LOWER));
+        } else if (attribute instanceof ResponseTimeAttribute) {
+            return new ResponseTimeSegment(((ResponseTimeAttribute) attribute).getTimeUnit());
+        } else if (attribute instanceof RequestHeaderAttribute) {
+            return new RequestHeaderSegment(((RequestHeaderAttribute) attribute).getRequestHeader());
+        }
+        return new AttributeSegment(attribute);
+    }
+
+    /**
+     * Appends the value of this attribute to the given builder.
+     *
+     * @param exchange The exchange
+     * @param builder  The builder to append to
+     */
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        for (int i = 0; i < segments.length; ++i) {
+            segments[i].append(exchange, builder);
+        }
+    }
+
+    /**
+     * Formats the attribute into a builder that belongs to the current thread. The builder is reused by the next
+     * call on the same thread, so the result must not be retained.
+     *
+     * @param exchange The exchange
+     * @return The builder containing the value of this attribute
+     */
+    public StringBuilder format(final HttpServerExchange exchange) {
+        final StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+        appendAttribute(exchange, builder);
+        return builder;
+    }
+
+    @Override
+    public String readAttribute(final HttpServerExchange exchange) {
+        return format(exchange).toString();
+    }
+
+    @Override
+    public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
+        attribute.writeAttribute(exchange, newValue);
+    }
+
+    private interface Segment {
+        void append(HttpServerExchange exchange, StringBuilder builder);
+    }
+
+    private static final class ConstantSegment implements Segment {
+        private final char[] value;
+
+        private ConstantSegment(final String value) {
+            this.value = value.toCharArray();
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            builder.append(value);
+        }
+    }
+
+    private static final class AttributeSegment implements Segment {
+        private final ExchangeAttribute attribute;
+
+        private AttributeSegment(final ExchangeAttribute attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            final String value = attribute.readAttribute(exchange);
+            if (value != null) {
+                builder.append(value);
+            }
+        }
+    }
+
+    private static final class CachedDate {
+        private final long second;
+        private final char[] value;
+
+        private CachedDate(final long second, final char[] value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+
+    private static final Segment DATE_TIME = new Segment() {
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            final long second = System.currentTimeMillis() / 1000;
+            CachedDate date = cachedDate;
+            if (date.second != second) {
+                //multiple threads may format the date at the same time, which is harmless
+                date = new CachedDate(second, DateUtils.toCommonLogFormat(new Date(second * 1000)).toCharArray());
+                cachedDate = date;
+            }
+            builder.append(date.value);
+        }
+    };
+
+    private static final Segment RESPONSE_CODE = new Segment() {
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            builder.append(exchange.getResponseCode());
+        }
+    };
+
+    private static final Segment REQUEST_LINE = new Segment() {
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            builder.append(exchange.getRequestMethod().toString())
+                    .append(' ')
+                    .append(exchange.getRequestURI())
+                    .append(' ')
+                    .append(exchange.getProtocol().toString());
+        }
+    };
+
+    private static final Segment REQUEST_METHOD = new Segment() {
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            builder.append(exchange.getRequestMethod().toString());
+        }
+    };
+
+    private static final Segment REQUEST_PROTOCOL = new Segment() {
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            builder.append(exchange.getProtocol().toString());
+        }
+    };
+
+    private static final class BytesSentSegment implements Segment {
+        private final boolean dashForZero;
+
+        private BytesSentSegment(final boolean dashForZero) {
+            this.dashForZero = dashForZero;
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            final long bytesSent = exchange.getResponseContentLength();
+            if (dashForZero && bytesSent == 0) {
+                builder.append('-');
+            } else {
+                builder.append(bytesSent);
+            }
+        }
+    }
+
+    private static final class ResponseTimeSegment implements Segment {
+        private final TimeUnit timeUnit;
+
+        private ResponseTimeSegment(final TimeUnit timeUnit) {
+            this.timeUnit = timeUnit;
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            final long requestStartTime = exchange.getRequestStartTime();
+            if (requestStartTime != -1) {
+                builder.append(timeUnit.convert(System.nanoTime() - requestStartTime, TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+
+    private static final class RequestHeaderSegment implements Segment {
+        private final HttpString header;
+
+        private RequestHeaderSegment(final HttpString header) {
+            this.header = header;
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final StringBuilder builder) {
+            final String value = exchange.getRequestHeaders().getFirst(header);
+            if (value != null) {
+                builder.append(value);
+            }
+        }
+    }
+}
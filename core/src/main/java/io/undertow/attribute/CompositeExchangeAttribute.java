@@ -17,6 +17,10 @@ public class CompositeExchangeAttribute implements ExchangeAttribute {
         this.attributes = copy;
     }
 
+    ExchangeAttribute[] getAttributes() {
+        return attributes;
+    }
+
     @Override
     public String readAttribute(HttpServerExchange exchange) {
         final StringBuilder sb = new StringBuilder();
@@ -15,6 +15,10 @@ public class ConstantExchangeAttribute implements ExchangeAttribute {
         this.value = value;
     }
 
+    String getValue() {
+        return value;
+    }
+
     @Override
     public String readAttribute(final HttpServerExchange exchange) {
         return value;
@@ -17,6 +17,10 @@ public class RequestHeaderAttribute implements ExchangeAttribute {
         this.requestHeader = requestHeader;
     }
 
+    HttpString getRequestHeader() {
+        return requestHeader;
+    }
+
     @Override
     public String readAttribute(final HttpServerExchange exchange) {
         return exchange.getRequestHeaders().getFirst(requestHeader);
@@ -21,6 +21,10 @@ public class ResponseTimeAttribute implements ExchangeAttribute {
         this.timeUnit = timeUnit;
     }
 
+    TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
     @Override
     public String readAttribute(HttpServerExchange exchange) {
         long requestStartTime = exchange.getRequestStartTime();
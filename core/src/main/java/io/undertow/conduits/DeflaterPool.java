@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.conduits;
+
+import java.util.zip.Deflater;
+
+/**
+ * A per thread pool of {@link Deflater} instances, and of the scratch arrays that are used to move data in and out
+ * of them.
+ * <p/>
+ * Creating a deflater allocates a significant amount of native memory for the zlib state, so rather than creating
+ * one per response they are reset and reused. Conduits normally run on the IO thread of their connection, so in
+ * practice this is a pool per IO thread, and no synchronization is required. A deflater that is released on a
+ * different thread to the one that allocated it is simply returned to the pool of the releasing thread.
+ * <p/>
+ * All deflaters in the pool use raw deflate (i.e. <code>nowrap</code> is <code>true</code>).
+ *
+ * @author Stuart Douglas
+ */
+public final class DeflaterPool {
+
+    /**
+     * The maximum number of idle deflaters kept per thread for each compression level. If the
+     * <code>io.undertow.deflater-pool-size</code> system property is set to zero nothing is pooled, and every
+     * response gets a new deflater.
+     */
+    private static final int MAX_POOLED = Math.max(0, Integer.getInteger("io.undertow.deflater-pool-size", 8));
+
+    private static final int SCRATCH_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<ThreadData> DATA = new ThreadLocal<ThreadData>() {
+        @Override
+        protected ThreadData initialValue() {
+            return new ThreadData();
+        }
+    };
+
+    private DeflaterPool() {
+    }
+
+    /**
+     * Gets a deflater for the given compression level. The deflater must be given back using
+     * {@link #free(Deflater, int)} with the same level.
+     *
+     * @param level The compression level, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @return A deflater that is ready for use
+     */
+    public static Deflater allocate(final int level) {
+        final ThreadData data = DATA.get();
+        final int index = level + 1;
+        final int count = data.counts[index];
+        if (count > 0) {
+            final Deflater deflater = data.deflaters[index][count - 1];
+            data.deflaters[index][count - 1] = null;
+            data.counts[index] = count - 1;
+            return deflater;
+        }
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Returns a deflater to the pool. If the pool is full the deflater is ended instead.
+     *
+     * @param deflater The deflater
+     * @param level    The compression level it was allocated with
+     */
+    public static void free(final Deflater deflater, final int level) {
+        deflater.reset();
+        final ThreadData data = DATA.get();
+        final int index = level + 1;
+        final int count = data.counts[index];
+        if (count < MAX_POOLED) {
+            data.deflaters[index][count] = deflater;
+            data.counts[index] = count + 1;
+        } else {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Takes a scratch array from the current thread. The array must be given back with {@link #returnScratch(byte[])}
+     * before the current operation completes. If the thread has no free arrays (e.g. because conduits are nested)
+     * a new array is allocated.
+     *
+     * @return A scratch array
+     */
+    static byte[] takeScratch() {
+        final ThreadData data = DATA.get();
+        if (data.scratchCount > 0) {
+            final byte[] scratch = data.scratch[--data.scratchCount];
+            data.scratch[data.scratchCount] = null;
+            return scratch;
+        }
+        return new byte[SCRATCH_SIZE];
+    }
+
+    static void returnScratch(final byte[] scratch) {
+        final ThreadData data = DATA.get();
+        if (data.scratchCount < data.scratch.length) {
+            data.scratch[data.scratchCount++] = scratch;
+        }
+    }
+
+    private static final class ThreadData {
+
+        /**
+         * indexed by compression level + 1, as levels range from -1 to 9
+         */
+        final Deflater[][] deflaters = new Deflater[11][MAX_POOLED];
+        final int[] counts = new int[11];
+        /**
+         * one array for input and one for output
+         */
+        final byte[][] scratch = new byte[2][];
+        int scratchCount;
+    }
+}
@@ -25,12 +25,20 @@ import static org.xnio.Bits.anyAreSet;
 
 /**
  * Channel that handles deflate compression
+ * <p/>
+ * Data is fed to the deflater directly from the backing array of heap buffers, and through a pooled scratch array
+ * for direct buffers, so writes do not allocate. The deflater itself comes from the {@link DeflaterPool}, and is
+ * returned to it once the response has been fully written.
  *
  * @author Stuart Douglas
  */
 public class DeflatingStreamSinkConduit implements StreamSinkConduit {
 
+    private static final byte[] EMPTY = new byte[0];
+
     protected final Deflater deflater;
+    private final int deflateLevel;
+    private boolean deflaterFreed;
     private final ConduitFactory<StreamSinkConduit> conduitFactory;
     private final HttpServerExchange exchange;
 
@@ -60,9 +68,10 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
         this(conduitFactory, exchange, Deflater.DEFLATED);
     }
 
-    protected DeflatingStreamSinkConduit(final ConduitFactory<StreamSinkConduit> conduitFactory, final HttpServerExchange exchange, int deflateLevel) {
+    public DeflatingStreamSinkConduit(final ConduitFactory<StreamSinkConduit> conduitFactory, final HttpServerExchange exchange, int deflateLevel) {
 
-        deflater = new Deflater(deflateLevel, true);
+        this.deflateLevel = deflateLevel;
+        this.deflater = DeflaterPool.allocate(deflateLevel);
         this.currentBuffer = exchange.getConnection().getBufferPool().allocate();
         this.exchange = exchange;
         this.conduitFactory = conduitFactory;
@@ -79,15 +88,57 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
         if (src.remaining() == 0) {
             return 0;
         }
-        byte[] data = new byte[src.remaining()];
-        src.get(data);
-        preDeflate(data);
-        deflater.setInput(data);
-        deflateData();
-        return data.length;
+        if (!deflater.needsInput()) {
+            //should not happen, as we never leave input in the deflater
+            return 0;
+        }
+        final byte[] scratch = src.hasArray() ? null : DeflaterPool.takeScratch();
+        int total = 0;
+        try {
+            do {
+                final byte[] data;
+                final int offset;
+                final int length;
+                if (scratch == null) {
+                    data = src.array();
+                    offset = src.arrayOffset() + src.position();
+                    length = src.remaining();
+                } else {
+                    data = scratch;
+                    offset = 0;
+                    length = Math.min(scratch.length, src.remaining());
+                    final int pos = src.position();
+                    src.get(scratch, 0, length);
+                    src.position(pos);
+                }
+                final long read = deflater.getBytesRead();
+                deflater.setInput(data, offset, length);
+                final boolean flushed = deflateData();
+                final int consumed = (int) (deflater.getBytesRead() - read);
+                //we never hold on to the input once this method returns, anything that has not been consumed
+                //is left in the source buffer for the next write
+                deflater.setInput(EMPTY, 0, 0);
+                if (consumed > 0) {
+                    preDeflate(data, offset, consumed);
+                    src.position(src.position() + consumed);
+                    total += consumed;
+                }
+                if (!flushed || consumed < length) {
+                    break;
+                }
+            } while (src.hasRemaining());
+        } finally {
+            if (scratch != null) {
+                DeflaterPool.returnScratch(scratch);
+            }
+        }
+        return total;
     }
 
-    protected void preDeflate(byte[] data) {
+    /**
+     * Called with the data that has been consumed by the deflater
+     */
+    protected void preDeflate(byte[] data, int offset, int length) {
 
     }
 
@@ -245,6 +296,9 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
 
     @Override
     public boolean flush() throws IOException {
+        if (anyAreSet(CLOSED, state)) {
+            return true;
+        }
         boolean nextCreated = false;
         try {
             if (anyAreSet(SHUTDOWN, state)) {
@@ -297,6 +351,7 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
                     if (performFlushIfRequired()) {
                         state |= NEXT_SHUTDOWN;
                         currentBuffer.free();
+                        freeDeflater();
                         next.terminateWrites();
                         return next.flush();
                     } else {
@@ -371,49 +426,59 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
         return conduitFactory.create();
     }
 
+    private void freeDeflater() {
+        if (!deflaterFreed) {
+            deflaterFreed = true;
+            DeflaterPool.free(deflater, deflateLevel);
+        }
+    }
+
     /**
      * Runs the current data through the deflater. As much as possible this will be buffered in the current output
-     * stream.
+     * stream. The deflater never produces more output than will fit in the buffer, so nothing is copied if the buffer
+     * is a heap buffer, and the output can never overflow the buffer.
      *
+     * @return false if the buffer could not be flushed, in which case the deflater may not have consumed all its input
      * @throws IOException
      */
-    private void deflateData() throws IOException {
+    private boolean deflateData() throws IOException {
         //we don't need to flush here, as this should have been called already by the time we get to
         //this point
         boolean nextCreated = false;
+        byte[] scratch = null;
         try {
-            Pooled<ByteBuffer> pooled = this.currentBuffer;
-            final ByteBuffer outputBuffer = pooled.getResource();
+            final ByteBuffer outputBuffer = currentBuffer.getResource();
 
             final boolean shutdown = anyAreSet(SHUTDOWN, state);
 
-            byte[] buffer = new byte[1024]; //TODO: we should pool this and make it configurable or something
             while (!deflater.needsInput() || (shutdown && !deflater.finished())) {
-                int count = deflater.deflate(buffer);
-                if (count != 0) {
-                    int remaining = outputBuffer.remaining();
-                    if (remaining > count) {
-                        outputBuffer.put(buffer, 0, count);
-                    } else {
-                        if (remaining == count) {
-                            outputBuffer.put(buffer, 0, count);
-                        } else {
-                            outputBuffer.put(buffer, 0, remaining);
-                            additionalBuffer = ByteBuffer.wrap(buffer, remaining, count - remaining);
-                        }
-                        outputBuffer.flip();
-                        this.state |= FLUSHING_BUFFER;
-                        if (next == null) {
-                            nextCreated = true;
-                            this.next = createNextChannel();
-                        }
-                        if (!performFlushIfRequired()) {
-                            return;
-                        }
+                if (outputBuffer.hasArray()) {
+                    int count = deflater.deflate(outputBuffer.array(), outputBuffer.arrayOffset() + outputBuffer.position(), outputBuffer.remaining());
+                    outputBuffer.position(outputBuffer.position() + count);
+                } else {
+                    if (scratch == null) {
+                        scratch = DeflaterPool.takeScratch();
+                    }
+                    int count = deflater.deflate(scratch, 0, Math.min(scratch.length, outputBuffer.remaining()));
+                    outputBuffer.put(scratch, 0, count);
+                }
+                if (!outputBuffer.hasRemaining()) {
+                    outputBuffer.flip();
+                    this.state |= FLUSHING_BUFFER;
+                    if (next == null) {
+                        nextCreated = true;
+                        this.next = createNextChannel();
+                    }
+                    if (!performFlushIfRequired()) {
+                        return false;
                     }
                 }
             }
+            return true;
         } finally {
+            if (scratch != null) {
+                DeflaterPool.returnScratch(scratch);
+            }
             if (nextCreated) {
                 if (anyAreSet(WRITES_RESUMED, state)) {
                     next.resumeWrites();
@@ -428,7 +493,12 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
         if (!anyAreSet(NEXT_SHUTDOWN, state)) {
             currentBuffer.free();
         }
+        freeDeflater();
         state |= CLOSED;
+        if (next == null) {
+            //nothing has been written yet
+            next = conduitFactory.create();
+        }
         next.truncateWrites();
     }
 }
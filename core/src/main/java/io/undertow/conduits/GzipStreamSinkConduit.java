@@ -17,34 +17,40 @@ public class GzipStreamSinkConduit extends DeflatingStreamSinkConduit {
      */
     private static final  int GZIP_MAGIC = 0x8b1f;
 
+    private static final byte[] HEADER = new byte[]{
+            (byte) GZIP_MAGIC,        // Magic number (short)
+            (byte) (GZIP_MAGIC >> 8),  // Magic number (short)
+            Deflater.DEFLATED,        // Compression method (CM)
+            0,                        // Flags (FLG)
+            0,                        // Modification time MTIME (int)
+            0,                        // Modification time MTIME (int)
+            0,                        // Modification time MTIME (int)
+            0,                        // Modification time MTIME (int)
+            0,                        // Extra flags (XFLG)
+            0                         // Operating system (OS)
+    };
+
     /**
      * CRC-32 of uncompressed data.
      */
     protected CRC32 crc = new CRC32();
 
     public GzipStreamSinkConduit(ConduitFactory<StreamSinkConduit> conduitFactory, HttpServerExchange exchange) {
-        super(conduitFactory, exchange, Deflater.DEFAULT_COMPRESSION);
+        this(conduitFactory, exchange, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public GzipStreamSinkConduit(ConduitFactory<StreamSinkConduit> conduitFactory, HttpServerExchange exchange, int deflateLevel) {
+        super(conduitFactory, exchange, deflateLevel);
         writeHeader();
     }
 
     private void writeHeader() {
-        currentBuffer.getResource().put(new byte[]{
-                (byte) GZIP_MAGIC,        // Magic number (short)
-                (byte) (GZIP_MAGIC >> 8),  // Magic number (short)
-                Deflater.DEFLATED,        // Compression method (CM)
-                0,                        // Flags (FLG)
-                0,                        // Modification time MTIME (int)
-                0,                        // Modification time MTIME (int)
-                0,                        // Modification time MTIME (int)
-                0,                        // Modification time MTIME (int)
-                0,                        // Extra flags (XFLG)
-                0                         // Operating system (OS)
-        });
+        currentBuffer.getResource().put(HEADER);
     }
 
     @Override
-    protected void preDeflate(byte[] data) {
-        crc.update(data);
+    protected void preDeflate(byte[] data, int offset, int length) {
+        crc.update(data, offset, length);
     }
 
     @Override
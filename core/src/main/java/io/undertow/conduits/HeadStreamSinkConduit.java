@@ -42,6 +42,7 @@ import static org.xnio.Bits.anyAreSet;
 public final class HeadStreamSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
 
     private final ConduitListener<? super HeadStreamSinkConduit> finishListener;
+    private final boolean shutdownDelegate;
 
     private int state;
 
@@ -56,8 +57,21 @@ public final class HeadStreamSinkConduit extends AbstractStreamSinkConduit<Strea
      * @param finishListener the listener to call when the channel is closed or the length is reached
      */
     public HeadStreamSinkConduit(final StreamSinkConduit next, final ConduitListener<? super HeadStreamSinkConduit> finishListener) {
+        this(next, finishListener, false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param next             the next channel
+     * @param finishListener   the listener to call when the channel is closed or the length is reached
+     * @param shutdownDelegate if the next channel should be shut down when this channel is, this is needed when the
+     *                         next channel is the response stream rather than the connection
+     */
+    public HeadStreamSinkConduit(final StreamSinkConduit next, final ConduitListener<? super HeadStreamSinkConduit> finishListener, final boolean shutdownDelegate) {
         super(next);
         this.finishListener = finishListener;
+        this.shutdownDelegate = shutdownDelegate;
     }
 
 
@@ -161,6 +175,9 @@ public final class HeadStreamSinkConduit extends AbstractStreamSinkConduit<Strea
         }
         newVal = oldVal | FLAG_CLOSE_REQUESTED;
         state = newVal;
+        if (shutdownDelegate) {
+            next.terminateWrites();
+        }
     }
 
     private void exitFlush(int oldVal, boolean flushed) {
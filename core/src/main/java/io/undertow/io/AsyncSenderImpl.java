@@ -27,6 +27,11 @@ public class AsyncSenderImpl implements Sender {
     private ByteBuffer[] buffer;
     private Pooled[] pooledBuffers = null;
     private FileChannel fileChannel;
+    /**
+     * The current position and end of a ranged file transfer, or -1 if the whole file is being transferred
+     */
+    private long filePosition = -1;
+    private long fileEnd = -1;
     private IoCallback callback;
     private boolean inCallback;
 
@@ -56,14 +61,15 @@ public class AsyncSenderImpl implements Sender {
         public boolean run(boolean complete) {
             try {
                 FileChannel source = fileChannel;
-                long pos = source.position();
-                long size = source.size();
+                final boolean ranged = fileEnd != -1;
+                long pos = ranged ? filePosition : source.position();
+                long size = ranged ? fileEnd : source.size();
 
                 StreamSinkChannel dest = channel;
                 if (dest == null) {
                     if (callback == IoCallback.END_EXCHANGE) {
                         if (exchange.getResponseContentLength() == -1) {
-                            exchange.setResponseContentLength(size);
+                            exchange.setResponseContentLength(size - pos);
                         }
                     }
                     channel = dest = exchange.getResponseChannel();
@@ -76,7 +82,11 @@ public class AsyncSenderImpl implements Sender {
                     long ret = dest.transferFrom(source, pos, size - pos);
                     pos += ret;
                     if (ret == 0) {
-                        source.position(pos);
+                        if (ranged) {
+                            filePosition = pos;
+                        } else {
+                            source.position(pos);
+                        }
                         dest.getWriteSetter().set(this);
                         dest.resumeWrites();
                         return false;
@@ -225,6 +235,33 @@ public class AsyncSenderImpl implements Sender {
 
         this.callback = callback;
         this.fileChannel = source;
+        this.filePosition = -1;
+        this.fileEnd = -1;
+        if (inCallback) {
+            return;
+        }
+
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(transferTask);
+            return;
+        }
+
+        transferTask.run();
+    }
+
+    @Override
+    public void transferFrom(FileChannel source, long position, long count, IoCallback callback) {
+        if (callback == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("callback");
+        }
+        if (this.fileChannel != null || this.buffer != null) {
+            throw UndertowMessages.MESSAGES.dataAlreadyQueued();
+        }
+
+        this.callback = callback;
+        this.fileChannel = source;
+        this.filePosition = position;
+        this.fileEnd = position + count;
         if (inCallback) {
             return;
         }
@@ -47,6 +47,8 @@ public class BlockingSenderImpl implements Sender {
     private boolean inCall;
     private ByteBuffer[] next;
     private FileChannel pendingFile;
+    private long pendingFilePosition = -1;
+    private long pendingFileCount = -1;
     private IoCallback queuedCallback;
 
     public BlockingSenderImpl(final HttpServerExchange exchange, final OutputStream outputStream) {
@@ -129,13 +131,23 @@ public class BlockingSenderImpl implements Sender {
     @Override
     public void transferFrom(FileChannel source, IoCallback callback) {
         if (inCall) {
-            queue(source, callback);
+            queue(source, -1, -1, callback);
             return;
         }
         performTransfer(source, callback);
         invokeOnComplete(callback);
     }
 
+    @Override
+    public void transferFrom(FileChannel source, long position, long count, IoCallback callback) {
+        if (inCall) {
+            queue(source, position, count, callback);
+            return;
+        }
+        performTransfer(source, position, count, callback);
+        invokeOnComplete(callback);
+    }
+
     private void performTransfer(FileChannel source, IoCallback callback) {
         if (outputStream instanceof BufferWritableOutputStream) {
             try {
@@ -168,6 +180,33 @@ public class BlockingSenderImpl implements Sender {
         }
     }
 
+    private void performTransfer(FileChannel source, long position, long count, IoCallback callback) {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            long pos = position;
+            long end = position + count;
+            while (end - pos > 0) {
+                if (end - pos < buffer.remaining()) {
+                    buffer.limit((int) (end - pos));
+                }
+                int ret = source.read(buffer, pos);
+                if (ret <= 0) {
+                    break;
+                }
+                pos += ret;
+                outputStream.write(buffer.array(), buffer.arrayOffset(), ret);
+                buffer.clear();
+            }
+
+            if (pos != end) {
+                throw new EOFException("Unexpected EOF reading file");
+            }
+
+        } catch (IOException e) {
+            callback.onException(exchange, this, e);
+        }
+    }
+
     @Override
     public void close(final IoCallback callback) {
         try {
@@ -235,6 +274,8 @@ public class BlockingSenderImpl implements Sender {
             ByteBuffer[] next = this.next;
             IoCallback queuedCallback = this.queuedCallback;
             FileChannel file = this.pendingFile;
+            long filePosition = this.pendingFilePosition;
+            long fileCount = this.pendingFileCount;
             this.next = null;
             this.queuedCallback = null;
             this.pendingFile = null;
@@ -244,7 +285,11 @@ public class BlockingSenderImpl implements Sender {
                     writeBuffer(buffer, queuedCallback);
                 }
             } else if (file != null) {
-                performTransfer(file, queuedCallback);
+                if (fileCount == -1) {
+                    performTransfer(file, queuedCallback);
+                } else {
+                    performTransfer(file, filePosition, fileCount, queuedCallback);
+                }
             }
             inCall = true;
             try {
@@ -264,12 +309,14 @@ public class BlockingSenderImpl implements Sender {
         queuedCallback = ioCallback;
     }
 
-    private void queue(final FileChannel source, final IoCallback ioCallback) {
+    private void queue(final FileChannel source, final long position, final long count, final IoCallback ioCallback) {
         //if data is sent from withing the callback we queue it, to prevent the stack growing indefinitely
         if (pendingFile != null) {
             throw UndertowMessages.MESSAGES.dataAlreadyQueued();
         }
         pendingFile = source;
+        pendingFilePosition = position;
+        pendingFileCount = count;
         queuedCallback = ioCallback;
     }
 
@@ -98,6 +98,16 @@ public interface Sender {
      */
     void transferFrom(final FileChannel channel, final IoCallback callback);
 
+    /**
+     * Transfers a region of the specified file. The position of the channel is not modified.
+     *
+     * @param channel the file channel to transfer
+     * @param position the position in the file to start the transfer from
+     * @param count the number of bytes to transfer
+     * @param callback The callback
+     */
+    void transferFrom(final FileChannel channel, final long position, final long count, final IoCallback callback);
+
     /**
      * Closes this sender asynchronously. The given callback is notified on completion
      *
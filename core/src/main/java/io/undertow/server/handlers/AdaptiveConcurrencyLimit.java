@@ -0,0 +1,272 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import io.undertow.util.StripedCounter;
+
+/**
+ * Adjusts the concurrency limit of a {@link RequestLimit} based on observed request latency.
+ * <p/>
+ * This uses a gradient algorithm, similar to delay based TCP congestion control. Request times are averaged over
+ * a short window, and compared to a long term average that approximates the latency of the server when it is not
+ * overloaded. While the short term latency stays within the tolerance of the long term latency the limit grows by
+ * roughly the square root of the current limit per window. Once it rises above that the limit is reduced in proportion to
+ * the increase in latency, down to half of the current limit per window. Changes are smoothed to avoid oscillation.
+ * <p/>
+ * The limit is not increased while less than half of it is in use, as the latency says nothing about whether more
+ * requests could be handled.
+ * <p/>
+ * Time spent waiting in the queue is also tracked. If the average queue time is above the maximum queue time, new
+ * requests that would have to be queued are rejected immediately, and queued requests that have waited longer than
+ * the maximum are rejected rather than run.
+ *
+ * @author Stuart Douglas
+ * @see RequestLimit#setAdaptiveLimit(AdaptiveConcurrencyLimit)
+ */
+public class AdaptiveConcurrencyLimit {
+
+    /**
+     * The weight of each window in the long term average
+     */
+    private static final double LONG_RTT_WEIGHT = 0.05;
+
+    /**
+     * The weight of each sample in the queue time average
+     */
+    private static final double QUEUE_TIME_WEIGHT = 0.1;
+
+    private final StripedCounter sampleCount = new StripedCounter();
+    private final StripedCounter sampleTotal = new StripedCounter();
+
+    @SuppressWarnings("unused")
+    private volatile long nextUpdate;
+    private static final AtomicLongFieldUpdater<AdaptiveConcurrencyLimit> nextUpdateUpdater = AtomicLongFieldUpdater.newUpdater(AdaptiveConcurrencyLimit.class, "nextUpdate");
+
+    /**
+     * Only modified by the thread that wins the update CAS
+     */
+    private volatile double limit;
+    private volatile double shortRtt;
+    private volatile double longRtt;
+    private volatile double queueTime;
+
+    private final int minimumLimit;
+    private final int maximumLimit;
+    private volatile long window = TimeUnit.MILLISECONDS.toNanos(100);
+    private volatile int minimumSamples = 10;
+    private volatile double tolerance = 1.5;
+    private volatile double smoothing = 0.2;
+    private volatile long maximumQueueTime = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * @param initialLimit The limit to start with
+     * @param minimumLimit The lowest the limit can go
+     * @param maximumLimit The highest the limit can go
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minimumLimit, int maximumLimit) {
+        if (minimumLimit < 1 || maximumLimit < minimumLimit) {
+            throw new IllegalArgumentException("Maximum concurrent requests must be at least 1");
+        }
+        this.minimumLimit = minimumLimit;
+        this.maximumLimit = maximumLimit;
+        this.limit = Math.max(minimumLimit, Math.min(maximumLimit, initialLimit));
+    }
+
+    /**
+     * Records the time taken by a request, excluding time spent in the queue.
+     *
+     * @param nanos The request time in nanoseconds
+     */
+    public void addSample(long nanos) {
+        sampleTotal.add(nanos);
+        sampleCount.increment();
+    }
+
+    /**
+     * Records the time a request spent waiting in the queue.
+     *
+     * @param nanos The queue time in nanoseconds
+     */
+    public void addQueueTime(long nanos) {
+        //races can lose a sample, which does not matter for an average
+        final double old = queueTime;
+        if (nanos != 0 || old != 0) {
+            queueTime = old + (nanos - old) * QUEUE_TIME_WEIGHT;
+        }
+    }
+
+    /**
+     * Recalculates the limit if the current window has ended.
+     *
+     * @param now      The current time, from {@link System#nanoTime()}
+     * @param inFlight The number of requests that are currently running
+     * @return The new limit, or -1 if the limit was not recalculated
+     */
+    public int update(final long now, final int inFlight) {
+        final long next = nextUpdate;
+        if (now - next < 0 || !nextUpdateUpdater.compareAndSet(this, next, now + window)) {
+            return -1;
+        }
+        final long count = sampleCount.sumThenReset();
+        final long total = sampleTotal.sumThenReset();
+        if (count < minimumSamples) {
+            //not enough data, carry the samples over to the next window
+            sampleCount.add(count);
+            sampleTotal.add(total);
+            return -1;
+        }
+        final double shortRtt = (double) total / count;
+        double longRtt = this.longRtt;
+        if (longRtt == 0) {
+            longRtt = shortRtt;
+        } else {
+            longRtt = longRtt + (shortRtt - longRtt) * LONG_RTT_WEIGHT;
+            if (longRtt > shortRtt * 2) {
+                //latency has dropped a lot, for example after a slow period, so converge faster
+                longRtt *= 0.95;
+            }
+        }
+        this.shortRtt = shortRtt;
+        this.longRtt = longRtt;
+
+        final double limit = this.limit;
+        final double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        if (gradient == 1.0 && inFlight < limit / 2) {
+            //application limited, so the latency does not tell us if we can handle more
+            return (int) limit;
+        }
+        final double target = limit * gradient + Math.sqrt(limit);
+        double newLimit = limit * (1 - smoothing) + target * smoothing;
+        newLimit = Math.max(minimumLimit, Math.min(maximumLimit, newLimit));
+        this.limit = newLimit;
+        return (int) newLimit;
+    }
+
+    /**
+     * @return <code>true</code> if requests are spending too long in the queue, and new requests should be rejected
+     * rather than queued
+     */
+    public boolean isOverloaded() {
+        return queueTime > maximumQueueTime;
+    }
+
+    /**
+     * @return The current limit
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The average request time in the last window, in nanoseconds
+     */
+    public long getShortRtt() {
+        return (long) shortRtt;
+    }
+
+    /**
+     * @return The long term average request time, in nanoseconds
+     */
+    public long getLongRtt() {
+        return (long) longRtt;
+    }
+
+    /**
+     * @return The average time requests spend in the queue, in nanoseconds
+     */
+    public long getQueueTime() {
+        return (long) queueTime;
+    }
+
+    public int getMinimumLimit() {
+        return minimumLimit;
+    }
+
+    public int getMaximumLimit() {
+        return maximumLimit;
+    }
+
+    public long getWindow(TimeUnit timeUnit) {
+        return timeUnit.convert(window, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the length of the window over which request times are averaged
+     */
+    public AdaptiveConcurrencyLimit setWindow(long window, TimeUnit timeUnit) {
+        this.window = timeUnit.toNanos(window);
+        return this;
+    }
+
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    /**
+     * Sets the minimum number of requests in a window. Windows with fewer requests are merged with the next window.
+     */
+    public AdaptiveConcurrencyLimit setMinimumSamples(int minimumSamples) {
+        this.minimumSamples = minimumSamples;
+        return this;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets how much higher than the long term average the short term latency can be before the limit is reduced
+     */
+    public AdaptiveConcurrencyLimit setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * Sets how much of the change calculated for a window is applied, from 0 to 1
+     */
+    public AdaptiveConcurrencyLimit setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+        return this;
+    }
+
+    public long getMaximumQueueTime(TimeUnit timeUnit) {
+        return timeUnit.convert(maximumQueueTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the longest a request should wait in the queue. Requests that wait longer are rejected with the failure
+     * handler of the request limit.
+     */
+    public AdaptiveConcurrencyLimit setMaximumQueueTime(long maximumQueueTime, TimeUnit timeUnit) {
+        this.maximumQueueTime = timeUnit.toNanos(maximumQueueTime);
+        return this;
+    }
+
+    boolean isQueueTimeExceeded(long nanos) {
+        return nanos > maximumQueueTime;
+    }
+}
@@ -1,17 +1,14 @@
 package io.undertow.server.handlers;
 
-import java.util.Date;
-
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.util.DateUtils;
+import io.undertow.util.DateHeaderCache;
 import io.undertow.util.Headers;
 
 /**
  * Class that adds the Date: header to a HTTP response.
  *
- * The current date string is cached, and is updated every second in a racey
- * manner (i.e. it is possible for two thread to update it at once).
+ * The current date string is taken from {@link DateHeaderCache}, which updates it once a second.
  *
  * @author Stuart Douglas
  */
@@ -19,8 +16,6 @@ import io.undertow.util.Headers;
 public class DateHandler implements HttpHandler {
 
     private final HttpHandler next;
-    private volatile String cachedDateString;
-    private volatile long nextUpdateTime = -1;
 
 
     public DateHandler(final HttpHandler next) {
@@ -29,16 +24,7 @@ public class DateHandler implements HttpHandler {
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        long time = System.nanoTime();
-        if(time < nextUpdateTime) {
-            exchange.getResponseHeaders().put(Headers.DATE, cachedDateString);
-        } else {
-            long realTime = System.currentTimeMillis();
-            String dateString = DateUtils.toDateString(new Date(realTime));
-            cachedDateString = dateString;
-            nextUpdateTime = time + 1000000000;
-            exchange.getResponseHeaders().put(Headers.DATE, dateString);
-        }
+        exchange.getResponseHeaders().put(Headers.DATE, DateHeaderCache.getDateValue(exchange.getIoThread()));
         next.handleRequest(exchange);
     }
 
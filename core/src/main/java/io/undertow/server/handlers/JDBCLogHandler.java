@@ -6,6 +6,10 @@ import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
+import io.undertow.util.LatencyHistogram;
+import io.undertow.util.StripedCounter;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
 
 import javax.sql.DataSource;
 import java.net.InetSocketAddress;
@@ -18,31 +22,101 @@ import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handler that logs requests to a database.
+ * <p/>
+ * Log records are queued and written in batches by a task running on the log write executor. A batch is written
+ * once {@link #setBatchSize(int) batch size} records are waiting, or once the {@link #setFlushInterval(long) flush interval}
+ * has passed since the first waiting record was queued. Batches are written using {@link PreparedStatement#executeBatch()},
+ * or optionally as a single multi row insert. The flush interval requires the log write executor to be an
+ * {@link XnioWorker}, otherwise records are written as soon as possible.
+ * <p/>
+ * The number of records waiting to be written is bounded by {@link #setMaxBacklog(int)}, so a slow database cannot
+ * cause the server to run out of memory. If the backlog fills up new records are dropped, or with the
+ * {@link BacklogPolicy#SAMPLE} policy only a sample of the records are kept once the backlog is half full.
+ * <p/>
+ * If a batch fails it is retried with exponential backoff. If it still fails after {@link #setMaxRetries(int)}
+ * attempts it is discarded.
+ */
 public class JDBCLogHandler implements HttpHandler, Runnable {
 
+    /**
+     * What to do when the database cannot keep up
+     */
+    public enum BacklogPolicy {
+        /**
+         * Records are dropped once the backlog is full
+         */
+        DROP,
+        /**
+         * Once the backlog is half full only one in every {@link #setSampleRate(int) sample rate} records is kept,
+         * and records are dropped once the backlog is full
+         */
+        SAMPLE
+    }
+
+    private static final int MAX_BATCHES_PER_RUN = 10;
+
     private final HttpHandler next;
     private final String formatString;
     private final ExchangeCompletionListener exchangeCompletionListener = new JDBCLogCompletionListener();
 
 
     private final Executor logWriteExecutor;
+    private final XnioIoThread timerThread;
 
     private final Deque<JDBCLogAttribute> pendingMessages;
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    private final StripedCounter droppedMessages = new StripedCounter();
+    private final AtomicLong writtenMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
 
     //0 = not running
     //1 = queued
     //2 = running
+    //3 = waiting for the flush interval or a retry
     @SuppressWarnings("unused")
     private volatile int state = 0;
 
     private static final AtomicIntegerFieldUpdater<JDBCLogHandler> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(JDBCLogHandler.class, "state");
 
+    private final Runnable timerTask = new Runnable() {
+        @Override
+        public void run() {
+            if (stateUpdater.compareAndSet(JDBCLogHandler.this, 3, 1)) {
+                logWriteExecutor.execute(JDBCLogHandler.this);
+            }
+        }
+    };
+
+    /**
+     * The batch that failed and is waiting to be retried. Only accessed by the writer.
+     */
+    private List<JDBCLogAttribute> retryBatch;
+    private int retryCount;
+
     protected boolean useLongContentLength = false;
 
     private final DataSource dataSource;
 
+    private volatile int maxBacklog = 10000;
+    private volatile BacklogPolicy backlogPolicy = BacklogPolicy.DROP;
+    private volatile int sampleRate = 10;
+    private volatile int batchSize = 100;
+    private volatile long flushInterval = 1000;
+    private volatile boolean multiRowInsert = false;
+    private volatile int maxRetries = 3;
+    private volatile long retryBackoff = 100;
+    private volatile long maxRetryBackoff = 10000;
+
     private String tableName;
     private String remoteHostField;
     private String userField;
@@ -72,6 +146,7 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
         refererField = "referer";
         userAgentField = "userAgent";
         this.logWriteExecutor = logWriteExecutor;
+        this.timerThread = logWriteExecutor instanceof XnioWorker ? ((XnioWorker) logWriteExecutor).getIoThread() : null;
         this.pendingMessages = new ConcurrentLinkedDeque<JDBCLogAttribute>();
     }
 
@@ -93,6 +168,10 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
     }
 
     public void logMessage(String pattern, HttpServerExchange exchange) {
+        if (!reserveBacklog()) {
+            droppedMessages.increment();
+            return;
+        }
         JDBCLogAttribute jdbcLogAttribute = new JDBCLogAttribute();
 
         if (pattern.equals("combined")) {
@@ -123,102 +202,205 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
         this.pendingMessages.add(jdbcLogAttribute);
         int state = stateUpdater.get(this);
         if (state == 0) {
-            if (stateUpdater.compareAndSet(this, 0, 1)) {
+            if (backlog.get() >= batchSize || flushInterval <= 0 || timerThread == null) {
+                if (stateUpdater.compareAndSet(this, 0, 1)) {
+                    logWriteExecutor.execute(this);
+                }
+            } else if (stateUpdater.compareAndSet(this, 0, 3)) {
+                timerThread.executeAfter(timerTask, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        } else if (state == 3 && retryBatch == null && backlog.get() >= batchSize) {
+            //a full batch is ready, so we don't wait for the flush interval
+            if (stateUpdater.compareAndSet(this, 3, 1)) {
                 logWriteExecutor.execute(this);
             }
         }
     }
 
     /**
-     * insert the log record to database
+     * Reserves a place in the backlog for a new record.
+     *
+     * @return <code>false</code> if the record should be dropped
+     */
+    private boolean reserveBacklog() {
+        final int max = maxBacklog;
+        if (backlogPolicy == BacklogPolicy.SAMPLE && backlog.get() >= max / 2) {
+            if (sampleCount.incrementAndGet() % sampleRate != 0) {
+                return false;
+            }
+        }
+        if (backlog.incrementAndGet() > max) {
+            backlog.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * insert the log records to database
      */
     @Override
     public void run() {
         if (!stateUpdater.compareAndSet(this, 1, 2)) {
             return;
         }
-
-        List<JDBCLogAttribute> messages = new ArrayList<JDBCLogAttribute>();
-        JDBCLogAttribute msg = null;
-
-        //only grab at most 1000 messages at a time
-        for (int i = 0; i < 1000; ++i) {
-            msg = pendingMessages.poll();
-            if (msg == null) {
-                break;
-            }
-            messages.add(msg);
-        }
+        long retryDelay = -1;
         try {
-            if (!messages.isEmpty()) {
-                writeMessage(messages);
-            }
+            retryDelay = writeMessages();
         } finally {
             stateUpdater.set(this, 0);
-            //check to see if there is still more messages
-            //if so then run this again
-            if (!pendingMessages.isEmpty()) {
-                if (stateUpdater.compareAndSet(this, 0, 1)) {
-                    logWriteExecutor.execute(this);
+            if (retryDelay > 0) {
+                if (stateUpdater.compareAndSet(this, 0, 3)) {
+                    timerThread.executeAfter(timerTask, retryDelay, TimeUnit.MILLISECONDS);
+                }
+            } else if (!pendingMessages.isEmpty()) {
+                //check to see if there is still more messages
+                //if so then run this again, or wait for the rest of the batch
+                if (backlog.get() >= batchSize || flushInterval <= 0 || timerThread == null) {
+                    if (stateUpdater.compareAndSet(this, 0, 1)) {
+                        logWriteExecutor.execute(this);
+                    }
+                } else if (stateUpdater.compareAndSet(this, 0, 3)) {
+                    timerThread.executeAfter(timerTask, flushInterval, TimeUnit.MILLISECONDS);
                 }
             }
         }
     }
 
-    private void writeMessage(List<JDBCLogAttribute> messages) {
-        PreparedStatement ps = null;
+    /**
+     * Writes up to {@link #MAX_BATCHES_PER_RUN} batches.
+     *
+     * @return The time to wait before retrying a failed batch, or -1 if nothing failed
+     */
+    private long writeMessages() {
+        final int batchSize = this.batchSize;
         Connection conn = null;
+        PreparedStatement ps = null;
+        PreparedStatement multiRow = null;
         try {
-            conn = dataSource.getConnection();
-            conn.setAutoCommit(true);
-            ps = prepareStatement(conn);
-            for (JDBCLogAttribute jdbcLogAttribute : messages) {
-                int numberOfTries = 2;
-                while (numberOfTries > 0) {
-                    try {
-                        ps.clearParameters();
-                        ps.setString(1, jdbcLogAttribute.remoteHost);
-                        ps.setString(2, jdbcLogAttribute.user);
-                        ps.setTimestamp(3, jdbcLogAttribute.timestamp);
-                        ps.setString(4, jdbcLogAttribute.query);
-                        ps.setInt(5, jdbcLogAttribute.status);
-                        if (useLongContentLength) {
-                            ps.setLong(6, jdbcLogAttribute.bytes);
-                        } else {
-                            if (jdbcLogAttribute.bytes > Integer.MAX_VALUE)
-                                jdbcLogAttribute.bytes = -1;
-                            ps.setInt(6, (int) jdbcLogAttribute.bytes);
-                        }
-                        ps.setString(7, jdbcLogAttribute.virtualHost);
-                        ps.setString(8, jdbcLogAttribute.method);
-                        ps.setString(9, jdbcLogAttribute.referer);
-                        ps.setString(10, jdbcLogAttribute.userAgent);
-
-                        ps.executeUpdate();
-                        numberOfTries = 0;
-                    } catch (SQLException e) {
-                        UndertowLogger.ROOT_LOGGER.error(e);
+            for (int i = 0; i < MAX_BATCHES_PER_RUN; ++i) {
+                List<JDBCLogAttribute> batch = retryBatch;
+                if (batch == null) {
+                    batch = new ArrayList<JDBCLogAttribute>(batchSize);
+                    JDBCLogAttribute msg;
+                    while (batch.size() < batchSize && (msg = pendingMessages.poll()) != null) {
+                        batch.add(msg);
+                    }
+                    if (batch.isEmpty()) {
+                        return -1;
                     }
-                    numberOfTries--;
                 }
-            }
-            ps.close();
-        } catch (SQLException e) {
-            UndertowLogger.ROOT_LOGGER.errorWritingJDBCLog(e);
-        } finally {
-            if (ps != null) {
+                final long start = System.nanoTime();
                 try {
-                    ps.close();
+                    if (conn == null) {
+                        conn = dataSource.getConnection();
+                        conn.setAutoCommit(true);
+                        ps = prepareStatement(conn, 1);
+                    }
+                    if (multiRowInsert && batch.size() == batchSize && batchSize > 1) {
+                        if (multiRow == null) {
+                            multiRow = prepareStatement(conn, batchSize);
+                        }
+                        multiRow.clearParameters();
+                        for (int j = 0; j < batch.size(); ++j) {
+                            setParameters(multiRow, j * 10, batch.get(j));
+                        }
+                        multiRow.executeUpdate();
+                    } else {
+                        for (JDBCLogAttribute jdbcLogAttribute : batch) {
+                            ps.clearParameters();
+                            setParameters(ps, 0, jdbcLogAttribute);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
                 } catch (SQLException e) {
-                    UndertowLogger.ROOT_LOGGER.debug("Exception closing prepared statement", e);
+                    UndertowLogger.ROOT_LOGGER.errorWritingJDBCLog(e);
+                    //the connection may be broken, so we get a new one for the retry
+                    closeQuietly(ps, multiRow, conn);
+                    conn = null;
+                    ps = null;
+                    multiRow = null;
+                    if (retryCount < maxRetries) {
+                        final long delay = Math.min(maxRetryBackoff, retryBackoff << retryCount);
+                        ++retryCount;
+                        retryBatch = batch;
+                        if (timerThread != null) {
+                            return Math.max(1, delay);
+                        }
+                        //no timer, so we just wait
+                        sleep(delay);
+                        --i;
+                        continue;
+                    }
+                    //give up on this batch
+                    failedMessages.addAndGet(batch.size());
+                    completed(batch);
+                    continue;
                 }
+                flushLatency.record(System.nanoTime() - start);
+                writtenMessages.addAndGet(batch.size());
+                completed(batch);
             }
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    UndertowLogger.ROOT_LOGGER.debug("Exception closing connection", e);
-                }
+            return -1;
+        } finally {
+            closeQuietly(ps, multiRow, conn);
+        }
+    }
+
+    private void completed(final List<JDBCLogAttribute> batch) {
+        retryBatch = null;
+        retryCount = 0;
+        backlog.addAndGet(-batch.size());
+    }
+
+    private static void sleep(final long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void setParameters(final PreparedStatement ps, final int offset, final JDBCLogAttribute jdbcLogAttribute) throws SQLException {
+        ps.setString(offset + 1, jdbcLogAttribute.remoteHost);
+        ps.setString(offset + 2, jdbcLogAttribute.user);
+        ps.setTimestamp(offset + 3, jdbcLogAttribute.timestamp);
+        ps.setString(offset + 4, jdbcLogAttribute.query);
+        ps.setInt(offset + 5, jdbcLogAttribute.status);
+        if (useLongContentLength) {
+            ps.setLong(offset + 6, jdbcLogAttribute.bytes);
+        } else {
+            if (jdbcLogAttribute.bytes > Integer.MAX_VALUE)
+                jdbcLogAttribute.bytes = -1;
+            ps.setInt(offset + 6, (int) jdbcLogAttribute.bytes);
+        }
+        ps.setString(offset + 7, jdbcLogAttribute.virtualHost);
+        ps.setString(offset + 8, jdbcLogAttribute.method);
+        ps.setString(offset + 9, jdbcLogAttribute.referer);
+        ps.setString(offset + 10, jdbcLogAttribute.userAgent);
+    }
+
+    private static void closeQuietly(final PreparedStatement ps, final PreparedStatement multiRow, final Connection conn) {
+        if (ps != null) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                UndertowLogger.ROOT_LOGGER.debug("Exception closing prepared statement", e);
+            }
+        }
+        if (multiRow != null) {
+            try {
+                multiRow.close();
+            } catch (SQLException e) {
+                UndertowLogger.ROOT_LOGGER.debug("Exception closing prepared statement", e);
+            }
+        }
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                UndertowLogger.ROOT_LOGGER.debug("Exception closing connection", e);
             }
         }
     }
@@ -230,7 +412,7 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
      * DO NOT USE THIS OUTSIDE OF A TEST
      */
     void awaitWrittenForTest() throws InterruptedException {
-        while (!pendingMessages.isEmpty()) {
+        while (backlog.get() != 0) {
             Thread.sleep(10);
         }
         while (state != 0) {
@@ -238,15 +420,145 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
         }
     }
 
-    private PreparedStatement prepareStatement(Connection conn) throws SQLException {
-        return conn.prepareStatement
-                ("INSERT INTO " + tableName + " ("
-                        + remoteHostField + ", " + userField + ", "
-                        + timestampField + ", " + queryField + ", "
-                        + statusField + ", " + bytesField + ", "
-                        + virtualHostField + ", " + methodField + ", "
-                        + refererField + ", " + userAgentField
-                        + ") VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+    private PreparedStatement prepareStatement(Connection conn, int rows) throws SQLException {
+        final StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " ("
+                + remoteHostField + ", " + userField + ", "
+                + timestampField + ", " + queryField + ", "
+                + statusField + ", " + bytesField + ", "
+                + virtualHostField + ", " + methodField + ", "
+                + refererField + ", " + userAgentField
+                + ") VALUES");
+        for (int i = 0; i < rows; ++i) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        return conn.prepareStatement(sql.toString());
+    }
+
+    /**
+     * @return The number of records waiting to be written
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * @return The number of records that were dropped because the backlog was full, or by sampling
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * @return The number of records that have been written
+     */
+    public long getWrittenMessages() {
+        return writtenMessages.get();
+    }
+
+    /**
+     * @return The number of records that were discarded because they could not be written after retrying
+     */
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    /**
+     * @return The time taken to write each successful batch, in nanoseconds
+     */
+    public LatencyHistogram.Snapshot getFlushLatency() {
+        return flushLatency.snapshot();
+    }
+
+    public int getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    public JDBCLogHandler setMaxBacklog(int maxBacklog) {
+        this.maxBacklog = maxBacklog;
+        return this;
+    }
+
+    public BacklogPolicy getBacklogPolicy() {
+        return backlogPolicy;
+    }
+
+    public JDBCLogHandler setBacklogPolicy(BacklogPolicy backlogPolicy) {
+        this.backlogPolicy = backlogPolicy;
+        return this;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate With the {@link BacklogPolicy#SAMPLE} policy, one in this many records is kept once the backlog is half full
+     */
+    public JDBCLogHandler setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public JDBCLogHandler setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * @param flushInterval The longest time in milliseconds a record waits for a batch to fill up. If this is not
+     *                      positive records are written as soon as possible.
+     */
+    public JDBCLogHandler setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+        return this;
+    }
+
+    public boolean isMultiRowInsert() {
+        return multiRowInsert;
+    }
+
+    /**
+     * @param multiRowInsert If full batches should be written with a single multi row <code>INSERT</code> statement,
+     *                       rather than a JDBC batch. Not all databases support this.
+     */
+    public JDBCLogHandler setMultiRowInsert(boolean multiRowInsert) {
+        this.multiRowInsert = multiRowInsert;
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public JDBCLogHandler setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * @param retryBackoff    The time in milliseconds to wait before the first retry. This doubles for every retry.
+     * @param maxRetryBackoff The longest time to wait before a retry
+     */
+    public JDBCLogHandler setRetryBackoff(long retryBackoff, long maxRetryBackoff) {
+        this.retryBackoff = retryBackoff;
+        this.maxRetryBackoff = maxRetryBackoff;
+        return this;
+    }
+
+    public long getMaxRetryBackoff() {
+        return maxRetryBackoff;
     }
 
     private class JDBCLogAttribute {
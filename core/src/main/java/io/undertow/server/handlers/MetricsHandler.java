@@ -4,13 +4,26 @@ import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.LatencyHistogram;
+import io.undertow.util.StripedCounter;
 
+import java.util.Collections;
 import java.util.Date;
-import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handler that records some metrics
+ * <p/>
+ * Request times are recorded in nanoseconds into a {@link LatencyHistogram}, so percentiles can be reported as
+ * well as the minimum, maximum and total. Responses are also counted by status code class.
+ * <p/>
+ * If {@link #setMaxPaths(int)} is set then metrics are also broken down by request path. To bound the memory used
+ * only the first <code>maxPaths</code> distinct paths are tracked, and all other requests are recorded under
+ * {@link #OTHER_PATHS}.
  *
  * @author Stuart Douglas
  */
@@ -23,7 +36,14 @@ public class MetricsHandler implements HttpHandler {
         }
     };
 
-    private volatile MetricResult totalResult = new MetricResult(new Date());
+    /**
+     * The key under which requests to paths that are not being tracked are recorded
+     */
+    public static final String OTHER_PATHS = "*";
+
+    private volatile Metrics totalResult = new Metrics(new Date());
+    private final ConcurrentMap<String, Metrics> pathResults = new ConcurrentHashMap<String, Metrics>();
+    private volatile int maxPaths = 0;
     private final HttpHandler next;
 
     public MetricsHandler(HttpHandler next) {
@@ -32,92 +52,248 @@ public class MetricsHandler implements HttpHandler {
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
-        final long start = System.currentTimeMillis();
+        final long start = System.nanoTime();
+        final Metrics total = this.totalResult;
+        final Metrics path = maxPaths > 0 ? pathMetrics(exchange.getRequestPath()) : null;
         exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
             @Override
             public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
-                long time = System.currentTimeMillis() - start;
-                totalResult.update((int)time);
+                final long time = System.nanoTime() - start;
+                final int responseCode = exchange.getResponseCode();
+                total.update(time, responseCode);
+                if (path != null) {
+                    path.update(time, responseCode);
+                }
                 nextListener.proceed();
             }
         });
         next.handleRequest(exchange);
     }
 
+    private Metrics pathMetrics(final String path) {
+        Metrics metrics = pathResults.get(path);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (pathResults.size() >= maxPaths) {
+            metrics = pathResults.get(OTHER_PATHS);
+            if (metrics != null) {
+                return metrics;
+            }
+            metrics = new Metrics(new Date());
+            final Metrics existing = pathResults.putIfAbsent(OTHER_PATHS, metrics);
+            return existing == null ? metrics : existing;
+        }
+        metrics = new Metrics(new Date());
+        final Metrics existing = pathResults.putIfAbsent(path, metrics);
+        return existing == null ? metrics : existing;
+    }
+
     public void reset() {
-        this.totalResult = new MetricResult(new Date());
+        this.totalResult = new Metrics(new Date());
+        pathResults.clear();
     }
 
     public MetricResult getMetrics() {
-        return new MetricResult(this.totalResult);
+        return totalResult.snapshot(false);
     }
 
-    public static class MetricResult {
+    /**
+     * Returns the metrics, and resets them. The metrics for each path are reset at the same time, so the totals and
+     * the path metrics always cover the same period. Requests that complete while the metrics are being reset are
+     * either included in the result or in the next result, they are never lost.
+     */
+    public MetricResult getMetricsThenReset() {
+        return getMetricsThenReset(null);
+    }
+
+    /**
+     * Returns the metrics, and resets them along with the metrics for each path.
+     *
+     * @param pathMetrics If not null the metrics for each path, as they were when they were reset, are added to this map
+     * @return The total metrics
+     */
+    public MetricResult getMetricsThenReset(final Map<String, MetricResult> pathMetrics) {
+        final MetricResult result = totalResult.snapshot(true);
+        for (Map.Entry<String, Metrics> entry : pathResults.entrySet()) {
+            final MetricResult pathResult = entry.getValue().snapshot(true);
+            if (pathMetrics != null) {
+                pathMetrics.put(entry.getKey(), pathResult);
+            }
+        }
+        return result;
+    }
 
-        private static final AtomicLongFieldUpdater<MetricResult> totalRequestTimeUpdater = AtomicLongFieldUpdater.newUpdater(MetricResult.class, "totalRequestTime");
-        private static final AtomicIntegerFieldUpdater<MetricResult> maxRequestTimeUpdater = AtomicIntegerFieldUpdater.newUpdater(MetricResult.class, "maxRequestTime");
-        private static final AtomicIntegerFieldUpdater<MetricResult> minRequestTimeUpdater = AtomicIntegerFieldUpdater.newUpdater(MetricResult.class, "minRequestTime");
-        private static final AtomicLongFieldUpdater<MetricResult> invocationsUpdater = AtomicLongFieldUpdater.newUpdater(MetricResult.class, "totalRequests");
+    /**
+     * @return The metrics for each path that is being tracked
+     */
+    public Map<String, MetricResult> getPathMetrics() {
+        final Map<String, MetricResult> result = new HashMap<String, MetricResult>();
+        for (Map.Entry<String, Metrics> entry : pathResults.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot(false));
+        }
+        return Collections.unmodifiableMap(result);
+    }
 
-        private final Date metricsStartDate;
+    public int getMaxPaths() {
+        return maxPaths;
+    }
+
+    /**
+     * @param maxPaths The maximum number of distinct request paths to record metrics for, or 0 to not break metrics
+     *                 down by path
+     */
+    public MetricsHandler setMaxPaths(final int maxPaths) {
+        this.maxPaths = maxPaths;
+        return this;
+    }
 
-        private volatile long totalRequestTime;
-        private volatile int maxRequestTime;
-        private volatile int minRequestTime = -1;
-        private volatile long totalRequests;
+    /**
+     * The live metrics, these are only ever updated, or reset to start a new period
+     */
+    private static final class Metrics {
 
-        public MetricResult(Date metricsStartDate) {
+        private volatile Date metricsStartDate;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final StripedCounter[] responseCodes = new StripedCounter[6];
+
+        private Metrics(final Date metricsStartDate) {
             this.metricsStartDate = metricsStartDate;
+            for (int i = 0; i < responseCodes.length; ++i) {
+                responseCodes[i] = new StripedCounter();
+            }
         }
 
-        public MetricResult(MetricResult copy) {
-            this.metricsStartDate = copy.metricsStartDate;
-            this.totalRequestTime = copy.totalRequestTime;
-            this.maxRequestTime = copy.maxRequestTime;
-            this.minRequestTime = copy.minRequestTime;
-            this.totalRequests = copy.totalRequests;
-        }
-
-        void update(final int requestTime) {
-            totalRequestTimeUpdater.addAndGet(this, requestTime);
-            int maxRequestTime;
-            do {
-                maxRequestTime = this.maxRequestTime;
-                if (requestTime < maxRequestTime) {
-                    break;
-                }
-            } while (!maxRequestTimeUpdater.compareAndSet(this, maxRequestTime, requestTime));
+        void update(final long requestTime, final int responseCode) {
+            histogram.record(requestTime);
+            final int statusClass = responseCode / 100;
+            responseCodes[statusClass > 0 && statusClass < responseCodes.length ? statusClass : 0].increment();
+        }
 
-            int minRequestTime;
-            do {
-                minRequestTime = this.minRequestTime;
-                if (requestTime > minRequestTime && minRequestTime != -1) {
-                    break;
-                }
-            } while (!minRequestTimeUpdater.compareAndSet(this, minRequestTime, requestTime));
-            invocationsUpdater.incrementAndGet(this);
+        MetricResult snapshot(final boolean reset) {
+            if (!reset) {
+                return snapshot(metricsStartDate, false);
+            }
+            synchronized (this) {
+                final Date start = metricsStartDate;
+                //the next period starts now, so its start date matches the counts that are reported for it
+                metricsStartDate = new Date();
+                return snapshot(start, true);
+            }
+        }
+
+        private MetricResult snapshot(final Date start, final boolean reset) {
+            final long[] codes = new long[responseCodes.length];
+            for (int i = 0; i < codes.length; ++i) {
+                codes[i] = reset ? responseCodes[i].sumThenReset() : responseCodes[i].sum();
+            }
+            return new MetricResult(start, reset ? histogram.snapshotThenReset() : histogram.snapshot(), codes);
+        }
+    }
+
+    /**
+     * A snapshot of the metrics.
+     * <p/>
+     * The millisecond based getters are kept for compatibility, the underlying times are recorded in nanoseconds.
+     */
+    public static class MetricResult {
+
+        private final Date metricsStartDate;
+        private final LatencyHistogram.Snapshot histogram;
+        private final long[] responseCodes;
+
+        public MetricResult(Date metricsStartDate) {
+            this(metricsStartDate, new LatencyHistogram().snapshot(), new long[6]);
+        }
 
+        public MetricResult(MetricResult copy) {
+            this(copy.metricsStartDate, copy.histogram, copy.responseCodes);
+        }
 
+        private MetricResult(final Date metricsStartDate, final LatencyHistogram.Snapshot histogram, final long[] responseCodes) {
+            this.metricsStartDate = metricsStartDate;
+            this.histogram = histogram;
+            this.responseCodes = responseCodes;
         }
 
         public Date getMetricsStartDate() {
             return metricsStartDate;
         }
 
+        /**
+         * @return The total request time in milliseconds
+         */
         public long getTotalRequestTime() {
-            return totalRequestTime;
+            return TimeUnit.NANOSECONDS.toMillis(histogram.getTotal());
         }
 
+        /**
+         * @return The maximum request time in milliseconds
+         */
         public int getMaxRequestTime() {
-            return maxRequestTime;
+            return (int) TimeUnit.NANOSECONDS.toMillis(histogram.getMax());
         }
 
+        /**
+         * @return The minimum request time in milliseconds, or -1 if no requests have been recorded
+         */
         public int getMinRequestTime() {
-            return minRequestTime;
+            return histogram.getCount() == 0 ? -1 : (int) TimeUnit.NANOSECONDS.toMillis(histogram.getMin());
         }
 
         public long getTotalRequests() {
-            return totalRequests;
+            return histogram.getCount();
+        }
+
+        public long getTotalRequestTimeNanos() {
+            return histogram.getTotal();
+        }
+
+        public long getMaxRequestTimeNanos() {
+            return histogram.getMax();
+        }
+
+        public long getMinRequestTimeNanos() {
+            return histogram.getMin();
+        }
+
+        public double getMeanRequestTimeNanos() {
+            return histogram.getMean();
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100
+         * @return The request time in nanoseconds at the given percentile
+         */
+        public long getRequestTimePercentileNanos(double percentile) {
+            return histogram.getValueAtPercentile(percentile);
+        }
+
+        public long getP50Nanos() {
+            return histogram.getValueAtPercentile(50);
+        }
+
+        public long getP90Nanos() {
+            return histogram.getValueAtPercentile(90);
+        }
+
+        public long getP99Nanos() {
+            return histogram.getValueAtPercentile(99);
+        }
+
+        public long getP999Nanos() {
+            return histogram.getValueAtPercentile(99.9);
+        }
+
+        /**
+         * @param statusClass The status code class, from 1 (1xx) to 5 (5xx)
+         * @return The number of responses with a status code in the given class
+         */
+        public long getResponseCount(int statusClass) {
+            if (statusClass < 1 || statusClass >= responseCodes.length) {
+                return 0;
+            }
+            return responseCodes[statusClass];
         }
     }
 }
@@ -0,0 +1,197 @@
+package io.undertow.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import io.undertow.attribute.ExchangeAttribute;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.LRUCache;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import io.undertow.util.StripedCounter;
+
+/**
+ * A handler that limits the rate of requests per client, using a token bucket for each key.
+ * <p/>
+ * The key is read from an exchange attribute, for example <code>%a</code> to limit each remote IP address, or
+ * <code>%{i,X-API-Key}</code> to limit each API key. Requests where the attribute is not present share a single bucket.
+ * Each bucket holds up to <code>burst</code> tokens and is refilled at <code>rate</code> tokens per second. A request
+ * that finds the bucket empty is rejected with a 429, and a <code>Retry-After</code> header giving the number of seconds
+ * until a token is available.
+ * <p/>
+ * The buckets are implemented using the generic cell rate algorithm, so a bucket is a single timestamp that is
+ * updated with a compare and set, and taking a token never blocks. The buckets are kept in a bounded LRU cache,
+ * so keys that have not been seen recently are evicted once there are more than <code>maxKeys</code> keys. A bucket
+ * that has not been used for <code>burst / rate</code> seconds is full, so evicting it does not change the result.
+ * <p/>
+ * Unless disabled with {@link #setAddHeaders(boolean)} every response carries <code>X-RateLimit-Limit</code>,
+ * <code>X-RateLimit-Remaining</code> and <code>X-RateLimit-Reset</code> headers, which give the size of the bucket,
+ * the number of tokens left and the number of seconds until the bucket is full.
+ *
+ * @author Stuart Douglas
+ */
+public class RateLimitingHandler implements HttpHandler {
+
+    public static final HttpString RATE_LIMIT_LIMIT = new HttpString("X-RateLimit-Limit");
+    public static final HttpString RATE_LIMIT_REMAINING = new HttpString("X-RateLimit-Remaining");
+    public static final HttpString RATE_LIMIT_RESET = new HttpString("X-RateLimit-Reset");
+
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    /**
+     * The key used for requests where the key attribute is not present
+     */
+    private static final String NO_KEY = "";
+
+    private final HttpHandler next;
+    private final ExchangeAttribute key;
+    private final int burst;
+    /**
+     * The time it takes to add one token to a bucket, in nanoseconds
+     */
+    private final long interval;
+    /**
+     * The time it takes to fill an empty bucket, in nanoseconds
+     */
+    private final long tolerance;
+    private final LRUCache<String, Bucket> buckets;
+
+    private final StripedCounter rejected = new StripedCounter();
+
+    private volatile HttpHandler failureHandler = new ResponseCodeHandler(StatusCodes.TOO_MANY_REQUESTS);
+    private volatile boolean addHeaders = true;
+
+    public RateLimitingHandler(final HttpHandler next, final ExchangeAttribute key, final double rate, final int burst) {
+        this(next, key, rate, burst, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param next    The next handler
+     * @param key     The attribute that identifies the client
+     * @param rate    The number of requests per second each client can make
+     * @param burst   The number of requests each client can make in a burst, before they are limited to the rate
+     * @param maxKeys The maximum number of clients to track
+     */
+    public RateLimitingHandler(final HttpHandler next, final ExchangeAttribute key, final double rate, final int burst, final int maxKeys) {
+        if (next == null) {
+            throw new IllegalArgumentException("next is null");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("key is null");
+        }
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be greater than 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        this.next = next;
+        this.key = key;
+        this.burst = burst;
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        this.tolerance = interval * burst;
+        this.buckets = new LRUCache<String, Bucket>(maxKeys, -1);
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        String value = key.readAttribute(exchange);
+        if (value == null) {
+            value = NO_KEY;
+        }
+        final long now = System.nanoTime();
+        Bucket bucket = buckets.get(value);
+        if (bucket == null) {
+            //if two requests create a bucket at the same time one of them may be lost, which gives one extra token
+            bucket = new Bucket(now);
+            buckets.add(value, bucket);
+        }
+        for (;;) {
+            final long tat = bucket.tat;
+            //a bucket that has not been used for a while is full, it does not accumulate any more tokens
+            final long newTat = (tat - now < 0 ? now : tat) + interval;
+            final long wait = newTat - now - tolerance;
+            if (wait > 0) {
+                rejected.increment();
+                if (addHeaders) {
+                    setHeaders(exchange, 0, tat - now);
+                }
+                exchange.getResponseHeaders().put(Headers.RETRY_AFTER, toSeconds(wait));
+                failureHandler.handleRequest(exchange);
+                return;
+            }
+            if (Bucket.tatUpdater.compareAndSet(bucket, tat, newTat)) {
+                if (addHeaders) {
+                    setHeaders(exchange, (tolerance - (newTat - now)) / interval, newTat - now);
+                }
+                break;
+            }
+        }
+        next.handleRequest(exchange);
+    }
+
+    private void setHeaders(final HttpServerExchange exchange, final long remaining, final long reset) {
+        final HeaderMap headers = exchange.getResponseHeaders();
+        headers.put(RATE_LIMIT_LIMIT, burst);
+        headers.put(RATE_LIMIT_REMAINING, remaining);
+        headers.put(RATE_LIMIT_RESET, toSeconds(reset));
+    }
+
+    private static long toSeconds(final long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        final long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        return (nanos + nanosPerSecond - 1) / nanosPerSecond;
+    }
+
+    /**
+     * @return The number of requests that have been rejected
+     */
+    public long getRejectedRequests() {
+        return rejected.sum();
+    }
+
+    public HttpHandler getFailureHandler() {
+        return failureHandler;
+    }
+
+    /**
+     * Sets the handler that is invoked for requests over the limit. Defaults to sending a 429.
+     */
+    public RateLimitingHandler setFailureHandler(final HttpHandler failureHandler) {
+        this.failureHandler = failureHandler;
+        return this;
+    }
+
+    public boolean isAddHeaders() {
+        return addHeaders;
+    }
+
+    /**
+     * Sets if the rate limit headers should be added to responses. The <code>Retry-After</code> header is always
+     * added to rejected responses.
+     */
+    public RateLimitingHandler setAddHeaders(final boolean addHeaders) {
+        this.addHeaders = addHeaders;
+        return this;
+    }
+
+    private static final class Bucket {
+
+        private static final AtomicLongFieldUpdater<Bucket> tatUpdater = AtomicLongFieldUpdater.newUpdater(Bucket.class, "tat");
+
+        /**
+         * The theoretical arrival time of the next request. The bucket is empty when this is <code>tolerance</code>
+         * ahead of the current time, and full when it is in the past.
+         */
+        private volatile long tat;
+
+        private Bucket(final long now) {
+            this.tat = now;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package io.undertow.server.handlers;
 
+import io.undertow.UndertowMessages;
+import io.undertow.predicate.Predicate;
 import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpHandler;
+import io.undertow.server.Connectors;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.SameThreadExecutor;
 
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+import org.xnio.XnioExecutor;
+
 import static org.xnio.Bits.longBitMask;
 
 /**
@@ -19,6 +26,18 @@ import static org.xnio.Bits.longBitMask;
  *
  * If the queue is full requests will be rejected with a 513.
  *
+ * Requests can be split into priority classes using predicates, each with its own queue. When a slot becomes free
+ * the next request is picked from the non empty queues using weighted round robin, so a class with weight 3 gets three
+ * times as many slots as a class with weight 1 while both have requests waiting. Requests that do not match any class
+ * go into the default class.
+ *
+ * If a maximum queue time is set, requests that have waited longer than this are rejected using the failure handler
+ * instead of being run, as the client has most likely given up on them. A timeout is scheduled on the IO thread of
+ * each queued request, so they are rejected on time even if none of the running requests complete.
+ *
+ * If an {@link AdaptiveConcurrencyLimit} is set the maximum is adjusted automatically based on the observed request
+ * latency, and requests are rejected rather than queued when they are spending too long in the queue.
+ *
  * The reason why this is abstracted out into a separate class is so that multiple handlers can share the same state. This
  * allows for fine grained control of resources.
  *
@@ -39,19 +58,31 @@ public class RequestLimit {
      */
     private volatile HttpHandler failureHandler = new ResponseCodeHandler(513);
 
-    private final Queue<SuspendedRequest> queue;
+    /**
+     * The priority classes, with the default class last. Only modified while holding the queue lock, and copied on
+     * write so requests can be classified without locking.
+     */
+    private volatile PriorityClass[] priorityClasses = {new PriorityClass(null, 1, -1)};
+
+    private final Object queueLock = new Object();
+    private final int queueSize;
+    private volatile int queued;
+
+    private volatile long maximumQueueTime = -1;
+
+    private volatile AdaptiveConcurrencyLimit adaptiveLimit;
+
+    /**
+     * The time the request started running, used to calculate the request time for the adaptive limit
+     */
+    private static final AttachmentKey<Long> START_TIME = AttachmentKey.create(Long.class);
 
     private final ExchangeCompletionListener COMPLETION_LISTENER = new ExchangeCompletionListener() {
 
         @Override
         public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
             try {
-                final SuspendedRequest task = queue.poll();
-                if (task != null) {
-                    task.exchange.dispatch(task.next);
-                } else {
-                    decrementRequests();
-                }
+                requestComplete(exchange);
             } finally {
                 nextListener.proceed();
             }
@@ -67,7 +98,7 @@ public class RequestLimit {
      * Construct a new instance. The maximum number of concurrent requests must be at least one.
      *
      * @param maximumConcurrentRequests the maximum concurrent requests
-     * @param queueSize                 The maximum number of requests to queue
+     * @param queueSize                 The maximum number of requests to queue, across all priority classes
      */
     public RequestLimit(int maximumConcurrentRequests, int queueSize) {
         if (maximumConcurrentRequests < 1) {
@@ -75,27 +106,226 @@ public class RequestLimit {
         }
         state = (maximumConcurrentRequests & 0xFFFFFFFFL) << 32;
 
-        this.queue = new LinkedBlockingQueue<SuspendedRequest>(queueSize <= 0 ? Integer.MAX_VALUE : queueSize);
+        this.queueSize = queueSize <= 0 ? Integer.MAX_VALUE : queueSize;
     }
 
-    public void handleRequest(final HttpServerExchange exchange, HttpHandler next) throws Exception {
-        exchange.addExchangeCompleteListener(COMPLETION_LISTENER);
+    public void handleRequest(final HttpServerExchange exchange, final HttpHandler next) throws Exception {
         long oldVal, newVal;
         do {
             oldVal = state;
             final long current = oldVal & MASK_CURRENT;
             final long max = (oldVal & MASK_MAX) >> 32L;
             if (current >= max) {
-                if(!queue.offer(new SuspendedRequest(exchange, next))) {
+                final AdaptiveConcurrencyLimit adaptiveLimit = this.adaptiveLimit;
+                if (adaptiveLimit != null && adaptiveLimit.isOverloaded()) {
+                    //requests are already waiting too long, so reject this one now rather than after it has timed out
                     failureHandler.handleRequest(exchange);
+                    return;
                 }
+                final SuspendedRequest request = new SuspendedRequest(exchange, next, classify(exchange));
+                //the request is only queued once the call stack has returned, otherwise it could be dispatched
+                //by another thread while it is still running in this one
+                exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!offer(request)) {
+                            Connectors.executeRootHandler(failureHandler, exchange);
+                        } else {
+                            scheduleTimeout(request);
+                            //the running requests may have completed before the request was queued
+                            drainQueue();
+                        }
+                    }
+                });
                 return;
             }
             newVal = oldVal + 1;
         } while (!stateUpdater.compareAndSet(this, oldVal, newVal));
+        exchange.addExchangeCompleteListener(COMPLETION_LISTENER);
+        final AdaptiveConcurrencyLimit adaptiveLimit = this.adaptiveLimit;
+        if (adaptiveLimit != null) {
+            exchange.putAttachment(START_TIME, System.nanoTime());
+            adaptiveLimit.addQueueTime(0);
+        }
         next.handleRequest(exchange);
     }
 
+    private PriorityClass classify(final HttpServerExchange exchange) {
+        final PriorityClass[] classes = this.priorityClasses;
+        final int last = classes.length - 1;
+        for (int i = 0; i < last; ++i) {
+            if (classes[i].predicate.resolve(exchange)) {
+                return classes[i];
+            }
+        }
+        return classes[last];
+    }
+
+    private void requestComplete(final HttpServerExchange exchange) {
+        final AdaptiveConcurrencyLimit adaptiveLimit = this.adaptiveLimit;
+        final long now = System.nanoTime();
+        if (adaptiveLimit != null) {
+            final Long start = exchange.getAttachment(START_TIME);
+            if (start != null) {
+                adaptiveLimit.addSample(now - start);
+            }
+        }
+        long oldVal;
+        int current, max;
+        do {
+            oldVal = state;
+            current = (int) (oldVal & MASK_CURRENT);
+            max = (int) ((oldVal & MASK_MAX) >> 32L);
+            if (current <= max) {
+                break;
+            }
+            //the limit has been reduced, so this slot is given up rather than passed to a queued request
+        } while (!stateUpdater.compareAndSet(this, oldVal, oldVal - 1));
+        if (current <= max) {
+            if (!dispatchQueued(now)) {
+                decrementRequests();
+            }
+        }
+        if (adaptiveLimit != null) {
+            final int newLimit = adaptiveLimit.update(now, current);
+            if (newLimit > 0 && newLimit != max) {
+                setMaximumConcurrentRequests(newLimit);
+            }
+        }
+    }
+
+    /**
+     * Runs the next queued request in the slot of a request that has completed.
+     *
+     * @return <code>true</code> if a request was run
+     */
+    private boolean dispatchQueued(final long now) {
+        SuspendedRequest task;
+        while ((task = poll()) != null) {
+            if (!expired(task, now)) {
+                start(task, now);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a request has been waiting too long, and if so rejects it using the failure handler
+     */
+    private boolean expired(final SuspendedRequest task, final long now) {
+        final long queueTime = now - task.queued;
+        final AdaptiveConcurrencyLimit adaptiveLimit = this.adaptiveLimit;
+        if (adaptiveLimit != null) {
+            adaptiveLimit.addQueueTime(queueTime);
+        }
+        final long max = task.priority.maximumQueueTime >= 0 ? task.priority.maximumQueueTime : maximumQueueTime;
+        if ((max >= 0 && queueTime > max) || (adaptiveLimit != null && adaptiveLimit.isQueueTimeExceeded(queueTime))) {
+            task.exchange.dispatch(failureHandler);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Schedules the rejection of a queued request once its maximum queue time has passed. Requests are still checked
+     * when they are taken from the queue, as the adaptive limit decides its queue time as it goes, and the maximum
+     * queue time may have been changed while the request was waiting.
+     */
+    private void scheduleTimeout(final SuspendedRequest request) {
+        final long max = request.priority.maximumQueueTime >= 0 ? request.priority.maximumQueueTime : maximumQueueTime;
+        if (max < 0) {
+            return;
+        }
+        request.timeoutKey = request.exchange.getIoThread().executeAfter(new Runnable() {
+            @Override
+            public void run() {
+                timedOut(request);
+            }
+        }, max, TimeUnit.NANOSECONDS);
+    }
+
+    private void timedOut(final SuspendedRequest request) {
+        if (!remove(request)) {
+            //it has already been taken from the queue
+            return;
+        }
+        final AdaptiveConcurrencyLimit adaptiveLimit = this.adaptiveLimit;
+        if (adaptiveLimit != null) {
+            adaptiveLimit.addQueueTime(System.nanoTime() - request.queued);
+        }
+        Connectors.executeRootHandler(failureHandler, request.exchange);
+    }
+
+    private void start(final SuspendedRequest task, final long now) {
+        if (adaptiveLimit != null) {
+            task.exchange.putAttachment(START_TIME, now);
+        }
+        task.exchange.addExchangeCompleteListener(COMPLETION_LISTENER);
+        task.exchange.dispatch(task.next);
+    }
+
+    private boolean offer(final SuspendedRequest request) {
+        synchronized (queueLock) {
+            if (queued >= queueSize) {
+                return false;
+            }
+            request.priority.queue.add(request);
+            ++queued;
+            return true;
+        }
+    }
+
+    /**
+     * Removes the next request to run, using smooth weighted round robin between the classes that have requests
+     * waiting.
+     */
+    private SuspendedRequest poll() {
+        final SuspendedRequest request;
+        synchronized (queueLock) {
+            if (queued == 0) {
+                return null;
+            }
+            PriorityClass selected = null;
+            int total = 0;
+            for (PriorityClass priority : priorityClasses) {
+                if (!priority.queue.isEmpty()) {
+                    priority.current += priority.weight;
+                    total += priority.weight;
+                    if (selected == null || priority.current > selected.current) {
+                        selected = priority;
+                    }
+                }
+            }
+            selected.current -= total;
+            --queued;
+            request = selected.queue.poll();
+        }
+        final XnioExecutor.Key timeoutKey = request.timeoutKey;
+        if (timeoutKey != null) {
+            timeoutKey.remove();
+        }
+        return request;
+    }
+
+    /**
+     * Removes a request from the queue. The request may have been moved to a replacement of its priority class, so
+     * every class is checked.
+     *
+     * @return <code>true</code> if the request was still queued
+     */
+    private boolean remove(final SuspendedRequest request) {
+        synchronized (queueLock) {
+            for (PriorityClass priority : priorityClasses) {
+                if (priority.queue.remove(request)) {
+                    --queued;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     /**
      * Get the maximum concurrent requests.
      *
@@ -120,25 +350,147 @@ public class RequestLimit {
             oldVal = state;
             current = (int) (oldVal & MASK_CURRENT);
             oldMax = (int) ((oldVal & MASK_MAX) >> 32L);
-            newVal = current | newMax & 0xFFFFFFFFL << 32L;
+            newVal = current | (newMax & 0xFFFFFFFFL) << 32L;
         } while (!stateUpdater.compareAndSet(this, oldVal, newVal));
-        while (current < newMax) {
+        if (current < newMax) {
             // more space opened up!  Process queue entries for a while
-            final SuspendedRequest request = queue.poll();
-            if (request != null) {
+            drainQueue();
+        }
+        return oldMax;
+    }
+
+    /**
+     * Runs queued requests while there is space below the maximum.
+     */
+    private void drainQueue() {
+        for (;;) {
+            final long oldVal = state;
+            final long current = oldVal & MASK_CURRENT;
+            final long max = (oldVal & MASK_MAX) >> 32L;
+            if (current >= max) {
+                return;
+            }
+            final SuspendedRequest request = poll();
+            if (request == null) {
+                return;
+            }
+            final long now = System.nanoTime();
+            if (!expired(request, now)) {
                 // now bump up the counter by one; this *could* put us over the max if it changed in the meantime but that's OK
-                newVal = stateUpdater.getAndIncrement(this);
-                current = (int) (newVal & MASK_CURRENT);
-                request.exchange.dispatch(request.next);
+                stateUpdater.incrementAndGet(this);
+                start(request, now);
             }
         }
-        return oldMax;
     }
 
     private void decrementRequests() {
         stateUpdater.decrementAndGet(this);
     }
 
+    /**
+     * @return The number of requests that are currently running
+     */
+    public int getCurrentConcurrentRequests() {
+        return (int) (state & MASK_CURRENT);
+    }
+
+    /**
+     * @return The number of requests waiting in the queue
+     */
+    public int getQueuedRequests() {
+        return queued;
+    }
+
+    /**
+     * Adds a priority class. Requests are placed in the first class whose predicate matches, in the order the
+     * classes were added, or in the default class if none match.
+     *
+     * @param predicate The predicate that selects requests for this class
+     * @param weight    The share of free slots given to this class, relative to the other classes
+     */
+    public RequestLimit addPriorityClass(final Predicate predicate, final int weight) {
+        return addPriorityClass(predicate, weight, -1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a priority class with its own maximum queue time.
+     *
+     * @param predicate        The predicate that selects requests for this class
+     * @param weight           The share of free slots given to this class, relative to the other classes
+     * @param maximumQueueTime The longest requests in this class can wait, or -1 to use the maximum queue time of this limit
+     * @param timeUnit         The unit of the maximum queue time
+     * @see #addPriorityClass(Predicate, int)
+     */
+    public RequestLimit addPriorityClass(final Predicate predicate, final int weight, final long maximumQueueTime, final TimeUnit timeUnit) {
+        if (predicate == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("predicate");
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+        synchronized (queueLock) {
+            final PriorityClass[] old = this.priorityClasses;
+            final PriorityClass[] classes = new PriorityClass[old.length + 1];
+            System.arraycopy(old, 0, classes, 0, old.length - 1);
+            classes[old.length - 1] = new PriorityClass(predicate, weight, maximumQueueTime < 0 ? -1 : timeUnit.toNanos(maximumQueueTime));
+            classes[old.length] = old[old.length - 1];
+            this.priorityClasses = classes;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the weight of requests that do not match any priority class. Defaults to 1.
+     */
+    public RequestLimit setDefaultPriorityWeight(final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+        synchronized (queueLock) {
+            final PriorityClass[] classes = this.priorityClasses.clone();
+            final PriorityClass old = classes[classes.length - 1];
+            final PriorityClass replacement = new PriorityClass(null, weight, -1);
+            replacement.queue.addAll(old.queue);
+            classes[classes.length - 1] = replacement;
+            this.priorityClasses = classes;
+        }
+        return this;
+    }
+
+    public long getMaximumQueueTime(final TimeUnit timeUnit) {
+        return maximumQueueTime < 0 ? -1 : timeUnit.convert(maximumQueueTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the longest a request can wait in the queue. Requests that have waited longer than this are rejected
+     * using the failure handler instead of being run. This applies to requests that are queued after it is set.
+     *
+     * @param maximumQueueTime The maximum queue time, or -1 for no limit
+     * @param timeUnit         The unit of the maximum queue time
+     */
+    public RequestLimit setMaximumQueueTime(final long maximumQueueTime, final TimeUnit timeUnit) {
+        this.maximumQueueTime = maximumQueueTime < 0 ? -1 : timeUnit.toNanos(maximumQueueTime);
+        return this;
+    }
+
+    public AdaptiveConcurrencyLimit getAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
+    /**
+     * Sets the adaptive limit that controls the maximum number of concurrent requests. The maximum is immediately
+     * set to the current limit of the adaptive limit. If this is <code>null</code> the maximum stays at its current value.
+     *
+     * @param adaptiveLimit The adaptive limit
+     */
+    public RequestLimit setAdaptiveLimit(final AdaptiveConcurrencyLimit adaptiveLimit) {
+        this.adaptiveLimit = adaptiveLimit;
+        if (adaptiveLimit != null) {
+            setMaximumConcurrentRequests(adaptiveLimit.getLimit());
+        }
+        return this;
+    }
+
     public HttpHandler getFailureHandler() {
         return failureHandler;
     }
@@ -147,13 +499,37 @@ public class RequestLimit {
         this.failureHandler = failureHandler;
     }
 
+    private static final class PriorityClass {
+        final Predicate predicate;
+        final int weight;
+        final long maximumQueueTime;
+        final ArrayDeque<SuspendedRequest> queue = new ArrayDeque<SuspendedRequest>();
+        /**
+         * The current weight used by the round robin, guarded by the queue lock
+         */
+        int current;
+
+        private PriorityClass(Predicate predicate, int weight, long maximumQueueTime) {
+            this.predicate = predicate;
+            this.weight = weight;
+            this.maximumQueueTime = maximumQueueTime;
+        }
+    }
+
     private static final class SuspendedRequest {
         final HttpServerExchange exchange;
         final HttpHandler next;
+        final PriorityClass priority;
+        final long queued = System.nanoTime();
+        /**
+         * The task that rejects the request when its maximum queue time has passed, or null
+         */
+        volatile XnioExecutor.Key timeoutKey;
 
-        private SuspendedRequest(HttpServerExchange exchange, HttpHandler next) {
+        private SuspendedRequest(HttpServerExchange exchange, HttpHandler next, PriorityClass priority) {
             this.exchange = exchange;
             this.next = next;
+            this.priority = priority;
         }
     }
 }
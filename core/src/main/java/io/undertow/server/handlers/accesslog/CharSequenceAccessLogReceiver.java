@@ -0,0 +1,15 @@
+package io.undertow.server.handlers.accesslog;
+
+/**
+ * An access log receiver that can accept a message without it first being converted to a string.
+ * <p/>
+ * The message is only valid for the duration of the call, as the access log handler reuses the underlying buffer,
+ * so implementations must copy or encode the message before returning.
+ *
+ * @author Stuart Douglas
+ */
+public interface CharSequenceAccessLogReceiver extends AccessLogReceiver {
+
+    void logMessage(final CharSequence message);
+
+}
@@ -0,0 +1,507 @@
+package io.undertow.server.handlers.accesslog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.zip.GZIPOutputStream;
+
+import io.undertow.UndertowLogger;
+import io.undertow.util.StripedCounter;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.IoUtils;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+
+/**
+ * Log receiver that writes logs to a file using NIO, rotating them after midnight and optionally when they reach a
+ * given size.
+ * <p/>
+ * Messages are encoded as UTF-8 directly into pooled direct buffers on the thread that logs them. To avoid contention
+ * there are a number of buffers being filled at any one time, and each thread appends to the one that it maps to.
+ * Full buffers are queued, and a single task running on the log write executor writes them to the file
+ * using gathering writes, at most {@link #MAX_BATCH_BUFFERS} buffers at a time. When the writer runs it also takes
+ * any partially filled buffers, so under light load messages are written almost immediately, and under heavy
+ * load they are written in large batches.
+ * <p/>
+ * The amount of data waiting to be written is bounded by {@link #setMaxQueuedBuffers(int)}. If the writer falls so
+ * far behind that this limit is reached further messages are dropped, rather than using an unbounded amount of memory.
+ * The number of dropped messages is available from {@link #getDroppedMessages()}.
+ * <p/>
+ * Rotated files are named in the same way as {@link DefaultAccessLogReceiver}, and can be compressed with gzip
+ * after they are rotated.
+ *
+ * @author Stuart Douglas
+ */
+public class NioAccessLogReceiver implements CharSequenceAccessLogReceiver, Runnable, Closeable {
+
+    /**
+     * The maximum number of buffers written by a single gathering write
+     */
+    public static final int MAX_BATCH_BUFFERS = 64;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Executor logWriteExecutor;
+    private final Pool<ByteBuffer> bufferPool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, BUFFER_SIZE, BUFFER_SIZE * 16);
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    private final Queue<Batch> fullBuffers = new ConcurrentLinkedQueue<Batch>();
+    private final AtomicInteger queuedBuffers = new AtomicInteger();
+    private final StripedCounter queuedMessages = new StripedCounter();
+    private final StripedCounter droppedMessages = new StripedCounter();
+
+    //0 = not running
+    //1 = queued
+    //2 = running
+    @SuppressWarnings("unused")
+    private volatile int state = 0;
+
+    private static final AtomicIntegerFieldUpdater<NioAccessLogReceiver> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(NioAccessLogReceiver.class, "state");
+
+    private volatile int maxQueuedBuffers = 256;
+    private volatile long maxFileSize = -1;
+    private volatile boolean compressRotatedFiles = false;
+
+    private long changeOverPoint;
+    private String currentDateString;
+    private volatile boolean forceLogRotation;
+
+    private final File outputDirectory;
+    private final File defaultLogFile;
+
+    private final String logBaseName;
+
+    private FileChannel channel;
+
+    public NioAccessLogReceiver(final Executor logWriteExecutor, final File outputDirectory, final String logBaseName) {
+        this.logWriteExecutor = logWriteExecutor;
+        this.outputDirectory = outputDirectory;
+        this.logBaseName = logBaseName;
+        this.defaultLogFile = new File(outputDirectory, logBaseName + ".log");
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors()) {
+            count <<= 1;
+        }
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; ++i) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = count - 1;
+        calculateChangeOverPoint();
+    }
+
+    private void calculateChangeOverPoint() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.SECOND, 59);
+        calendar.set(Calendar.MINUTE, 59);
+        calendar.set(Calendar.HOUR_OF_DAY, 23);
+        changeOverPoint = calendar.getTimeInMillis();
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+        currentDateString = df.format(new Date());
+    }
+
+    @Override
+    public void logMessage(final String message) {
+        logMessage((CharSequence) message);
+    }
+
+    @Override
+    public void logMessage(final CharSequence message) {
+        final Stripe stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        boolean logged;
+        synchronized (stripe) {
+            logged = stripe.append(message);
+        }
+        if (!logged) {
+            droppedMessages.increment();
+            return;
+        }
+        queuedMessages.increment();
+        if (stateUpdater.get(this) == 0) {
+            if (stateUpdater.compareAndSet(this, 0, 1)) {
+                logWriteExecutor.execute(this);
+            }
+        }
+    }
+
+    /**
+     * writes all queued log messages, up to {@link #MAX_BATCH_BUFFERS} buffers at a time
+     */
+    @Override
+    public void run() {
+        if (!stateUpdater.compareAndSet(this, 1, 2)) {
+            return;
+        }
+        try {
+            if (forceLogRotation) {
+                doRotate();
+            }
+            final List<Batch> batches = new ArrayList<Batch>();
+            Batch batch;
+            while (batches.size() < MAX_BATCH_BUFFERS && (batch = fullBuffers.poll()) != null) {
+                queuedBuffers.decrementAndGet();
+                batches.add(batch);
+            }
+            if (batches.size() < MAX_BATCH_BUFFERS) {
+                //nothing else is waiting, so we also write out the partially filled buffers
+                for (Stripe stripe : stripes) {
+                    synchronized (stripe) {
+                        batch = stripe.take();
+                    }
+                    if (batch != null) {
+                        batches.add(batch);
+                    }
+                }
+            }
+            if (!batches.isEmpty()) {
+                writeBatches(batches);
+            }
+        } finally {
+            stateUpdater.set(this, 0);
+            //check to see if there is still more messages
+            //if so then run this again
+            if (hasPendingMessages() || forceLogRotation) {
+                if (stateUpdater.compareAndSet(this, 0, 1)) {
+                    logWriteExecutor.execute(this);
+                }
+            }
+        }
+    }
+
+    private boolean hasPendingMessages() {
+        if (!fullBuffers.isEmpty()) {
+            return true;
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.messages > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * For tests only. Blocks the current thread until all messages are written
+     * Just does a busy wait.
+     * <p/>
+     * DO NOT USE THIS OUTSIDE OF A TEST
+     */
+    void awaitWrittenForTest() throws InterruptedException {
+        while (hasPendingMessages() || forceLogRotation) {
+            Thread.sleep(10);
+        }
+        while (state != 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void writeBatches(final List<Batch> batches) {
+        if (System.currentTimeMillis() > changeOverPoint) {
+            doRotate();
+        }
+        final ByteBuffer[] buffers = new ByteBuffer[batches.size()];
+        int messages = 0;
+        for (int i = 0; i < buffers.length; ++i) {
+            final Batch batch = batches.get(i);
+            batch.buffer.flip();
+            buffers[i] = batch.buffer;
+            messages += batch.messages;
+        }
+        try {
+            if (channel == null) {
+                channel = new FileOutputStream(defaultLogFile, true).getChannel();
+            }
+            final ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining()) {
+                channel.write(buffers);
+            }
+            if (maxFileSize > 0 && channel.position() >= maxFileSize) {
+                doRotate();
+            }
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(e);
+        } finally {
+            queuedMessages.add(-messages);
+            for (Batch batch : batches) {
+                batch.free();
+            }
+        }
+    }
+
+    private void doRotate() {
+        forceLogRotation = false;
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            File newFile = new File(outputDirectory, logBaseName + "_" + currentDateString + ".log");
+            int count = 0;
+            while (newFile.exists() || new File(newFile.getPath() + ".gz").exists()) {
+                ++count;
+                newFile = new File(outputDirectory, logBaseName + "_" + currentDateString + "-" + count + ".log");
+            }
+            if (!defaultLogFile.renameTo(newFile)) {
+                UndertowLogger.ROOT_LOGGER.errorRotatingAccessLog(new IOException());
+            } else if (compressRotatedFiles) {
+                logWriteExecutor.execute(new CompressTask(newFile));
+            }
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.errorRotatingAccessLog(e);
+        } finally {
+            calculateChangeOverPoint();
+        }
+    }
+
+    /**
+     * forces a log rotation. This rotation is performed in an async manner, you cannot rely on the rotation
+     * being performed immediately after this method returns.
+     */
+    public void rotate() {
+        forceLogRotation = true;
+        if (stateUpdater.compareAndSet(this, 0, 1)) {
+            logWriteExecutor.execute(this);
+        }
+    }
+
+    /**
+     * @return The number of messages that have been accepted but not yet written to the log file
+     */
+    public long getQueuedMessages() {
+        return queuedMessages.sum();
+    }
+
+    /**
+     * @return The number of messages that have been dropped because the writer was too far behind
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    public int getMaxQueuedBuffers() {
+        return maxQueuedBuffers;
+    }
+
+    /**
+     * Sets the maximum number of full buffers that can be waiting to be written. Each buffer is 16k.
+     */
+    public NioAccessLogReceiver setMaxQueuedBuffers(final int maxQueuedBuffers) {
+        this.maxQueuedBuffers = maxQueuedBuffers;
+        return this;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Sets the size at which the log file is rotated. If this is not positive the log is only rotated at midnight.
+     */
+    public NioAccessLogReceiver setMaxFileSize(final long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    public boolean isCompressRotatedFiles() {
+        return compressRotatedFiles;
+    }
+
+    /**
+     * If this is true rotated log files are compressed with gzip, and given a <code>.gz</code> extension.
+     */
+    public NioAccessLogReceiver setCompressRotatedFiles(final boolean compressRotatedFiles) {
+        this.compressRotatedFiles = compressRotatedFiles;
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final List<Batch> batches = new ArrayList<Batch>();
+        Batch batch;
+        while ((batch = fullBuffers.poll()) != null) {
+            queuedBuffers.decrementAndGet();
+            batches.add(batch);
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                batch = stripe.take();
+            }
+            if (batch != null) {
+                batches.add(batch);
+            }
+        }
+        for (int i = 0; i < batches.size(); i += MAX_BATCH_BUFFERS) {
+            writeBatches(batches.subList(i, Math.min(batches.size(), i + MAX_BATCH_BUFFERS)));
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Encodes a message and a trailing new line as UTF-8.
+     *
+     * @return <code>false</code> if there may not be enough space in the buffer
+     */
+    static boolean encode(final CharSequence message, final ByteBuffer buffer) {
+        final int length = message.length();
+        //worst case is 3 bytes per char
+        if (buffer.remaining() < length * 3 + 1) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            final char c = message.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(message.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, message.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                //unpaired surrogate
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.put((byte) '\n');
+        return true;
+    }
+
+    /**
+     * A buffer that is being filled. Only accessed while holding the lock on the stripe.
+     */
+    private final class Stripe {
+
+        private Pooled<ByteBuffer> pooled;
+        private int messages;
+
+        boolean append(final CharSequence message) {
+            if (pooled != null && encode(message, pooled.getResource())) {
+                ++messages;
+                return true;
+            }
+            if (pooled != null) {
+                if (!enqueue(new Batch(pooled, pooled.getResource(), messages))) {
+                    return false;
+                }
+                pooled = null;
+                messages = 0;
+            }
+            if (message.length() * 3 + 1 > BUFFER_SIZE) {
+                //too big for a pooled buffer, so it gets a buffer of its own
+                final ByteBuffer buffer = ByteBuffer.allocate(message.length() * 3 + 1);
+                encode(message, buffer);
+                return enqueue(new Batch(null, buffer, 1));
+            }
+            pooled = bufferPool.allocate();
+            pooled.getResource().clear();
+            encode(message, pooled.getResource());
+            messages = 1;
+            return true;
+        }
+
+        Batch take() {
+            if (messages == 0) {
+                return null;
+            }
+            final Batch batch = new Batch(pooled, pooled.getResource(), messages);
+            pooled = null;
+            messages = 0;
+            return batch;
+        }
+    }
+
+    private boolean enqueue(final Batch batch) {
+        if (queuedBuffers.incrementAndGet() > maxQueuedBuffers) {
+            queuedBuffers.decrementAndGet();
+            return false;
+        }
+        fullBuffers.add(batch);
+        return true;
+    }
+
+    private static final class Batch {
+        private final Pooled<ByteBuffer> pooled;
+        private final ByteBuffer buffer;
+        private final int messages;
+
+        private Batch(final Pooled<ByteBuffer> pooled, final ByteBuffer buffer, final int messages) {
+            this.pooled = pooled;
+            this.buffer = buffer;
+            this.messages = messages;
+        }
+
+        void free() {
+            if (pooled != null) {
+                pooled.free();
+            }
+        }
+    }
+
+    private static final class CompressTask implements Runnable {
+
+        private final File file;
+
+        private CompressTask(final File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            final File target = new File(file.getPath() + ".gz");
+            InputStream in = null;
+            OutputStream out = null;
+            try {
+                in = new FileInputStream(file);
+                out = new GZIPOutputStream(new FileOutputStream(target));
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                out.close();
+                out = null;
+                in.close();
+                if (!file.delete()) {
+                    UndertowLogger.ROOT_LOGGER.errorRotatingAccessLog(new IOException());
+                }
+            } catch (IOException e) {
+                UndertowLogger.ROOT_LOGGER.errorRotatingAccessLog(e);
+                target.delete();
+            } finally {
+                IoUtils.safeClose(in);
+                IoUtils.safeClose(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package io.undertow.server.handlers.builder;
+
+import io.undertow.attribute.ExchangeAttribute;
+import io.undertow.attribute.RemoteIPAttribute;
+import io.undertow.server.HandlerWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.RateLimitingHandler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builder for {@link RateLimitingHandler}, for example <code>rate-limit[rate=10, burst=20, key='%{i,X-API-Key}']</code>.
+ * If no key is given requests are limited per remote IP address, and if no burst is given it is the same as the rate.
+ *
+ * @author Stuart Douglas
+ */
+public class RateLimitingHandlerBuilder implements HandlerBuilder {
+    @Override
+    public String name() {
+        return "rate-limit";
+    }
+
+    @Override
+    public Map<String, Class<?>> parameters() {
+        Map<String, Class<?>> parameters = new HashMap<String, Class<?>>();
+        parameters.put("rate", Double.class);
+        parameters.put("burst", Integer.class);
+        parameters.put("key", ExchangeAttribute.class);
+        parameters.put("max-keys", Integer.class);
+        parameters.put("headers", Boolean.class);
+        return parameters;
+    }
+
+    @Override
+    public Set<String> requiredParameters() {
+        final Set<String> req = new HashSet<String>();
+        req.add("rate");
+        return req;
+    }
+
+    @Override
+    public String defaultParameter() {
+        return "rate";
+    }
+
+    @Override
+    public HandlerWrapper build(final Map<String, Object> config) {
+        final Double rate = (Double) config.get("rate");
+        final Integer burst = (Integer) config.get("burst");
+        final ExchangeAttribute key = (ExchangeAttribute) config.get("key");
+        final Integer maxKeys = (Integer) config.get("max-keys");
+        final Boolean headers = (Boolean) config.get("headers");
+
+        return new HandlerWrapper() {
+            @Override
+            public HttpHandler wrap(HttpHandler handler) {
+                final RateLimitingHandler result = new RateLimitingHandler(handler,
+                        key == null ? RemoteIPAttribute.INSTANCE : key,
+                        rate,
+                        burst == null ? Math.max(1, (int) Math.ceil(rate)) : burst,
+                        maxKeys == null ? RateLimitingHandler.DEFAULT_MAX_KEYS : maxKeys);
+                if (headers != null) {
+                    result.setAddHeaders(headers);
+                }
+                return result;
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.Locale;
+
+import io.undertow.util.HeaderValues;
+
+/**
+ * The directives of a response Cache-Control header that are relevant to a shared cache.
+ *
+ * @author Stuart Douglas
+ */
+final class CacheControl {
+
+    private static final CacheControl DEFAULT = new CacheControl(true, -1, 0);
+
+    private final boolean storable;
+    private final int maxAge;
+    private final int staleWhileRevalidate;
+
+    private CacheControl(final boolean storable, final int maxAge, final int staleWhileRevalidate) {
+        this.storable = storable;
+        this.maxAge = maxAge;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    static CacheControl parse(final HeaderValues values) {
+        if (values == null || values.isEmpty()) {
+            return DEFAULT;
+        }
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        long staleWhileRevalidate = 0;
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.ENGLISH);
+                if (directive.equals("no-store") || directive.startsWith("no-cache") || directive.startsWith("private")) {
+                    return new CacheControl(false, -1, 0);
+                } else if (directive.startsWith("s-maxage=")) {
+                    sharedMaxAge = parseSeconds(directive.substring("s-maxage=".length()));
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring("max-age=".length()));
+                } else if (directive.startsWith("stale-while-revalidate=")) {
+                    staleWhileRevalidate = Math.max(0, parseSeconds(directive.substring("stale-while-revalidate=".length())));
+                }
+            }
+        }
+        //s-maxage overrides max-age for shared caches
+        final long age = sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+        if (age == 0) {
+            return new CacheControl(false, -1, 0);
+        }
+        if (age < 0) {
+            //stale-while-revalidate is meaningless if the response does not expire
+            return DEFAULT;
+        }
+        return new CacheControl(true, toMillis(age), toMillis(staleWhileRevalidate));
+    }
+
+    private static long parseSeconds(String value) {
+        if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1) {
+            value = value.substring(1, value.length() - 1);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int toMillis(final long seconds) {
+        return (int) Math.min(Integer.MAX_VALUE / 2, seconds * 1000);
+    }
+
+    /**
+     * @return <code>false</code> if the response must not be cached
+     */
+    boolean isStorable() {
+        return storable;
+    }
+
+    /**
+     * @return The time in milliseconds the response may be cached for, or -1 if the response did not specify it
+     */
+    int getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return The time in milliseconds an expired response may be served for while it is refreshed
+     */
+    int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+}
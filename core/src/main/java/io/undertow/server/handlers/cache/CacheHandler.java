@@ -1,28 +1,70 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 import io.undertow.Handlers;
 import io.undertow.server.ConduitWrapper;
+import io.undertow.server.Connectors;
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.encoding.AllowedContentEncodings;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.ConduitFactory;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.SameThreadExecutor;
+import org.xnio.XnioExecutor;
 import org.xnio.conduits.StreamSinkConduit;
 
 import static io.undertow.util.Headers.CONTENT_LENGTH;
+import static io.undertow.util.Methods.GET;
+import static io.undertow.util.Methods.HEAD;
 
 /**
  *
  * Handler that attaches a cache to the exchange, a handler can query this cache to see if the
  * cache has a cached copy of the content, and if so have the cache serve this content automatically.
- *
+ * <p/>
+ * If request coalescing is enabled then requests for a response that is currently being written into the
+ * cache do not invoke the next handler straight away. Instead they wait until the response has been cached,
+ * and are then served from the cache. If the response has not been cached when the coalescing timeout
+ * expires, or if caching it fails, the waiting requests are passed to the next handler as normal.
+ * <p/>
+ * The response Cache-Control header is honoured: responses marked no-store, no-cache or private are not
+ * cached, and s-maxage or max-age set the time the response is cached for. If stale-while-revalidate is
+ * also present then once the response has expired it continues to be served for that period, while the
+ * next request to arrive is passed to the handler to refresh it. Separate copies of the response are
+ * cached for each combination of the request headers named in the Vary header.
  *
  * @author Stuart Douglas
  */
 public class CacheHandler implements HttpHandler {
 
+    private static final AttachmentKey<Boolean> WAITED = AttachmentKey.create(Boolean.class);
+
+    private static final HttpString[] NO_VARY = new HttpString[0];
+
+    /**
+     * The maximum number of paths that we remember the Vary header for
+     */
+    private static final int MAX_VARY_ENTRIES = 1000;
+
     private final DirectBufferCache cache;
+    /**
+     * The request headers that the response for each path varies on, so requests can be mapped to the right variant
+     */
+    private final LRUCache<String, HttpString[]> varyHeaders = new LRUCache<String, HttpString[]>(MAX_VARY_ENTRIES, -1);
     private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private volatile boolean requestCoalescing = false;
+    private volatile long coalescingTimeout = 1000;
 
     public CacheHandler(final DirectBufferCache cache, final HttpHandler next) {
         this.cache = cache;
@@ -35,43 +77,154 @@ public class CacheHandler implements HttpHandler {
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        final ResponseCache responseCache = new ResponseCache(cache, exchange);
+        //a request only waits once, and never waits without a timeout
+        if (requestCoalescing && coalescingTimeout > 0 && exchange.getAttachment(WAITED) == null) {
+            if (exchange.getRequestMethod().equals(GET) || exchange.getRequestMethod().equals(HEAD)) {
+                final DirectBufferCache.CacheEntry entry = cache.peek(new CachedHttpRequest(exchange, varyHeaders.get(exchange.getRequestPath())));
+                if (entry != null && entry.loading()) {
+                    exchange.putAttachment(WAITED, Boolean.TRUE);
+                    final CoalescingWaiter waiter = new CoalescingWaiter(this, exchange);
+                    final Executor dispatchExecutor = exchange.getDispatchExecutor();
+                    exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+                        @Override
+                        public void run() {
+                            //the same thread executor is only for parking, if it was left in place a handler that
+                            //dispatches once the request is resumed would run on the IO thread again
+                            exchange.setDispatchExecutor(dispatchExecutor);
+                            waiter.park(entry);
+                        }
+                    });
+                    return;
+                }
+            }
+        }
+        final ResponseCache responseCache = new ResponseCache(cache, exchange, varyHeaders);
         exchange.putAttachment(ResponseCache.ATTACHMENT_KEY, responseCache);
         exchange.addResponseWrapper(new ConduitWrapper<StreamSinkConduit>() {
             @Override
             public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
-                if(!responseCache.isResponseCachable()) {
-                    return factory.create();
-                }
-                final AllowedContentEncodings contentEncodings = exchange.getAttachment(AllowedContentEncodings.ATTACHMENT_KEY);
-                if(contentEncodings != null) {
-                    if(!contentEncodings.isIdentity()) {
-                        //we can't cache content encoded responses, as we have no idea how big they will end up being
-                        return factory.create();
+                final StreamSinkConduit conduit = createCachingConduit(factory, exchange, responseCache);
+                if (conduit == null) {
+                    final DirectBufferCache.CacheEntry stale = responseCache.getRevalidatingEntry();
+                    if (stale != null) {
+                        //let another request try and refresh it
+                        stale.releaseRevalidation();
                     }
-                }
-                String lengthString = exchange.getResponseHeaders().getFirst(CONTENT_LENGTH);
-                if(lengthString == null) {
-                    //we don't cache chunked requests
                     return factory.create();
                 }
-                int length = Integer.parseInt(lengthString);
-                final CachedHttpRequest key = new CachedHttpRequest(exchange);
-                final DirectBufferCache.CacheEntry entry = cache.add(key, length);
+                return conduit;
+            }
+        });
+        next.handleRequest(exchange);
+    }
 
-                if (entry == null || entry.buffers().length == 0 || !entry.claimEnable()) {
-                    return factory.create();
-                }
+    /**
+     * Creates a conduit that writes the response into the cache.
+     *
+     * @return The conduit, or null if the response cannot be cached
+     */
+    private StreamSinkConduit createCachingConduit(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange, final ResponseCache responseCache) {
+        if(!responseCache.isResponseCachable()) {
+            return null;
+        }
+        if(exchange.getResponseCode() != 200) {
+            //partial and error responses are never cached
+            return null;
+        }
+        final AllowedContentEncodings contentEncodings = exchange.getAttachment(AllowedContentEncodings.ATTACHMENT_KEY);
+        if(contentEncodings != null) {
+            if(!contentEncodings.isIdentity()) {
+                //we can't cache content encoded responses, as we have no idea how big they will end up being
+                return null;
+            }
+        }
+        String lengthString = exchange.getResponseHeaders().getFirst(CONTENT_LENGTH);
+        if(lengthString == null) {
+            //we don't cache chunked requests
+            return null;
+        }
+        final CacheControl cacheControl = CacheControl.parse(exchange.getResponseHeaders().get(Headers.CACHE_CONTROL));
+        if(!cacheControl.isStorable()) {
+            return null;
+        }
+        final HttpString[] vary = parseVary(exchange.getResponseHeaders().get(Headers.VARY));
+        if(vary == null) {
+            //Vary: *
+            return null;
+        }
+        final String path = exchange.getRequestPath();
+        if(!Arrays.equals(vary, varyHeaders.get(path))) {
+            varyHeaders.remove(path);
+            varyHeaders.add(path, vary);
+        }
+        int length = Integer.parseInt(lengthString);
+        final CachedHttpRequest key = new CachedHttpRequest(exchange, vary);
 
-                if (!entry.reference()) {
-                    entry.disable();
-                    return factory.create();
-                }
+        final DirectBufferCache.CacheEntry stale = responseCache.getRevalidatingEntry();
+        final DirectBufferCache.CacheEntry entry;
+        if (stale != null) {
+            //the stale entry is served to other requests until the new one has been filled
+            if (cacheControl.getMaxAge() >= 0) {
+                entry = cache.addReplacement(stale, key, length, cacheControl.getMaxAge(), cacheControl.getStaleWhileRevalidate());
+            } else {
+                entry = cache.addReplacement(stale, key, length);
+            }
+            //a refreshed entry gets buffers straight away, rather than waiting for enough hits
+            if (!entry.allocate() || !entry.claimEnable()) {
+                entry.disable();
+                return null;
+            }
+        } else {
+            if (cacheControl.getMaxAge() >= 0) {
+                entry = cache.add(key, length, cacheControl.getMaxAge(), cacheControl.getStaleWhileRevalidate());
+            } else {
+                entry = cache.add(key, length);
+            }
+            if (entry == null || entry.buffers().length == 0 || !entry.claimEnable()) {
+                return null;
+            }
+        }
+
+        if (!entry.reference()) {
+            entry.disable();
+            return null;
+        }
 
-                return new ResponseCachingStreamSinkConduit(factory.create(), entry, length);
+        final ResponseCachingStreamSinkConduit conduit = new ResponseCachingStreamSinkConduit(factory.create(), entry, length);
+        //if the exchange ends without the response being written in full, for example because the handler threw
+        //or the connection was reset, the entry must still be abandoned so that waiting requests are woken
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                try {
+                    conduit.loadFailed();
+                } finally {
+                    nextListener.proceed();
+                }
             }
         });
-        next.handleRequest(exchange);
+        return conduit;
+    }
+
+    /**
+     * @return The headers named in the Vary header, or null if the response varies on everything
+     */
+    private static HttpString[] parseVary(final HeaderValues values) {
+        if (values == null || values.isEmpty()) {
+            return NO_VARY;
+        }
+        final List<HttpString> result = new ArrayList<HttpString>();
+        for (String value : values) {
+            for (String name : value.split(",")) {
+                name = name.trim();
+                if (name.equals("*")) {
+                    return null;
+                } else if (!name.isEmpty()) {
+                    result.add(new HttpString(name));
+                }
+            }
+        }
+        return result.toArray(new HttpString[result.size()]);
     }
 
     public HttpHandler getNext() {
@@ -83,4 +236,81 @@ public class CacheHandler implements HttpHandler {
         this.next = next;
         return this;
     }
+
+    public boolean isRequestCoalescing() {
+        return requestCoalescing;
+    }
+
+    /**
+     * If this is true then requests that miss on an entry that is currently being filled wait for the
+     * entry, rather than all invoking the next handler.
+     */
+    public CacheHandler setRequestCoalescing(final boolean requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+        return this;
+    }
+
+    public long getCoalescingTimeout() {
+        return coalescingTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds that a request will wait for an entry to be filled
+     * before it is passed to the next handler. If this is zero or less requests are never coalesced,
+     * as a request must not wait for an entry that may never be filled.
+     */
+    public CacheHandler setCoalescingTimeout(final long coalescingTimeout) {
+        this.coalescingTimeout = coalescingTimeout;
+        return this;
+    }
+
+    /**
+     * A request that is waiting for a cache entry to be filled. It is resumed by whichever happens first
+     * out of the entry load completing and the timeout expiring.
+     */
+    private static final class CoalescingWaiter implements Runnable {
+
+        private static final AtomicIntegerFieldUpdater<CoalescingWaiter> doneUpdater = AtomicIntegerFieldUpdater.newUpdater(CoalescingWaiter.class, "done");
+
+        private final CacheHandler handler;
+        private final HttpServerExchange exchange;
+        private volatile int done = 0;
+        private volatile XnioExecutor.Key timeoutKey;
+
+        private CoalescingWaiter(final CacheHandler handler, final HttpServerExchange exchange) {
+            this.handler = handler;
+            this.exchange = exchange;
+        }
+
+        void park(final DirectBufferCache.CacheEntry entry) {
+            final long timeout = handler.coalescingTimeout;
+            if (timeout <= 0) {
+                //the timeout was changed after this request decided to wait
+                run();
+                return;
+            }
+            timeoutKey = exchange.getIoThread().executeAfter(this, timeout, TimeUnit.MILLISECONDS);
+            if (!entry.addLoadListener(this)) {
+                //it finished loading before we could register
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!doneUpdater.compareAndSet(this, 0, 1)) {
+                return;
+            }
+            final XnioExecutor.Key timeoutKey = this.timeoutKey;
+            if (timeoutKey != null) {
+                timeoutKey.remove();
+            }
+            exchange.getIoThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    Connectors.executeRootHandler(handler, exchange);
+                }
+            });
+        }
+    }
 }
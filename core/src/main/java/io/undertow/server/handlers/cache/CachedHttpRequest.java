@@ -1,5 +1,6 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.Arrays;
 import java.util.Date;
 
 import io.undertow.server.HttpServerExchange;
@@ -7,7 +8,9 @@ import io.undertow.server.handlers.encoding.AllowedContentEncodings;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
 import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 
 /**
  * @author Stuart Douglas
@@ -21,9 +24,43 @@ public class CachedHttpRequest {
     private final String contentType;
     private final Date lastModified;
     private final int responseCode;
+    /**
+     * The values of the request headers named in the Vary header of the response
+     */
+    private final String[] varyValues;
 
 
     public CachedHttpRequest(final HttpServerExchange exchange) {
+        this(exchange, null);
+    }
+
+    /**
+     * @param exchange    The exchange
+     * @param varyHeaders The request headers that the response varies on, or null
+     */
+    public CachedHttpRequest(final HttpServerExchange exchange, final HttpString[] varyHeaders) {
+        if (varyHeaders == null || varyHeaders.length == 0) {
+            this.varyValues = null;
+        } else {
+            this.varyValues = new String[varyHeaders.length];
+            for (int i = 0; i < varyHeaders.length; ++i) {
+                final HeaderValues values = exchange.getRequestHeaders().get(varyHeaders[i]);
+                if (values == null || values.isEmpty()) {
+                    varyValues[i] = null;
+                } else if (values.size() == 1) {
+                    varyValues[i] = values.getFirst();
+                } else {
+                    final StringBuilder sb = new StringBuilder();
+                    for (String value : values) {
+                        if (sb.length() > 0) {
+                            sb.append(',');
+                        }
+                        sb.append(value);
+                    }
+                    varyValues[i] = sb.toString();
+                }
+            }
+        }
         this.path = exchange.getRequestPath();
         this.etag = ETagUtils.getETag(exchange);
         this.contentLocation = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LOCATION);
@@ -95,6 +132,7 @@ public class CachedHttpRequest {
         if (language != null ? !language.equals(that.language) : that.language != null) return false;
         if (lastModified != null ? !lastModified.equals(that.lastModified) : that.lastModified != null) return false;
         if (path != null ? !path.equals(that.path) : that.path != null) return false;
+        if (!Arrays.equals(varyValues, that.varyValues)) return false;
 
         return true;
     }
@@ -109,6 +147,7 @@ public class CachedHttpRequest {
         result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
         result = 31 * result + (lastModified != null ? lastModified.hashCode() : 0);
         result = 31 * result + responseCode;
+        result = 31 * result + Arrays.hashCode(varyValues);
         return result;
     }
 }
@@ -21,13 +21,16 @@ package io.undertow.server.handlers.cache;
 import static io.undertow.server.handlers.cache.LimitedBufferSlicePool.PooledByteBuffer;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.ConcurrentHashMap;
 
 import io.undertow.util.ConcurrentDirectDeque;
+import io.undertow.util.StripedCounter;
 import org.xnio.BufferAllocator;
 
 /**
@@ -37,7 +40,9 @@ import org.xnio.BufferAllocator;
  *
  * <p>To reduce contention, entry allocation and eviction execute in a sampling
  * fashion (entry hits modulo N). Eviction follows an LRU approach (oldest sampled
- * entries are removed first) when the cache is out of capacity</p>
+ * entries are removed first) when the cache is out of capacity. The {@link EvictionPolicy}
+ * can veto an eviction, in which case the entry that needed the space is not given any
+ * buffers.</p>
  *
  * <p>In order to expedite reclamation, cache entries are reference counted as
  * opposed to garbage collected.</p>
@@ -52,6 +57,12 @@ public class DirectBufferCache {
     private final ConcurrentDirectDeque<CacheEntry> accessQueue;
     private final int sliceSize;
     private final int maxAge;
+    private final EvictionPolicy evictionPolicy;
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter admissionRejections = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
 
     public DirectBufferCache(int sliceSize, int slicesPerPage, int maxMemory) {
         this(sliceSize, slicesPerPage, maxMemory, BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR);
@@ -62,6 +73,11 @@ public class DirectBufferCache {
     }
 
     public DirectBufferCache(int sliceSize, int slicesPerPage, int maxMemory, final BufferAllocator<ByteBuffer> bufferAllocator, int maxAge) {
+        this(sliceSize, slicesPerPage, maxMemory, bufferAllocator, maxAge, EvictionPolicy.LRU);
+    }
+
+    public DirectBufferCache(int sliceSize, int slicesPerPage, int maxMemory, final BufferAllocator<ByteBuffer> bufferAllocator, int maxAge, final EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
         this.sliceSize = sliceSize;
         this.pool = new LimitedBufferSlicePool(bufferAllocator, sliceSize, sliceSize * slicesPerPage, maxMemory / (sliceSize * slicesPerPage));
         this.cache = new ConcurrentHashMap<Object, CacheEntry>(16);
@@ -74,9 +90,23 @@ public class DirectBufferCache {
     }
 
     public CacheEntry add(Object key, int size, int maxAge) {
+        return add(key, size, maxAge, 0);
+    }
+
+    /**
+     * Adds an entry that is served for a period after it has expired.
+     *
+     * @param key                  The key
+     * @param size                 The size of the entry
+     * @param maxAge               The time in milliseconds that the entry is fresh for, or -1 if it does not expire
+     * @param staleWhileRevalidate The time in milliseconds that the entry is kept after it has expired, so it can be
+     *                             served while a new copy is fetched
+     * @return The entry
+     */
+    public CacheEntry add(Object key, int size, int maxAge, int staleWhileRevalidate) {
         CacheEntry value = cache.get(key);
         if (value == null) {
-            value = new CacheEntry(key, size, this, maxAge);
+            value = new CacheEntry(key, size, this, maxAge, staleWhileRevalidate);
             CacheEntry result = cache.putIfAbsent(key, value);
             if (result != null) {
                 value = result;
@@ -88,19 +118,75 @@ public class DirectBufferCache {
         return value;
     }
 
+    /**
+     * Creates an entry that replaces a stale entry once it has been filled. Until the new entry is enabled it is
+     * not visible in the cache, so the stale entry continues to be served. If the new entry is disabled instead then
+     * it is discarded and the stale entry is kept, so another request can try and refresh it.
+     *
+     * @param stale The stale entry
+     * @param key   The key of the new entry
+     * @param size  The size of the new entry
+     * @return The new entry
+     */
+    public CacheEntry addReplacement(CacheEntry stale, Object key, int size) {
+        return addReplacement(stale, key, size, maxAge, 0);
+    }
+
+    /**
+     * Creates an entry that replaces a stale entry once it has been filled, see
+     * {@link #addReplacement(CacheEntry, Object, int)}.
+     *
+     * @param stale                The stale entry
+     * @param key                  The key of the new entry
+     * @param size                 The size of the new entry
+     * @param maxAge               The time in milliseconds that the entry is fresh for, or -1 if it does not expire
+     * @param staleWhileRevalidate The time in milliseconds that the entry is kept after it has expired
+     * @return The new entry
+     */
+    public CacheEntry addReplacement(CacheEntry stale, Object key, int size, int maxAge, int staleWhileRevalidate) {
+        final CacheEntry entry = new CacheEntry(key, size, this, maxAge, staleWhileRevalidate);
+        entry.replaces = stale;
+        return entry;
+    }
+
+    /**
+     * Makes a replacement entry visible in place of the stale entry it was created for.
+     */
+    private void replaced(final CacheEntry stale, final CacheEntry entry) {
+        if (stale.key().equals(entry.key())) {
+            if (cache.replace(entry.key(), stale, entry)) {
+                removed(stale);
+                bumpAccess(entry);
+                return;
+            }
+        } else if (cache.remove(stale.key(), stale)) {
+            removed(stale);
+        }
+        //the stale entry was already gone, for example because it was evicted
+        if (cache.putIfAbsent(entry.key(), entry) == null) {
+            bumpAccess(entry);
+        } else {
+            entry.dereference();
+        }
+    }
+
     public CacheEntry get(Object key) {
+        evictionPolicy.recordAccess(key);
         CacheEntry cacheEntry = cache.get(key);
         if (cacheEntry == null) {
+            misses.increment();
             return null;
         }
 
         long expires = cacheEntry.getExpires();
         if(expires != -1) {
-            if(System.currentTimeMillis() > expires) {
+            if(System.currentTimeMillis() > expires + cacheEntry.staleWhileRevalidate) {
                 remove(key);
+                misses.increment();
                 return null;
             }
         }
+        hits.increment();
 
         if (cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
 
@@ -109,13 +195,20 @@ public class DirectBufferCache {
             if (! cacheEntry.allocate()) {
                 // Try and make room
                 int reclaimSize = cacheEntry.size();
+                boolean admitted = true;
                 for (CacheEntry oldest : accessQueue) {
                     if (oldest == cacheEntry) {
                         continue;
                     }
 
                     if (oldest.buffers().length > 0) {
+                        if (!evictionPolicy.admit(cacheEntry.key(), oldest.key())) {
+                            admitted = false;
+                            admissionRejections.increment();
+                            break;
+                        }
                         reclaimSize -= oldest.size();
+                        evictions.increment();
                     }
 
                     this.remove(oldest.key());
@@ -126,13 +219,25 @@ public class DirectBufferCache {
                 }
 
                 // Maybe lucky?
-                cacheEntry.allocate();
+                if (admitted) {
+                    cacheEntry.allocate();
+                }
             }
         }
 
         return cacheEntry;
     }
 
+    /**
+     * Looks up an entry without recording an access, or allocating any buffers.
+     *
+     * @param key The key
+     * @return The entry, or null if there is no entry for the key
+     */
+    public CacheEntry peek(Object key) {
+        return cache.get(key);
+    }
+
     /**
      * Returns a set of all the keys in the cache. This is a copy of the
      * key set at the time of method invocation.
@@ -143,6 +248,38 @@ public class DirectBufferCache {
         return new HashSet<Object>(cache.keySet());
     }
 
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * @return The number of lookups that found an entry
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that did not find an entry
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of times the eviction policy refused to give buffers to an entry
+     */
+    public long getAdmissionRejections() {
+        return admissionRejections.sum();
+    }
+
+    /**
+     * @return The number of entries that were evicted to make room for other entries
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
     private void bumpAccess(CacheEntry cacheEntry) {
         Object prevToken = cacheEntry.claimToken();
         if (prevToken != Boolean.FALSE) {
@@ -167,14 +304,18 @@ public class DirectBufferCache {
     public void remove(Object key) {
         CacheEntry remove = cache.remove(key);
         if (remove != null) {
-            Object old = remove.clearToken();
-            if (old != null) {
-                accessQueue.removeToken(old);
-            }
-            remove.dereference();
+            removed(remove);
         }
     }
 
+    private void removed(final CacheEntry entry) {
+        Object old = entry.clearToken();
+        if (old != null) {
+            accessQueue.removeToken(old);
+        }
+        entry.dereference();
+    }
+
     public static final class CacheEntry {
         private static final PooledByteBuffer[] EMPTY_BUFFERS = new PooledByteBuffer[0];
         private static final PooledByteBuffer[] INIT_BUFFERS = new PooledByteBuffer[0];
@@ -183,6 +324,7 @@ public class DirectBufferCache {
         private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
         private static final AtomicIntegerFieldUpdater<CacheEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refs");
         private static final AtomicIntegerFieldUpdater<CacheEntry> enabledUpdator = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "enabled");
+        private static final AtomicIntegerFieldUpdater<CacheEntry> revalidatingUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "revalidating");
 
         private static final AtomicReferenceFieldUpdater<CacheEntry, PooledByteBuffer[]> bufsUpdater = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, PooledByteBuffer[].class, "buffers");
         private static final AtomicReferenceFieldUpdater<CacheEntry, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, Object.class, "accessToken");
@@ -191,18 +333,29 @@ public class DirectBufferCache {
         private final int size;
         private final DirectBufferCache cache;
         private final int maxAge;
+        private final int staleWhileRevalidate;
         private volatile PooledByteBuffer[] buffers = INIT_BUFFERS;
         private volatile int refs = 1;
         private volatile int hits = 1;
         private volatile Object accessToken;
         private volatile int enabled;
         private volatile long expires = -1;
-
-        private CacheEntry(Object key, int size, DirectBufferCache cache, final int maxAge) {
+        private volatile int revalidating;
+        /**
+         * Tasks to run once the entry has finished loading, guarded by this
+         */
+        private List<Runnable> loadListeners;
+        /**
+         * The stale entry that this entry replaces once it is enabled, guarded by this
+         */
+        private CacheEntry replaces;
+
+        private CacheEntry(Object key, int size, DirectBufferCache cache, final int maxAge, final int staleWhileRevalidate) {
             this.key = key;
             this.size = size;
             this.cache = cache;
             this.maxAge = maxAge;
+            this.staleWhileRevalidate = staleWhileRevalidate;
         }
 
         public int size() {
@@ -239,10 +392,95 @@ public class DirectBufferCache {
                 this.expires = System.currentTimeMillis() + maxAge;
             }
             this.enabled = 2;
+            final CacheEntry stale = takeReplaces();
+            if (stale != null) {
+                cache.replaced(stale, this);
+            }
+            runLoadListeners();
         }
 
         public void disable() {
             this.enabled = 0;
+            final CacheEntry stale = takeReplaces();
+            if (stale != null) {
+                //this entry was never added to the cache, so drop the reference that the cache would have held
+                stale.releaseRevalidation();
+                dereference();
+            }
+            runLoadListeners();
+        }
+
+        private CacheEntry takeReplaces() {
+            synchronized (this) {
+                final CacheEntry stale = replaces;
+                replaces = null;
+                return stale;
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the entry has expired, but can still be served while it is revalidated
+         */
+        public boolean isStale() {
+            final long expires = this.expires;
+            return expires != -1 && System.currentTimeMillis() > expires;
+        }
+
+        /**
+         * Claims the right to fetch a new copy of a stale entry, so only one request does it at a time.
+         *
+         * @return <code>true</code> if the caller should revalidate the entry
+         */
+        public boolean claimRevalidation() {
+            return revalidatingUpdater.compareAndSet(this, 0, 1);
+        }
+
+        /**
+         * Releases a claim obtained from {@link #claimRevalidation()} if the revalidation did not produce a new entry.
+         */
+        public void releaseRevalidation() {
+            this.revalidating = 0;
+        }
+
+        /**
+         * @return <code>true</code> if a response is currently being written into this entry
+         */
+        public boolean loading() {
+            return enabled == 1;
+        }
+
+        /**
+         * Registers a task that is run when this entry has finished loading, either because it has been
+         * enabled or because loading failed. The task is run by the thread that completed the load, so it
+         * should not block.
+         *
+         * @param listener The task
+         * @return <code>false</code> if the entry is not loading, in which case the listener will not be run
+         */
+        public boolean addLoadListener(final Runnable listener) {
+            synchronized (this) {
+                if (enabled != 1) {
+                    return false;
+                }
+                if (loadListeners == null) {
+                    loadListeners = new ArrayList<Runnable>(2);
+                }
+                loadListeners.add(listener);
+                return true;
+            }
+        }
+
+        private void runLoadListeners() {
+            final List<Runnable> listeners;
+            synchronized (this) {
+                listeners = loadListeners;
+                loadListeners = null;
+            }
+            if (listeners != null) {
+                for (Runnable listener : listeners) {
+                    listener.run();
+                }
+            }
         }
 
         public boolean claimEnable() {
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * Policy that decides what happens when {@link LRUCache} or {@link DirectBufferCache} runs out of capacity.
+ * <p/>
+ * The caches always pick the least recently used entry as the eviction victim. Before it is evicted
+ * the policy is asked if the entry that needs the space should be admitted at all. If it is not
+ * then the new entry is dropped and the victim stays in the cache.
+ * <p/>
+ * A policy instance holds state for a single cache, and must not be shared between caches.
+ *
+ * @author Stuart Douglas
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Plain LRU, new entries are always admitted.
+     */
+    EvictionPolicy LRU = new EvictionPolicy() {
+        @Override
+        public void recordAccess(final Object key) {
+        }
+
+        @Override
+        public boolean admit(final Object candidate, final Object victim) {
+            return true;
+        }
+    };
+
+    /**
+     * Called on every cache lookup, whether it hits or misses.
+     *
+     * @param key The key that was looked up
+     */
+    void recordAccess(final Object key);
+
+    /**
+     * Decides if a new entry should be admitted to the cache if it means evicting the given victim.
+     *
+     * @param candidate The key of the entry that needs space
+     * @param victim    The key of the least recently used entry
+     * @return <code>true</code> if the victim should be evicted, <code>false</code> if the candidate should be rejected
+     */
+    boolean admit(final Object candidate, final Object victim);
+}
@@ -19,6 +19,7 @@
 package io.undertow.server.handlers.cache;
 
 import io.undertow.util.ConcurrentDirectDeque;
+import io.undertow.util.StripedCounter;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -32,6 +33,9 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
  * fashion (entry hits modulo N). Eviction follows an LRU approach (oldest sampled
  * entries are removed first) when the cache is out of capacity.</p>
  * <p/>
+ * <p>Before an entry is evicted the {@link EvictionPolicy} is consulted, which may
+ * decide to reject the new entry instead.</p>
+ * <p/>
  *
  * @author Jason T. Greene
  * @author Stuart Douglas
@@ -50,12 +54,23 @@ public class LRUCache<K, V> {
      * How long an item can stay in the cache in milliseconds
      */
     private final int maxAge;
+    private final EvictionPolicy evictionPolicy;
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter admissionRejections = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
 
     public LRUCache(int maxEntries, final int maxAge) {
+        this(maxEntries, maxAge, EvictionPolicy.LRU);
+    }
+
+    public LRUCache(int maxEntries, final int maxAge, final EvictionPolicy evictionPolicy) {
         this.maxAge = maxAge;
         this.cache = new ConcurrentHashMap<K, CacheEntry<K, V>>(16);
         this.accessQueue = ConcurrentDirectDeque.newInstance();
         this.maxEntries = maxEntries;
+        this.evictionPolicy = evictionPolicy;
     }
 
     public void add(K key, V newValue) {
@@ -75,27 +90,39 @@ public class LRUCache<K, V> {
             }
             bumpAccess(value);
             if (cache.size() > maxEntries) {
-                //remove the oldest
-                CacheEntry<K, V> oldest = accessQueue.poll();
-                if (oldest != value) {
-                    this.remove(oldest.key());
+                CacheEntry<K, V> oldest = accessQueue.peek();
+                if (oldest != null && oldest != value && !evictionPolicy.admit(key, oldest.key())) {
+                    //the new entry is less valuable than the oldest one, so we drop it instead
+                    this.remove(key);
+                    admissionRejections.increment();
+                } else {
+                    //remove the oldest
+                    oldest = accessQueue.poll();
+                    if (oldest != null && oldest != value) {
+                        this.remove(oldest.key());
+                        evictions.increment();
+                    }
                 }
             }
         }
     }
 
     public V get(K key) {
+        evictionPolicy.recordAccess(key);
         CacheEntry<K, V> cacheEntry = cache.get(key);
         if (cacheEntry == null) {
+            misses.increment();
             return null;
         }
         long expires = cacheEntry.getExpires();
         if(expires != -1) {
             if(System.currentTimeMillis() > expires) {
                 remove(key);
+                misses.increment();
                 return null;
             }
         }
+        hits.increment();
 
         if (cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
             bumpAccess(cacheEntry);
@@ -137,6 +164,38 @@ public class LRUCache<K, V> {
         }
     }
 
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * @return The number of lookups that found an entry
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that did not find an entry
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of new entries that the eviction policy refused to admit
+     */
+    public long getAdmissionRejections() {
+        return admissionRejections.sum();
+    }
+
+    /**
+     * @return The number of entries that were evicted to make room for new entries
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
     public static final class CacheEntry<K, V> {
 
         private static final Object CLAIM_TOKEN = new Object();
@@ -0,0 +1,528 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import io.undertow.UndertowLogger;
+import io.undertow.util.ConcurrentDirectDeque;
+import io.undertow.util.StripedCounter;
+
+/**
+ * A cache of memory mapped files, intended for files that are too big to be held in a {@link DirectBufferCache}.
+ * <p/>
+ * Serving a mapped file does not need any read calls, and does not use any pooled buffers, the
+ * kernel page cache is used directly. The total size of all mappings is limited by a memory budget,
+ * when it is exceeded the least recently used mappings are removed. As with {@link DirectBufferCache}
+ * recency is only updated on a sample of hits, and the {@link EvictionPolicy} can prevent a new file
+ * from evicting more popular ones.
+ * <p/>
+ * Entries are reference counted, and a file is only unmapped once it has been removed from the cache
+ * and all requests that are using it have completed. Mappings that are in use when they are evicted
+ * no longer count towards the budget.
+ * <p/>
+ * Mapping a file is only worthwhile if it is served repeatedly, so a file is not mapped until it has been
+ * looked up a number of times. Callers use {@link #claimMapping(Object)} to find out if a file that missed should
+ * now be mapped. Opening and mapping a file are blocking operations, so they should not be done on an IO thread.
+ * <p/>
+ * Files must not be truncated while they are mapped, as accessing a mapping past the end of the file
+ * results in an error. Entries should be removed as soon as a change to the underlying file is detected.
+ *
+ * @author Stuart Douglas
+ */
+public class MappedFileCache {
+
+    private static final int SAMPLE_INTERVAL = 5;
+
+    /**
+     * The default number of lookups for a file before it is mapped
+     */
+    public static final int DEFAULT_MAP_THRESHOLD = 5;
+
+    /**
+     * The maximum number of unmapped files that lookups are counted for. If it is reached the counts are
+     * discarded, so only files that are requested often in a short period are mapped.
+     */
+    private static final int MAX_CANDIDATES = 1024;
+
+    /**
+     * The largest region that can be covered by a single mapping
+     */
+    private static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+    private final ConcurrentHashMap<Object, MappedEntry> cache = new ConcurrentHashMap<Object, MappedEntry>(16);
+    private final ConcurrentDirectDeque<MappedEntry> accessQueue = ConcurrentDirectDeque.newInstance();
+    /**
+     * The number of lookups for each file that is not mapped
+     */
+    private final ConcurrentHashMap<Object, AtomicInteger> candidates = new ConcurrentHashMap<Object, AtomicInteger>(16);
+    private final AtomicLong mappedSize = new AtomicLong();
+    private final long maxMemory;
+    private final long maxFileSize;
+    private final int mapThreshold;
+    private final EvictionPolicy evictionPolicy;
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter admissionRejections = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    /**
+     * @param maxMemory   The maximum total size of all mapped files
+     * @param maxFileSize The biggest file that will be mapped
+     */
+    public MappedFileCache(final long maxMemory, final long maxFileSize) {
+        this(maxMemory, maxFileSize, DEFAULT_MAP_THRESHOLD, EvictionPolicy.LRU);
+    }
+
+    public MappedFileCache(final long maxMemory, final long maxFileSize, final EvictionPolicy evictionPolicy) {
+        this(maxMemory, maxFileSize, DEFAULT_MAP_THRESHOLD, evictionPolicy);
+    }
+
+    /**
+     * @param maxMemory      The maximum total size of all mapped files
+     * @param maxFileSize    The biggest file that will be mapped
+     * @param mapThreshold   The number of times a file must be looked up before it is mapped
+     * @param evictionPolicy The eviction policy
+     */
+    public MappedFileCache(final long maxMemory, final long maxFileSize, final int mapThreshold, final EvictionPolicy evictionPolicy) {
+        if (mapThreshold < 1) {
+            throw new IllegalArgumentException("mapThreshold must be at least 1");
+        }
+        this.maxMemory = maxMemory;
+        this.maxFileSize = maxFileSize;
+        this.mapThreshold = mapThreshold;
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * Looks up a mapped file. The returned entry must be referenced before its buffers are used.
+     *
+     * @param key The key
+     * @return The entry, or null if the file is not mapped
+     */
+    public MappedEntry get(final Object key) {
+        evictionPolicy.recordAccess(key);
+        final MappedEntry entry = cache.get(key);
+        if (entry == null) {
+            misses.increment();
+            recordCandidate(key);
+            return null;
+        }
+        hits.increment();
+        if (entry.hit() % SAMPLE_INTERVAL == 0) {
+            bumpAccess(entry);
+        }
+        return entry;
+    }
+
+    private void recordCandidate(final Object key) {
+        final AtomicInteger count = candidates.get(key);
+        if (count != null) {
+            count.incrementAndGet();
+            return;
+        }
+        if (candidates.size() >= MAX_CANDIDATES) {
+            candidates.clear();
+        }
+        final AtomicInteger existing = candidates.putIfAbsent(key, new AtomicInteger(1));
+        if (existing != null) {
+            existing.incrementAndGet();
+        }
+    }
+
+    /**
+     * Decides if a file that was not found by {@link #get(Object)} should now be mapped. This returns
+     * <code>true</code> once the file has been looked up at least <code>mapThreshold</code> times, and only to one
+     * caller, which should then map the file with {@link #add(Object, FileChannel, long)}. If the mapping fails the
+     * count starts again.
+     *
+     * @param key The key
+     * @return <code>true</code> if the caller should map the file
+     */
+    public boolean claimMapping(final Object key) {
+        final AtomicInteger count = candidates.get(key);
+        return count != null && count.get() >= mapThreshold && candidates.remove(key, count);
+    }
+
+    /**
+     * Looks up a mapped file without recording an access.
+     *
+     * @param key The key
+     * @return The entry, or null if the file is not mapped
+     */
+    public MappedEntry peek(final Object key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Maps the given region of a file into memory and adds it to the cache. The channel is not used after
+     * this method returns, and can be closed.
+     *
+     * @param key     The key
+     * @param channel The file channel
+     * @param size    The number of bytes to map, starting at the beginning of the file
+     * @return The entry, or null if the file is too big or was not admitted to the cache
+     * @throws IOException If the file could not be mapped
+     */
+    public MappedEntry add(final Object key, final FileChannel channel, final long size) throws IOException {
+        if (size <= 0 || size > maxFileSize || size > maxMemory) {
+            return null;
+        }
+        MappedEntry existing = cache.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (!reserve(key, size)) {
+            admissionRejections.increment();
+            return null;
+        }
+        final MappedEntry entry;
+        try {
+            entry = new MappedEntry(key, map(channel, size), size);
+        } catch (IOException e) {
+            mappedSize.addAndGet(-size);
+            throw e;
+        } catch (RuntimeException e) {
+            mappedSize.addAndGet(-size);
+            throw e;
+        }
+        existing = cache.putIfAbsent(key, entry);
+        if (existing != null) {
+            //another thread mapped it at the same time
+            mappedSize.addAndGet(-size);
+            entry.dereference();
+            return existing;
+        }
+        bumpAccess(entry);
+        return entry;
+    }
+
+    /**
+     * Reserves space in the budget, evicting the least recently used entries if required.
+     */
+    private synchronized boolean reserve(final Object key, final long size) {
+        if (mappedSize.get() + size > maxMemory) {
+            for (MappedEntry oldest : accessQueue) {
+                if (!evictionPolicy.admit(key, oldest.key())) {
+                    return false;
+                }
+                evictions.increment();
+                remove(oldest.key());
+                if (mappedSize.get() + size <= maxMemory) {
+                    break;
+                }
+            }
+            if (mappedSize.get() + size > maxMemory) {
+                return false;
+            }
+        }
+        mappedSize.addAndGet(size);
+        return true;
+    }
+
+    public void remove(final Object key) {
+        final MappedEntry remove = cache.remove(key);
+        if (remove != null) {
+            final Object old = remove.clearToken();
+            if (old != null) {
+                accessQueue.removeToken(old);
+            }
+            mappedSize.addAndGet(-remove.size());
+            remove.dereference();
+        }
+    }
+
+    /**
+     * Returns a set of all the keys in the cache. This is a copy of the
+     * key set at the time of method invocation.
+     *
+     * @return all the keys in this cache
+     */
+    public Set<Object> getAllKeys() {
+        return new HashSet<Object>(cache.keySet());
+    }
+
+    /**
+     * @return The total size of all mapped files that are in the cache
+     */
+    public long getMappedSize() {
+        return mappedSize.get();
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public int getMapThreshold() {
+        return mapThreshold;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * @return The number of lookups that found an entry
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that did not find an entry
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of files that were not mapped because there was no room for them
+     */
+    public long getAdmissionRejections() {
+        return admissionRejections.sum();
+    }
+
+    /**
+     * @return The number of entries that were evicted to make room for other entries
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void bumpAccess(MappedEntry entry) {
+        Object prevToken = entry.claimToken();
+        if (prevToken != Boolean.FALSE) {
+            if (prevToken != null) {
+                accessQueue.removeToken(prevToken);
+            }
+
+            Object token = null;
+            try {
+                token = accessQueue.offerLastAndReturnToken(entry);
+            } catch (Throwable t) {
+                // In case of disaster (OOME), we need to release the claim, so leave it as null
+            }
+
+            if (!entry.setToken(token) && token != null) { // Always set if null
+                accessQueue.removeToken(token);
+            }
+        }
+    }
+
+    private static MappedByteBuffer[] map(final FileChannel channel, final long size) throws IOException {
+        final int count = (int) ((size + MAX_MAPPING_SIZE - 1) / MAX_MAPPING_SIZE);
+        final MappedByteBuffer[] buffers = new MappedByteBuffer[count];
+        long position = 0;
+        try {
+            for (int i = 0; i < count; ++i) {
+                final long length = Math.min(MAX_MAPPING_SIZE, size - position);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+        } catch (IOException e) {
+            for (MappedByteBuffer buffer : buffers) {
+                Unmapper.unmap(buffer);
+            }
+            throw e;
+        }
+        return buffers;
+    }
+
+    public static final class MappedEntry {
+
+        private static final Object CLAIM_TOKEN = new Object();
+
+        private static final AtomicIntegerFieldUpdater<MappedEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(MappedEntry.class, "hits");
+        private static final AtomicIntegerFieldUpdater<MappedEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(MappedEntry.class, "refs");
+        private static final AtomicReferenceFieldUpdater<MappedEntry, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(MappedEntry.class, Object.class, "accessToken");
+
+        private final Object key;
+        private final MappedByteBuffer[] buffers;
+        private final long size;
+        private volatile int refs = 1;
+        private volatile int hits = 1;
+        private volatile Object accessToken;
+
+        private MappedEntry(final Object key, final MappedByteBuffer[] buffers, final long size) {
+            this.key = key;
+            this.buffers = buffers;
+            this.size = size;
+        }
+
+        public Object key() {
+            return key;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Returns duplicates of the mapped buffers, so the caller can change the position and limit. The
+         * entry must be referenced while they are in use.
+         *
+         * @return The mapped file contents
+         */
+        public ByteBuffer[] duplicateBuffers() {
+            final ByteBuffer[] result = new ByteBuffer[buffers.length];
+            for (int i = 0; i < buffers.length; ++i) {
+                result[i] = buffers[i].duplicate();
+            }
+            return result;
+        }
+
+        int hit() {
+            for (;;) {
+                int i = hits;
+
+                if (hitsUpdater.weakCompareAndSet(this, i, ++i)) {
+                    return i;
+                }
+            }
+        }
+
+        public boolean reference() {
+            for (;;) {
+                int refs = this.refs;
+                if (refs < 1) {
+                    return false; // destroying
+                }
+
+                if (refsUpdater.compareAndSet(this, refs++, refs)) {
+                    return true;
+                }
+            }
+        }
+
+        public boolean dereference() {
+            for (;;) {
+                int refs = this.refs;
+                if (refs < 1) {
+                    return false;  // destroying
+                }
+
+                if (refsUpdater.compareAndSet(this, refs--, refs)) {
+                    if (refs == 0) {
+                        for (MappedByteBuffer buffer : buffers) {
+                            Unmapper.unmap(buffer);
+                        }
+                    }
+                    return true;
+                }
+            }
+        }
+
+        Object claimToken() {
+            for (;;) {
+                Object current = this.accessToken;
+                if (current == CLAIM_TOKEN) {
+                    return Boolean.FALSE;
+                }
+
+                if (tokenUpdator.compareAndSet(this, current, CLAIM_TOKEN)) {
+                    return current;
+                }
+            }
+        }
+
+        boolean setToken(Object token) {
+            return tokenUpdator.compareAndSet(this, CLAIM_TOKEN, token);
+        }
+
+        Object clearToken() {
+            Object old = tokenUpdator.getAndSet(this, null);
+            return old == CLAIM_TOKEN ? null : old;
+        }
+    }
+
+    /**
+     * Releases mappings eagerly, rather than waiting for the buffers to be garbage collected. There is
+     * no public API for this, so if the JDK internals are not accessible the mapping is left for the GC.
+     */
+    private static final class Unmapper {
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+        private static final Method CLEANER;
+        private static final Method CLEAN;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            Method cleaner = null;
+            Method clean = null;
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (Throwable t) {
+                invokeCleaner = null;
+                try {
+                    cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                    clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                } catch (Throwable e) {
+                    UndertowLogger.ROOT_LOGGER.debugf(e, "Mapped files cannot be unmapped eagerly");
+                    cleaner = null;
+                    clean = null;
+                }
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+            CLEANER = cleaner;
+            CLEAN = clean;
+        }
+
+        static void unmap(final MappedByteBuffer buffer) {
+            if (buffer == null) {
+                return;
+            }
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } else if (CLEANER != null) {
+                    final Object cleaner = CLEANER.invoke(buffer);
+                    if (cleaner != null) {
+                        CLEAN.invoke(cleaner);
+                    }
+                }
+            } catch (Throwable t) {
+                UndertowLogger.ROOT_LOGGER.debugf(t, "Failed to unmap buffer");
+            }
+        }
+    }
+}
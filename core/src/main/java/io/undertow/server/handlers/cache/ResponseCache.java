@@ -44,13 +44,22 @@ public class ResponseCache {
 
     public static final AttachmentKey<ResponseCache> ATTACHMENT_KEY = AttachmentKey.create(ResponseCache.class);
 
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
     private final DirectBufferCache cache;
     private final HttpServerExchange exchange;
+    private final LRUCache<String, HttpString[]> varyHeaders;
     private boolean responseCachable;
+    private DirectBufferCache.CacheEntry revalidatingEntry;
 
     public ResponseCache(final DirectBufferCache cache, final HttpServerExchange exchange) {
+        this(cache, exchange, null);
+    }
+
+    ResponseCache(final DirectBufferCache cache, final HttpServerExchange exchange, final LRUCache<String, HttpString[]> varyHeaders) {
         this.cache = cache;
         this.exchange = exchange;
+        this.varyHeaders = varyHeaders;
     }
 
     /**
@@ -81,7 +90,8 @@ public class ResponseCache {
      * @return <code>true</code> if serving succeeded,
      */
     public boolean tryServeResponse(boolean markCacheable) {
-        final CachedHttpRequest key = new CachedHttpRequest(exchange);
+        final HttpString[] vary = varyHeaders == null ? null : varyHeaders.get(exchange.getRequestPath());
+        final CachedHttpRequest key = new CachedHttpRequest(exchange, vary);
         DirectBufferCache.CacheEntry entry = cache.get(key);
 
         //we only cache get and head requests
@@ -101,6 +111,15 @@ public class ResponseCache {
             return false;
         }
 
+        final boolean stale = entry.isStale();
+        if (stale && markCacheable && entry.claimRevalidation()) {
+            //this request fetches a new copy, everyone else is served the stale one until it is available
+            entry.dereference();
+            this.revalidatingEntry = entry;
+            this.responseCachable = true;
+            return false;
+        }
+
         CachedHttpRequest existingKey = (CachedHttpRequest) entry.key();
         //if any of the header matches fail we just return
         //we don't can the request, as it is possible the underlying handler
@@ -144,6 +163,19 @@ public class ResponseCache {
         if(etag != null) {
             exchange.getResponseHeaders().put(Headers.CONTENT_LANGUAGE, etag.toString());
         }
+        if(vary != null && vary.length > 0) {
+            final StringBuilder sb = new StringBuilder();
+            for (HttpString header : vary) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(header.toString());
+            }
+            exchange.getResponseHeaders().put(Headers.VARY, sb.toString());
+        }
+        if(stale) {
+            exchange.getResponseHeaders().put(Headers.WARNING, STALE_WARNING);
+        }
 
         //TODO: support if-range
         exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(entry.size()));
@@ -180,6 +212,13 @@ public class ResponseCache {
         return responseCachable;
     }
 
+    /**
+     * @return The stale entry this request is refreshing, or null
+     */
+    DirectBufferCache.CacheEntry getRevalidatingEntry() {
+        return revalidatingEntry;
+    }
+
     private static class DereferenceCallback implements IoCallback {
         private final DirectBufferCache.CacheEntry cache;
 
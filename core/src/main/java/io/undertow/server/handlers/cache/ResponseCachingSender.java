@@ -102,6 +102,12 @@ public class ResponseCachingSender implements Sender {
         delegate.transferFrom(channel, callback);
     }
 
+    @Override
+    public void transferFrom(FileChannel channel, long position, long count, IoCallback callback) {
+        // Transfer never caches
+        delegate.transferFrom(channel, position, count, callback);
+    }
+
     @Override
     public void close(final IoCallback callback) {
         if (written != length) {
@@ -3,6 +3,7 @@ package io.undertow.server.handlers.cache;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.xnio.Buffers;
 import org.xnio.IoUtils;
@@ -16,9 +17,12 @@ import org.xnio.conduits.StreamSinkConduit;
  */
 public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
 
+    private static final AtomicIntegerFieldUpdater<ResponseCachingStreamSinkConduit> doneUpdater = AtomicIntegerFieldUpdater.newUpdater(ResponseCachingStreamSinkConduit.class, "done");
+
     private final DirectBufferCache.CacheEntry cacheEntry;
     private final long length;
     private long written;
+    private volatile int done = 0;
 
     /**
      * Construct a new instance.
@@ -49,7 +53,13 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
     @Override
     public int write(final ByteBuffer src) throws IOException {
         ByteBuffer origSrc = src.duplicate();
-        int totalWritten =  super.write(src);
+        final int totalWritten;
+        try {
+            totalWritten = super.write(src);
+        } catch (IOException e) {
+            loadFailed();
+            throw e;
+        }
         if(totalWritten > 0)  {
             LimitedBufferSlicePool.PooledByteBuffer[] pooled = cacheEntry.buffers();
             ByteBuffer[] buffers = new ByteBuffer[pooled.length];
@@ -63,7 +73,9 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
                     //prepare buffers for reading
                     buffer.flip();
                 }
-                cacheEntry.enable();
+                if (doneUpdater.compareAndSet(this, 0, 1)) {
+                    cacheEntry.enable();
+                }
             }
         }
         return totalWritten;
@@ -76,7 +88,13 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
         for (int i = 0; i < srcs.length; i++) {
             origSrc[i] = srcs[i].duplicate();
         }
-        long totalWritten =  super.write(srcs, offs, len);
+        final long totalWritten;
+        try {
+            totalWritten = super.write(srcs, offs, len);
+        } catch (IOException e) {
+            loadFailed();
+            throw e;
+        }
         if(totalWritten > 0)  {
             LimitedBufferSlicePool.PooledByteBuffer[] pooled = cacheEntry.buffers();
             ByteBuffer[] buffers = new ByteBuffer[pooled.length];
@@ -101,7 +119,9 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
                     //prepare buffers for reading
                     buffer.flip();
                 }
-                cacheEntry.enable();
+                if (doneUpdater.compareAndSet(this, 0, 1)) {
+                    cacheEntry.enable();
+                }
             }
         }
         return totalWritten;
@@ -110,8 +130,7 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
     @Override
     public void terminateWrites() throws IOException {
         if (written != length) {
-            cacheEntry.disable();
-            cacheEntry.dereference();
+            loadFailed();
         }
         super.terminateWrites();
     }
@@ -119,9 +138,19 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
     @Override
     public void truncateWrites() throws IOException {
         if (written != length) {
+            loadFailed();
+        }
+        super.truncateWrites();
+    }
+
+    /**
+     * Abandons the cache entry if the response was not written in full. This wakes any requests that are waiting for
+     * the entry to load, and is a no-op once the entry has been enabled or abandoned.
+     */
+    void loadFailed() {
+        if (doneUpdater.compareAndSet(this, 0, 1)) {
             cacheEntry.disable();
             cacheEntry.dereference();
         }
-        super.truncateWrites();
     }
 }
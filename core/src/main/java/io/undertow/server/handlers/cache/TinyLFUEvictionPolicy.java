@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * A TinyLFU admission policy.
+ * <p/>
+ * The access frequency of every key that is looked up is recorded in a count-min sketch of 4 bit
+ * counters. When the cache is full, a new entry is only admitted if it has been requested more often
+ * than the least recently used entry that would be evicted to make room for it. This means that a
+ * scan over a large number of keys that are only requested once (e.g. a crawler) cannot flush the
+ * popular entries out of the cache.
+ * <p/>
+ * To allow the cache to adapt to changes in popularity all counters are halved once the number of
+ * recorded accesses reaches ten times the expected number of entries.
+ * <p/>
+ * The sketch is updated without locking, so concurrent updates may occasionally be lost. This only
+ * reduces the accuracy of the frequency estimate, which is acceptable for an admission heuristic.
+ *
+ * @author Stuart Douglas
+ */
+public class TinyLFUEvictionPolicy implements EvictionPolicy {
+
+    private static final long[] SEED = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param expectedEntries The expected maximum number of entries in the cache
+     */
+    public TinyLFUEvictionPolicy(final int expectedEntries) {
+        int maximum = Math.max(1, expectedEntries);
+        int tableSize = 1;
+        while (tableSize < maximum && tableSize < (1 << 30)) {
+            tableSize <<= 1;
+        }
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = maximum > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : maximum * 10;
+    }
+
+    @Override
+    public void recordAccess(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; ++i) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    @Override
+    public boolean admit(final Object candidate, final Object victim) {
+        return frequency(candidate) > frequency(victim);
+    }
+
+    /**
+     * @return The estimated number of times the key has been accessed, up to a maximum of 15
+     */
+    public int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; ++i) {
+            final int index = indexOf(hash, i);
+            final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(final int i, final int j) {
+        final int offset = j << 2;
+        final long mask = 0xfL << offset;
+        final long current = table[i];
+        if ((current & mask) != mask) {
+            table[i] = current + (1L << offset);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves every counter, so old accesses count for less than recent ones
+     */
+    private void reset() {
+        int count = 0;
+        for (int i = 0; i < table.length; ++i) {
+            count += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (count >>> 2);
+    }
+
+    private int indexOf(final int item, final int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
+
+/**
+ * A policy that decides if a response is worth compressing, and how hard to compress it.
+ * <p/>
+ * Responses with a content length below {@link #setMinimumContentLength(long)} are not compressed, as the saving is
+ * not worth the CPU time and the framing overhead. Responses with a content type that is already compressed, such as
+ * images and archives, are never compressed. Types can be given exactly (<code>application/zip</code>) or by
+ * major type (<code>image/*</code>).
+ * <p/>
+ * The compression level is picked from the current load, as reported by a {@link LoadMonitor}. When the load is at
+ * or below the low water mark the maximum level is used, and at or above the high water mark the minimum level is used,
+ * with the level scaled linearly in between. By default the load is the system load average divided by the number of
+ * processors, but a monitor based on something like the depth of a request queue can be used instead.
+ *
+ * @author Stuart Douglas
+ * @see EncodingHandler#setEncodingPolicy(AdaptiveEncodingPolicy)
+ */
+public class AdaptiveEncodingPolicy {
+
+    /**
+     * The compression level that was selected for the current response. Encoding providers that support different
+     * compression levels use this if it is present.
+     */
+    public static final AttachmentKey<Integer> COMPRESSION_LEVEL = AttachmentKey.create(Integer.class);
+
+    /**
+     * A source of the current load on the server. 0 means idle, 1 means fully loaded, values above 1 mean overloaded.
+     */
+    public interface LoadMonitor {
+        double getLoad();
+    }
+
+    /**
+     * A load monitor based on the system load average. As reading the load average is relatively expensive it is
+     * sampled at most once a second.
+     */
+    public static final LoadMonitor SYSTEM_LOAD = new LoadMonitor() {
+
+        private final OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        private final int processors = Runtime.getRuntime().availableProcessors();
+        private volatile long nextSample;
+        private volatile double load;
+
+        @Override
+        public double getLoad() {
+            final long now = System.currentTimeMillis();
+            if (now >= nextSample) {
+                nextSample = now + 1000;
+                final double average = bean.getSystemLoadAverage();
+                //not all platforms support the load average, in which case we always use the maximum level
+                load = average < 0 ? 0 : average / processors;
+            }
+            return load;
+        }
+    };
+
+    private static final String[] DEFAULT_EXCLUDED_TYPES = {
+            "image/*",
+            "audio/*",
+            "video/*",
+            "application/zip",
+            "application/gzip",
+            "application/x-gzip",
+            "application/x-compress",
+            "application/x-bzip2",
+            "application/x-xz",
+            "application/x-7z-compressed",
+            "application/x-rar-compressed",
+            "application/java-archive",
+            "application/font-woff",
+            "application/octet-stream"
+    };
+
+    private final Set<String> excludedTypes = new CopyOnWriteArraySet<String>();
+    private volatile long minimumContentLength = 1024;
+    private volatile int minimumLevel = 1;
+    private volatile int maximumLevel = 6;
+    private volatile double lowLoad = 0.5;
+    private volatile double highLoad = 1.0;
+    private volatile LoadMonitor loadMonitor = SYSTEM_LOAD;
+
+    public AdaptiveEncodingPolicy() {
+        for (String type : DEFAULT_EXCLUDED_TYPES) {
+            excludedTypes.add(type);
+        }
+    }
+
+    /**
+     * Decides if the current response should be encoded. This is called once the response headers are known.
+     *
+     * @param exchange The exchange
+     * @return <code>true</code> if the response should be encoded
+     */
+    public boolean isEncodingAllowed(final HttpServerExchange exchange) {
+        final long length = exchange.getResponseContentLength();
+        if (length >= 0 && length < minimumContentLength) {
+            return false;
+        }
+        final String contentType = exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE);
+        return contentType == null || !isExcluded(contentType);
+    }
+
+    private boolean isExcluded(final String contentType) {
+        int end = contentType.indexOf(';');
+        String type = (end == -1 ? contentType : contentType.substring(0, end)).trim().toLowerCase(Locale.ENGLISH);
+        if (excludedTypes.contains(type)) {
+            return true;
+        }
+        final int slash = type.indexOf('/');
+        return slash != -1 && excludedTypes.contains(type.substring(0, slash) + "/*");
+    }
+
+    /**
+     * @return The compression level to use for a response, given the current load
+     */
+    public int getCompressionLevel() {
+        final double load = loadMonitor.getLoad();
+        final int min = minimumLevel;
+        final int max = maximumLevel;
+        if (load <= lowLoad) {
+            return max;
+        } else if (load >= highLoad) {
+            return min;
+        }
+        final double fraction = (load - lowLoad) / (highLoad - lowLoad);
+        return (int) Math.round(max - fraction * (max - min));
+    }
+
+    public long getMinimumContentLength() {
+        return minimumContentLength;
+    }
+
+    public AdaptiveEncodingPolicy setMinimumContentLength(final long minimumContentLength) {
+        this.minimumContentLength = minimumContentLength;
+        return this;
+    }
+
+    /**
+     * Prevents responses of the given type from being compressed.
+     *
+     * @param type The content type, e.g. <code>application/zip</code>, or a major type, e.g. <code>image/*</code>
+     */
+    public AdaptiveEncodingPolicy addExcludedType(final String type) {
+        excludedTypes.add(type.toLowerCase(Locale.ENGLISH));
+        return this;
+    }
+
+    public AdaptiveEncodingPolicy removeExcludedType(final String type) {
+        excludedTypes.remove(type.toLowerCase(Locale.ENGLISH));
+        return this;
+    }
+
+    public AdaptiveEncodingPolicy clearExcludedTypes() {
+        excludedTypes.clear();
+        return this;
+    }
+
+    public int getMinimumLevel() {
+        return minimumLevel;
+    }
+
+    public int getMaximumLevel() {
+        return maximumLevel;
+    }
+
+    /**
+     * Sets the range of compression levels to choose from
+     *
+     * @param minimumLevel The level to use at high load, from 1 to 9
+     * @param maximumLevel The level to use at low load, from 1 to 9
+     */
+    public AdaptiveEncodingPolicy setLevels(final int minimumLevel, final int maximumLevel) {
+        if (minimumLevel < 1 || maximumLevel > 9 || minimumLevel > maximumLevel) {
+            throw UndertowMessages.MESSAGES.invalidCompressionLevels(minimumLevel, maximumLevel);
+        }
+        this.minimumLevel = minimumLevel;
+        this.maximumLevel = maximumLevel;
+        return this;
+    }
+
+    public double getLowLoad() {
+        return lowLoad;
+    }
+
+    public double getHighLoad() {
+        return highLoad;
+    }
+
+    /**
+     * Sets the load at which the maximum level is used, and the load at which the minimum level is used.
+     */
+    public AdaptiveEncodingPolicy setLoadRange(final double lowLoad, final double highLoad) {
+        this.lowLoad = lowLoad;
+        this.highLoad = Math.max(lowLoad, highLoad);
+        return this;
+    }
+
+    public LoadMonitor getLoadMonitor() {
+        return loadMonitor;
+    }
+
+    public AdaptiveEncodingPolicy setLoadMonitor(final LoadMonitor loadMonitor) {
+        if (loadMonitor == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("loadMonitor");
+        }
+        this.loadMonitor = loadMonitor;
+        return this;
+    }
+}
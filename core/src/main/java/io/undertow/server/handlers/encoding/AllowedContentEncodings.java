@@ -21,6 +21,7 @@ public class AllowedContentEncodings implements ConduitWrapper<StreamSinkConduit
 
     private final HttpServerExchange exchange;
     private final List<EncodingMapping> encodings;
+    private AdaptiveEncodingPolicy encodingPolicy;
 
 
     public AllowedContentEncodings(final HttpServerExchange exchange, final List<EncodingMapping> encodings) {
@@ -53,6 +54,10 @@ public class AllowedContentEncodings implements ConduitWrapper<StreamSinkConduit
         return getCurrentContentEncoding().equals(Headers.IDENTITY.toString());
     }
 
+    void setEncodingPolicy(final AdaptiveEncodingPolicy encodingPolicy) {
+        this.encodingPolicy = encodingPolicy;
+    }
+
     /**
      * If the list of allowed encodings was empty then it means that no encodings were allowed, and
      * identity was explicitly prohibited with a q value of 0.
@@ -71,6 +76,10 @@ public class AllowedContentEncodings implements ConduitWrapper<StreamSinkConduit
         if (exchange.getResponseContentLength() != 0
                 && exchange.getResponseCode() != 204
                 && exchange.getResponseCode() != 304) {
+            if (encodingPolicy != null && !encodingPolicy.isEncodingAllowed(exchange)) {
+                //too small, or already compressed
+                return factory.create();
+            }
             EncodingMapping encoding = getEncoding();
             if (encoding != null) {
                 exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding.getName());
@@ -78,6 +87,9 @@ public class AllowedContentEncodings implements ConduitWrapper<StreamSinkConduit
                     //we don't create an actual encoder for HEAD requests, but we set the header
                     return factory.create();
                 } else {
+                    if (encodingPolicy != null) {
+                        exchange.putAttachment(AdaptiveEncodingPolicy.COMPRESSION_LEVEL, encodingPolicy.getCompressionLevel());
+                    }
                     return encoding.getEncoding().getResponseWrapper().wrap(factory, exchange);
                 }
             }
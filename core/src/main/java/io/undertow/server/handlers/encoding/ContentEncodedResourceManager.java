@@ -4,7 +4,11 @@ import io.undertow.UndertowLogger;
 import io.undertow.predicate.Predicate;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.resource.CachingResourceManager;
+import io.undertow.server.handlers.resource.FileChannelCache;
 import io.undertow.server.handlers.resource.Resource;
+import io.undertow.server.handlers.resource.ResourceChangeEvent;
+import io.undertow.server.handlers.resource.ResourceChangeListener;
+import io.undertow.server.handlers.resource.ResourceManager;
 import io.undertow.util.ImmediateConduitFactory;
 import org.xnio.FileAccess;
 import org.xnio.IoUtils;
@@ -17,21 +21,43 @@ import org.xnio.conduits.StreamSinkConduit;
 import org.xnio.conduits.WriteReadyHandler;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Class that provides a way of serving pre-encoded resources.
+ * <p/>
+ * By default resources are encoded the first time they are requested. Resources can also be encoded ahead of time
+ * by calling {@link #precompress(ResourceManager, int)} at startup, or {@link #precompress(ResourceManager, Executor)}
+ * to encode them in the background. Pre-compression only applies to encodings that implement
+ * {@link StreamEncodingProvider}. If a <code>.gz</code> file that is at least as new as the original is present next
+ * to a resource it is used for the <code>gzip</code> encoding, rather than encoding the resource again.
+ * <p/>
+ * Encoded resources are kept in an index, so once a resource has been encoded serving it does not require
+ * the file system to be checked.
  *
  * @author Stuart Douglas
  */
 public class ContentEncodedResourceManager {
 
+    private static final String ENCODED_SUFFIX = ".undertow.encoding.";
+    private static final String GZIP = "gzip";
+    private static final String GZIP_EXTENSION = ".gz";
 
     private final File encodedResourcesRoot;
     private final CachingResourceManager encoded;
@@ -39,10 +65,22 @@ public class ContentEncodedResourceManager {
     private final int minResourceSize;
     private final int maxResourceSize;
     private final Predicate encodingAllowed;
+    private final FileChannelCache fileChannelCache;
 
     private final ConcurrentMap<LockKey, Object> fileLocks = new ConcurrentHashMap<LockKey, Object>();
+    private final ConcurrentMap<LockKey, Resource> index = new ConcurrentHashMap<LockKey, Resource>();
+    private final ConcurrentMap<ResourceManager, Boolean> watchedResourceManagers = new ConcurrentHashMap<ResourceManager, Boolean>();
 
     public ContentEncodedResourceManager(File encodedResourcesRoot, CachingResourceManager encodedResourceManager, ContentEncodingRepository contentEncodingRepository, int minResourceSize, int maxResourceSize, Predicate encodingAllowed) {
+        this(encodedResourcesRoot, encodedResourceManager, contentEncodingRepository, minResourceSize, maxResourceSize, encodingAllowed, null);
+    }
+
+    /**
+     * @param fileChannelCache Cache used to open the source files, this should be the same cache that the underlying
+     *                         {@link io.undertow.server.handlers.resource.FileResourceManager} uses. May be null.
+     */
+    public ContentEncodedResourceManager(File encodedResourcesRoot, CachingResourceManager encodedResourceManager, ContentEncodingRepository contentEncodingRepository, int minResourceSize, int maxResourceSize, Predicate encodingAllowed, FileChannelCache fileChannelCache) {
+        this.fileChannelCache = fileChannelCache;
         this.encodedResourcesRoot = encodedResourcesRoot;
         this.encoded = encodedResourceManager;
         this.contentEncodingRepository = contentEncodingRepository;
@@ -67,9 +105,7 @@ public class ContentEncodedResourceManager {
         if (file == null) {
             return null;
         }
-        if (minResourceSize > 0 && resource.getContentLength() < minResourceSize ||
-                maxResourceSize > 0 && resource.getContentLength() > maxResourceSize ||
-                !(encodingAllowed == null || encodingAllowed.resolve(exchange))) {
+        if (!(encodingAllowed == null || encodingAllowed.resolve(exchange))) {
             return null;
         }
         AllowedContentEncodings encodings = contentEncodingRepository.getContentEncodings(exchange);
@@ -80,12 +116,21 @@ public class ContentEncodedResourceManager {
         if (encoding == null || encoding.getName().equals(ContentEncodingRepository.IDENTITY)) {
             return null;
         }
-        String newPath = path + ".undertow.encoding." + encoding.getName();
+        final LockKey key = new LockKey(normalize(path), encoding.getName());
+        //the size was checked when the resource was indexed
+        Resource indexed = index.get(key);
+        if (indexed != null) {
+            return new ContentEncodedResource(indexed, encoding.getName());
+        }
+        if (!isSizeEligible(resource.getContentLength())) {
+            return null;
+        }
+        String newPath = path + ENCODED_SUFFIX + encoding.getName();
         Resource preCompressed = encoded.getResource(newPath);
         if (preCompressed != null) {
+            index.put(key, preCompressed);
             return new ContentEncodedResource(preCompressed, encoding.getName());
         }
-        final LockKey key = new LockKey(path, encoding.getName());
         if (fileLocks.putIfAbsent(key, this) != null) {
             //another thread is already compressing
             //we don't do anything fancy here, just return and serve non-compressed content
@@ -93,6 +138,7 @@ public class ContentEncodedResourceManager {
         }
         FileChannel targetFileChannel = null;
         FileChannel sourceFileChannel = null;
+        FileChannelCache.CachedChannel cachedSourceChannel = null;
         try {
             //double check, the compressing thread could have finished just before we acquired the lock
             preCompressed = encoded.getResource(newPath);
@@ -112,27 +158,208 @@ public class ContentEncodedResourceManager {
             }
 
             targetFileChannel = exchange.getConnection().getWorker().getXnio().openFile(tempTarget, FileAccess.READ_WRITE);
-            sourceFileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
+            if (fileChannelCache != null) {
+                cachedSourceChannel = fileChannelCache.acquire(file.getCanonicalPath(), file, exchange.getConnection().getWorker().getXnio());
+            } else {
+                sourceFileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
+            }
+            final FileChannel source = cachedSourceChannel != null ? cachedSourceChannel.getChannel() : sourceFileChannel;
 
             StreamSinkConduit conduit = encoding.getEncoding().getResponseWrapper().wrap(new ImmediateConduitFactory<StreamSinkConduit>(new FileConduitTarget(targetFileChannel, exchange)), exchange);
             final ConduitStreamSinkChannel targetChannel = new ConduitStreamSinkChannel(null, conduit);
-            long transferred = sourceFileChannel.transferTo(0, resource.getContentLength(), targetChannel);
+            long transferred = source.transferTo(0, resource.getContentLength(), targetChannel);
             targetChannel.shutdownWrites();
             org.xnio.channels.Channels.flushBlocking(targetChannel);
             if (transferred != resource.getContentLength()) {
                 UndertowLogger.REQUEST_LOGGER.error("Failed to write pre-cached file");
             }
             tempTarget.renameTo(finalTarget);
+            if (fileChannelCache != null) {
+                fileChannelCache.invalidate(finalTarget.getCanonicalPath());
+            }
             encoded.invalidate(newPath);
             final Resource encodedResource = encoded.getResource(newPath);
+            if (encodedResource != null) {
+                index.put(key, encodedResource);
+            }
             return new ContentEncodedResource(encodedResource, encoding.getName());
         } finally {
             IoUtils.safeClose(targetFileChannel);
             IoUtils.safeClose(sourceFileChannel);
+            if (cachedSourceChannel != null) {
+                cachedSourceChannel.release();
+            }
             fileLocks.remove(key);
         }
     }
 
+    /**
+     * Encodes every eligible resource in the resource manager, and waits for encoding to complete. This is intended
+     * to be called on startup, before requests are served.
+     *
+     * @param resourceManager The resource manager that contains the resources to encode
+     * @param threads         The number of threads to use
+     */
+    public void precompress(final ResourceManager resourceManager, final int threads) throws IOException {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            precompress(resourceManager, executor);
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                //keep waiting
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Encodes every eligible resource in the resource manager in the background. The resource manager is walked on
+     * the calling thread, and the encoding is done by the executor, which should be bounded. Resources that have not
+     * been encoded by the time they are requested are encoded on demand as normal.
+     * <p/>
+     * If the resource manager supports change listeners the index entries of changed resources are removed, so they
+     * are encoded again the next time they are requested.
+     *
+     * @param resourceManager The resource manager that contains the resources to encode
+     * @param executor        The executor to encode the resources with
+     */
+    public void precompress(final ResourceManager resourceManager, final Executor executor) throws IOException {
+        if (resourceManager.isResourceChangeListenerSupported() && watchedResourceManagers.putIfAbsent(resourceManager, Boolean.TRUE) == null) {
+            resourceManager.registerResourceChangeListener(new ResourceChangeListener() {
+                @Override
+                public void handleChanges(final Collection<ResourceChangeEvent> changes) {
+                    for (ResourceChangeEvent change : changes) {
+                        invalidate(change.getResource());
+                    }
+                }
+            });
+        }
+        final List<EncodingMapping> encodings = new ArrayList<EncodingMapping>(contentEncodingRepository.getEncodings());
+        final Resource root = resourceManager.getResource("");
+        if (root != null) {
+            walk(resourceManager, root, "", encodings, executor);
+        }
+    }
+
+    private void walk(final ResourceManager resourceManager, final Resource resource, final String path, final List<EncodingMapping> encodings, final Executor executor) {
+        if (resource.isDirectory()) {
+            for (Resource child : resource.list()) {
+                //we build the path ourselves, as not all resource implementations return the full path for children
+                walk(resourceManager, child, path.isEmpty() ? child.getName() : path + "/" + child.getName(), encodings, executor);
+            }
+            return;
+        }
+        final File file = resource.getFile();
+        if (file == null
+                || path.endsWith(GZIP_EXTENSION)
+                || path.contains(ENCODED_SUFFIX)
+                || !isSizeEligible(resource.getContentLength())) {
+            return;
+        }
+        for (final EncodingMapping encoding : encodings) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    precompress(resourceManager, path, file, encoding);
+                }
+            });
+        }
+    }
+
+    private void precompress(final ResourceManager resourceManager, final String path, final File file, final EncodingMapping encoding) {
+        final LockKey key = new LockKey(path, encoding.getName());
+        if (index.containsKey(key)) {
+            return;
+        }
+        try {
+            if (encoding.getName().equals(GZIP)) {
+                final File sibling = new File(file.getPath() + GZIP_EXTENSION);
+                if (sibling.isFile() && sibling.lastModified() >= file.lastModified()) {
+                    final Resource siblingResource = resourceManager.getResource(path + GZIP_EXTENSION);
+                    if (siblingResource != null) {
+                        index.put(key, siblingResource);
+                        return;
+                    }
+                }
+            }
+            if (!(encoding.getEncoding() instanceof StreamEncodingProvider)) {
+                return;
+            }
+            if (fileLocks.putIfAbsent(key, this) != null) {
+                //being encoded by a request
+                return;
+            }
+            try {
+                final String newPath = path + ENCODED_SUFFIX + encoding.getName();
+                final File finalTarget = new File(encodedResourcesRoot, newPath);
+                final File tempTarget = new File(encodedResourcesRoot, newPath + ".tmp");
+                finalTarget.getParentFile().mkdirs();
+                final InputStream in = new FileInputStream(file);
+                try {
+                    final OutputStream out = ((StreamEncodingProvider) encoding.getEncoding()).createEncodingStream(new FileOutputStream(tempTarget));
+                    try {
+                        final byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    IoUtils.safeClose(in);
+                }
+                finalTarget.delete();
+                if (!tempTarget.renameTo(finalTarget)) {
+                    tempTarget.delete();
+                    return;
+                }
+                if (fileChannelCache != null) {
+                    fileChannelCache.invalidate(finalTarget.getCanonicalPath());
+                }
+                encoded.invalidate(newPath);
+                final Resource encodedResource = encoded.getResource(newPath);
+                if (encodedResource != null) {
+                    index.put(key, encodedResource);
+                }
+            } finally {
+                fileLocks.remove(key);
+            }
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.failedToPrecompressResource(e, path, encoding.getName());
+        }
+    }
+
+    private void invalidate(final String path) {
+        String normalized = normalize(path);
+        if (normalized.endsWith(GZIP_EXTENSION)) {
+            //the pre-compressed sibling of a resource has changed
+            normalized = normalized.substring(0, normalized.length() - GZIP_EXTENSION.length());
+        }
+        for (EncodingMapping encoding : contentEncodingRepository.getEncodings()) {
+            if (index.remove(new LockKey(normalized, encoding.getName())) != null) {
+                final String newPath = normalized + ENCODED_SUFFIX + encoding.getName();
+                new File(encodedResourcesRoot, newPath).delete();
+                encoded.invalidate(newPath);
+            }
+        }
+    }
+
+    private boolean isSizeEligible(final Long contentLength) {
+        return !(minResourceSize > 0 && contentLength < minResourceSize ||
+                maxResourceSize > 0 && contentLength > maxResourceSize);
+    }
+
+    private static String normalize(final String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
     private final class LockKey {
         private final String path;
         private final String encoding;
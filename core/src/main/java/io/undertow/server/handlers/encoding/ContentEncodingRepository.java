@@ -8,6 +8,7 @@ import io.undertow.util.Headers;
 import io.undertow.util.QValueParser;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -84,6 +85,13 @@ public class ContentEncodingRepository {
         return this;
     }
 
+    /**
+     * @return All registered encodings
+     */
+    Collection<EncodingMapping> getEncodings() {
+        return encodingMap.values();
+    }
+
     public synchronized ContentEncodingRepository removeEncodingHandler(final String encoding) {
         encodingMap.remove(encoding);
         return this;
@@ -1,5 +1,10 @@
 package io.undertow.server.handlers.encoding;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
 import io.undertow.conduits.DeflatingStreamSinkConduit;
 import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpServerExchange;
@@ -11,15 +16,35 @@ import org.xnio.conduits.StreamSinkConduit;
  *
  * @author Stuart Douglas
  */
-public class DeflateEncodingProvider implements ContentEncodingProvider {
+public class DeflateEncodingProvider implements StreamEncodingProvider {
 
     @Override
     public ConduitWrapper<StreamSinkConduit> getResponseWrapper() {
         return new ConduitWrapper<StreamSinkConduit>() {
             @Override
             public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+                final Integer level = exchange.getAttachment(AdaptiveEncodingPolicy.COMPRESSION_LEVEL);
+                if (level != null) {
+                    return new DeflatingStreamSinkConduit(factory, exchange, level);
+                }
                 return new DeflatingStreamSinkConduit(factory, exchange);
             }
         };
     }
+
+    @Override
+    public OutputStream createEncodingStream(final OutputStream target) throws IOException {
+        //raw deflate, to match DeflatingStreamSinkConduit
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        return new DeflaterOutputStream(target, deflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
 }
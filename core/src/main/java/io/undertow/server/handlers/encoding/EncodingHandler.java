@@ -42,6 +42,8 @@ public class EncodingHandler implements HttpHandler {
     private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
     private volatile HttpHandler noEncodingHandler = ResponseCodeHandler.HANDLE_406;
 
+    private volatile AdaptiveEncodingPolicy encodingPolicy;
+
     private final ContentEncodingRepository contentEncodingRepository;
 
     public EncodingHandler(final HttpHandler next, ContentEncodingRepository contentEncodingRepository) {
@@ -61,6 +63,7 @@ public class EncodingHandler implements HttpHandler {
         } else if (encodings.isNoEncodingsAllowed()) {
             noEncodingHandler.handleRequest(exchange);
         } else {
+            encodings.setEncodingPolicy(encodingPolicy);
             exchange.addResponseWrapper(encodings);
             exchange.putAttachment(AllowedContentEncodings.ATTACHMENT_KEY, encodings);
             next.handleRequest(exchange);
@@ -89,5 +92,18 @@ public class EncodingHandler implements HttpHandler {
         return this;
     }
 
+    public AdaptiveEncodingPolicy getEncodingPolicy() {
+        return encodingPolicy;
+    }
+
+    /**
+     * Sets the policy that decides which responses are compressed, and at what level. If this is <code>null</code>
+     * (the default) all responses are compressed at the default level of the encoding.
+     */
+    public EncodingHandler setEncodingPolicy(final AdaptiveEncodingPolicy encodingPolicy) {
+        this.encodingPolicy = encodingPolicy;
+        return this;
+    }
+
 
 }
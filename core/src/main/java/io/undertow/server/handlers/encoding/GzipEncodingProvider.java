@@ -1,5 +1,10 @@
 package io.undertow.server.handlers.encoding;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
 import io.undertow.conduits.GzipStreamSinkConduit;
 import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpServerExchange;
@@ -11,15 +16,29 @@ import org.xnio.conduits.StreamSinkConduit;
  *
  * @author Stuart Douglas
  */
-public class GzipEncodingProvider implements ContentEncodingProvider {
+public class GzipEncodingProvider implements StreamEncodingProvider {
 
     @Override
     public ConduitWrapper<StreamSinkConduit> getResponseWrapper() {
         return new ConduitWrapper<StreamSinkConduit>() {
             @Override
             public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+                final Integer level = exchange.getAttachment(AdaptiveEncodingPolicy.COMPRESSION_LEVEL);
+                if (level != null) {
+                    return new GzipStreamSinkConduit(factory, exchange, level);
+                }
                 return new GzipStreamSinkConduit(factory, exchange);
             }
         };
     }
+
+    @Override
+    public OutputStream createEncodingStream(final OutputStream target) throws IOException {
+        return new GZIPOutputStream(target) {
+            {
+                //resources are only encoded once, so it is worth spending the extra time
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+    }
 }
@@ -0,0 +1,24 @@
+package io.undertow.server.handlers.encoding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A content encoding provider that can also encode a plain stream. This allows resources to be encoded ahead of time,
+ * outside of a request, by {@link ContentEncodedResourceManager#precompress(io.undertow.server.handlers.resource.ResourceManager, int)}.
+ * <p/>
+ * The encoded output must be identical in format to the output of the response wrapper.
+ *
+ * @author Stuart Douglas
+ */
+public interface StreamEncodingProvider extends ContentEncodingProvider {
+
+    /**
+     * Creates a stream that encodes data and writes it to the target. Closing the returned stream must close the target.
+     *
+     * @param target The stream to write the encoded data to
+     * @return The encoding stream
+     */
+    OutputStream createEncodingStream(final OutputStream target) throws IOException;
+
+}
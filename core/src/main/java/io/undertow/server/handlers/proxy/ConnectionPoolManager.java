@@ -35,4 +35,22 @@ public interface ConnectionPoolManager {
      * @return The amount of time that we should wait before re-testing a problem server
      */
     int getProblemServerRetry();
+
+    /**
+     *
+     * @return The amount of time in milliseconds that a connection can sit idle in the pool before it is closed, or -1 if idle connections are never closed
+     */
+    int getTtl();
+
+    /**
+     *
+     * @return The number of connections that each IO thread should keep open to the target, even if they are idle
+     */
+    int getWarmConnectionsPerThread();
+
+    /**
+     *
+     * @return The maximum number of requests that can be sent over a pooled connection before it is closed, or -1 for no limit
+     */
+    int getMaxRequestsPerConnection();
 }
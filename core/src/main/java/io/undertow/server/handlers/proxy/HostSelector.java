@@ -0,0 +1,22 @@
+package io.undertow.server.handlers.proxy;
+
+/**
+ * Strategy that decides which host a {@link LoadBalancingProxyClient} sends a request to.
+ * <p/>
+ * The selector only picks the preferred host. If that host is not available the load balancer
+ * falls back to trying the other hosts in order, so a selector does not need to check availability
+ * itself, although the built in selectors avoid hosts that are unhealthy or ejected. Selectors
+ * are called concurrently from every IO thread, so they should avoid shared mutable state.
+ *
+ * @author Stuart Douglas
+ * @see HostSelectors
+ */
+public interface HostSelector {
+
+    /**
+     * @param hosts The current hosts, this will never be empty
+     * @return The index of the preferred host
+     */
+    int selectHost(LoadBalancingProxyClient.Host[] hosts);
+
+}
@@ -0,0 +1,219 @@
+package io.undertow.server.handlers.proxy;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The built in {@link HostSelector} implementations.
+ * <p/>
+ * Strategies that take load into account use the number of outstanding requests to each host, which is
+ * tracked by its connection pool, divided by the weight of the host.
+ *
+ * @author Stuart Douglas
+ */
+public final class HostSelectors {
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private HostSelectors() {
+    }
+
+    /**
+     * @return A selector that cycles through the hosts in turn, ignoring weights
+     */
+    public static HostSelector roundRobin() {
+        return new RoundRobin();
+    }
+
+    /**
+     * @return A selector that picks a random host, with the chance of each host being picked proportional to its weight
+     */
+    public static HostSelector weighted() {
+        return new Weighted(null);
+    }
+
+    /**
+     * @return A selector that picks the host with the fewest outstanding requests relative to its weight
+     */
+    public static HostSelector leastOutstandingRequests() {
+        return new LeastOutstandingRequests(null);
+    }
+
+    /**
+     * @return A selector that samples two random hosts, and picks the one with the fewest outstanding requests
+     * relative to its weight. This gives most of the benefit of {@link #leastOutstandingRequests()} without
+     * having to look at every host, and avoids every thread sending requests to the same idle host at once.
+     */
+    public static HostSelector powerOfTwoChoices() {
+        return new PowerOfTwoChoices(null);
+    }
+
+    /**
+     * Versions of the random selectors that use the given source of randomness, so they can be tested
+     * deterministically.
+     */
+    static HostSelector weighted(final Random random) {
+        return new Weighted(random);
+    }
+
+    static HostSelector leastOutstandingRequests(final Random random) {
+        return new LeastOutstandingRequests(random);
+    }
+
+    static HostSelector powerOfTwoChoices(final Random random) {
+        return new PowerOfTwoChoices(random);
+    }
+
+    /**
+     * Compares the load on two hosts, taking weights into account
+     *
+     * @return a negative number if the first host is less loaded
+     */
+    static int compareLoad(final LoadBalancingProxyClient.Host h1, final LoadBalancingProxyClient.Host h2) {
+        //o1 / w1 < o2 / w2  <=>  o1 * w2 < o2 * w1
+        final long l1 = h1.getOutstandingRequests() * h2.getWeight();
+        final long l2 = h2.getOutstandingRequests() * h1.getWeight();
+        return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+
+    /**
+     * Hosts that have failed health checks or been ejected are skipped where possible. Such a host has few or no
+     * outstanding requests, so the load based selectors would otherwise always prefer it, and the load balancer
+     * would then send all of its traffic to the host after it.
+     *
+     * @return <code>true</code> if the host should be considered
+     */
+    static boolean isSelectable(final LoadBalancingProxyClient.Host host) {
+        return host.isHealthy() && !host.isEjected();
+    }
+
+    private static Random random(final Random random) {
+        return random == null ? RANDOM.get() : random;
+    }
+
+    private static final class RoundRobin implements HostSelector {
+
+        private final AtomicInteger currentHost = new AtomicInteger(0);
+
+        @Override
+        public int selectHost(final LoadBalancingProxyClient.Host[] hosts) {
+            final int start = (currentHost.incrementAndGet() & Integer.MAX_VALUE) % hosts.length;
+            for (int i = 0; i < hosts.length; ++i) {
+                final int index = (start + i) % hosts.length;
+                if (isSelectable(hosts[index])) {
+                    return index;
+                }
+            }
+            return start;
+        }
+    }
+
+    private static final class Weighted implements HostSelector {
+
+        private final Random random;
+
+        private Weighted(final Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public int selectHost(final LoadBalancingProxyClient.Host[] hosts) {
+            long total = 0;
+            for (LoadBalancingProxyClient.Host host : hosts) {
+                if (isSelectable(host)) {
+                    total += host.getWeight();
+                }
+            }
+            //if no host is selectable they are all considered
+            final boolean all = total == 0;
+            if (all) {
+                for (LoadBalancingProxyClient.Host host : hosts) {
+                    total += host.getWeight();
+                }
+            }
+            long point = (long) (random(random).nextDouble() * total);
+            int last = hosts.length - 1;
+            for (int i = 0; i < hosts.length; ++i) {
+                if (all || isSelectable(hosts[i])) {
+                    last = i;
+                    point -= hosts[i].getWeight();
+                    if (point < 0) {
+                        return i;
+                    }
+                }
+            }
+            return last;
+        }
+    }
+
+    private static final class LeastOutstandingRequests implements HostSelector {
+
+        private final Random random;
+
+        private LeastOutstandingRequests(final Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public int selectHost(final LoadBalancingProxyClient.Host[] hosts) {
+            return leastLoaded(hosts, random(random).nextInt(hosts.length));
+        }
+    }
+
+    /**
+     * @param start The host to start at, so ties do not always go to the first one
+     * @return The least loaded selectable host, or the least loaded host if none are selectable
+     */
+    static int leastLoaded(final LoadBalancingProxyClient.Host[] hosts, final int start) {
+        int best = start;
+        boolean bestSelectable = isSelectable(hosts[start]);
+        for (int i = 1; i < hosts.length; ++i) {
+            final int index = (start + i) % hosts.length;
+            final boolean selectable = isSelectable(hosts[index]);
+            if (selectable && !bestSelectable) {
+                best = index;
+                bestSelectable = true;
+            } else if (selectable == bestSelectable && compareLoad(hosts[index], hosts[best]) < 0) {
+                best = index;
+            }
+        }
+        return best;
+    }
+
+    private static final class PowerOfTwoChoices implements HostSelector {
+
+        private final Random random;
+
+        private PowerOfTwoChoices(final Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public int selectHost(final LoadBalancingProxyClient.Host[] hosts) {
+            if (hosts.length == 1) {
+                return 0;
+            }
+            final Random random = random(this.random);
+            final int first = random.nextInt(hosts.length);
+            int second = random.nextInt(hosts.length - 1);
+            if (second >= first) {
+                second++;
+            }
+            final boolean firstSelectable = isSelectable(hosts[first]);
+            final boolean secondSelectable = isSelectable(hosts[second]);
+            if (firstSelectable != secondSelectable) {
+                return firstSelectable ? first : second;
+            }
+            if (!firstSelectable) {
+                //both samples are down, look for any host that is not
+                return leastLoaded(hosts, first);
+            }
+            return compareLoad(hosts[second], hosts[first]) < 0 ? second : first;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.undertow.server.handlers.proxy;
 
+import io.undertow.UndertowMessages;
 import io.undertow.client.ClientConnection;
 import io.undertow.client.UndertowClient;
 import io.undertow.server.HttpServerExchange;
@@ -7,13 +8,15 @@ import io.undertow.server.ServerConnection;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.CopyOnWriteMap;
+import org.xnio.Pool;
+import org.xnio.XnioIoThread;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.undertow.server.handlers.proxy.ProxyConnectionPool.AvailabilityType.AVAILABLE;
 import static io.undertow.server.handlers.proxy.ProxyConnectionPool.AvailabilityType.FULL;
@@ -49,12 +52,38 @@ public class LoadBalancingProxyClient implements ProxyClient {
      */
     private volatile int connectionsPerThread = 10;
 
+    /**
+     * The time in milliseconds that an idle connection is kept in the pool, or -1 to keep it until the target closes it
+     */
+    private volatile int ttl = -1;
+
+    /**
+     * The number of connections that each thread opens to a host before they are needed
+     */
+    private volatile int warmConnectionsPerThread = 0;
+
+    /**
+     * The maximum number of requests that are sent over a connection before it is replaced, or -1 for no limit
+     */
+    private volatile int maxRequestsPerConnection = -1;
+
+    /**
+     * The IO threads that have used this client, new hosts are warmed up on these threads
+     */
+    private final Set<XnioIoThread> ioThreads = new CopyOnWriteArraySet<XnioIoThread>();
+
+    private volatile Pool<ByteBuffer> bufferPool;
+
     /**
      * The hosts list.
      */
     private volatile Host[] hosts = {};
 
-    private final AtomicInteger currentHost = new AtomicInteger(0);
+    /**
+     * The strategy used to pick a host for requests that are not tied to a host by a sticky session
+     */
+    private volatile HostSelector hostSelector = HostSelectors.roundRobin();
+
     private final UndertowClient client;
 
     private final Map<String, Host> routes = new CopyOnWriteMap<String, Host>();
@@ -79,6 +108,21 @@ public class LoadBalancingProxyClient implements ProxyClient {
         public int getProblemServerRetry() {
             return problemServerRetry;
         }
+
+        @Override
+        public int getTtl() {
+            return ttl;
+        }
+
+        @Override
+        public int getWarmConnectionsPerThread() {
+            return warmConnectionsPerThread;
+        }
+
+        @Override
+        public int getMaxRequestsPerConnection() {
+            return maxRequestsPerConnection;
+        }
     };
 
     public LoadBalancingProxyClient() {
@@ -127,13 +171,86 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return this;
     }
 
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Sets the time in milliseconds after which idle pooled connections are closed. Stale connections are the usual
+     * cause of requests failing because the target has closed a keep alive connection, so this should be set to less
+     * than the keep alive timeout of the targets.
+     */
+    public LoadBalancingProxyClient setTtl(int ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    public int getWarmConnectionsPerThread() {
+        return warmConnectionsPerThread;
+    }
+
+    /**
+     * Sets the number of connections that each IO thread keeps open to each host. These connections are opened when a
+     * host is added, or when a thread first uses a host, so the first requests do not have to wait for a connection.
+     */
+    public LoadBalancingProxyClient setWarmConnectionsPerThread(int warmConnectionsPerThread) {
+        this.warmConnectionsPerThread = warmConnectionsPerThread;
+        return this;
+    }
+
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    /**
+     * Sets the maximum number of requests that are sent over a pooled connection, after which it is closed and replaced.
+     */
+    public LoadBalancingProxyClient setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        return this;
+    }
+
+    public HostSelector getHostSelector() {
+        return hostSelector;
+    }
+
+    public LoadBalancingProxyClient setHostSelector(final HostSelector hostSelector) {
+        if (hostSelector == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("hostSelector");
+        }
+        this.hostSelector = hostSelector;
+        return this;
+    }
+
+    /**
+     * @return A snapshot of the current hosts
+     */
+    Host[] getHosts() {
+        return hosts;
+    }
+
     public synchronized LoadBalancingProxyClient addHost(final URI host) {
         return addHost(host, null);
     }
 
     public synchronized LoadBalancingProxyClient addHost(final URI host, String jvmRoute) {
+        return addHost(host, jvmRoute, 1);
+    }
+
+    /**
+     * Adds a host with the given weight. The weight is only used by host selectors that take it into account,
+     * a host with a weight of 2 should receive twice as many requests as a host with a weight of 1.
+     *
+     * @param host     The host URI
+     * @param jvmRoute The route used for sticky sessions, may be null
+     * @param weight   The weight, must be at least 1
+     */
+    public synchronized LoadBalancingProxyClient addHost(final URI host, String jvmRoute, int weight) {
+        if (weight < 1) {
+            throw UndertowMessages.MESSAGES.invalidHostWeight(weight);
+        }
         ProxyConnectionPool pool = new ProxyConnectionPool(manager, host, client);
-        Host h = new Host(pool, jvmRoute, host);
+        Host h = new Host(pool, jvmRoute, host, weight);
         Host[] existing = hosts;
         Host[] newHosts = new Host[existing.length + 1];
         System.arraycopy(existing, 0, newHosts, 0, existing.length);
@@ -142,6 +259,12 @@ public class LoadBalancingProxyClient implements ProxyClient {
         if (jvmRoute != null) {
             this.routes.put(jvmRoute, h);
         }
+        final Pool<ByteBuffer> bufferPool = this.bufferPool;
+        if (bufferPool != null) {
+            for (XnioIoThread ioThread : ioThreads) {
+                pool.warmUp(ioThread, bufferPool);
+            }
+        }
         return this;
     }
 
@@ -184,6 +307,11 @@ public class LoadBalancingProxyClient implements ProxyClient {
             return;
         }
 
+        if (warmConnectionsPerThread > 0 && !ioThreads.contains(exchange.getIoThread())) {
+            bufferPool = exchange.getConnection().getBufferPool();
+            ioThreads.add(exchange.getIoThread());
+        }
+
         final Host host = selectHost(exchange);
         if (host == null) {
             callback.failed(exchange);
@@ -236,7 +364,7 @@ public class LoadBalancingProxyClient implements ProxyClient {
         if (sticky != null) {
             return sticky;
         }
-        int host = currentHost.incrementAndGet() % hosts.length;
+        int host = hostSelector.selectHost(hosts);
 
         final int startHost = host; //if the all hosts have problems we come back to this one
         Host full = null;
@@ -284,15 +412,78 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return null;
     }
 
-    protected static final class Host {
+    public static final class Host {
         final ProxyConnectionPool connectionPool;
         final String jvmRoute;
         final URI uri;
+        final int weight;
 
-        private Host(ProxyConnectionPool connectionPool, String jvmRoute, URI uri) {
+        Host(ProxyConnectionPool connectionPool, String jvmRoute, URI uri, int weight) {
             this.connectionPool = connectionPool;
             this.jvmRoute = jvmRoute;
             this.uri = uri;
+            this.weight = weight;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public String getJvmRoute() {
+            return jvmRoute;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return The number of requests that are currently being proxied to this host
+         */
+        public long getOutstandingRequests() {
+            return connectionPool.getOutstandingRequests();
+        }
+
+        /**
+         * @return <code>false</code> if the host has been marked as unhealthy by a {@link ProxyHealthChecker}
+         */
+        public boolean isHealthy() {
+            return !connectionPool.isUnhealthy();
+        }
+
+        /**
+         * @return <code>true</code> if the host is currently ejected by outlier detection
+         */
+        public boolean isEjected() {
+            return connectionPool.isEjected();
+        }
+
+        /**
+         * @return The number of connections to this host that are currently in use
+         */
+        public long getActiveConnections() {
+            return connectionPool.getOutstandingRequests();
+        }
+
+        /**
+         * @return The number of connections to this host that are idle in the pool
+         */
+        public long getIdleConnections() {
+            return connectionPool.getIdleConnections();
+        }
+
+        /**
+         * @return The number of requests that are waiting for a connection to this host
+         */
+        public long getQueuedRequests() {
+            return connectionPool.getQueuedRequests();
+        }
+
+        /**
+         * @return The total number of connections that have been opened to this host
+         */
+        public long getCreatedConnections() {
+            return connectionPool.getCreatedConnections();
         }
     }
 
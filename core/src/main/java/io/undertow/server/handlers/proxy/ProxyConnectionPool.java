@@ -1,5 +1,6 @@
 package io.undertow.server.handlers.proxy;
 
+import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
 import io.undertow.client.ClientCallback;
 import io.undertow.client.ClientConnection;
@@ -7,17 +8,21 @@ import io.undertow.client.UndertowClient;
 import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.CopyOnWriteMap;
+import io.undertow.util.StripedCounter;
 import org.xnio.ChannelListener;
 import org.xnio.IoUtils;
 import org.xnio.OptionMap;
+import org.xnio.Pool;
 import org.xnio.XnioExecutor;
 import org.xnio.XnioIoThread;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
@@ -28,6 +33,9 @@ import java.util.concurrent.TimeUnit;
  *
  * In this case the caller is responsible for closing any connections.
  *
+ * Idle connections are handed out most recently used first, so that connections that are not needed under the
+ * current load sit idle and can be closed once the TTL specified by the {@link ConnectionPoolManager} expires.
+ *
  * @author Stuart Douglas
  */
 class ProxyConnectionPool implements Closeable {
@@ -51,6 +59,38 @@ class ProxyConnectionPool implements Closeable {
      */
     private volatile boolean closed;
 
+    /**
+     * The number of requests that currently have a connection from this pool. This is updated from every IO
+     * thread, so it is striped to avoid contention.
+     */
+    private final StripedCounter outstandingRequests = new StripedCounter();
+
+    /**
+     * Passive statistics about the requests that have been sent to this host since they were last collected
+     * by a {@link ProxyHealthChecker}.
+     */
+    private final StripedCounter completedRequests = new StripedCounter();
+    private final StripedCounter failedRequests = new StripedCounter();
+    private final StripedCounter requestTime = new StripedCounter();
+
+    /**
+     * Pool statistics, these are never reset
+     */
+    private final StripedCounter createdConnections = new StripedCounter();
+    private final StripedCounter idleConnections = new StripedCounter();
+    private final StripedCounter queuedRequests = new StripedCounter();
+
+    /**
+     * Set by an active health checker when the host has failed too many health checks in a row. An unhealthy
+     * host is treated as a problem host.
+     */
+    private volatile boolean unhealthy;
+
+    /**
+     * The time in milliseconds until which this host has been ejected by outlier detection.
+     */
+    private volatile long ejectedUntil;
+
     private final ConcurrentMap<XnioIoThread, HostThreadData> hostThreadData = new CopyOnWriteMap<XnioIoThread, HostThreadData>();
 
     public ProxyConnectionPool(ConnectionPoolManager connectionPoolManager, URI uri, UndertowClient client) {
@@ -70,18 +110,15 @@ class ProxyConnectionPool implements Closeable {
     /**
      * Called when the IO thread has completed a successful request
      *
-     * @param connection The client connection
+     * @param holder The client connection
      */
-    private void returnConnection(final ClientConnection connection) {
+    private void returnConnection(final ConnectionHolder holder) {
+        final ClientConnection connection = holder.connection;
         HostThreadData hostData = getData();
         if (closed) {
             //the host has been closed
             IoUtils.safeClose(connection);
-            ClientConnection con = hostData.availableConnections.poll();
-            while (con != null) {
-                IoUtils.safeClose(con);
-                con = hostData.availableConnections.poll();
-            }
+            closeAvailableConnections(hostData);
             redistributeQueued(hostData);
             return;
         }
@@ -90,18 +127,21 @@ class ProxyConnectionPool implements Closeable {
         //the close setter will handle creating a new connection and decrementing
         //the connection count
         if (connection.isOpen() && !connection.isUpgraded()) {
-            CallbackHolder callback = hostData.awaitingConnections.poll();
+            CallbackHolder callback = pollAwaiting(hostData);
             while (callback != null && callback.isCancelled()) {
-                callback = hostData.awaitingConnections.poll();
+                callback = pollAwaiting(hostData);
             }
             if (callback != null) {
                 if (callback.getTimeoutKey() != null) {
                     callback.getTimeoutKey().remove();
                 }
                 // Anything waiting for a connection is not expecting exclusivity.
-                connectionReady(connection, callback.getCallback(), callback.getExchange(), false);
+                connectionReady(holder, callback.getCallback(), callback.getExchange(), false);
             } else {
-                hostData.availableConnections.add(connection);
+                holder.timeReturned = System.currentTimeMillis();
+                hostData.availableConnections.addLast(holder);
+                idleConnections.increment();
+                scheduleIdleTimeout(hostData);
             }
         } else if (connection.isOpen() && connection.isUpgraded()) {
             //we treat upgraded connections as closed
@@ -115,11 +155,18 @@ class ProxyConnectionPool implements Closeable {
     private void handleClosedConnection(HostThreadData hostData, final ClientConnection connection) {
 
         int connections = --hostData.connections;
-        hostData.availableConnections.remove(connection);
+        final Iterator<ConnectionHolder> it = hostData.availableConnections.iterator();
+        while (it.hasNext()) {
+            if (it.next().connection == connection) {
+                it.remove();
+                idleConnections.decrement();
+                break;
+            }
+        }
         if (connectionPoolManager.canCreateConnection(connections, this)) {
-            CallbackHolder task = hostData.awaitingConnections.poll();
+            CallbackHolder task = pollAwaiting(hostData);
             while (task != null && task.isCancelled()) {
-                task = hostData.awaitingConnections.poll();
+                task = pollAwaiting(hostData);
             }
             if (task != null) {
                 openConnection(task.exchange, task.callback, hostData, false);
@@ -135,6 +182,7 @@ class ProxyConnectionPool implements Closeable {
             @Override
             public void completed(final ClientConnection result) {
                 problem = false;
+                createdConnections.increment();
                 if (exclusive == false) {
                     result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
                         @Override
@@ -143,7 +191,7 @@ class ProxyConnectionPool implements Closeable {
                         }
                     });
                 }
-                connectionReady(result, callback, exchange, exclusive);
+                connectionReady(new ConnectionHolder(result), callback, exchange, exclusive);
             }
 
             @Override
@@ -151,6 +199,8 @@ class ProxyConnectionPool implements Closeable {
                 if (exclusive == false) {
                     data.connections--;
                 }
+                completedRequests.increment();
+                failedRequests.increment();
                 problem = true;
                 redistributeQueued(getData());
                 scheduleFailedHostRetry(exchange);
@@ -159,8 +209,141 @@ class ProxyConnectionPool implements Closeable {
         }, getUri(), exchange.getIoThread(), exchange.getConnection().getBufferPool(), OptionMap.EMPTY);
     }
 
+    /**
+     * Opens a connection that is added to the pool of idle connections, or handed to the next request that is waiting
+     * for a connection.
+     */
+    private void openIdleConnection(final HostThreadData data) {
+        data.connections++;
+        client.connect(new ClientCallback<ClientConnection>() {
+            @Override
+            public void completed(final ClientConnection result) {
+                createdConnections.increment();
+                result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
+                    @Override
+                    public void handleEvent(ClientConnection channel) {
+                        handleClosedConnection(data, channel);
+                    }
+                });
+                returnConnection(new ConnectionHolder(result));
+            }
+
+            @Override
+            public void failed(IOException e) {
+                data.connections--;
+                UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to open idle connection to %s", uri);
+            }
+        }, getUri(), data.ioThread, data.bufferPool, OptionMap.EMPTY);
+    }
+
+    /**
+     * Opens connections until this thread has the configured number of warm connections
+     */
+    private void warmUp(final HostThreadData data) {
+        data.warmedUp = true;
+        final int warm = connectionPoolManager.getWarmConnectionsPerThread();
+        while (!closed && data.connections < warm && connectionPoolManager.canCreateConnection(data.connections, this)) {
+            openIdleConnection(data);
+        }
+    }
+
+    /**
+     * Pre-connects the configured number of warm connections for the given IO thread.
+     *
+     * @param ioThread   The IO thread
+     * @param bufferPool The buffer pool to use for the connections
+     */
+    void warmUp(final XnioIoThread ioThread, final Pool<ByteBuffer> bufferPool) {
+        if (connectionPoolManager.getWarmConnectionsPerThread() <= 0) {
+            return;
+        }
+        ioThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                final HostThreadData data = getData();
+                if (data.bufferPool == null) {
+                    data.bufferPool = bufferPool;
+                }
+                warmUp(data);
+            }
+        });
+    }
+
+    private void scheduleIdleTimeout(final HostThreadData data) {
+        final int ttl = connectionPoolManager.getTtl();
+        if (ttl <= 0 || data.timeoutKey != null) {
+            return;
+        }
+        data.timeoutKey = data.ioThread.executeAfter(new Runnable() {
+            @Override
+            public void run() {
+                data.timeoutKey = null;
+                closeIdleConnections(data);
+            }
+        }, ttl, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes connections that have been idle for longer than the TTL. As the least recently used connections are
+     * at the head of the queue we can stop at the first connection that has not expired.
+     * <p/>
+     * Warm connections are closed as well, as the target may have already timed them out, and are then replaced
+     * with new connections.
+     */
+    private void closeIdleConnections(final HostThreadData data) {
+        if (closed) {
+            closeAvailableConnections(data);
+            return;
+        }
+        final int ttl = connectionPoolManager.getTtl();
+        if (ttl <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        ConnectionHolder holder = data.availableConnections.peekFirst();
+        while (holder != null && now - holder.timeReturned >= ttl) {
+            data.availableConnections.pollFirst();
+            idleConnections.decrement();
+            IoUtils.safeClose(holder.connection);
+            holder = data.availableConnections.peekFirst();
+        }
+        if (data.warmedUp && data.bufferPool != null) {
+            warmUp(data);
+        }
+        if (!data.availableConnections.isEmpty()) {
+            scheduleIdleTimeout(data);
+        }
+    }
+
+    private void closeAvailableConnections(final HostThreadData data) {
+        ConnectionHolder con = pollAvailable(data);
+        while (con != null) {
+            IoUtils.safeClose(con.connection);
+            con = pollAvailable(data);
+        }
+    }
+
+    /**
+     * Returns the most recently used idle connection
+     */
+    private ConnectionHolder pollAvailable(final HostThreadData data) {
+        final ConnectionHolder holder = data.availableConnections.pollLast();
+        if (holder != null) {
+            idleConnections.decrement();
+        }
+        return holder;
+    }
+
+    private CallbackHolder pollAwaiting(final HostThreadData data) {
+        final CallbackHolder holder = data.awaitingConnections.poll();
+        if (holder != null) {
+            queuedRequests.decrement();
+        }
+        return holder;
+    }
+
     private void redistributeQueued(HostThreadData hostData) {
-        CallbackHolder callback = hostData.awaitingConnections.poll();
+        CallbackHolder callback = pollAwaiting(hostData);
         while (callback != null) {
             if (callback.getTimeoutKey() != null) {
                 callback.getTimeoutKey().remove();
@@ -174,16 +357,32 @@ class ProxyConnectionPool implements Closeable {
                     callback.getCallback().failed(callback.getExchange());
                 }
             }
-            callback = hostData.awaitingConnections.poll();
+            callback = pollAwaiting(hostData);
         }
     }
 
-    private void connectionReady(final ClientConnection result, final ProxyCallback<ProxyConnection> callback, final HttpServerExchange exchange, final boolean exclusive) {
+    private void connectionReady(final ConnectionHolder holder, final ProxyCallback<ProxyConnection> callback, final HttpServerExchange exchange, final boolean exclusive) {
+        final ClientConnection result = holder.connection;
+        holder.requests++;
+        outstandingRequests.increment();
+        final long start = System.nanoTime();
         exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
             @Override
             public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                outstandingRequests.decrement();
+                completedRequests.increment();
+                requestTime.add(System.nanoTime() - start);
+                if (exchange.getResponseCode() >= 500) {
+                    failedRequests.increment();
+                }
                 if (exclusive == false) {
-                    returnConnection(result);
+                    final int maxRequests = connectionPoolManager.getMaxRequestsPerConnection();
+                    if (maxRequests > 0 && holder.requests >= maxRequests) {
+                        //the close listener will take care of replacing the connection
+                        IoUtils.safeClose(result);
+                    } else {
+                        returnConnection(holder);
+                    }
                 }
                 nextListener.proceed();
             }
@@ -192,11 +391,68 @@ class ProxyConnectionPool implements Closeable {
         callback.completed(exchange, new ProxyConnection(result, uri.getPath() == null ? "/" : uri.getPath()));
     }
 
+    /**
+     * @return The number of requests that are currently being proxied to this host
+     */
+    public long getOutstandingRequests() {
+        return outstandingRequests.sum();
+    }
+
+    /**
+     * @return The number of connections that are currently idle in the pool
+     */
+    public long getIdleConnections() {
+        return idleConnections.sum();
+    }
+
+    /**
+     * @return The number of requests that are currently waiting for a connection
+     */
+    public long getQueuedRequests() {
+        return queuedRequests.sum();
+    }
+
+    /**
+     * @return The total number of connections that have been opened to this host
+     */
+    public long getCreatedConnections() {
+        return createdConnections.sum();
+    }
+
+    boolean isUnhealthy() {
+        return unhealthy;
+    }
+
+    void setUnhealthy(boolean unhealthy) {
+        this.unhealthy = unhealthy;
+    }
+
+    boolean isEjected() {
+        final long ejectedUntil = this.ejectedUntil;
+        return ejectedUntil != 0 && ejectedUntil > System.currentTimeMillis();
+    }
+
+    void eject(final long until) {
+        this.ejectedUntil = until;
+    }
+
+    /**
+     * Collects the passive statistics for this host, and resets them.
+     *
+     * @param result an array of length 3 that is filled with the number of completed requests, the number of failed
+     *               requests and the total request time in nanoseconds
+     */
+    void collectStatistics(final long[] result) {
+        result[0] = completedRequests.sumThenReset();
+        result[1] = failedRequests.sumThenReset();
+        result[2] = requestTime.sumThenReset();
+    }
+
     public AvailabilityType available() {
         if (closed) {
             return AvailabilityType.CLOSED;
         }
-        if (problem) {
+        if (problem || unhealthy || isEjected()) {
             return AvailabilityType.PROBLEM;
         }
         HostThreadData data = getData();
@@ -225,7 +481,7 @@ class ProxyConnectionPool implements Closeable {
                     @Override
                     public void completed(ClientConnection result) {
                         problem = false;
-                        returnConnection(result);
+                        returnConnection(new ConnectionHolder(result));
                     }
 
                     @Override
@@ -252,7 +508,7 @@ class ProxyConnectionPool implements Closeable {
         if (data != null) {
             return data;
         }
-        data = new HostThreadData();
+        data = new HostThreadData(ioThread);
         HostThreadData existing = hostThreadData.putIfAbsent(ioThread, data);
         if (existing != null) {
             return existing;
@@ -265,9 +521,12 @@ class ProxyConnectionPool implements Closeable {
      */
     public void connect(ProxyClient.ProxyTarget proxyTarget, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, final long timeout, final TimeUnit timeUnit, boolean exclusive) {
         HostThreadData data = getData();
-        ClientConnection conn = data.availableConnections.poll();
-        while (conn != null && !conn.isOpen()) {
-            conn = data.availableConnections.poll();
+        if (data.bufferPool == null) {
+            data.bufferPool = exchange.getConnection().getBufferPool();
+        }
+        ConnectionHolder conn = pollAvailable(data);
+        while (conn != null && !isUsable(conn)) {
+            conn = pollAvailable(data);
         }
         if (conn != null) {
             if (exclusive) {
@@ -286,15 +545,56 @@ class ProxyConnectionPool implements Closeable {
                 holder = new CallbackHolder(proxyTarget, callback, exchange, -1);
             }
             data.awaitingConnections.add(holder);
+            queuedRequests.increment();
         }
+        if (!data.warmedUp) {
+            warmUp(data);
+        }
+    }
+
+    /**
+     * Checks that an idle connection is still open, and has not been idle for longer than the TTL. Connections that
+     * have expired are closed, as the target has probably already closed its end.
+     */
+    private boolean isUsable(final ConnectionHolder holder) {
+        if (!holder.connection.isOpen()) {
+            return false;
+        }
+        final int ttl = connectionPoolManager.getTtl();
+        if (ttl > 0 && System.currentTimeMillis() - holder.timeReturned >= ttl) {
+            IoUtils.safeClose(holder.connection);
+            return false;
+        }
+        return true;
     }
 
     private static final class HostThreadData {
 
+        final XnioIoThread ioThread;
         int connections = 0;
-        final Deque<ClientConnection> availableConnections = new ArrayDeque<ClientConnection>();
+        final Deque<ConnectionHolder> availableConnections = new ArrayDeque<ConnectionHolder>();
         final Deque<CallbackHolder> awaitingConnections = new ArrayDeque<CallbackHolder>();
+        Pool<ByteBuffer> bufferPool;
+        XnioExecutor.Key timeoutKey;
+        boolean warmedUp;
 
+        private HostThreadData(XnioIoThread ioThread) {
+            this.ioThread = ioThread;
+        }
+    }
+
+    private static final class ConnectionHolder {
+
+        final ClientConnection connection;
+        /**
+         * The number of requests that have been sent over this connection
+         */
+        int requests;
+        long timeReturned;
+
+        private ConnectionHolder(ClientConnection connection) {
+            this.connection = connection;
+        }
     }
 
 
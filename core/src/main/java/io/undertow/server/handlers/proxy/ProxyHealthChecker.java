@@ -0,0 +1,496 @@
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Active health checking and outlier detection for the hosts of a {@link LoadBalancingProxyClient}.
+ * <p/>
+ * Every interval each host is probed with a GET request to the configured path. A host that fails
+ * {@link #setUnhealthyThreshold(int)} probes in a row is marked as unhealthy, and it is marked as healthy again
+ * once it passes {@link #setHealthyThreshold(int)} probes in a row. A probe passes if the host responds with a
+ * 2xx or 3xx status code within the timeout.
+ * <p/>
+ * In addition the checker looks at the requests that were actually proxied to each host during the last interval.
+ * If the error rate or the average response time of a host is an outlier compared to the other hosts it is ejected
+ * for a period of time, which grows each time the host is ejected again. No more than {@link #setMaxEjectionPercent(int)}
+ * percent of the hosts will be ejected at once.
+ * <p/>
+ * Unhealthy and ejected hosts are treated like hosts that have failed to connect, so they will only be used if
+ * no other host is available.
+ * <p/>
+ * All checks are run from a single IO thread, so none of the state of the checker needs to be synchronized.
+ *
+ * @author Stuart Douglas
+ */
+public class ProxyHealthChecker implements Closeable {
+
+    private final LoadBalancingProxyClient proxyClient;
+    private final UndertowClient client;
+
+    private volatile String path = "/";
+    private volatile int interval = 10000;
+    private volatile int timeout = 5000;
+    private volatile int unhealthyThreshold = 3;
+    private volatile int healthyThreshold = 2;
+
+    private volatile boolean outlierDetection = true;
+    private volatile int minimumRequests = 20;
+    private volatile double minimumErrorRate = 0.2;
+    private volatile double errorRateFactor = 2;
+    private volatile double latencyFactor = 3;
+    private volatile int ejectionTime = 30000;
+    private volatile int maxEjectionPercent = 50;
+
+    private final Map<LoadBalancingProxyClient.Host, HostState> hostStates = new IdentityHashMap<LoadBalancingProxyClient.Host, HostState>();
+
+    private volatile XnioIoThread ioThread;
+    private volatile Pool<ByteBuffer> bufferPool;
+    private volatile XnioExecutor.Key timerKey;
+    private volatile boolean running;
+
+    private final Runnable checkTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            try {
+                runChecks();
+            } finally {
+                if (running) {
+                    timerKey = ioThread.executeAfter(this, interval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    };
+
+    public ProxyHealthChecker(final LoadBalancingProxyClient proxyClient) {
+        this(proxyClient, UndertowClient.getInstance());
+    }
+
+    public ProxyHealthChecker(final LoadBalancingProxyClient proxyClient, final UndertowClient client) {
+        this.proxyClient = proxyClient;
+        this.client = client;
+    }
+
+    /**
+     * Starts the health checker. Probes are sent from one of the IO threads of the given worker.
+     *
+     * @param worker     The worker
+     * @param bufferPool The buffer pool used by the probe connections
+     */
+    public synchronized ProxyHealthChecker start(final XnioWorker worker, final Pool<ByteBuffer> bufferPool) {
+        if (running) {
+            return this;
+        }
+        this.ioThread = worker.getIoThread();
+        this.bufferPool = bufferPool;
+        this.running = true;
+        timerKey = ioThread.executeAfter(checkTask, interval, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Stops the health checker. Hosts that are currently unhealthy or ejected are put back into rotation.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        final XnioExecutor.Key key = timerKey;
+        if (key != null) {
+            key.remove();
+        }
+        ioThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (LoadBalancingProxyClient.Host host : hostStates.keySet()) {
+                    host.connectionPool.setUnhealthy(false);
+                    host.connectionPool.eject(0);
+                }
+                hostStates.clear();
+            }
+        });
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void runChecks() {
+        final LoadBalancingProxyClient.Host[] hosts = proxyClient.getHosts();
+        final Map<LoadBalancingProxyClient.Host, HostState> current = new IdentityHashMap<LoadBalancingProxyClient.Host, HostState>();
+        for (LoadBalancingProxyClient.Host host : hosts) {
+            HostState state = hostStates.get(host);
+            if (state == null) {
+                state = new HostState();
+            }
+            current.put(host, state);
+        }
+        //forget about hosts that have been removed
+        final Iterator<LoadBalancingProxyClient.Host> it = hostStates.keySet().iterator();
+        while (it.hasNext()) {
+            if (!current.containsKey(it.next())) {
+                it.remove();
+            }
+        }
+        hostStates.putAll(current);
+
+        if (outlierDetection) {
+            detectOutliers(hosts);
+        }
+        for (LoadBalancingProxyClient.Host host : hosts) {
+            final HostState state = hostStates.get(host);
+            if (!state.probing) {
+                probe(host, state);
+            }
+        }
+    }
+
+    private void detectOutliers(final LoadBalancingProxyClient.Host[] hosts) {
+        final long[] stats = new long[3];
+        long totalRequests = 0;
+        long totalFailures = 0;
+        long totalTime = 0;
+        int candidates = 0;
+        int ejected = 0;
+        final long now = System.currentTimeMillis();
+        for (LoadBalancingProxyClient.Host host : hosts) {
+            final HostState state = hostStates.get(host);
+            host.connectionPool.collectStatistics(stats);
+            state.requests = stats[0];
+            state.failures = stats[1];
+            state.time = stats[2];
+            if (host.connectionPool.isEjected()) {
+                ejected++;
+            } else if (state.ejectionCount > 0 && state.ejectedUntil < now) {
+                //the host has behaved since it was last ejected
+                state.ejectionCount--;
+            }
+            if (state.requests >= minimumRequests) {
+                candidates++;
+                totalRequests += state.requests;
+                totalFailures += state.failures;
+                totalTime += state.time;
+            }
+        }
+        if (candidates < 2) {
+            return;
+        }
+        final int maxEjected = hosts.length * maxEjectionPercent / 100;
+        for (LoadBalancingProxyClient.Host host : hosts) {
+            final HostState state = hostStates.get(host);
+            if (state.requests < minimumRequests || host.connectionPool.isEjected()) {
+                continue;
+            }
+            if (ejected >= maxEjected) {
+                return;
+            }
+            //compare the host against the other hosts, so a single bad host does not skew the baseline
+            final long otherRequests = totalRequests - state.requests;
+            final double errorRate = (double) state.failures / state.requests;
+            final double otherErrorRate = (double) (totalFailures - state.failures) / otherRequests;
+            final double latency = (double) state.time / state.requests;
+            final double otherLatency = (double) (totalTime - state.time) / otherRequests;
+
+            final boolean errorOutlier = errorRate >= minimumErrorRate && errorRate > otherErrorRate * errorRateFactor;
+            final boolean latencyOutlier = latency > otherLatency * latencyFactor;
+            if (errorOutlier || latencyOutlier) {
+                state.ejectionCount++;
+                final long duration = (long) ejectionTime * Math.min(state.ejectionCount, 10);
+                state.ejectedUntil = now + duration;
+                host.connectionPool.eject(state.ejectedUntil);
+                ejected++;
+                UndertowLogger.CLIENT_LOGGER.debugf("Ejecting host %s for %s ms, error rate %s, average response time %s ms", host.getUri(), duration, errorRate, latency / 1000000);
+            }
+        }
+    }
+
+    private void probe(final LoadBalancingProxyClient.Host host, final HostState state) {
+        final Probe probe = new Probe(host, state);
+        state.probing = true;
+        probe.timeoutKey = ioThread.executeAfter(probe, timeout, TimeUnit.MILLISECONDS);
+        final URI uri = host.getUri();
+        client.connect(new ClientCallback<ClientConnection>() {
+            @Override
+            public void completed(final ClientConnection connection) {
+                if (probe.done) {
+                    IoUtils.safeClose(connection);
+                    return;
+                }
+                probe.connection = connection;
+                final ClientRequest request = new ClientRequest()
+                        .setMethod(Methods.GET)
+                        .setPath(probePath(uri));
+                request.getRequestHeaders().put(Headers.HOST, uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+                request.getRequestHeaders().put(Headers.CONNECTION, Headers.CLOSE.toString());
+                connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+                    @Override
+                    public void completed(final ClientExchange exchange) {
+                        exchange.setResponseListener(new ClientCallback<ClientExchange>() {
+                            @Override
+                            public void completed(final ClientExchange result) {
+                                final int code = result.getResponse().getResponseCode();
+                                probe.complete(code >= 200 && code < 400);
+                            }
+
+                            @Override
+                            public void failed(final IOException e) {
+                                probe.complete(false);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void failed(final IOException e) {
+                        probe.complete(false);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(final IOException e) {
+                probe.complete(false);
+            }
+        }, uri, ioThread, bufferPool, OptionMap.EMPTY);
+    }
+
+    private String probePath(final URI uri) {
+        final String base = uri.getPath();
+        if (base == null || base.isEmpty() || base.equals("/")) {
+            return path;
+        }
+        if (base.endsWith("/")) {
+            return base.substring(0, base.length() - 1) + path;
+        }
+        return base + path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @param path The path that is requested from each host, relative to the host URI
+     */
+    public ProxyHealthChecker setPath(final String path) {
+        if (path == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("path");
+        }
+        this.path = path.startsWith("/") ? path : "/" + path;
+        return this;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval The time in milliseconds between checks
+     */
+    public ProxyHealthChecker setInterval(final int interval) {
+        this.interval = interval;
+        return this;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout The time in milliseconds after which a probe that has not received a response fails
+     */
+    public ProxyHealthChecker setTimeout(final int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public int getUnhealthyThreshold() {
+        return unhealthyThreshold;
+    }
+
+    /**
+     * @param unhealthyThreshold The number of consecutive failed probes after which a host is marked as unhealthy
+     */
+    public ProxyHealthChecker setUnhealthyThreshold(final int unhealthyThreshold) {
+        this.unhealthyThreshold = unhealthyThreshold;
+        return this;
+    }
+
+    public int getHealthyThreshold() {
+        return healthyThreshold;
+    }
+
+    /**
+     * @param healthyThreshold The number of consecutive successful probes after which an unhealthy host is marked as healthy
+     */
+    public ProxyHealthChecker setHealthyThreshold(final int healthyThreshold) {
+        this.healthyThreshold = healthyThreshold;
+        return this;
+    }
+
+    public boolean isOutlierDetection() {
+        return outlierDetection;
+    }
+
+    public ProxyHealthChecker setOutlierDetection(final boolean outlierDetection) {
+        this.outlierDetection = outlierDetection;
+        return this;
+    }
+
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    /**
+     * @param minimumRequests The number of requests a host must have served in an interval to be considered for ejection
+     */
+    public ProxyHealthChecker setMinimumRequests(final int minimumRequests) {
+        this.minimumRequests = minimumRequests;
+        return this;
+    }
+
+    public double getMinimumErrorRate() {
+        return minimumErrorRate;
+    }
+
+    /**
+     * @param minimumErrorRate The error rate, between 0 and 1, below which a host will never be ejected for errors
+     */
+    public ProxyHealthChecker setMinimumErrorRate(final double minimumErrorRate) {
+        this.minimumErrorRate = minimumErrorRate;
+        return this;
+    }
+
+    public double getErrorRateFactor() {
+        return errorRateFactor;
+    }
+
+    /**
+     * @param errorRateFactor How many times higher than the error rate of the other hosts the error rate of a host must be
+     *                        for it to be ejected
+     */
+    public ProxyHealthChecker setErrorRateFactor(final double errorRateFactor) {
+        this.errorRateFactor = errorRateFactor;
+        return this;
+    }
+
+    public double getLatencyFactor() {
+        return latencyFactor;
+    }
+
+    /**
+     * @param latencyFactor How many times higher than the average response time of the other hosts the average response
+     *                      time of a host must be for it to be ejected
+     */
+    public ProxyHealthChecker setLatencyFactor(final double latencyFactor) {
+        this.latencyFactor = latencyFactor;
+        return this;
+    }
+
+    public int getEjectionTime() {
+        return ejectionTime;
+    }
+
+    /**
+     * @param ejectionTime The time in milliseconds a host is ejected for the first time. Hosts that are repeatedly ejected
+     *                     are ejected for a multiple of this time.
+     */
+    public ProxyHealthChecker setEjectionTime(final int ejectionTime) {
+        this.ejectionTime = ejectionTime;
+        return this;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    public ProxyHealthChecker setMaxEjectionPercent(final int maxEjectionPercent) {
+        this.maxEjectionPercent = maxEjectionPercent;
+        return this;
+    }
+
+    private final class Probe implements Runnable {
+
+        private final LoadBalancingProxyClient.Host host;
+        private final HostState state;
+        private ClientConnection connection;
+        private XnioExecutor.Key timeoutKey;
+        private boolean done;
+
+        private Probe(final LoadBalancingProxyClient.Host host, final HostState state) {
+            this.host = host;
+            this.state = state;
+        }
+
+        @Override
+        public void run() {
+            complete(false);
+        }
+
+        void complete(final boolean success) {
+            if (done) {
+                return;
+            }
+            done = true;
+            state.probing = false;
+            if (timeoutKey != null) {
+                timeoutKey.remove();
+            }
+            IoUtils.safeClose(connection);
+            if (!running) {
+                return;
+            }
+            final ProxyConnectionPool pool = host.connectionPool;
+            if (success) {
+                state.failedProbes = 0;
+                if (++state.successfulProbes >= healthyThreshold && pool.isUnhealthy()) {
+                    UndertowLogger.CLIENT_LOGGER.debugf("Host %s is healthy", host.getUri());
+                    pool.setUnhealthy(false);
+                }
+            } else {
+                state.successfulProbes = 0;
+                if (++state.failedProbes >= unhealthyThreshold && !pool.isUnhealthy()) {
+                    UndertowLogger.CLIENT_LOGGER.debugf("Host %s failed %s health checks and is unhealthy", host.getUri(), state.failedProbes);
+                    pool.setUnhealthy(true);
+                }
+            }
+        }
+    }
+
+    private static final class HostState {
+        boolean probing;
+        int failedProbes;
+        int successfulProbes;
+        int ejectionCount;
+        long ejectedUntil;
+        long requests;
+        long failures;
+        long time;
+    }
+}
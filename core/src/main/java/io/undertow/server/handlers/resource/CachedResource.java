@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -31,15 +33,19 @@ import io.undertow.io.Sender;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.cache.DirectBufferCache;
 import io.undertow.server.handlers.cache.LimitedBufferSlicePool;
+import io.undertow.server.handlers.cache.MappedFileCache;
 import io.undertow.server.handlers.cache.ResponseCachingSender;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
 import io.undertow.util.MimeMappings;
+import org.xnio.FileAccess;
+import org.xnio.IoUtils;
+import org.xnio.XnioWorker;
 
 /**
  * @author Stuart Douglas
  */
-public class CachedResource implements Resource {
+public class CachedResource implements RangeAwareResource {
 
     private final CacheKey cacheKey;
     private final CachingResourceManager cachingResourceManager;
@@ -116,6 +122,10 @@ public class CachedResource implements Resource {
         if(dataCache != null) {
             dataCache.remove(cacheKey);
         }
+        final MappedFileCache mappedFileCache = cachingResourceManager.getMappedFileCache();
+        if(mappedFileCache != null) {
+            mappedFileCache.remove(cacheKey);
+        }
     }
 
     public boolean checkStillValid() {
@@ -135,7 +145,10 @@ public class CachedResource implements Resource {
     public void serve(final Sender sender, final HttpServerExchange exchange, final IoCallback completionCallback) {
         final DirectBufferCache dataCache = cachingResourceManager.getDataCache();
         if(dataCache == null) {
-            underlyingResource.serve(sender, exchange, completionCallback);
+            final Long length = getContentLength();
+            if (length == null || !serveMapped(sender, exchange, length, 0, length - 1, false, completionCallback)) {
+                underlyingResource.serve(sender, exchange, completionCallback);
+            }
             return;
         }
 
@@ -143,7 +156,9 @@ public class CachedResource implements Resource {
         final Long length = getContentLength();
         //if it is not eligible to be served from the cache
         if (length == null || length > cachingResourceManager.getMaxFileSize()) {
-            underlyingResource.serve(sender, exchange, completionCallback);
+            if (length == null || !serveMapped(sender, exchange, length, 0, length - 1, false, completionCallback)) {
+                underlyingResource.serve(sender, exchange, completionCallback);
+            }
             return;
         }
         //it is not cached yet, install a wrapper to grab the data
@@ -186,10 +201,149 @@ public class CachedResource implements Resource {
         }
     }
 
+    @Override
+    public void serveRange(final Sender sender, final HttpServerExchange exchange, final long start, final long end, final IoCallback completionCallback) {
+        final DirectBufferCache dataCache = cachingResourceManager.getDataCache();
+        if (dataCache != null) {
+            final DirectBufferCache.CacheEntry existing = dataCache.get(cacheKey);
+            if (existing != null && existing.enabled() && existing.reference()) {
+                //serve the slice straight from the cache
+                ByteBuffer[] buffers;
+                boolean ok = false;
+                try {
+                    buffers = sliceBuffers(existing.buffers(), start, end);
+                    ok = true;
+                } finally {
+                    if (!ok) {
+                        existing.dereference();
+                    }
+                }
+                sender.send(buffers, new DereferenceCallback(existing, completionCallback));
+                return;
+            }
+        }
+        final Long length = getContentLength();
+        if (length != null && serveMapped(sender, exchange, length, start, end, true, completionCallback)) {
+            return;
+        }
+        ((RangeAwareResource) underlyingResource).serveRange(sender, exchange, start, end, completionCallback);
+    }
+
+    /**
+     * Serves the resource from a memory mapping. If the file is not mapped yet, and has been requested often enough
+     * to be worth mapping, it is mapped first. Opening and mapping the file block, so on an IO thread the mapping is
+     * created in the background by a worker thread, and this request is not served from it.
+     *
+     * @return <code>true</code> if the resource is being served, <code>false</code> if it is not mapped
+     */
+    private boolean serveMapped(final Sender sender, final HttpServerExchange exchange, final long length, final long start, final long end, final boolean range, final IoCallback completionCallback) {
+        final MappedFileCache mappedFileCache = cachingResourceManager.getMappedFileCache();
+        if (mappedFileCache == null || length > mappedFileCache.getMaxFileSize()) {
+            return false;
+        }
+        MappedFileCache.MappedEntry entry = mappedFileCache.get(cacheKey);
+        if (entry == null) {
+            final File file = underlyingResource.getFile();
+            if (file == null || !mappedFileCache.claimMapping(cacheKey)) {
+                return false;
+            }
+            final XnioWorker worker = exchange.getConnection().getWorker();
+            if (exchange.isInIoThread()) {
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mapFile(mappedFileCache, worker, file, length);
+                    }
+                });
+                return false;
+            }
+            entry = mapFile(mappedFileCache, worker, file, length);
+        }
+        if (entry == null || entry.size() != length || !entry.reference()) {
+            return false;
+        }
+        ByteBuffer[] buffers;
+        boolean ok = false;
+        try {
+            buffers = entry.duplicateBuffers();
+            if (range) {
+                buffers = sliceBuffers(buffers, start, end);
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                entry.dereference();
+            }
+        }
+        sender.send(buffers, new DereferenceCallback(entry, completionCallback));
+        return true;
+    }
+
+    private MappedFileCache.MappedEntry mapFile(final MappedFileCache mappedFileCache, final XnioWorker worker, final File file, final long length) {
+        FileChannel channel = null;
+        try {
+            channel = worker.getXnio().openFile(file, FileAccess.READ_ONLY);
+            return mappedFileCache.add(cacheKey, channel, length);
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+            return null;
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    @Override
+    public boolean isRangeSupported() {
+        return underlyingResource instanceof RangeAwareResource && ((RangeAwareResource) underlyingResource).isRangeSupported();
+    }
+
+    /**
+     * Returns duplicates of the cached buffers that cover the given (inclusive) byte range
+     */
+    private static ByteBuffer[] sliceBuffers(final LimitedBufferSlicePool.PooledByteBuffer[] pooled, final long start, final long end) {
+        final ByteBuffer[] buffers = new ByteBuffer[pooled.length];
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i] = pooled[i].getResource();
+        }
+        return sliceBuffers(buffers, start, end);
+    }
+
+    private static ByteBuffer[] sliceBuffers(final ByteBuffer[] buffers, final long start, final long end) {
+        final List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+        long offset = 0;
+        for (ByteBuffer data : buffers) {
+            final int length = data.remaining();
+            final long bufferEnd = offset + length - 1;
+            if (bufferEnd >= start && offset <= end) {
+                // Keep position from mutating
+                final ByteBuffer slice = data.duplicate();
+                if (start > offset) {
+                    slice.position(slice.position() + (int) (start - offset));
+                }
+                if (end < bufferEnd) {
+                    slice.limit(slice.limit() - (int) (bufferEnd - end));
+                }
+                result.add(slice);
+            }
+            offset += length;
+            if (offset > end) {
+                break;
+            }
+        }
+        return result.toArray(new ByteBuffer[result.size()]);
+    }
+
     @Override
     public Long getContentLength() {
         //we always use the underlying size unless the data is cached in the buffer cache
         //to prevent a mis-match between size on disk and cached size
+        final MappedFileCache mappedFileCache = cachingResourceManager.getMappedFileCache();
+        if(mappedFileCache != null) {
+            final MappedFileCache.MappedEntry mapped = mappedFileCache.peek(cacheKey);
+            if(mapped != null) {
+                return mapped.size();
+            }
+        }
         final DirectBufferCache dataCache = cachingResourceManager.getDataCache();
         if(dataCache == null) {
             return underlyingResource.getContentLength();
@@ -226,17 +380,33 @@ public class CachedResource implements Resource {
     private static class DereferenceCallback implements IoCallback {
 
         private final DirectBufferCache.CacheEntry cache;
+        private final MappedFileCache.MappedEntry mapped;
         private final IoCallback callback;
 
         public DereferenceCallback(DirectBufferCache.CacheEntry cache, final IoCallback callback) {
             this.cache = cache;
+            this.mapped = null;
             this.callback = callback;
         }
 
+        public DereferenceCallback(MappedFileCache.MappedEntry mapped, final IoCallback callback) {
+            this.cache = null;
+            this.mapped = mapped;
+            this.callback = callback;
+        }
+
+        private void dereference() {
+            if (cache != null) {
+                cache.dereference();
+            } else {
+                mapped.dereference();
+            }
+        }
+
         @Override
         public void onComplete(final HttpServerExchange exchange, final Sender sender) {
             try {
-                cache.dereference();
+                dereference();
             } finally {
                 callback.onComplete(exchange, sender);
             }
@@ -246,7 +416,7 @@ public class CachedResource implements Resource {
         public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
             UndertowLogger.REQUEST_IO_LOGGER.ioException(exception);
             try {
-                cache.dereference();
+                dereference();
             } finally {
                 callback.onException(exchange, sender, exception);
             }
@@ -24,7 +24,9 @@ import java.util.Set;
 
 import io.undertow.UndertowLogger;
 import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.EvictionPolicy;
 import io.undertow.server.handlers.cache.LRUCache;
+import io.undertow.server.handlers.cache.MappedFileCache;
 
 /**
  * @author Stuart Douglas
@@ -46,6 +48,11 @@ public class CachingResourceManager implements ResourceManager {
      */
     private final DirectBufferCache dataCache;
 
+    /**
+     * A cache of memory mapped files, used for files that are too big for the buffer cache. May be null.
+     */
+    private final MappedFileCache mappedFileCache;
+
     /**
      * A cache of file metadata, such as if a file exists or not
      */
@@ -54,10 +61,23 @@ public class CachingResourceManager implements ResourceManager {
     private final int maxAge;
 
     public CachingResourceManager(final int metadataCacheSize, final long maxFileSize, final DirectBufferCache dataCache, final ResourceManager underlyingResourceManager, final int maxAge) {
+        this(metadataCacheSize, maxFileSize, dataCache, underlyingResourceManager, maxAge, EvictionPolicy.LRU);
+    }
+
+    public CachingResourceManager(final int metadataCacheSize, final long maxFileSize, final DirectBufferCache dataCache, final ResourceManager underlyingResourceManager, final int maxAge, final EvictionPolicy metadataEvictionPolicy) {
+        this(metadataCacheSize, maxFileSize, dataCache, null, underlyingResourceManager, maxAge, metadataEvictionPolicy);
+    }
+
+    /**
+     * @param mappedFileCache Cache of memory mapped files. Files that are bigger than <code>maxFileSize</code>, or all files
+     *                        if there is no data cache, are mapped if they fit in this cache.
+     */
+    public CachingResourceManager(final int metadataCacheSize, final long maxFileSize, final DirectBufferCache dataCache, final MappedFileCache mappedFileCache, final ResourceManager underlyingResourceManager, final int maxAge, final EvictionPolicy metadataEvictionPolicy) {
+        this.mappedFileCache = mappedFileCache;
         this.maxFileSize = maxFileSize;
         this.underlyingResourceManager = underlyingResourceManager;
         this.dataCache = dataCache;
-        this.cache = new LRUCache<String, Object>(metadataCacheSize, maxAge);
+        this.cache = new LRUCache<String, Object>(metadataCacheSize, maxAge, metadataEvictionPolicy);
         this.maxAge = maxAge;
         if(underlyingResourceManager.isResourceChangeListenerSupported()) {
             try {
@@ -140,6 +160,10 @@ public class CachingResourceManager implements ResourceManager {
         return dataCache;
     }
 
+    MappedFileCache getMappedFileCache() {
+        return mappedFileCache;
+    }
+
     public long getMaxFileSize() {
         return maxFileSize;
     }
@@ -162,6 +186,15 @@ public class CachingResourceManager implements ResourceManager {
                     }
                 }
             }
+            if(mappedFileCache != null) {
+                for(final Object key : mappedFileCache.getAllKeys()) {
+                    if(key instanceof CachedResource.CacheKey) {
+                        if(((CachedResource.CacheKey) key).manager == this) {
+                            mappedFileCache.remove(key);
+                        }
+                    }
+                }
+            }
         } finally {
             underlyingResourceManager.close();
         }
@@ -0,0 +1,302 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.resource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.xnio.FileAccess;
+import org.xnio.IoUtils;
+import org.xnio.Xnio;
+
+/**
+ * A bounded cache of open read only file channels, keyed by canonical path.
+ * <p/>
+ * Each entry also records the size and last modified time of the file at the time it was opened,
+ * so that serving a file that is in the cache does not need any file system calls at all.
+ * <p/>
+ * Entries are reference counted. A channel obtained from {@link #acquire(String, java.io.File, org.xnio.Xnio)}
+ * must be released when the caller is done with it, and it is only closed once it has been
+ * released and removed from the cache. As the channel is shared callers must only use the
+ * positional read and transfer methods, and must never change the channel position.
+ * <p/>
+ * The cache does not notice if a file is changed on disk, entries must be invalidated when a
+ * change is detected. {@link FileResourceManager} does this using its {@link ResourceChangeListener}
+ * mechanism.
+ *
+ * @author Stuart Douglas
+ */
+public class FileChannelCache implements Closeable {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int maxEntries;
+
+    /**
+     * The cache is split into segments by path, each with its own lock and a share of the entries, so requests
+     * for different files do not contend on a single lock. Eviction is LRU within each segment.
+     */
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    public FileChannelCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 2 <= maxEntries) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; ++i) {
+            //spread the entries so the segment sizes add up to maxEntries
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+        }
+        this.segmentMask = count - 1;
+    }
+
+    private Segment segmentFor(final String canonicalPath) {
+        final int hash = canonicalPath.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & segmentMask];
+    }
+
+    /**
+     * Gets an open channel for the given file, opening it if it is not already cached.
+     *
+     * @param canonicalPath The canonical path of the file, used as the cache key
+     * @param file          The file
+     * @param xnio          The Xnio instance used to open the file
+     * @return A referenced channel, which must be released after use
+     * @throws IOException If the file could not be opened
+     */
+    public CachedChannel acquire(final String canonicalPath, final File file, final Xnio xnio) throws IOException {
+        final Segment segment = segmentFor(canonicalPath);
+        for (; ; ) {
+            CachedChannel existing;
+            synchronized (segment) {
+                existing = segment.entries.get(canonicalPath);
+            }
+            if (existing != null) {
+                if (existing.reference()) {
+                    return existing;
+                }
+                //it is being closed, remove it and try again
+                synchronized (segment) {
+                    if (segment.entries.get(canonicalPath) == existing) {
+                        segment.entries.remove(canonicalPath);
+                    }
+                }
+                continue;
+            }
+
+            //we do not hold the lock while the file is being opened
+            final long lastModified = file.lastModified();
+            final FileChannel channel = xnio.openFile(file, FileAccess.READ_ONLY);
+            final CachedChannel created;
+            try {
+                created = new CachedChannel(channel, channel.size(), lastModified);
+            } catch (IOException e) {
+                IoUtils.safeClose(channel);
+                throw e;
+            }
+            final List<CachedChannel> evicted = new ArrayList<CachedChannel>();
+            synchronized (segment) {
+                existing = segment.entries.get(canonicalPath);
+                if (existing == null) {
+                    segment.entries.put(canonicalPath, created);
+                    final Iterator<CachedChannel> it = segment.entries.values().iterator();
+                    while (segment.entries.size() > segment.maxEntries && it.hasNext()) {
+                        evicted.add(it.next());
+                        it.remove();
+                    }
+                }
+            }
+            for (CachedChannel entry : evicted) {
+                entry.release();
+            }
+            if (existing == null) {
+                return created;
+            }
+            //another thread opened it at the same time
+            IoUtils.safeClose(channel);
+            if (existing.reference()) {
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * Returns the cached entry for the given path, without referencing it. This can be used to read the
+     * cached file metadata, but the channel must not be used.
+     *
+     * @param canonicalPath The canonical path of the file
+     * @return The entry, or null if the file is not cached
+     */
+    public CachedChannel getIfPresent(final String canonicalPath) {
+        final Segment segment = segmentFor(canonicalPath);
+        synchronized (segment) {
+            return segment.entries.get(canonicalPath);
+        }
+    }
+
+    /**
+     * Removes the given path from the cache. If the path is a directory then everything underneath it is
+     * also removed.
+     *
+     * @param canonicalPath The canonical path
+     */
+    public void invalidate(final String canonicalPath) {
+        final String prefix = canonicalPath + File.separatorChar;
+        final List<CachedChannel> removed = new ArrayList<CachedChannel>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                final Iterator<Map.Entry<String, CachedChannel>> it = segment.entries.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<String, CachedChannel> entry = it.next();
+                    if (entry.getKey().equals(canonicalPath) || entry.getKey().startsWith(prefix)) {
+                        removed.add(entry.getValue());
+                        it.remove();
+                    }
+                }
+            }
+        }
+        for (CachedChannel entry : removed) {
+            entry.release();
+        }
+    }
+
+    public void invalidateAll() {
+        final List<CachedChannel> removed = new ArrayList<CachedChannel>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                removed.addAll(segment.entries.values());
+                segment.entries.clear();
+            }
+        }
+        for (CachedChannel entry : removed) {
+            entry.release();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public void close() {
+        invalidateAll();
+    }
+
+    private static final class Segment {
+
+        private final int maxEntries;
+
+        /**
+         * Access ordered map, the first entry is the least recently used one
+         */
+        private final LinkedHashMap<String, CachedChannel> entries = new LinkedHashMap<String, CachedChannel>(16, 0.75f, true);
+
+        private Segment(final int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static final class CachedChannel {
+
+        private static final AtomicIntegerFieldUpdater<CachedChannel> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(CachedChannel.class, "refs");
+
+        private final FileChannel channel;
+        private final long size;
+        private final long lastModified;
+        /**
+         * The cache holds one reference, and each user holds one
+         */
+        private volatile int refs = 2;
+
+        private CachedChannel(final FileChannel channel, final long size, final long lastModified) {
+            this.channel = channel;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * @return The size of the file when it was opened
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return The last modified time of the file when it was opened
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        boolean reference() {
+            for (; ; ) {
+                int refs = this.refs;
+                if (refs < 1) {
+                    return false; // closing
+                }
+                if (refsUpdater.compareAndSet(this, refs, refs + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Releases a reference to the channel. The channel is closed once all references are released.
+         */
+        public void release() {
+            for (; ; ) {
+                int refs = this.refs;
+                if (refs < 1) {
+                    return;
+                }
+                if (refsUpdater.compareAndSet(this, refs, refs - 1)) {
+                    if (refs == 1) {
+                        IoUtils.safeClose(channel);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
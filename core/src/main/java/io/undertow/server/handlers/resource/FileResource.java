@@ -45,16 +45,22 @@ import org.xnio.Pooled;
  *
  * @author Stuart Douglas
  */
-public class FileResource implements Resource {
+public class FileResource implements RangeAwareResource {
 
     private final File file;
     private final String path;
     private final FileResourceManager manager;
+    private volatile String canonicalPath;
 
     public FileResource(final File file, final FileResourceManager manager, String path) {
+        this(file, manager, path, null);
+    }
+
+    FileResource(final File file, final FileResourceManager manager, String path, final String canonicalPath) {
         this.file = file;
         this.path = path;
         this.manager = manager;
+        this.canonicalPath = canonicalPath;
     }
 
     @Override
@@ -64,6 +70,10 @@ public class FileResource implements Resource {
 
     @Override
     public Date getLastModified() {
+        final FileChannelCache.CachedChannel cached = getCachedChannel();
+        if (cached != null) {
+            return new Date(cached.getLastModified());
+        }
         return new Date(file.lastModified());
     }
 
@@ -112,12 +122,34 @@ public class FileResource implements Resource {
 
     @Override
     public void serve(final Sender sender, final HttpServerExchange exchange, final IoCallback callback) {
+        serveImpl(sender, exchange, -1, -1, callback, false);
+    }
+
+    @Override
+    public void serveRange(final Sender sender, final HttpServerExchange exchange, final long start, final long end, final IoCallback callback) {
+        serveImpl(sender, exchange, start, end, callback, true);
+    }
+
+    @Override
+    public boolean isRangeSupported() {
+        return true;
+    }
+
+    private void serveImpl(final Sender sender, final HttpServerExchange exchange, final long start, final long end, final IoCallback callback, final boolean range) {
         abstract class BaseFileTask implements Runnable {
             protected volatile FileChannel fileChannel;
+            protected volatile FileChannelCache.CachedChannel cachedChannel;
 
             protected boolean openFile() {
                 try {
-                    fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
+                    final FileChannelCache cache = manager.getFileChannelCache();
+                    final String canonicalPath = cache == null ? null : getCanonicalPath();
+                    if (canonicalPath != null) {
+                        cachedChannel = cache.acquire(canonicalPath, file, exchange.getConnection().getWorker().getXnio());
+                        fileChannel = cachedChannel.getChannel();
+                    } else {
+                        fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
+                    }
                 } catch (FileNotFoundException e) {
                     exchange.setResponseCode(404);
                     callback.onException(exchange, sender, e);
@@ -129,11 +161,26 @@ public class FileResource implements Resource {
                 }
                 return true;
             }
+
+            protected void closeFile() {
+                final FileChannelCache.CachedChannel cachedChannel = this.cachedChannel;
+                if (cachedChannel != null) {
+                    this.cachedChannel = null;
+                    cachedChannel.release();
+                } else {
+                    IoUtils.safeClose(fileChannel);
+                }
+            }
         }
 
         class ServerTask extends BaseFileTask implements IoCallback {
 
             private Pooled<ByteBuffer> pooled;
+            private long remaining = end - start + 1;
+            /**
+             * Reads are positional, as the channel may be shared with other requests
+             */
+            private long position = range ? start : 0;
 
             @Override
             public void run() {
@@ -147,14 +194,21 @@ public class FileResource implements Resource {
                     ByteBuffer buffer = pooled.getResource();
                     try {
                         buffer.clear();
-                        int res = fileChannel.read(buffer);
+                        if (range && remaining < buffer.remaining()) {
+                            buffer.limit((int) remaining);
+                        }
+                        int res = range && remaining == 0 ? -1 : fileChannel.read(buffer, position);
                         if (res == -1) {
                             //we are done
                             pooled.free();
-                            IoUtils.safeClose(fileChannel);
+                            closeFile();
                             callback.onComplete(exchange, sender);
                             return;
                         }
+                        position += res;
+                        if (range) {
+                            remaining -= res;
+                        }
                         buffer.flip();
                         sender.send(buffer, this);
                     } catch (IOException e) {
@@ -180,7 +234,7 @@ public class FileResource implements Resource {
                     pooled.free();
                     pooled = null;
                 }
-                IoUtils.safeClose(fileChannel);
+                closeFile();
                 if (!exchange.isResponseStarted()) {
                     exchange.setResponseCode(500);
                 }
@@ -195,11 +249,11 @@ public class FileResource implements Resource {
                     return;
                 }
 
-                sender.transferFrom(fileChannel, new IoCallback() {
+                final IoCallback transferCallback = new IoCallback() {
                     @Override
                     public void onComplete(HttpServerExchange exchange, Sender sender) {
                         try {
-                            IoUtils.safeClose(fileChannel);
+                            closeFile();
                         } finally {
                             callback.onComplete(exchange, sender);
                         }
@@ -208,16 +262,25 @@ public class FileResource implements Resource {
                     @Override
                     public void onException(HttpServerExchange exchange, Sender sender, IOException exception) {
                         try {
-                            IoUtils.safeClose(fileChannel);
+                            closeFile();
                         } finally {
                             callback.onException(exchange, sender, exception);
                         }
                     }
-                });
+                };
+                if (range) {
+                    sender.transferFrom(fileChannel, start, end - start + 1, transferCallback);
+                } else if (cachedChannel != null) {
+                    //shared channels must not have their position changed
+                    sender.transferFrom(fileChannel, 0, cachedChannel.getSize(), transferCallback);
+                } else {
+                    sender.transferFrom(fileChannel, transferCallback);
+                }
             }
         }
 
-        BaseFileTask task = manager.getTransferMinSize() > file.length() ? new ServerTask() : new TransferTask();
+        final long length = range ? end - start + 1 : getContentLength();
+        BaseFileTask task = manager.getTransferMinSize() > length ? new ServerTask() : new TransferTask();
         if (exchange.isInIoThread()) {
             exchange.dispatch(task);
         } else {
@@ -227,9 +290,38 @@ public class FileResource implements Resource {
 
     @Override
     public Long getContentLength() {
+        final FileChannelCache.CachedChannel cached = getCachedChannel();
+        if (cached != null) {
+            return cached.getSize();
+        }
         return file.length();
     }
 
+    private FileChannelCache.CachedChannel getCachedChannel() {
+        final FileChannelCache cache = manager.getFileChannelCache();
+        if (cache == null) {
+            return null;
+        }
+        final String canonicalPath = getCanonicalPath();
+        if (canonicalPath == null) {
+            return null;
+        }
+        return cache.getIfPresent(canonicalPath);
+    }
+
+    private String getCanonicalPath() {
+        String canonicalPath = this.canonicalPath;
+        if (canonicalPath == null) {
+            try {
+                this.canonicalPath = canonicalPath = file.getCanonicalPath();
+            } catch (IOException e) {
+                UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+                return null;
+            }
+        }
+        return canonicalPath;
+    }
+
     @Override
     public String getCacheKey() {
         return file.toString();
@@ -48,7 +48,24 @@ public class FileResourceManager implements ResourceManager {
      */
     private final long transferMinSize;
 
+    /**
+     * Cache of open file channels, may be null
+     */
+    private final FileChannelCache fileChannelCache;
+
     public FileResourceManager(final File base, long transferMinSize) {
+        this(base, transferMinSize, null);
+    }
+
+    /**
+     * Creates a resource manager that keeps files open in the given cache. Cached entries are
+     * invalidated when a change is reported by the file system watcher.
+     *
+     * @param base             The base directory
+     * @param transferMinSize  Size to use direct FS to network transfer instead of read/write
+     * @param fileChannelCache The file channel cache, or null to open the file for every request
+     */
+    public FileResourceManager(final File base, long transferMinSize, final FileChannelCache fileChannelCache) {
         if (base == null) {
             throw UndertowMessages.MESSAGES.argumentCannotBeNull("base");
         }
@@ -58,7 +75,22 @@ public class FileResourceManager implements ResourceManager {
         }
         this.base = basePath;
         this.transferMinSize = transferMinSize;
-
+        this.fileChannelCache = fileChannelCache;
+        if (fileChannelCache != null) {
+            registerResourceChangeListener(new ResourceChangeListener() {
+                @Override
+                public void handleChanges(Collection<ResourceChangeEvent> changes) {
+                    for (ResourceChangeEvent change : changes) {
+                        try {
+                            fileChannelCache.invalidate(new File(FileResourceManager.this.base, change.getResource()).getCanonicalPath());
+                        } catch (IOException e) {
+                            //if we cannot resolve the path we just drop everything
+                            fileChannelCache.invalidateAll();
+                        }
+                    }
+                }
+            });
+        }
     }
 
     public File getBase() {
@@ -74,6 +106,9 @@ public class FileResourceManager implements ResourceManager {
             basePath = basePath + '/';
         }
         this.base = basePath;
+        if (fileChannelCache != null) {
+            fileChannelCache.invalidateAll();
+        }
         return this;
     }
 
@@ -91,8 +126,9 @@ public class FileResourceManager implements ResourceManager {
                 //security check for case insensitive file systems
                 //we make sure the case of the filename matches the case of the request
                 //TODO: we should be able to avoid this if we can tell a FS is case sensitive
-                if (file.getCanonicalFile().getName().equals(file.getName())) {
-                    return new FileResource(file, this, path);
+                final File canonicalFile = file.getCanonicalFile();
+                if (canonicalFile.getName().equals(file.getName())) {
+                    return new FileResource(file, this, path, canonicalFile.getPath());
                 }
             }
             return null;
@@ -142,10 +178,17 @@ public class FileResourceManager implements ResourceManager {
         return transferMinSize;
     }
 
+    public FileChannelCache getFileChannelCache() {
+        return fileChannelCache;
+    }
+
     @Override
     public synchronized void close() throws IOException {
         if (fileSystemWatcher != null) {
             fileSystemWatcher.close();
         }
+        if (fileChannelCache != null) {
+            fileChannelCache.close();
+        }
     }
 }
@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ByteRange;
+
+/**
+ * Callback that writes out a <code>multipart/byteranges</code> response.
+ * <p/>
+ * The part headers are sent using the sender, and the part bodies are served using
+ * {@link RangeAwareResource#serveRange(io.undertow.io.Sender, io.undertow.server.HttpServerExchange, long, long, io.undertow.io.IoCallback)}
+ * so the resource can use whatever transfer method is most efficient.
+ *
+ * @author Stuart Douglas
+ */
+final class MultipartByteRangesCallback implements IoCallback {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Random BOUNDARY_RANDOM = new Random();
+
+    private final RangeAwareResource resource;
+    private final ByteRange.RangeResponseResult ranges;
+    private final IoCallback completionCallback;
+    private final String boundary;
+    private final byte[][] partHeaders;
+    private final byte[] trailer;
+    private final long contentLength;
+
+    /**
+     * The current step, even steps write the part header, odd steps write the part body
+     */
+    private int step;
+
+    MultipartByteRangesCallback(final RangeAwareResource resource, final ByteRange.RangeResponseResult ranges, final String contentType, final IoCallback completionCallback) {
+        this.resource = resource;
+        this.ranges = ranges;
+        this.completionCallback = completionCallback;
+        this.boundary = "UNDERTOW_" + Long.toHexString(BOUNDARY_RANDOM.nextLong());
+        this.partHeaders = new byte[ranges.getRanges()][];
+        long length = 0;
+        for (int i = 0; i < partHeaders.length; ++i) {
+            final StringBuilder header = new StringBuilder();
+            header.append("\r\n--").append(boundary).append("\r\n");
+            if (contentType != null) {
+                header.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            header.append("Content-Range: ").append(ranges.getContentRange(i)).append("\r\n\r\n");
+            partHeaders[i] = header.toString().getBytes(ISO_8859_1);
+            length += partHeaders[i].length;
+            length += ranges.getEnd(i) - ranges.getStart(i) + 1;
+        }
+        this.trailer = ("\r\n--" + boundary + "--\r\n").getBytes(ISO_8859_1);
+        this.contentLength = length + trailer.length;
+    }
+
+    String getBoundary() {
+        return boundary;
+    }
+
+    long getContentLength() {
+        return contentLength;
+    }
+
+    void start(final HttpServerExchange exchange, final Sender sender) {
+        onComplete(exchange, sender);
+    }
+
+    @Override
+    public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+        final int step = this.step++;
+        final int part = step >> 1;
+        if (part < partHeaders.length) {
+            if ((step & 1) == 0) {
+                sender.send(ByteBuffer.wrap(partHeaders[part]), this);
+            } else {
+                resource.serveRange(sender, exchange, ranges.getStart(part), ranges.getEnd(part), this);
+            }
+        } else if (step == partHeaders.length * 2) {
+            sender.send(ByteBuffer.wrap(trailer), this);
+        } else {
+            completionCallback.onComplete(exchange, sender);
+        }
+    }
+
+    @Override
+    public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+        completionCallback.onException(exchange, sender, exception);
+    }
+}
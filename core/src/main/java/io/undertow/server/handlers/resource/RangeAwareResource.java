@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.resource;
+
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * A resource implementation that supports serving a byte range of its content.
+ *
+ * @author Stuart Douglas
+ */
+public interface RangeAwareResource extends Resource {
+
+    /**
+     * Serve a single range of the resource, and call the provided callback when complete.
+     * <p/>
+     * The caller is responsible for setting the response code and the Content-Range and
+     * Content-Length headers.
+     *
+     * @param sender             The sender to use.
+     * @param exchange           The exchange
+     * @param start              The first byte to send
+     * @param end                The last byte to send (inclusive)
+     * @param completionCallback The callback to invoke when complete
+     */
+    void serveRange(final Sender sender, final HttpServerExchange exchange, final long start, final long end, final IoCallback completionCallback);
+
+    /**
+     * It is possible that some resources managers may only support range requests on a subset of their resources,
+     *
+     * @return <code>true</code> if this resource supports range requests
+     */
+    boolean isRangeSupported();
+}
@@ -15,6 +15,7 @@ import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.cache.ResponseCache;
 import io.undertow.server.handlers.encoding.ContentEncodedResource;
 import io.undertow.server.handlers.encoding.ContentEncodedResourceManager;
+import io.undertow.util.ByteRange;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
 import io.undertow.util.ETagUtils;
@@ -171,7 +172,6 @@ public class ResourceHandler implements HttpHandler {
                     exchange.endExchange();
                     return;
                 }
-                //todo: handle range requests
                 //we are going to proceed. Set the appropriate headers
                 final String contentType = resource.getContentType(mimeMappings);
                 if (contentType != null) {
@@ -210,8 +210,16 @@ public class ResourceHandler implements HttpHandler {
                     }
                 }
 
+                final boolean rangeSupported = resource instanceof RangeAwareResource && ((RangeAwareResource) resource).isRangeSupported();
+                if (rangeSupported) {
+                    exchange.getResponseHeaders().put(Headers.ACCEPT_RANGES, "bytes");
+                }
+
                 if (!sendContent) {
                     exchange.endExchange();
+                } else if (rangeSupported && contentLength != null && exchange.getRequestMethod().equals(Methods.GET)
+                        && exchange.getRequestHeaders().contains(Headers.RANGE)) {
+                    serveRange(exchange, (RangeAwareResource) resource, contentLength, lastModified, etag);
                 } else {
                     resource.serve(exchange.getResponseSender(), exchange, IoCallback.END_EXCHANGE);
                 }
@@ -221,6 +229,42 @@ public class ResourceHandler implements HttpHandler {
 
     }
 
+    private void serveRange(final HttpServerExchange exchange, final RangeAwareResource resource, final long contentLength, final Date lastModified, final ETag etag) {
+        final ByteRange range = ByteRange.parse(exchange.getRequestHeaders().getFirst(Headers.RANGE));
+        final ByteRange.RangeResponseResult result;
+        if (range == null) {
+            result = null;
+        } else {
+            result = range.getResponseResult(contentLength, exchange.getRequestHeaders().getFirst(Headers.IF_RANGE), lastModified, etag);
+        }
+        if (result == null) {
+            //the range header is either invalid or does not apply, just send the full resource
+            resource.serve(exchange.getResponseSender(), exchange, IoCallback.END_EXCHANGE);
+            return;
+        }
+        if (result.getStatusCode() == StatusCodes.REQUEST_RANGE_NOT_SATISFIABLE) {
+            exchange.setResponseCode(StatusCodes.REQUEST_RANGE_NOT_SATISFIABLE);
+            exchange.getResponseHeaders().put(Headers.CONTENT_RANGE, result.getUnsatisfiedContentRange());
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, "0");
+            exchange.endExchange();
+            return;
+        }
+        exchange.setResponseCode(StatusCodes.PARTIAL_CONTENT);
+        if (result.getRanges() == 1) {
+            final long start = result.getStart(0);
+            final long end = result.getEnd(0);
+            exchange.getResponseHeaders().put(Headers.CONTENT_RANGE, result.getContentRange(0));
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(end - start + 1));
+            resource.serveRange(exchange.getResponseSender(), exchange, start, end, IoCallback.END_EXCHANGE);
+        } else {
+            final String contentType = exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE);
+            final MultipartByteRangesCallback callback = new MultipartByteRangesCallback(resource, result, contentType, IoCallback.END_EXCHANGE);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "multipart/byteranges; boundary=" + callback.getBoundary());
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(callback.getContentLength()));
+            callback.start(exchange, exchange.getResponseSender());
+        }
+    }
+
     private Resource getIndexFiles(ResourceManager resourceManager, final String base, List<String> possible) throws IOException {
         String realBase;
         if (base.endsWith("/")) {
@@ -84,6 +84,12 @@ public abstract class AbstractAjpParser {
             state.currentString = null;
             state.stringLength = -1;
             state.containsUrlCharacters = false;
+            if (header) {
+                final HttpString knownHeader = knownHeader(builder);
+                if (knownHeader != null) {
+                    return new StringHolder(knownHeader);
+                }
+            }
             return new StringHolder(builder.toString(), true, containsUrlCharacters);
         } else {
             state.stringLength = stringLength;
@@ -94,6 +100,16 @@ public abstract class AbstractAjpParser {
 
     protected abstract HttpString headers(int offset);
 
+    /**
+     * Resolves a header name that was sent as a string rather than as a code.
+     *
+     * @param name The header name
+     * @return The known header, or <code>null</code> if the name should be converted as is
+     */
+    protected HttpString knownHeader(final CharSequence name) {
+        return null;
+    }
+
     protected static class IntegerHolder {
         public final int value;
         public final boolean readComplete;
@@ -0,0 +1,94 @@
+package io.undertow.server.protocol.ajp;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.annotationprocessor.TokenMatcherConfig;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.TokenMatcher;
+
+import static io.undertow.util.Headers.CACHE_CONTROL_STRING;
+import static io.undertow.util.Headers.EXPECT_STRING;
+import static io.undertow.util.Headers.IF_MATCH_STRING;
+import static io.undertow.util.Headers.IF_MODIFIED_SINCE_STRING;
+import static io.undertow.util.Headers.IF_NONE_MATCH_STRING;
+import static io.undertow.util.Headers.IF_RANGE_STRING;
+import static io.undertow.util.Headers.IF_UNMODIFIED_SINCE_STRING;
+import static io.undertow.util.Headers.ORIGIN_STRING;
+import static io.undertow.util.Headers.RANGE_STRING;
+import static io.undertow.util.Headers.SEC_WEB_SOCKET_KEY_STRING;
+import static io.undertow.util.Headers.SEC_WEB_SOCKET_VERSION_STRING;
+import static io.undertow.util.Headers.TRANSFER_ENCODING_STRING;
+import static io.undertow.util.Headers.UPGRADE_STRING;
+import static io.undertow.util.Headers.VIA_STRING;
+import static io.undertow.util.Headers.X_FORWARDED_FOR_STRING;
+import static io.undertow.util.Headers.X_FORWARDED_PROTO_STRING;
+
+/**
+ * Common request header names that do not have a code in the AJP header table, and so are sent as strings.
+ * <p/>
+ * Names that match are resolved to the {@link Headers} constants, so no string or {@link HttpString} is created for
+ * them, and they can take the fast path in the header map.
+ *
+ * @author Stuart Douglas
+ */
+@TokenMatcherConfig(tokens = {
+        CACHE_CONTROL_STRING,
+        EXPECT_STRING,
+        IF_MATCH_STRING,
+        IF_MODIFIED_SINCE_STRING,
+        IF_NONE_MATCH_STRING,
+        IF_RANGE_STRING,
+        IF_UNMODIFIED_SINCE_STRING,
+        ORIGIN_STRING,
+        RANGE_STRING,
+        SEC_WEB_SOCKET_KEY_STRING,
+        SEC_WEB_SOCKET_VERSION_STRING,
+        TRANSFER_ENCODING_STRING,
+        UPGRADE_STRING,
+        VIA_STRING,
+        X_FORWARDED_FOR_STRING,
+        X_FORWARDED_PROTO_STRING,
+        "X-Forwarded-Host",
+        "X-Requested-With"
+})
+public abstract class AjpHeaderNameMatcher extends TokenMatcher {
+
+    public static final AjpHeaderNameMatcher INSTANCE = instance(AjpHeaderNameMatcher.class);
+
+    private final HttpString[] headers;
+
+    protected AjpHeaderNameMatcher(final String[] tokens) {
+        super(tokens);
+        final Map<String, HttpString> known = new HashMap<String, HttpString>();
+        for (Field field : Headers.class.getDeclaredFields()) {
+            if (field.getType().equals(HttpString.class)) {
+                try {
+                    final HttpString header = (HttpString) field.get(null);
+                    known.put(header.toString(), header);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        headers = new HttpString[tokens.length];
+        for (int i = 0; i < tokens.length; ++i) {
+            final HttpString header = known.get(tokens[i]);
+            headers[i] = header == null ? new HttpString(tokens[i]) : header;
+        }
+    }
+
+    /**
+     * @param name The header name
+     * @return The matching header, or <code>null</code> if the name is not known
+     */
+    public HttpString matchHeader(final CharSequence name) {
+        final int index = match(name, 0, name.length());
+        if (index == -1) {
+            return null;
+        }
+        return headers[index];
+    }
+}
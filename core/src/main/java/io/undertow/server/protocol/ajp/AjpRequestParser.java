@@ -386,4 +386,9 @@ public class AjpRequestParser extends AbstractAjpParser {
     protected HttpString headers(int offset) {
         return HTTP_HEADERS[offset];
     }
+
+    @Override
+    protected HttpString knownHeader(final CharSequence name) {
+        return AjpHeaderNameMatcher.INSTANCE.matchHeader(name);
+    }
 }
@@ -129,6 +129,27 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
         connectedStreamChannel.getSinkChannel().getCloseSetter().set(new FrameCloseListener());
     }
 
+    /**
+     * Create a new {@link io.undertow.server.protocol.framed.AbstractFramedChannel}, with data that has already been
+     * read from the connection.
+     *
+     * @param connectedStreamChannel The {@link org.xnio.StreamConnection} over which the frames should be sent and received.
+     * @param bufferPool             The {@link org.xnio.Pool} which will be used to acquire {@link java.nio.ByteBuffer}'s from.
+     * @param framePriority          The frame priority implementation
+     * @param readData               Data that has already been read from the connection and must be parsed before anything
+     *                               else is read. May be <code>null</code>. The channel takes ownership of this buffer.
+     */
+    protected AbstractFramedChannel(final StreamConnection connectedStreamChannel, Pool<ByteBuffer> bufferPool, FramePriority<C, R, S> framePriority, final Pooled<ByteBuffer> readData) {
+        this(connectedStreamChannel, bufferPool, framePriority);
+        if (readData != null) {
+            if (readData.getResource().hasRemaining()) {
+                this.readData = new ReferenceCountedPooled<ByteBuffer>(readData, 1);
+            } else {
+                readData.free();
+            }
+        }
+    }
+
     /**
      * Get the buffer pool for this connection.
      *
@@ -554,6 +575,14 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
         }
     }
 
+    /**
+     * Method that is invoked when the underlying channel is closed. Implementations that multiplex several streams
+     * over a connection can use this to break any streams that are still open.
+     */
+    protected void closeSubChannels() {
+
+    }
+
     protected boolean isWritesBroken() {
         return writesBrokenUpdater.get(this) != 0;
     }
@@ -681,6 +710,7 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
                     channel.markBroken();
                 }
             }
+            closeSubChannels();
             ChannelListeners.invokeChannelListener((C) AbstractFramedChannel.this, closeSetter.get());
         }
     }
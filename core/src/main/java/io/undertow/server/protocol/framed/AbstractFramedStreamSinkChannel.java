@@ -185,7 +185,8 @@ public abstract class AbstractFramedStreamSinkChannel<C extends AbstractFramedCh
     }
 
     private void queueFinalFrame() throws IOException {
-        if (allAreClear(state, STATE_READY_FOR_FLUSH | STATE_FINAL_FRAME_QUEUED)) {
+        //a broken channel must not send anything more, for example a stream that the peer has reset
+        if (allAreClear(state, STATE_READY_FOR_FLUSH | STATE_FINAL_FRAME_QUEUED | STATE_BROKEN)) {
             buffer.getResource().flip();
             state |= STATE_READY_FOR_FLUSH | STATE_FINAL_FRAME_QUEUED;
             channel.queueFrame((S) this);
@@ -389,10 +390,19 @@ public abstract class AbstractFramedStreamSinkChannel<C extends AbstractFramedCh
         buffer.free();
         //TODO: need to think about this more
         //if the frame has had nothing written out it should not break the parent channel
-        channel.close();
+        channelForciblyClosed();
         wakeupWaiters();
     }
 
+    /**
+     * Method that is invoked when this channel is closed before it has been fully flushed. By default this closes
+     * the underlying connection, as it will be left in an inconsistent state. Protocols that can abort a single
+     * stream should override this to do so.
+     */
+    protected void channelForciblyClosed() throws IOException {
+        channel.close();
+    }
+
     @Override
     public boolean supportsOption(Option<?> option) {
         return false;
@@ -1,5 +1,6 @@
 package io.undertow.server.protocol.framed;
 
+import io.undertow.UndertowMessages;
 import org.xnio.Buffers;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
@@ -47,6 +48,7 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
     private static final int STATE_CLOSED = 1 << 3;
     private static final int STATE_LAST_FRAME = 1 << 4;
     private static final int STATE_IN_LISTENER_LOOP = 1 << 5;
+    private static final int STATE_STREAM_BROKEN = 1 << 6;
 
 
     /**
@@ -83,6 +85,9 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
         if (anyAreSet(state, STATE_DONE)) {
             return -1;
         }
+        if (anyAreSet(state, STATE_STREAM_BROKEN)) {
+            throw UndertowMessages.MESSAGES.channelIsClosed();
+        }
         beforeRead();
         if (waitingForFrame) {
             return 0;
@@ -122,6 +127,9 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
         if (anyAreSet(state, STATE_DONE)) {
             return -1;
         }
+        if (anyAreSet(state, STATE_STREAM_BROKEN)) {
+            throw UndertowMessages.MESSAGES.channelIsClosed();
+        }
         beforeRead();
         if (waitingForFrame) {
             return 0;
@@ -244,7 +252,7 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
                 underlying.awaitReadable();
             } else {
                 synchronized (lock) {
-                    if (data == null) {
+                    if (data == null && allAreClear(state, STATE_STREAM_BROKEN)) {
                         try {
                             waiters++;
                             lock.wait();
@@ -267,7 +275,7 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
                 underlying.awaitReadable(l, timeUnit);
             } else {
                 synchronized (lock) {
-                    if (data == null) {
+                    if (data == null && allAreClear(state, STATE_STREAM_BROKEN)) {
                         try {
                             waiters++;
                             lock.wait(timeUnit.toMillis(l));
@@ -306,6 +314,20 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
 
     }
 
+    /**
+     * Called when this stream is no longer valid, for example because the remote endpoint has aborted it. Any
+     * further reads will fail, and threads waiting for data are woken up.
+     */
+    protected void markStreamBroken() {
+        synchronized (lock) {
+            state |= STATE_STREAM_BROKEN;
+            lock.notifyAll();
+        }
+        if (anyAreSet(state, STATE_READS_RESUMED)) {
+            resumeReads(false);
+        }
+    }
+
     @Override
     public XnioExecutor getReadThread() {
         return underlying.getIoThread();
@@ -351,6 +373,9 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
         if (anyAreSet(state, STATE_DONE)) {
             return -1;
         }
+        if (anyAreSet(state, STATE_STREAM_BROKEN)) {
+            throw UndertowMessages.MESSAGES.channelIsClosed();
+        }
         beforeRead();
         if (waitingForFrame) {
             return 0;
@@ -419,6 +444,9 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
         if (anyAreSet(state, STATE_DONE)) {
             return -1;
         }
+        if (anyAreSet(state, STATE_STREAM_BROKEN)) {
+            throw UndertowMessages.MESSAGES.channelIsClosed();
+        }
         beforeRead();
         if (waitingForFrame) {
             return 0;
@@ -506,10 +534,19 @@ public abstract class AbstractFramedStreamSourceChannel<C extends AbstractFramed
     public void close() throws IOException {
         state |= STATE_CLOSED;
         if (allAreClear(state, STATE_DONE)) {
-            framedChannel.markReadsBroken(null);
+            channelForciblyClosed();
         }
     }
 
+    /**
+     * Method that is invoked when this channel is closed before all its data has been read. By default this breaks
+     * the read side of the underlying connection, as the remaining frame data cannot be skipped. Protocols that can
+     * abort a single stream should override this to do so.
+     */
+    protected void channelForciblyClosed() throws IOException {
+        framedChannel.markReadsBroken(null);
+    }
+
     protected AbstractFramedChannel<C, R, S> getFramedChannel() {
         return framedChannel;
     }
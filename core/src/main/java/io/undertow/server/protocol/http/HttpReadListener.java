@@ -23,6 +23,10 @@ import io.undertow.UndertowOptions;
 import io.undertow.conduits.ReadDataStreamSourceConduit;
 import io.undertow.server.Connectors;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.protocol.http2.Http2Channel;
+import io.undertow.server.protocol.http2.Http2ReceiveListener;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
 import io.undertow.util.StringWriteChannelListener;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
@@ -57,6 +61,7 @@ final class HttpReadListener implements ChannelListener<ConduitStreamSourceChann
     private final int maxRequestSize;
     private final long maxEntitySize;
     private final boolean recordRequestStartTime;
+    private final boolean enableHttp2;
 
     //0 = new request ok, reads resumed
     //1 = request running, new request not ok
@@ -71,6 +76,7 @@ final class HttpReadListener implements ChannelListener<ConduitStreamSourceChann
         maxRequestSize = connection.getUndertowOptions().get(UndertowOptions.MAX_HEADER_SIZE, UndertowOptions.DEFAULT_MAX_HEADER_SIZE);
         this.maxEntitySize = connection.getUndertowOptions().get(UndertowOptions.MAX_ENTITY_SIZE, 0);
         this.recordRequestStartTime = connection.getUndertowOptions().get(UndertowOptions.RECORD_REQUEST_START_TIME, false);
+        this.enableHttp2 = connection.getUndertowOptions().get(UndertowOptions.ENABLE_HTTP2, false);
     }
 
     public void newRequest() {
@@ -146,6 +152,10 @@ final class HttpReadListener implements ChannelListener<ConduitStreamSourceChann
             httpServerExchange.setRequestScheme(connection.getSslSession() != null ? "https" : "http");
             this.httpServerExchange = null;
             requestStateUpdater.set(this, 1);
+            if (enableHttp2 && httpServerExchange.getRequestMethod().equals(Methods.PRI) && Protocols.HTTP_2_0.equals(httpServerExchange.getProtocol())) {
+                handleHttp2PriorKnowledge(channel);
+                return;
+            }
             HttpTransferEncoding.setupRequest(httpServerExchange);
             if(recordRequestStartTime) {
                 Connectors.setRequestStartTime(httpServerExchange);
@@ -159,6 +169,21 @@ final class HttpReadListener implements ChannelListener<ConduitStreamSourceChann
         }
     }
 
+    /**
+     * The client has started with the HTTP/2 connection preface, the first part of which looks like a HTTP/1.x request.
+     * The connection is handed over to a HTTP/2 channel that reads the rest of the preface.
+     */
+    private void handleHttp2PriorKnowledge(final ConduitStreamSourceChannel channel) {
+        //any data that has been read after the request line is handed over to the HTTP/2 connection
+        final Pooled<ByteBuffer> extraBytes = connection.getExtraBytes();
+        connection.setExtraBytes(null);
+        channel.suspendReads();
+        connection.clearChannel();
+        final Http2Channel http2Channel = new Http2Channel(connection.getChannel(), connection.getBufferPool(), extraBytes, true, connection.getUndertowOptions());
+        http2Channel.getReceiveSetter().set(new Http2ReceiveListener(connection.getRootHandler(), connection.getUndertowOptions(), connection.getBufferSize()));
+        http2Channel.resumeReceives();
+    }
+
     private void handleFailedRead(ConduitStreamSourceChannel channel, int res) {
         if (res == 0) {
             channel.setReadListener(this);
@@ -33,6 +33,7 @@ import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import io.undertow.util.Protocols;
+import io.undertow.util.QueryParameterNameMatcher;
 import io.undertow.util.URLUtils;
 import org.xnio.OptionMap;
 
@@ -162,6 +163,7 @@ public abstract class HttpRequestParser {
     private final boolean allowEncodedSlash;
     private final boolean decode;
     private final String charset;
+    private final boolean lazyHeaderValues;
 
     static {
         try {
@@ -178,6 +180,7 @@ public abstract class HttpRequestParser {
         allowEncodedSlash = options.get(UndertowOptions.ALLOW_ENCODED_SLASH, false);
         decode = options.get(UndertowOptions.DECODE_URL, true);
         charset = options.get(UndertowOptions.URL_CHARSET, "UTF-8");
+        lazyHeaderValues = options.get(UndertowOptions.LAZY_HEADER_VALUES, false);
     }
 
     public static final HttpRequestParser instance(final OptionMap options) {
@@ -473,7 +476,7 @@ public abstract class HttpRequestParser {
                 exchange.setQueryString(queryString);
                 if (nextQueryParam == null) {
                     if (queryParamPos != stringBuilder.length()) {
-                        exchange.addQueryParam(decode(stringBuilder.substring(queryParamPos), urlDecodeRequired, state, true), "");
+                        exchange.addQueryParam(queryParameterName(stringBuilder, queryParamPos, urlDecodeRequired, state), "");
                     }
                 } else {
                     exchange.addQueryParam(nextQueryParam, decode(stringBuilder.substring(queryParamPos), urlDecodeRequired, state, true));
@@ -491,14 +494,14 @@ public abstract class HttpRequestParser {
                 if (decode && (next == '+' || next == '%')) {
                     urlDecodeRequired = true;
                 } else if (next == '=' && nextQueryParam == null) {
-                    nextQueryParam = decode(stringBuilder.substring(queryParamPos), urlDecodeRequired, state, true);
+                    nextQueryParam = queryParameterName(stringBuilder, queryParamPos, urlDecodeRequired, state);
                     urlDecodeRequired = false;
                     queryParamPos = stringBuilder.length() + 1;
                 } else if (next == '&' && nextQueryParam == null) {
                     if (mapCount++ > maxParameters) {
                         throw UndertowMessages.MESSAGES.tooManyQueryParameters(maxParameters);
                     }
-                    exchange.addQueryParam(decode(stringBuilder.substring(queryParamPos), urlDecodeRequired, state, true), "");
+                    exchange.addQueryParam(queryParameterName(stringBuilder, queryParamPos, urlDecodeRequired, state), "");
                     urlDecodeRequired = false;
                     queryParamPos = stringBuilder.length() + 1;
                 } else if (next == '&') {
@@ -521,6 +524,20 @@ public abstract class HttpRequestParser {
         state.mapCount = 0;
     }
 
+    /**
+     * Returns the name of the query parameter that starts at <code>pos</code>. Common names that do not need to be
+     * decoded are returned as interned strings, without copying them out of the builder.
+     */
+    private String queryParameterName(final StringBuilder stringBuilder, final int pos, final boolean urlDecodeRequired, final ParseState state) {
+        if (!urlDecodeRequired) {
+            final String name = QueryParameterNameMatcher.INSTANCE.matchToken(stringBuilder, pos, stringBuilder.length());
+            if (name != null) {
+                return name;
+            }
+        }
+        return decode(stringBuilder.substring(pos), urlDecodeRequired, state, true);
+    }
+
     private String decode(final String value, boolean urlDecodeRequired, ParseState state, final boolean allowEncodedSlash) {
         if (urlDecodeRequired) {
             return URLUtils.decode(value, charset, allowEncodedSlash, state.decodeBuffer);
@@ -615,6 +632,13 @@ public abstract class HttpRequestParser {
     private static final int LINE_END = 3;
     private static final int AWAIT_DATA_END = 4;
 
+    /**
+     * The size of the arrays that lazily parsed header values are stored in, and the least amount of space that must
+     * be left in the current array for it to be used for another value
+     */
+    private static final int HEADER_VALUE_ARENA_SIZE = 2048;
+    private static final int MIN_HEADER_VALUE_ARENA_SPACE = 64;
+
     /**
      * Parses a header value. This is called from the generated bytecode.
      *
@@ -625,6 +649,10 @@ public abstract class HttpRequestParser {
      */
     @SuppressWarnings("unused")
     final void handleHeaderValue(ByteBuffer buffer, ParseState state, HttpServerExchange builder) {
+        if (lazyHeaderValues) {
+            handleLazyHeaderValue(buffer, state, builder);
+            return;
+        }
         HttpString headerName = state.nextHeader;
         StringBuilder stringBuilder = state.stringBuilder;
         HashMap<HttpString, String> headerValuesCache = state.headerValuesCache;
@@ -734,6 +762,120 @@ public abstract class HttpRequestParser {
         state.parseState = parseState;
     }
 
+    /**
+     * Parses a header value into the header value arena of the connection. The value is added to the request headers
+     * as a view of the arena, and is only converted to a string if it is read.
+     * <p/>
+     * Whitespace is handled in the same way as {@link #handleHeaderValueCacheMiss}, so the resulting values are the same.
+     */
+    private void handleLazyHeaderValue(ByteBuffer buffer, ParseState state, HttpServerExchange builder) {
+        byte[] arena = state.headerValueArena;
+        int arenaPos = state.headerValueArenaPos;
+        int valueStart = state.headerValueStart;
+        int parseState = state.parseState;
+        if (valueStart == -1 && parseState != AWAIT_DATA_END) {
+            if (arena == null || arena.length - arenaPos < MIN_HEADER_VALUE_ARENA_SPACE) {
+                arena = new byte[HEADER_VALUE_ARENA_SIZE];
+                arenaPos = 0;
+            }
+            valueStart = arenaPos;
+        }
+        while (buffer.hasRemaining()) {
+            final byte next = buffer.get();
+            switch (parseState) {
+                case NORMAL: {
+                    if (next == '\r') {
+                        parseState = BEGIN_LINE_END;
+                    } else if (next == '\n') {
+                        parseState = LINE_END;
+                    } else if (next == ' ' || next == '\t') {
+                        parseState = WHITESPACE;
+                    } else {
+                        if (arenaPos == arena.length) {
+                            arena = growHeaderValueArena(arena, valueStart, arenaPos);
+                            arenaPos -= valueStart;
+                            valueStart = 0;
+                        }
+                        arena[arenaPos++] = next;
+                    }
+                    break;
+                }
+                case WHITESPACE: {
+                    if (next == '\r') {
+                        parseState = BEGIN_LINE_END;
+                    } else if (next == '\n') {
+                        parseState = LINE_END;
+                    } else if (next == ' ' || next == '\t') {
+                    } else {
+                        if (arena.length - arenaPos < 2) {
+                            arena = growHeaderValueArena(arena, valueStart, arenaPos);
+                            arenaPos -= valueStart;
+                            valueStart = 0;
+                        }
+                        if (arenaPos > valueStart) {
+                            arena[arenaPos++] = ' ';
+                        }
+                        arena[arenaPos++] = next;
+                        parseState = NORMAL;
+                    }
+                    break;
+                }
+                case LINE_END:
+                case BEGIN_LINE_END: {
+                    if (next == '\n' && parseState == BEGIN_LINE_END) {
+                        parseState = LINE_END;
+                    } else if (next == '\t' ||
+                            next == ' ') {
+                        //this is a continuation
+                        parseState = WHITESPACE;
+                    } else {
+                        //we have a header
+                        if (state.mapCount++ > maxHeaders) {
+                            throw UndertowMessages.MESSAGES.tooManyHeaders(maxHeaders);
+                        }
+                        builder.getRequestHeaders().addLazy(state.nextHeader, arena, valueStart, arenaPos - valueStart);
+
+                        state.nextHeader = null;
+                        state.leftOver = next;
+                        state.headerValueArena = arena;
+                        state.headerValueArenaPos = arenaPos;
+                        state.headerValueStart = -1;
+                        if (next == '\r') {
+                            parseState = AWAIT_DATA_END;
+                        } else {
+                            state.state = ParseState.HEADER;
+                            state.parseState = 0;
+                            return;
+                        }
+                    }
+                    break;
+                }
+                case AWAIT_DATA_END: {
+                    state.state = ParseState.PARSE_COMPLETE;
+                    return;
+                }
+            }
+        }
+        //we only write to the state if we did not finish parsing
+        state.parseState = parseState;
+        if (parseState != AWAIT_DATA_END) {
+            state.headerValueArena = arena;
+            state.headerValueArenaPos = arenaPos;
+            state.headerValueStart = valueStart;
+        }
+    }
+
+    /**
+     * Moves the value that is being parsed to a new arena. Earlier values stay where they are, as they may still be
+     * referenced by the request headers.
+     */
+    private static byte[] growHeaderValueArena(final byte[] arena, final int valueStart, final int arenaPos) {
+        final int length = arenaPos - valueStart;
+        final byte[] newArena = new byte[Math.max(HEADER_VALUE_ARENA_SIZE, length * 2 + 2)];
+        System.arraycopy(arena, valueStart, newArena, 0, length);
+        return newArena;
+    }
+
     protected boolean handleCachedHeader(String existing, ByteBuffer buffer, ParseState state, HttpServerExchange builder) {
         if (existing.length() + 3 > buffer.remaining()) {
             return false;
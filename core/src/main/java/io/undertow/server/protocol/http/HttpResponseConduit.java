@@ -23,13 +23,15 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 
+import io.undertow.UndertowOptions;
 import io.undertow.server.Connectors;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.TruncatedResponseException;
+import io.undertow.util.DateHeaderCache;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
-import io.undertow.util.StatusCodes;
 import org.xnio.Pool;
 import org.xnio.Pooled;
 import org.xnio.XnioWorker;
@@ -57,6 +59,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
     private int charIndex;
     private Pooled<ByteBuffer> pooledBuffer;
     private HttpServerExchange exchange;
+    private boolean writeDate;
 
     private ByteBuffer[] writevBuffer;
 
@@ -87,6 +90,8 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
     }
     void reset(HttpServerExchange exchange) {
         this.exchange = exchange;
+        //the date is written straight from the shared cache, rather than being added to the header map
+        writeDate = exchange.getConnection().getUndertowOptions().get(UndertowOptions.ALWAYS_SET_DATE, true);
         state = STATE_START;
         fiCookie = -1L;
         string = null;
@@ -146,22 +151,19 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
 
 
         assert buffer.remaining() >= 0x100;
-        exchange.getProtocol().appendTo(buffer);
-        buffer.put((byte) ' ');
         int code = exchange.getResponseCode();
         assert 999 >= code && code >= 100;
-        buffer.put((byte) (code / 100 + '0'));
-        buffer.put((byte) (code / 10 % 10 + '0'));
-        buffer.put((byte) (code % 10 + '0'));
-        buffer.put((byte) ' ');
-        String string = StatusCodes.getReason(code);
-        writeString(buffer, string);
-        buffer.put((byte) '\r').put((byte) '\n');
+        final HttpResponseHeaderCache cache = HttpResponseHeaderCache.get();
+        buffer.put(cache.getStatusLine(exchange.getProtocol(), code));
 
-        int remaining = buffer.remaining();
+        HeaderMap headers = exchange.getResponseHeaders();
+        if (writeDate && !headers.contains(Headers.DATE)) {
+            buffer.put(DateHeaderCache.getDateLine(exchange.getIoThread()));
+        }
 
+        String string = null;
+        int remaining = buffer.remaining();
 
-        HeaderMap headers = exchange.getResponseHeaders();
         long fiCookie = headers.fastIterateNonEmpty();
         while (fiCookie != -1) {
             HeaderValues headerValues = headers.fiCurrent(fiCookie);
@@ -170,6 +172,28 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
             int headerSize = header.length();
             int valueIdx = 0;
             while (valueIdx < headerValues.size()) {
+                //constant values are copied out in one go, either from their encoded form or from the cache
+                final HttpString encodedValue = headerValues.getEncodedValue(valueIdx);
+                if (encodedValue != null) {
+                    final int lineLength = headerSize + encodedValue.length() + 4;
+                    if (remaining - lineLength >= 2) {
+                        remaining -= lineLength;
+                        header.appendTo(buffer);
+                        buffer.put((byte) ':').put((byte) ' ');
+                        encodedValue.appendTo(buffer);
+                        buffer.put((byte) '\r').put((byte) '\n');
+                        valueIdx++;
+                        continue;
+                    }
+                } else {
+                    final byte[] line = cache.getHeaderLine(header, headerValues.get(valueIdx));
+                    if (line != null && remaining - line.length >= 2) {
+                        remaining -= line.length;
+                        buffer.put(line);
+                        valueIdx++;
+                        continue;
+                    }
+                }
                 remaining -= (headerSize + 2);
 
                 if (remaining < 0) {
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.protocol.http;
+
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import io.undertow.util.StatusCodes;
+
+/**
+ * A per thread cache of encoded response status lines, and of header lines that are sent frequently.
+ * <p/>
+ * Responses are normally written by the IO thread of their connection, so in practice this is a cache per IO thread
+ * and no synchronization is required.
+ * <p/>
+ * Header lines are held in a small direct mapped table. A line is only added once it has been seen twice in a row
+ * for its slot, so values that change on every response, such as most content lengths, do not cause an allocation
+ * per response.
+ *
+ * @author Stuart Douglas
+ */
+final class HttpResponseHeaderCache {
+
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 999;
+
+    private static final int HEADER_SLOTS = 256;
+    private static final int HEADER_SLOT_MASK = HEADER_SLOTS - 1;
+
+    /**
+     * Longer values are not cached, as the copy is no longer a significant part of the cost of writing them
+     */
+    private static final int MAX_CACHED_VALUE_LENGTH = 128;
+
+    private static final ThreadLocal<HttpResponseHeaderCache> CACHE = new ThreadLocal<HttpResponseHeaderCache>() {
+        @Override
+        protected HttpResponseHeaderCache initialValue() {
+            return new HttpResponseHeaderCache();
+        }
+    };
+
+    private final byte[][] http11StatusLines = new byte[MAX_STATUS - MIN_STATUS + 1][];
+    private final byte[][] http10StatusLines = new byte[MAX_STATUS - MIN_STATUS + 1][];
+
+    private final HttpString[] headerNames = new HttpString[HEADER_SLOTS];
+    private final String[] headerValues = new String[HEADER_SLOTS];
+    private final byte[][] headerLines = new byte[HEADER_SLOTS][];
+    private final int[] candidateHashes = new int[HEADER_SLOTS];
+
+    private HttpResponseHeaderCache() {
+    }
+
+    static HttpResponseHeaderCache get() {
+        return CACHE.get();
+    }
+
+    /**
+     * Returns the encoded status line, including the trailing CRLF.
+     *
+     * @param protocol The response protocol
+     * @param code     The status code
+     * @return The status line
+     */
+    byte[] getStatusLine(final HttpString protocol, final int code) {
+        if (code < MIN_STATUS || code > MAX_STATUS) {
+            //the exchange allows codes below 100, they are just not cached
+            return createStatusLine(protocol, code);
+        }
+        final byte[][] lines;
+        if (protocol.equals(Protocols.HTTP_1_1)) {
+            lines = http11StatusLines;
+        } else if (protocol.equals(Protocols.HTTP_1_0)) {
+            lines = http10StatusLines;
+        } else {
+            return createStatusLine(protocol, code);
+        }
+        final int index = code - MIN_STATUS;
+        byte[] line = lines[index];
+        if (line == null) {
+            lines[index] = line = createStatusLine(protocol, code);
+        }
+        return line;
+    }
+
+    /**
+     * Returns the encoded form of the given header line, including the trailing CRLF.
+     *
+     * @param name  The header name
+     * @param value The header value
+     * @return The encoded line, or <code>null</code> if it is not in the cache
+     */
+    byte[] getHeaderLine(final HttpString name, final String value) {
+        final int valueLength = value.length();
+        if (valueLength > MAX_CACHED_VALUE_LENGTH) {
+            return null;
+        }
+        final int hash = name.hashCode() * 31 + value.hashCode();
+        final int slot = (hash ^ (hash >>> 16)) & HEADER_SLOT_MASK;
+        final HttpString cachedName = headerNames[slot];
+        if (cachedName != null && sameName(cachedName, name) && value.equals(headerValues[slot])) {
+            return headerLines[slot];
+        }
+        if (candidateHashes[slot] != hash) {
+            candidateHashes[slot] = hash;
+            return null;
+        }
+        final int nameLength = name.length();
+        final byte[] line = new byte[nameLength + valueLength + 4];
+        name.copyTo(line, 0);
+        line[nameLength] = ':';
+        line[nameLength + 1] = ' ';
+        for (int i = 0; i < valueLength; ++i) {
+            line[nameLength + 2 + i] = (byte) value.charAt(i);
+        }
+        line[line.length - 2] = '\r';
+        line[line.length - 1] = '\n';
+        headerNames[slot] = name;
+        headerValues[slot] = value;
+        headerLines[slot] = line;
+        return line;
+    }
+
+    /**
+     * Header names are compared exactly, as the line is written out using the case of the cached name
+     */
+    private static boolean sameName(final HttpString cached, final HttpString name) {
+        if (cached == name) {
+            return true;
+        }
+        final int length = cached.length();
+        if (length != name.length() || cached.hashCode() != name.hashCode()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (cached.byteAt(i) != name.byteAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] createStatusLine(final HttpString protocol, final int code) {
+        final String reason = StatusCodes.getReason(code);
+        final int protocolLength = protocol.length();
+        final byte[] line = new byte[protocolLength + reason.length() + 7];
+        protocol.copyTo(line, 0);
+        int pos = protocolLength;
+        line[pos++] = ' ';
+        line[pos++] = (byte) (code / 100 + '0');
+        line[pos++] = (byte) (code / 10 % 10 + '0');
+        line[pos++] = (byte) (code % 10 + '0');
+        line[pos++] = ' ';
+        for (int i = 0; i < reason.length(); ++i) {
+            line[pos++] = (byte) reason.charAt(i);
+        }
+        line[pos++] = '\r';
+        line[pos] = '\n';
+        return line;
+    }
+}
@@ -28,7 +28,6 @@ import io.undertow.conduits.FixedLengthStreamSourceConduit;
 import io.undertow.conduits.HeadStreamSinkConduit;
 import io.undertow.server.Connectors;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.util.DateUtils;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
@@ -199,8 +198,6 @@ public class HttpTransferEncoding {
     }
 
     static StreamSinkConduit createSinkConduit(final HttpServerExchange exchange) {
-        DateUtils.addDateHeaderIfRequired(exchange);
-
         boolean headRequest = exchange.getRequestMethod().equals(Methods.HEAD);
         HttpServerConnection serverConnection = (HttpServerConnection) exchange.getConnection();
 
@@ -218,13 +215,13 @@ public class HttpTransferEncoding {
         // test to see if we're still persistent
         String connection = responseHeaders.getFirst(Headers.CONNECTION);
         if (!exchange.isPersistent()) {
-            responseHeaders.put(Headers.CONNECTION, Headers.CLOSE.toString());
+            responseHeaders.put(Headers.CONNECTION, Headers.CLOSE);
         } else if (exchange.isPersistent() && connection != null) {
             if (HttpString.tryFromString(connection).equals(Headers.CLOSE)) {
                 exchange.setPersistent(false);
             }
         } else if (exchange.getConnection().getUndertowOptions().get(UndertowOptions.ALWAYS_SET_KEEP_ALIVE, true)) {
-            responseHeaders.put(Headers.CONNECTION, Headers.KEEP_ALIVE.toString());
+            responseHeaders.put(Headers.CONNECTION, Headers.KEEP_ALIVE);
         }
         //according to the HTTP RFC we should ignore content length if a transfer coding is specified
         final String transferEncodingHeader = responseHeaders.getLast(Headers.TRANSFER_ENCODING);
@@ -262,7 +259,7 @@ public class HttpTransferEncoding {
         if (transferEncodingHeader == null) {
             if (exchange.isHttp11()) {
                 if (exchange.isPersistent()) {
-                    responseHeaders.put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
+                    responseHeaders.put(Headers.TRANSFER_ENCODING, Headers.CHUNKED);
 
                     if (headRequest) {
                         return channel;
@@ -276,7 +273,7 @@ public class HttpTransferEncoding {
                 }
             } else {
                 exchange.setPersistent(false);
-                responseHeaders.put(Headers.CONNECTION, Headers.CLOSE.toString());
+                responseHeaders.put(Headers.CONNECTION, Headers.CLOSE);
                 if (headRequest) {
                     return channel;
                 }
@@ -304,7 +301,7 @@ public class HttpTransferEncoding {
             log.trace("Cancelling persistence because response is identity with no content length");
             // make it not persistent - very unfortunate for the next request handler really...
             exchange.setPersistent(false);
-            responseHeaders.put(Headers.CONNECTION, Headers.CLOSE.toString());
+            responseHeaders.put(Headers.CONNECTION, Headers.CLOSE);
             return new FinishableStreamSinkConduit(channel, terminateResponseListener(exchange));
         }
     }
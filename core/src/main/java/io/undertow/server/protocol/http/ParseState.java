@@ -112,6 +112,22 @@ class ParseState {
      */
     final HashMap<HttpString, String> headerValuesCache = new HashMap<HttpString, String>();
 
+    /**
+     * If header values are parsed lazily this holds their bytes. Values are only ever appended, as the values of
+     * earlier requests may still refer to it, so it is shared by requests on the same connection until it is full.
+     */
+    byte[] headerValueArena;
+
+    /**
+     * The next free position in {@link #headerValueArena}
+     */
+    int headerValueArenaPos;
+
+    /**
+     * The start of the header value that is currently being parsed lazily, or -1 if there is none
+     */
+    int headerValueStart = -1;
+
     public ParseState() {
         this.parseState = 0;
         this.pos = 0;
@@ -137,5 +153,6 @@ class ParseState {
         this.nextHeader = null;
         this.nextQueryParam = null;
         this.mapCount = 0;
+        this.headerValueStart = -1;
     }
 }
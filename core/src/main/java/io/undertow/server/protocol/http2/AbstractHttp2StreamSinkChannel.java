@@ -0,0 +1,20 @@
+package io.undertow.server.protocol.http2;
+
+import io.undertow.server.protocol.framed.AbstractFramedStreamSinkChannel;
+
+/**
+ * Base class for all frames sent on a HTTP/2 connection.
+ *
+ * @author Stuart Douglas
+ */
+public abstract class AbstractHttp2StreamSinkChannel extends AbstractFramedStreamSinkChannel<Http2Channel, Http2StreamSourceChannel, AbstractHttp2StreamSinkChannel> {
+
+    AbstractHttp2StreamSinkChannel(final Http2Channel channel) {
+        super(channel);
+    }
+
+    @Override
+    protected boolean isLastFrame() {
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+package io.undertow.server.protocol.http2;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.util.HttpString;
+
+/**
+ * Constants and utility methods shared by the HPACK encoder and decoder.
+ *
+ * @author Stuart Douglas
+ * @see <a href="http://tools.ietf.org/html/rfc7541">RFC 7541</a>
+ */
+final class Hpack {
+
+    /**
+     * The default size of the dynamic table, before it is changed by a setting
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /**
+     * The overhead of a dynamic table entry, on top of the length of the name and value
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    static final int STATIC_TABLE_LENGTH = 61;
+
+    /**
+     * The static table. Index 0 is unused, as HPACK indexes start at 1.
+     */
+    static final HttpString[] STATIC_NAMES = new HttpString[STATIC_TABLE_LENGTH + 1];
+    static final String[] STATIC_VALUES = new String[STATIC_TABLE_LENGTH + 1];
+
+    /**
+     * Maps a lower case header name to the first static table index with that name
+     */
+    private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<String, Integer>();
+
+    static {
+        final String[] table = {
+                ":authority", "",
+                ":method", "GET",
+                ":method", "POST",
+                ":path", "/",
+                ":path", "/index.html",
+                ":scheme", "http",
+                ":scheme", "https",
+                ":status", "200",
+                ":status", "204",
+                ":status", "206",
+                ":status", "304",
+                ":status", "400",
+                ":status", "404",
+                ":status", "500",
+                "accept-charset", "",
+                "accept-encoding", "gzip, deflate",
+                "accept-language", "",
+                "accept-ranges", "",
+                "accept", "",
+                "access-control-allow-origin", "",
+                "age", "",
+                "allow", "",
+                "authorization", "",
+                "cache-control", "",
+                "content-disposition", "",
+                "content-encoding", "",
+                "content-language", "",
+                "content-length", "",
+                "content-location", "",
+                "content-range", "",
+                "content-type", "",
+                "cookie", "",
+                "date", "",
+                "etag", "",
+                "expect", "",
+                "expires", "",
+                "from", "",
+                "host", "",
+                "if-match", "",
+                "if-modified-since", "",
+                "if-none-match", "",
+                "if-range", "",
+                "if-unmodified-since", "",
+                "last-modified", "",
+                "link", "",
+                "location", "",
+                "max-forwards", "",
+                "proxy-authenticate", "",
+                "proxy-authorization", "",
+                "range", "",
+                "referer", "",
+                "refresh", "",
+                "retry-after", "",
+                "server", "",
+                "set-cookie", "",
+                "strict-transport-security", "",
+                "transfer-encoding", "",
+                "user-agent", "",
+                "vary", "",
+                "via", "",
+                "www-authenticate", ""
+        };
+        for (int i = 1; i <= STATIC_TABLE_LENGTH; ++i) {
+            final String name = table[(i - 1) * 2];
+            STATIC_NAMES[i] = new HttpString(name);
+            STATIC_VALUES[i] = table[(i - 1) * 2 + 1];
+            if (!STATIC_NAME_INDEX.containsKey(name)) {
+                STATIC_NAME_INDEX.put(name, i);
+            }
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * @param name The lower case header name
+     * @return The first static table index with the given name, or -1
+     */
+    static int staticNameIndex(final String name) {
+        final Integer index = STATIC_NAME_INDEX.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param name  The lower case header name
+     * @param value The header value
+     * @return The static table index that matches both the name and value, or -1
+     */
+    static int staticIndex(final String name, final String value) {
+        int index = staticNameIndex(name);
+        if (index == -1) {
+            return -1;
+        }
+        final HttpString headerName = STATIC_NAMES[index];
+        while (index <= STATIC_TABLE_LENGTH && headerName.equals(STATIC_NAMES[index])) {
+            if (STATIC_VALUES[index].equals(value)) {
+                return index;
+            }
+            ++index;
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes a HPACK integer.
+     *
+     * @param source     The buffer, positioned at the byte that holds the prefix
+     * @param prefixBits The number of bits of the first byte that hold the integer
+     * @return The value
+     * @throws HpackException If the integer is truncated or too large
+     */
+    static int decodeInteger(final ByteBuffer source, final int prefixBits) throws HpackException {
+        final int mask = (1 << prefixBits) - 1;
+        int value = source.get() & mask;
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (!source.hasRemaining()) {
+                throw new HpackException("Truncated integer");
+            }
+            if (shift > 21) {
+                throw new HpackException("Integer too large");
+            }
+            b = source.get() & 0xFF;
+            value += (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Encodes a HPACK integer.
+     *
+     * @param target     The buffer to write to
+     * @param value      The value
+     * @param prefixBits The number of bits of the first byte that hold the integer
+     * @param flags      The bits of the first byte that are not part of the integer
+     */
+    static void encodeInteger(final ByteBuffer target, int value, final int prefixBits, final int flags) {
+        final int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            target.put((byte) (flags | value));
+            return;
+        }
+        target.put((byte) (flags | mask));
+        value -= mask;
+        while (value >= 0x80) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+}
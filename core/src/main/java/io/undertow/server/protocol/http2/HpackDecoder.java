@@ -0,0 +1,149 @@
+package io.undertow.server.protocol.http2;
+
+import java.nio.ByteBuffer;
+
+import io.undertow.util.HttpString;
+
+/**
+ * Decodes HPACK header blocks.
+ * <p/>
+ * The decoder holds the dynamic table for one direction of a connection, so header blocks must be decoded in the
+ * order they were received, including the blocks of streams that are going to be rejected.
+ *
+ * @author Stuart Douglas
+ */
+public class HpackDecoder {
+
+    private final HpackDynamicTable table;
+    private final StringBuilder builder = new StringBuilder();
+
+    /**
+     * The largest table size the peer is allowed to use, this is the value of our
+     * <code>SETTINGS_HEADER_TABLE_SIZE</code>
+     */
+    private volatile int maxAllowedTableSize;
+
+    public HpackDecoder(final int maxAllowedTableSize) {
+        this.maxAllowedTableSize = maxAllowedTableSize;
+        this.table = new HpackDynamicTable(maxAllowedTableSize);
+    }
+
+    /**
+     * Decodes a complete header block.
+     *
+     * @param block    The header block
+     * @param listener The listener that is notified of each header, in order
+     * @throws HpackException If the block is invalid
+     */
+    public void decode(final ByteBuffer block, final HeaderListener listener) throws HpackException {
+        boolean headerSeen = false;
+        while (block.hasRemaining()) {
+            final int b = block.get(block.position()) & 0xFF;
+            if ((b & 0x80) != 0) {
+                //indexed header field
+                final int index = Hpack.decodeInteger(block, 7);
+                if (index == 0) {
+                    throw new HpackException("Index 0 is not valid");
+                }
+                listener.emitHeader(getName(index), getValue(index));
+                headerSeen = true;
+            } else if ((b & 0x40) != 0) {
+                //literal with incremental indexing
+                final HttpString name = readName(block, 6);
+                final String value = readString(block);
+                table.add(name, value);
+                listener.emitHeader(name, value);
+                headerSeen = true;
+            } else if ((b & 0x20) != 0) {
+                //dynamic table size update, only allowed at the start of a block
+                if (headerSeen) {
+                    throw new HpackException("Table size update after header field");
+                }
+                final int size = Hpack.decodeInteger(block, 5);
+                if (size > maxAllowedTableSize) {
+                    throw new HpackException("Table size " + size + " is larger than the maximum of " + maxAllowedTableSize);
+                }
+                table.setMaxSize(size);
+            } else {
+                //literal without indexing, or never indexed
+                final HttpString name = readName(block, 4);
+                listener.emitHeader(name, readString(block));
+                headerSeen = true;
+            }
+        }
+    }
+
+    public int getMaxAllowedTableSize() {
+        return maxAllowedTableSize;
+    }
+
+    /**
+     * Changes the maximum table size. This must only be called once the peer has acknowledged the setting.
+     */
+    public void setMaxAllowedTableSize(final int maxAllowedTableSize) {
+        this.maxAllowedTableSize = maxAllowedTableSize;
+    }
+
+    int getTableSize() {
+        return table.size();
+    }
+
+    private HttpString readName(final ByteBuffer block, final int prefixBits) throws HpackException {
+        final int index = Hpack.decodeInteger(block, prefixBits);
+        if (index != 0) {
+            return getName(index);
+        }
+        return new HttpString(readString(block));
+    }
+
+    private String readString(final ByteBuffer block) throws HpackException {
+        if (!block.hasRemaining()) {
+            throw new HpackException("Truncated header block");
+        }
+        final boolean huffman = (block.get(block.position()) & 0x80) != 0;
+        final int length = Hpack.decodeInteger(block, 7);
+        if (length > block.remaining()) {
+            throw new HpackException("Truncated header block");
+        }
+        final StringBuilder builder = this.builder;
+        builder.setLength(0);
+        if (huffman) {
+            HpackHuffman.decode(block, length, builder);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                builder.append((char) (block.get() & 0xFF));
+            }
+        }
+        return builder.toString();
+    }
+
+    private HttpString getName(final int index) throws HpackException {
+        if (index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_NAMES[index];
+        }
+        checkDynamicIndex(index);
+        return table.getName(index - Hpack.STATIC_TABLE_LENGTH - 1);
+    }
+
+    private String getValue(final int index) throws HpackException {
+        if (index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_VALUES[index];
+        }
+        checkDynamicIndex(index);
+        return table.getValue(index - Hpack.STATIC_TABLE_LENGTH - 1);
+    }
+
+    private void checkDynamicIndex(final int index) throws HpackException {
+        if (index - Hpack.STATIC_TABLE_LENGTH > table.count()) {
+            throw new HpackException("Index " + index + " is not in the table");
+        }
+    }
+
+    /**
+     * Receives the decoded headers
+     */
+    public interface HeaderListener {
+
+        void emitHeader(HttpString name, String value);
+    }
+}
@@ -0,0 +1,143 @@
+package io.undertow.server.protocol.http2;
+
+import io.undertow.util.HttpString;
+
+/**
+ * The HPACK dynamic table. Entries are kept in a ring buffer, with the newest entry having index 0.
+ *
+ * @author Stuart Douglas
+ */
+final class HpackDynamicTable {
+
+    private HttpString[] names = new HttpString[16];
+    private String[] values = new String[16];
+    /**
+     * The position the next entry will be inserted at
+     */
+    private int insert;
+    private int count;
+    private int size;
+    private int maxSize;
+
+    HpackDynamicTable(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The number of entries
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return The size of the table, as defined by HPACK
+     */
+    int size() {
+        return size;
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    HttpString getName(final int index) {
+        return names[slot(index)];
+    }
+
+    String getValue(final int index) {
+        return values[slot(index)];
+    }
+
+    /**
+     * Adds an entry, evicting older entries to make room. An entry larger than the table empties the table and is
+     * not added.
+     */
+    void add(final HttpString name, final String value) {
+        final int entrySize = entrySize(name, value);
+        evict(maxSize - entrySize);
+        if (entrySize > maxSize) {
+            return;
+        }
+        if (count == names.length) {
+            grow();
+        }
+        names[insert] = name;
+        values[insert] = value;
+        insert = (insert + 1) % names.length;
+        ++count;
+        size += entrySize;
+    }
+
+    void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    /**
+     * @return The index of the entry with the given name and value, or -1
+     */
+    int indexOf(final HttpString name, final String value) {
+        for (int i = 0; i < count; ++i) {
+            final int slot = slot(i);
+            if (names[slot].equals(name) && values[slot].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the newest entry with the given name, or -1
+     */
+    int indexOfName(final HttpString name) {
+        for (int i = 0; i < count; ++i) {
+            if (names[slot(i)].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int entrySize(final HttpString name, final String value) {
+        return name.length() + value.length() + Hpack.ENTRY_OVERHEAD;
+    }
+
+    private int slot(final int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+        int slot = insert - 1 - index;
+        if (slot < 0) {
+            slot += names.length;
+        }
+        return slot;
+    }
+
+    private void evict(final int targetSize) {
+        while (size > targetSize && count > 0) {
+            int oldest = insert - count;
+            if (oldest < 0) {
+                oldest += names.length;
+            }
+            size -= entrySize(names[oldest], values[oldest]);
+            names[oldest] = null;
+            values[oldest] = null;
+            --count;
+        }
+    }
+
+    private void grow() {
+        final HttpString[] newNames = new HttpString[names.length * 2];
+        final String[] newValues = new String[values.length * 2];
+        //copy oldest first, so the ring starts at 0
+        for (int i = 0; i < count; ++i) {
+            final int slot = slot(count - 1 - i);
+            newNames[i] = names[slot];
+            newValues[i] = values[slot];
+        }
+        names = newNames;
+        values = newValues;
+        insert = count;
+    }
+}
@@ -0,0 +1,221 @@
+package io.undertow.server.protocol.http2;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+
+/**
+ * Encodes response headers into HPACK header blocks.
+ * <p/>
+ * Header fields that match a table entry are sent as an index. Other fields are added to the dynamic table, apart
+ * from fields whose values are unlikely to be repeated, such as <code>Content-Length</code>, which are sent as
+ * literals so they do not push more useful entries out of the table. Strings are Huffman encoded when that makes
+ * them shorter.
+ * <p/>
+ * Connection specific headers are not allowed in HTTP/2 and are dropped.
+ * <p/>
+ * The encoder holds the dynamic table for one direction of a connection, so header blocks must be sent in the order
+ * they are encoded.
+ *
+ * @author Stuart Douglas
+ */
+public class HpackEncoder {
+
+    private static final HttpString STATUS = new HttpString(":status");
+    private static final int STATUS_NAME_INDEX = 8;
+
+    private static final Set<HttpString> CONNECTION_SPECIFIC_HEADERS = new HashSet<HttpString>();
+    private static final Set<HttpString> NOT_INDEXED_HEADERS = new HashSet<HttpString>();
+    private static final Set<HttpString> NEVER_INDEXED_HEADERS = new HashSet<HttpString>();
+
+    static {
+        CONNECTION_SPECIFIC_HEADERS.add(Headers.CONNECTION);
+        CONNECTION_SPECIFIC_HEADERS.add(Headers.KEEP_ALIVE);
+        CONNECTION_SPECIFIC_HEADERS.add(new HttpString("Proxy-Connection"));
+        CONNECTION_SPECIFIC_HEADERS.add(Headers.TRANSFER_ENCODING);
+        CONNECTION_SPECIFIC_HEADERS.add(Headers.UPGRADE);
+
+        NOT_INDEXED_HEADERS.add(Headers.CONTENT_LENGTH);
+        NOT_INDEXED_HEADERS.add(Headers.CONTENT_RANGE);
+        NOT_INDEXED_HEADERS.add(Headers.ETAG);
+        NOT_INDEXED_HEADERS.add(Headers.LAST_MODIFIED);
+        NOT_INDEXED_HEADERS.add(Headers.LOCATION);
+
+        NEVER_INDEXED_HEADERS.add(Headers.SET_COOKIE);
+        NEVER_INDEXED_HEADERS.add(Headers.SET_COOKIE2);
+        NEVER_INDEXED_HEADERS.add(Headers.AUTHORIZATION);
+    }
+
+    private final HpackDynamicTable table;
+
+    /**
+     * The largest table size the peer allows us to use
+     */
+    private final int maxTableSize;
+
+    /**
+     * The smallest table size since the last header block, or -1 if the size has not changed. If the size has changed
+     * the next block must start with a table size update.
+     */
+    private int minPendingTableSize = -1;
+
+    public HpackEncoder() {
+        this(Hpack.DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * @param maxTableSize The largest table the encoder will use, regardless of what the peer allows
+     */
+    public HpackEncoder(final int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        this.table = new HpackDynamicTable(Math.min(maxTableSize, Hpack.DEFAULT_TABLE_SIZE));
+    }
+
+    /**
+     * Called when the peer changes <code>SETTINGS_HEADER_TABLE_SIZE</code>.
+     */
+    public synchronized void setPeerTableSize(final int size) {
+        final int newSize = Math.min(size, maxTableSize);
+        if (newSize == table.maxSize()) {
+            return;
+        }
+        if (minPendingTableSize == -1 || newSize < minPendingTableSize) {
+            minPendingTableSize = newSize;
+        }
+        table.setMaxSize(newSize);
+    }
+
+    /**
+     * Returns an upper bound on the size of the header block for the given response. The block is never larger than
+     * this, as every string is either sent as is or Huffman encoded when that is shorter.
+     */
+    public int maxEncodedLength(final HeaderMap headers) {
+        //table size updates, and the status
+        int length = 20;
+        long fiCookie = headers.fastIterateNonEmpty();
+        while (fiCookie != -1) {
+            final HeaderValues values = headers.fiCurrent(fiCookie);
+            final int nameLength = values.getHeaderName().length();
+            for (int i = 0; i < values.size(); ++i) {
+                length += 12 + nameLength + values.get(i).length();
+            }
+            fiCookie = headers.fiNextNonEmpty(fiCookie);
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a response header block
+     *
+     * @param target  The buffer to write to, it must have at least {@link #maxEncodedLength(HeaderMap)} bytes remaining
+     * @param status  The status code
+     * @param headers The response headers
+     */
+    public synchronized void encode(final ByteBuffer target, final int status, final HeaderMap headers) {
+        if (minPendingTableSize != -1) {
+            Hpack.encodeInteger(target, minPendingTableSize, 5, 0x20);
+            if (minPendingTableSize != table.maxSize()) {
+                Hpack.encodeInteger(target, table.maxSize(), 5, 0x20);
+            }
+            minPendingTableSize = -1;
+        }
+        encodeStatus(target, status);
+        long fiCookie = headers.fastIterateNonEmpty();
+        while (fiCookie != -1) {
+            final HeaderValues values = headers.fiCurrent(fiCookie);
+            final HttpString name = values.getHeaderName();
+            if (!CONNECTION_SPECIFIC_HEADERS.contains(name)) {
+                final String lowerCaseName = lowerCase(name.toString());
+                for (int i = 0; i < values.size(); ++i) {
+                    encodeHeader(target, name, lowerCaseName, values.get(i));
+                }
+            }
+            fiCookie = headers.fiNextNonEmpty(fiCookie);
+        }
+    }
+
+    private void encodeStatus(final ByteBuffer target, final int status) {
+        final String value = Integer.toString(status);
+        final int index = Hpack.staticIndex(":status", value);
+        if (index != -1) {
+            Hpack.encodeInteger(target, index, 7, 0x80);
+            return;
+        }
+        final int dynamic = table.indexOf(STATUS, value);
+        if (dynamic != -1) {
+            Hpack.encodeInteger(target, dynamicIndex(dynamic), 7, 0x80);
+            return;
+        }
+        Hpack.encodeInteger(target, STATUS_NAME_INDEX, 6, 0x40);
+        writeString(target, value);
+        table.add(STATUS, value);
+    }
+
+    private void encodeHeader(final ByteBuffer target, final HttpString name, final String lowerCaseName, final String value) {
+        final boolean neverIndex = NEVER_INDEXED_HEADERS.contains(name);
+        if (!neverIndex) {
+            final int index = Hpack.staticIndex(lowerCaseName, value);
+            if (index != -1) {
+                Hpack.encodeInteger(target, index, 7, 0x80);
+                return;
+            }
+            final int dynamic = table.indexOf(name, value);
+            if (dynamic != -1) {
+                Hpack.encodeInteger(target, dynamicIndex(dynamic), 7, 0x80);
+                return;
+            }
+        }
+        int nameIndex = Hpack.staticNameIndex(lowerCaseName);
+        if (nameIndex == -1) {
+            final int dynamic = table.indexOfName(name);
+            nameIndex = dynamic == -1 ? 0 : dynamicIndex(dynamic);
+        }
+        final boolean index = !neverIndex && !NOT_INDEXED_HEADERS.contains(name) &&
+                HpackDynamicTable.entrySize(name, value) <= table.maxSize() / 2;
+        if (index) {
+            Hpack.encodeInteger(target, nameIndex, 6, 0x40);
+        } else {
+            Hpack.encodeInteger(target, nameIndex, 4, neverIndex ? 0x10 : 0);
+        }
+        if (nameIndex == 0) {
+            writeString(target, lowerCaseName);
+        }
+        writeString(target, value);
+        if (index) {
+            table.add(new HttpString(lowerCaseName), value);
+        }
+    }
+
+    private static int dynamicIndex(final int index) {
+        return index + Hpack.STATIC_TABLE_LENGTH + 1;
+    }
+
+    private static void writeString(final ByteBuffer target, final String value) {
+        final int huffmanLength = HpackHuffman.encodedLength(value);
+        if (huffmanLength < value.length()) {
+            Hpack.encodeInteger(target, huffmanLength, 7, 0x80);
+            HpackHuffman.encode(value, target);
+        } else {
+            Hpack.encodeInteger(target, value.length(), 7, 0);
+            for (int i = 0; i < value.length(); ++i) {
+                target.put((byte) value.charAt(i));
+            }
+        }
+    }
+
+    private static String lowerCase(final String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            final char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                return name.toLowerCase(Locale.ENGLISH);
+            }
+        }
+        return name;
+    }
+}
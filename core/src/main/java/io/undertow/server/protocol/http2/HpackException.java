@@ -0,0 +1,14 @@
+package io.undertow.server.protocol.http2;
+
+/**
+ * Exception that is thrown when a HPACK header block cannot be decoded. This is always a connection error, as the
+ * state of the header table is unknown after a failure.
+ *
+ * @author Stuart Douglas
+ */
+public class HpackException extends Exception {
+
+    public HpackException(final String message) {
+        super(message);
+    }
+}
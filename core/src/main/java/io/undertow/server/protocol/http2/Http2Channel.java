@@ -0,0 +1,898 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.UndertowOptions;
+import io.undertow.server.protocol.framed.AbstractFramedChannel;
+import io.undertow.server.protocol.framed.FrameHeaderData;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.StreamConnection;
+
+/**
+ * A server side HTTP/2 connection.
+ * <p/>
+ * Each request is a stream, made up of a {@link Http2StreamSourceChannel} that the request entity is read from and a
+ * {@link Http2StreamSinkChannel} that the response is written to. Connection level frames such as
+ * <code>SETTINGS</code>, <code>PING</code> and <code>WINDOW_UPDATE</code> are handled internally as they are read,
+ * so {@link #receive()} only returns channels for new streams.
+ * <p/>
+ * Request data is passed on to the streams as it arrives, a <code>DATA</code> frame does not need to be buffered
+ * before it can be read. Flow control windows for request streams are replenished as the application reads the data,
+ * while the connection window is replenished as data arrives, so a stream that is not being read cannot block the
+ * other streams on the connection. Responses are subject to the flow control windows of the client.
+ * <p/>
+ * Server push and stream priorities are not supported, the client is told that push is not in use and priority
+ * information is ignored.
+ *
+ * @author Stuart Douglas
+ */
+public class Http2Channel extends AbstractFramedChannel<Http2Channel, Http2StreamSourceChannel, AbstractHttp2StreamSinkChannel> {
+
+    public static final String CLEARTEXT_UPGRADE_STRING = "h2c";
+
+    public static final HttpString METHOD = new HttpString(":method");
+    public static final HttpString SCHEME = new HttpString(":scheme");
+    public static final HttpString AUTHORITY = new HttpString(":authority");
+    public static final HttpString PATH = new HttpString(":path");
+
+    static final int FRAME_TYPE_DATA = 0x0;
+    static final int FRAME_TYPE_HEADERS = 0x1;
+    static final int FRAME_TYPE_PRIORITY = 0x2;
+    static final int FRAME_TYPE_RST_STREAM = 0x3;
+    static final int FRAME_TYPE_SETTINGS = 0x4;
+    static final int FRAME_TYPE_PUSH_PROMISE = 0x5;
+    static final int FRAME_TYPE_PING = 0x6;
+    static final int FRAME_TYPE_GOAWAY = 0x7;
+    static final int FRAME_TYPE_WINDOW_UPDATE = 0x8;
+    static final int FRAME_TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    public static final int ERROR_NO_ERROR = 0x0;
+    public static final int ERROR_PROTOCOL_ERROR = 0x1;
+    public static final int ERROR_INTERNAL_ERROR = 0x2;
+    public static final int ERROR_FLOW_CONTROL_ERROR = 0x3;
+    public static final int ERROR_SETTINGS_TIMEOUT = 0x4;
+    public static final int ERROR_STREAM_CLOSED = 0x5;
+    public static final int ERROR_FRAME_SIZE_ERROR = 0x6;
+    public static final int ERROR_REFUSED_STREAM = 0x7;
+    public static final int ERROR_CANCEL = 0x8;
+    public static final int ERROR_COMPRESSION_ERROR = 0x9;
+    public static final int ERROR_CONNECT_ERROR = 0xa;
+    public static final int ERROR_ENHANCE_YOUR_CALM = 0xb;
+    public static final int ERROR_INADEQUATE_SECURITY = 0xc;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int FRAME_HEADER_LENGTH = 9;
+    static final int SETTING_LENGTH = 6;
+    static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int MAX_FRAME_SIZE = 16777215;
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+
+    /**
+     * The client connection preface
+     */
+    static final byte[] PREFACE = toAscii("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+    /**
+     * The offset into the preface of the data that follows the HTTP/1.x style request line. A client that connects with
+     * prior knowledge sends a request line that is parsed as a <code>PRI</code> request, and the rest of the preface
+     * is read by this channel.
+     */
+    static final int PRIOR_KNOWLEDGE_PREFACE_OFFSET = 18;
+
+    private final Http2FrameParser parser;
+    private final HpackDecoder decoder;
+    private final HpackEncoder encoder;
+    private final Map<Integer, StreamHolder> streams = new ConcurrentHashMap<Integer, StreamHolder>();
+
+    private final int maxConcurrentStreams;
+    private final int receiveWindowSize;
+    private final int headerTableSize;
+
+    /**
+     * <code>true</code> once the client has acknowledged our settings. Until then the client may still be using the
+     * default stream window, so a smaller window is not enforced.
+     */
+    private volatile boolean settingsAcknowledged;
+
+    /**
+     * The highest stream id the client has used
+     */
+    private volatile int lastStreamId;
+
+    /**
+     * The connection receive window, and the amount of data received since it was last replenished. Only used by
+     * the read thread.
+     */
+    private int connectionReceiveWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+    private int connectionReceiveConsumed;
+
+    private final Object flowControlLock = new Object();
+    private int connectionSendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+    private int initialSendWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+    private final Set<Http2StreamSinkChannel> blockedSinks = new LinkedHashSet<Http2StreamSinkChannel>();
+
+    private volatile int sendMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private volatile boolean peerGoneAway;
+    private boolean goAwaySent;
+
+    private final ChannelExceptionHandler<AbstractHttp2StreamSinkChannel> writeExceptionHandler = new ChannelExceptionHandler<AbstractHttp2StreamSinkChannel>() {
+        @Override
+        public void handleException(final AbstractHttp2StreamSinkChannel channel, final IOException exception) {
+            UndertowLogger.REQUEST_IO_LOGGER.debug("Failed to send HTTP/2 frame", exception);
+            IoUtils.safeClose(Http2Channel.this);
+        }
+    };
+
+    /**
+     * @param connectedStreamChannel The connection
+     * @param bufferPool             The buffer pool
+     * @param data                   Data that has already been read from the connection, may be <code>null</code>
+     * @param priorKnowledge         <code>true</code> if the client has already sent the request line of the
+     *                               connection preface, <code>false</code> if the whole preface is expected
+     * @param settings               The undertow options
+     */
+    public Http2Channel(final StreamConnection connectedStreamChannel, final Pool<ByteBuffer> bufferPool, final Pooled<ByteBuffer> data, final boolean priorKnowledge, final OptionMap settings) {
+        super(connectedStreamChannel, bufferPool, new Http2FramePriority(), data);
+        this.maxConcurrentStreams = settings.get(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, DEFAULT_MAX_CONCURRENT_STREAMS);
+        this.receiveWindowSize = settings.get(UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE, DEFAULT_INITIAL_WINDOW_SIZE);
+        this.headerTableSize = settings.get(UndertowOptions.HTTP2_SETTINGS_HEADER_TABLE_SIZE, Hpack.DEFAULT_TABLE_SIZE);
+        //until our settings are acknowledged the client may use a table of the default size
+        this.decoder = new HpackDecoder(Math.max(headerTableSize, Hpack.DEFAULT_TABLE_SIZE));
+        this.encoder = new HpackEncoder();
+        this.parser = new Http2FrameParser(new ConnectionFrameListener(), priorKnowledge ? PRIOR_KNOWLEDGE_PREFACE_OFFSET : 0,
+                settings.get(UndertowOptions.MAX_HEADER_SIZE, UndertowOptions.DEFAULT_MAX_HEADER_SIZE));
+        final long idleTimeout = settings.get(UndertowOptions.IDLE_TIMEOUT, -1L);
+        if (idleTimeout > 0) {
+            setIdleTimeout(idleTimeout);
+        }
+        sendSettings();
+    }
+
+    @Override
+    protected Http2StreamSourceChannel createChannel(final FrameHeaderData frameHeaderData, final Pooled<ByteBuffer> frameData) {
+        //only new streams end up here, and they do not have any data. Data for streams that have been closed is
+        //also passed here so it can be discarded.
+        frameData.free();
+        final Http2FrameHeaderData data = (Http2FrameHeaderData) frameHeaderData;
+        if (data.getType() != FRAME_TYPE_HEADERS) {
+            return null;
+        }
+        final Http2StreamSinkChannel sink = new Http2StreamSinkChannel(this, data.getStreamId(), getInitialSendWindowSize());
+        final Http2StreamSourceChannel source = new Http2StreamSourceChannel(this, data.getStreamId(), data.getHeaders(), data.isEndStream(), sink, getStreamReceiveWindowSize());
+        final StreamHolder holder = new StreamHolder(source, sink);
+        holder.remoteClosed = data.isEndStream();
+        streams.put(data.getStreamId(), holder);
+        return source;
+    }
+
+    @Override
+    protected FrameHeaderData parseFrame(final ByteBuffer data) throws IOException {
+        return parser.parse(data);
+    }
+
+    @Override
+    protected boolean isLastFrameReceived() {
+        return false;
+    }
+
+    @Override
+    protected synchronized boolean isLastFrameSent() {
+        return goAwaySent;
+    }
+
+    @Override
+    protected void handleBrokenSourceChannel(final Throwable e) {
+        UndertowLogger.REQUEST_IO_LOGGER.debugf(e, "HTTP/2 connection %s failed to read", this);
+        breakStreams();
+    }
+
+    @Override
+    protected void handleBrokenSinkChannel(final Throwable e) {
+        UndertowLogger.REQUEST_IO_LOGGER.debugf(e, "HTTP/2 connection %s failed to write", this);
+        IoUtils.safeClose(this);
+    }
+
+    @Override
+    protected void closeSubChannels() {
+        breakStreams();
+    }
+
+    private void breakStreams() {
+        final List<StreamHolder> holders = new ArrayList<StreamHolder>(streams.values());
+        streams.clear();
+        synchronized (flowControlLock) {
+            blockedSinks.clear();
+        }
+        for (final StreamHolder holder : holders) {
+            holder.source.markStreamBroken();
+            holder.sink.reset();
+        }
+    }
+
+    /**
+     * Sets up stream 1 for a connection that was upgraded from HTTP/1.1. The request that was sent with the upgrade
+     * is treated as if it had been sent on this stream, without an entity body.
+     *
+     * @param settings The decoded value of the <code>HTTP2-Settings</code> header of the upgrade request
+     * @return The channel the response to the upgrade request is written to
+     */
+    Http2StreamSinkChannel createUpgradeStream(final byte[] settings) throws IOException {
+        if (settings.length % SETTING_LENGTH != 0) {
+            throw connectionError(ERROR_PROTOCOL_ERROR);
+        }
+        //these are acknowledged implicitly by the 101 response
+        applySettings(settings, settings.length);
+        lastStreamId = 1;
+        final Http2StreamSinkChannel sink = new Http2StreamSinkChannel(this, 1, getInitialSendWindowSize());
+        final Http2StreamSourceChannel source = new Http2StreamSourceChannel(this, 1, new HeaderMap(), true, sink, getStreamReceiveWindowSize());
+        final StreamHolder holder = new StreamHolder(source, sink);
+        holder.remoteClosed = true;
+        streams.put(1, holder);
+        return sink;
+    }
+
+    /**
+     * Called when a complete header block has been received.
+     *
+     * @return The header data for a new stream, or the end of an existing stream if the block contained trailers
+     */
+    Http2FrameHeaderData handleHeaders(final int streamId, final boolean endStream, final byte[] block, final int length) throws IOException {
+        final RequestHeaderListener listener = new RequestHeaderListener();
+        try {
+            decoder.decode(ByteBuffer.wrap(block, 0, length), listener);
+        } catch (HpackException e) {
+            UndertowLogger.REQUEST_IO_LOGGER.debugf(e, "Failed to decode HTTP/2 headers on %s", this);
+            throw connectionError(ERROR_COMPRESSION_ERROR);
+        }
+        final StreamHolder existing = streams.get(streamId);
+        if (existing != null) {
+            //trailers, which are ignored
+            if (existing.isRemoteClosed()) {
+                resetStream(existing, ERROR_STREAM_CLOSED);
+                return null;
+            } else if (!endStream) {
+                resetStream(existing, ERROR_PROTOCOL_ERROR);
+                return null;
+            }
+            final Http2StreamSourceChannel source = remoteEndStream(existing);
+            return source == null ? null : Http2FrameHeaderData.data(streamId, 0, true, source);
+        }
+        if ((streamId & 1) == 0) {
+            throw connectionError(ERROR_PROTOCOL_ERROR);
+        }
+        if (streamId <= lastStreamId) {
+            //the stream has already been closed
+            throw connectionError(ERROR_STREAM_CLOSED);
+        }
+        lastStreamId = streamId;
+        if (isGoAwaySent()) {
+            //we are shutting down, and the client has been told not to expect a response
+            return null;
+        }
+        if (streams.size() >= maxConcurrentStreams) {
+            sendRstStream(streamId, ERROR_REFUSED_STREAM);
+            return null;
+        }
+        if (listener.malformed) {
+            sendRstStream(streamId, ERROR_PROTOCOL_ERROR);
+            return null;
+        }
+        return Http2FrameHeaderData.headers(streamId, endStream, listener.headers);
+    }
+
+    /**
+     * Called when the header of a <code>DATA</code> frame has been read. This performs flow control accounting.
+     *
+     * @return The stream to pass the data to, or <code>null</code> if the data should be discarded
+     */
+    Http2StreamSourceChannel handleData(final int streamId, final int length, final boolean endStream) throws IOException {
+        connectionReceiveWindow -= length;
+        if (connectionReceiveWindow < 0) {
+            throw connectionError(ERROR_FLOW_CONTROL_ERROR);
+        }
+        //the connection window is replenished straight away, as data that is not read only holds up its own stream
+        connectionReceiveConsumed += length;
+        if (connectionReceiveConsumed >= DEFAULT_INITIAL_WINDOW_SIZE / 2) {
+            sendWindowUpdate(0, connectionReceiveConsumed);
+            connectionReceiveWindow += connectionReceiveConsumed;
+            connectionReceiveConsumed = 0;
+        }
+        final StreamHolder holder = streams.get(streamId);
+        if (holder == null) {
+            if (streamId > lastStreamId) {
+                throw connectionError(ERROR_PROTOCOL_ERROR);
+            }
+            //the stream has been closed
+            return null;
+        }
+        if (holder.isRemoteClosed()) {
+            resetStream(holder, ERROR_STREAM_CLOSED);
+            return null;
+        }
+        if (!holder.source.dataReceived(length)) {
+            resetStream(holder, ERROR_FLOW_CONTROL_ERROR);
+            return null;
+        }
+        if (endStream) {
+            return remoteEndStream(holder);
+        }
+        return holder.getSource();
+    }
+
+    /**
+     * Called when padding has been skipped, so the stream window can be replenished.
+     */
+    void paddingReceived(final Http2StreamSourceChannel source, final int length) {
+        source.dataConsumed(length);
+    }
+
+    void handleRstStream(final int streamId) throws IOException {
+        final StreamHolder holder = streams.remove(streamId);
+        if (holder == null) {
+            if (streamId > lastStreamId) {
+                throw connectionError(ERROR_PROTOCOL_ERROR);
+            }
+            return;
+        }
+        synchronized (flowControlLock) {
+            blockedSinks.remove(holder.sink);
+        }
+        holder.source.markStreamBroken();
+        holder.sink.reset();
+        streamRemoved();
+    }
+
+    void handleSettings(final byte[] payload, final int length) throws IOException {
+        applySettings(payload, length);
+        sendControlFrame(createFrame(FRAME_TYPE_SETTINGS, FLAG_ACK, 0, 0), false);
+    }
+
+    void handleSettingsAck() {
+        decoder.setMaxAllowedTableSize(headerTableSize);
+        if (settingsAcknowledged) {
+            return;
+        }
+        settingsAcknowledged = true;
+        if (receiveWindowSize < DEFAULT_INITIAL_WINDOW_SIZE) {
+            //the streams that are already open were created with the default window, which the client is now
+            //expected to have reduced
+            for (final StreamHolder holder : streams.values()) {
+                holder.source.updateInitialWindowSize(receiveWindowSize);
+            }
+        }
+    }
+
+    /**
+     * @return The receive window of a new stream. A window that is larger than the default applies straight away, as
+     *         the client can only send more data than the default once it has seen our settings.
+     */
+    private int getStreamReceiveWindowSize() {
+        if (settingsAcknowledged) {
+            return receiveWindowSize;
+        }
+        return Math.max(receiveWindowSize, DEFAULT_INITIAL_WINDOW_SIZE);
+    }
+
+    private void applySettings(final byte[] payload, final int length) throws IOException {
+        for (int i = 0; i < length; i += SETTING_LENGTH) {
+            final int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+            final long value = readInt(payload, i + 2) & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setPeerTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        throw connectionError(ERROR_PROTOCOL_ERROR);
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW_SIZE) {
+                        throw connectionError(ERROR_FLOW_CONTROL_ERROR);
+                    }
+                    updateInitialSendWindowSize((int) value);
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE) {
+                        throw connectionError(ERROR_PROTOCOL_ERROR);
+                    }
+                    sendMaxFrameSize = (int) value;
+                    break;
+                default:
+                    //we do not push, so the concurrent stream limit does not apply, the header list size is
+                    //advisory, and unknown settings must be ignored
+                    break;
+            }
+        }
+    }
+
+    private void updateInitialSendWindowSize(final int size) throws IOException {
+        final List<Http2StreamSinkChannel> unblocked;
+        boolean overflow = false;
+        synchronized (flowControlLock) {
+            final int delta = size - initialSendWindowSize;
+            initialSendWindowSize = size;
+            for (final StreamHolder holder : streams.values()) {
+                if (!holder.sink.updateSendWindow(delta)) {
+                    overflow = true;
+                }
+            }
+            if (delta > 0) {
+                unblocked = new ArrayList<Http2StreamSinkChannel>(blockedSinks);
+                blockedSinks.clear();
+            } else {
+                unblocked = Collections.emptyList();
+            }
+        }
+        if (overflow) {
+            throw connectionError(ERROR_FLOW_CONTROL_ERROR);
+        }
+        for (final Http2StreamSinkChannel sink : unblocked) {
+            sink.flowControlUnblocked();
+        }
+    }
+
+    void handleWindowUpdate(final int streamId, final int increment) throws IOException {
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw connectionError(ERROR_PROTOCOL_ERROR);
+            }
+            final StreamHolder holder = streams.get(streamId);
+            if (holder != null) {
+                resetStream(holder, ERROR_PROTOCOL_ERROR);
+            }
+            return;
+        }
+        final List<Http2StreamSinkChannel> unblocked;
+        if (streamId == 0) {
+            synchronized (flowControlLock) {
+                if ((long) connectionSendWindow + increment > MAX_WINDOW_SIZE) {
+                    unblocked = null;
+                } else {
+                    connectionSendWindow += increment;
+                    unblocked = new ArrayList<Http2StreamSinkChannel>(blockedSinks);
+                    blockedSinks.clear();
+                }
+            }
+            if (unblocked == null) {
+                throw connectionError(ERROR_FLOW_CONTROL_ERROR);
+            }
+        } else {
+            final StreamHolder holder = streams.get(streamId);
+            if (holder == null) {
+                //the stream may have just been closed
+                return;
+            }
+            synchronized (flowControlLock) {
+                if (!holder.sink.updateSendWindow(increment)) {
+                    unblocked = null;
+                } else if (blockedSinks.remove(holder.sink)) {
+                    unblocked = Collections.singletonList(holder.sink);
+                } else {
+                    unblocked = Collections.emptyList();
+                }
+            }
+            if (unblocked == null) {
+                resetStream(holder, ERROR_FLOW_CONTROL_ERROR);
+                return;
+            }
+        }
+        for (final Http2StreamSinkChannel sink : unblocked) {
+            sink.flowControlUnblocked();
+        }
+    }
+
+    void handlePing(final byte[] payload) {
+        final byte[] frame = createFrame(FRAME_TYPE_PING, FLAG_ACK, 0, 8);
+        System.arraycopy(payload, 0, frame, FRAME_HEADER_LENGTH, 8);
+        sendControlFrame(frame, false);
+    }
+
+    void handleGoAway(final int errorCode) {
+        if (errorCode != ERROR_NO_ERROR) {
+            UndertowLogger.REQUEST_IO_LOGGER.debugf("HTTP/2 client on %s sent GOAWAY with error %s", this, errorCode);
+        }
+        peerGoneAway = true;
+        if (streams.isEmpty()) {
+            sendGoAway(ERROR_NO_ERROR);
+        }
+    }
+
+    /**
+     * Takes as much of the flow control window as possible, up to the requested amount. If the window is exhausted
+     * the sink is registered to be notified when it is opened again.
+     *
+     * @return The number of bytes that can be sent
+     */
+    int grabFlowControlWindow(final Http2StreamSinkChannel sink, final int requested) {
+        synchronized (flowControlLock) {
+            final int allowed = Math.min(requested, Math.min(connectionSendWindow, sink.getSendWindow()));
+            if (allowed <= 0) {
+                blockedSinks.add(sink);
+                sink.flowControlBlocked();
+                return 0;
+            }
+            connectionSendWindow -= allowed;
+            sink.updateSendWindow(-allowed);
+            return allowed;
+        }
+    }
+
+    /**
+     * Returns window that was taken by {@link #grabFlowControlWindow(Http2StreamSinkChannel, int)} but not used.
+     */
+    void returnFlowControlWindow(final Http2StreamSinkChannel sink, final int amount) {
+        synchronized (flowControlLock) {
+            connectionSendWindow += amount;
+            sink.updateSendWindow(amount);
+        }
+    }
+
+    private int getInitialSendWindowSize() {
+        synchronized (flowControlLock) {
+            return initialSendWindowSize;
+        }
+    }
+
+    /**
+     * Called when the final frame of a response has been sent. If the client is still sending the request the stream
+     * is reset, as the request will never be read.
+     */
+    void responseComplete(final Http2StreamSinkChannel sink) {
+        final StreamHolder holder = streams.get(sink.getStreamId());
+        if (holder == null || holder.sink != sink) {
+            return;
+        }
+        final boolean reset;
+        synchronized (holder) {
+            holder.responseComplete = true;
+            reset = !holder.remoteClosed;
+        }
+        if (reset) {
+            sendRstStream(sink.getStreamId(), ERROR_NO_ERROR);
+            holder.source.markStreamBroken();
+        }
+        removeStream(holder);
+    }
+
+    /**
+     * Called when the application closes a request stream before all the data has been read. Any more data for the
+     * stream is discarded.
+     */
+    void requestClosed(final Http2StreamSourceChannel source) {
+        final StreamHolder holder = streams.get(source.getStreamId());
+        if (holder != null && holder.source == source) {
+            synchronized (holder) {
+                holder.sourceClosed = true;
+            }
+        }
+    }
+
+    /**
+     * Aborts a stream, because the response could not be completed.
+     */
+    void cancelStream(final int streamId) {
+        resetStream(streamId, ERROR_CANCEL);
+    }
+
+    /**
+     * Resets a stream that is still open.
+     *
+     * @param streamId  The stream
+     * @param errorCode The error code sent to the client
+     */
+    void resetStream(final int streamId, final int errorCode) {
+        final StreamHolder holder = streams.get(streamId);
+        if (holder != null) {
+            resetStream(holder, errorCode);
+        }
+    }
+
+    private void resetStream(final StreamHolder holder, final int errorCode) {
+        sendRstStream(holder.source.getStreamId(), errorCode);
+        synchronized (flowControlLock) {
+            blockedSinks.remove(holder.sink);
+        }
+        holder.source.markStreamBroken();
+        holder.sink.reset();
+        removeStream(holder);
+    }
+
+    private Http2StreamSourceChannel remoteEndStream(final StreamHolder holder) {
+        final boolean remove;
+        synchronized (holder) {
+            holder.remoteClosed = true;
+            remove = holder.responseComplete;
+        }
+        if (remove) {
+            removeStream(holder);
+        }
+        return holder.getSource();
+    }
+
+    private void removeStream(final StreamHolder holder) {
+        if (streams.remove(holder.source.getStreamId()) != null) {
+            streamRemoved();
+        }
+    }
+
+    private void streamRemoved() {
+        if (peerGoneAway && streams.isEmpty()) {
+            sendGoAway(ERROR_NO_ERROR);
+        }
+    }
+
+    /**
+     * Sends a <code>GOAWAY</code> frame and throws the exception for a connection error.
+     */
+    IOException connectionError(final int errorCode) {
+        sendGoAway(errorCode);
+        return UndertowMessages.MESSAGES.http2ConnectionError(errorCode);
+    }
+
+    /**
+     * Sends a <code>GOAWAY</code> frame. This is the last frame sent on the connection, once it has been sent the
+     * write side of the connection is shut down.
+     *
+     * @param errorCode The error code
+     */
+    public void sendGoAway(final int errorCode) {
+        synchronized (this) {
+            if (goAwaySent) {
+                return;
+            }
+            goAwaySent = true;
+        }
+        final byte[] frame = createFrame(FRAME_TYPE_GOAWAY, 0, 0, 8);
+        writeInt(frame, FRAME_HEADER_LENGTH, lastStreamId);
+        writeInt(frame, FRAME_HEADER_LENGTH + 4, errorCode);
+        sendControlFrame(frame, true);
+    }
+
+    public synchronized boolean isGoAwaySent() {
+        return goAwaySent;
+    }
+
+    void sendRstStream(final int streamId, final int errorCode) {
+        final byte[] frame = createFrame(FRAME_TYPE_RST_STREAM, 0, streamId, 4);
+        writeInt(frame, FRAME_HEADER_LENGTH, errorCode);
+        sendControlFrame(frame, false);
+    }
+
+    void sendWindowUpdate(final int streamId, final int increment) {
+        final byte[] frame = createFrame(FRAME_TYPE_WINDOW_UPDATE, 0, streamId, 4);
+        writeInt(frame, FRAME_HEADER_LENGTH, increment);
+        sendControlFrame(frame, false);
+    }
+
+    private void sendSettings() {
+        final int count = 2 + (receiveWindowSize != DEFAULT_INITIAL_WINDOW_SIZE ? 1 : 0) + (headerTableSize != Hpack.DEFAULT_TABLE_SIZE ? 1 : 0);
+        final byte[] frame = createFrame(FRAME_TYPE_SETTINGS, 0, 0, count * SETTING_LENGTH);
+        int pos = writeSetting(frame, FRAME_HEADER_LENGTH, SETTINGS_ENABLE_PUSH, 0);
+        pos = writeSetting(frame, pos, SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+        if (receiveWindowSize != DEFAULT_INITIAL_WINDOW_SIZE) {
+            pos = writeSetting(frame, pos, SETTINGS_INITIAL_WINDOW_SIZE, receiveWindowSize);
+        }
+        if (headerTableSize != Hpack.DEFAULT_TABLE_SIZE) {
+            writeSetting(frame, pos, SETTINGS_HEADER_TABLE_SIZE, headerTableSize);
+        }
+        sendControlFrame(frame, false);
+    }
+
+    private void sendControlFrame(final byte[] frame, final boolean lastFrame) {
+        final Http2ControlFrameSinkChannel sink = new Http2ControlFrameSinkChannel(this, frame, lastFrame);
+        try {
+            sink.shutdownWrites();
+            if (!sink.flush()) {
+                sink.getWriteSetter().set(ChannelListeners.<AbstractHttp2StreamSinkChannel>flushingChannelListener(null, writeExceptionHandler));
+                sink.resumeWrites();
+            }
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_IO_LOGGER.debug("Failed to send HTTP/2 frame", e);
+            markWritesBroken(e);
+        }
+    }
+
+    HpackEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * @return The largest frame the client will accept
+     */
+    int getSendMaxFrameSize() {
+        return sendMaxFrameSize;
+    }
+
+    static byte[] createFrame(final int type, final int flags, final int streamId, final int length) {
+        final byte[] frame = new byte[FRAME_HEADER_LENGTH + length];
+        frame[0] = (byte) (length >> 16);
+        frame[1] = (byte) (length >> 8);
+        frame[2] = (byte) length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        writeInt(frame, 5, streamId);
+        return frame;
+    }
+
+    static void writeFrameHeader(final ByteBuffer target, final int length, final int type, final int flags, final int streamId) {
+        target.put((byte) (length >> 16));
+        target.put((byte) (length >> 8));
+        target.put((byte) length);
+        target.put((byte) type);
+        target.put((byte) flags);
+        target.putInt(streamId);
+    }
+
+    private static int writeSetting(final byte[] frame, final int pos, final int id, final int value) {
+        frame[pos] = (byte) (id >> 8);
+        frame[pos + 1] = (byte) id;
+        writeInt(frame, pos + 2, value);
+        return pos + SETTING_LENGTH;
+    }
+
+    static void writeInt(final byte[] data, final int pos, final int value) {
+        data[pos] = (byte) (value >> 24);
+        data[pos + 1] = (byte) (value >> 16);
+        data[pos + 2] = (byte) (value >> 8);
+        data[pos + 3] = (byte) value;
+    }
+
+    static int readInt(final byte[] data, final int pos) {
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    private static byte[] toAscii(final String value) {
+        final byte[] ret = new byte[value.length()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = (byte) value.charAt(i);
+        }
+        return ret;
+    }
+
+    /**
+     * The state of an open stream. The client may still be sending the request, and the response has not been
+     * completely sent.
+     */
+    private static final class StreamHolder {
+        final Http2StreamSourceChannel source;
+        final Http2StreamSinkChannel sink;
+        /**
+         * <code>true</code> once the client has finished sending the request
+         */
+        boolean remoteClosed;
+        /**
+         * <code>true</code> once the application has closed the request channel, any more data is discarded
+         */
+        boolean sourceClosed;
+        /**
+         * <code>true</code> once the final frame of the response has been sent
+         */
+        boolean responseComplete;
+
+        StreamHolder(final Http2StreamSourceChannel source, final Http2StreamSinkChannel sink) {
+            this.source = source;
+            this.sink = sink;
+        }
+
+        synchronized boolean isRemoteClosed() {
+            return remoteClosed;
+        }
+
+        synchronized Http2StreamSourceChannel getSource() {
+            return sourceClosed ? null : source;
+        }
+    }
+
+    /**
+     * Collects the headers of a request. The pseudo headers are kept in the map, and removed once the request has been
+     * set up.
+     */
+    private static final class RequestHeaderListener implements HpackDecoder.HeaderListener {
+
+        final HeaderMap headers = new HeaderMap();
+        boolean malformed;
+        private boolean regularHeaderSeen;
+
+        @Override
+        public void emitHeader(final HttpString name, final String value) {
+            if (name.length() > 0 && name.byteAt(0) == ':') {
+                if (regularHeaderSeen || headers.contains(name) ||
+                        !(name.equals(METHOD) || name.equals(PATH) || name.equals(SCHEME) || name.equals(AUTHORITY))) {
+                    malformed = true;
+                    return;
+                }
+            } else {
+                regularHeaderSeen = true;
+            }
+            headers.add(name, value);
+        }
+    }
+
+    /**
+     * Passes the frames read by the parser on to the connection.
+     */
+    private final class ConnectionFrameListener implements Http2FrameParser.FrameListener {
+
+        @Override
+        public Http2StreamSourceChannel handleData(final int streamId, final int length, final boolean endStream) throws IOException {
+            return Http2Channel.this.handleData(streamId, length, endStream);
+        }
+
+        @Override
+        public void paddingReceived(final Http2StreamSourceChannel source, final int length) {
+            Http2Channel.this.paddingReceived(source, length);
+        }
+
+        @Override
+        public Http2FrameHeaderData handleHeaders(final int streamId, final boolean endStream, final byte[] block, final int length) throws IOException {
+            return Http2Channel.this.handleHeaders(streamId, endStream, block, length);
+        }
+
+        @Override
+        public void handleRstStream(final int streamId) throws IOException {
+            Http2Channel.this.handleRstStream(streamId);
+        }
+
+        @Override
+        public void handleSettings(final byte[] payload, final int length) throws IOException {
+            Http2Channel.this.handleSettings(payload, length);
+        }
+
+        @Override
+        public void handleSettingsAck() {
+            Http2Channel.this.handleSettingsAck();
+        }
+
+        @Override
+        public void handlePing(final byte[] payload) {
+            Http2Channel.this.handlePing(payload);
+        }
+
+        @Override
+        public void handleGoAway(final int errorCode) {
+            Http2Channel.this.handleGoAway(errorCode);
+        }
+
+        @Override
+        public void handleWindowUpdate(final int streamId, final int increment) throws IOException {
+            Http2Channel.this.handleWindowUpdate(streamId, increment);
+        }
+
+        @Override
+        public IOException connectionError(final int errorCode) {
+            return Http2Channel.this.connectionError(errorCode);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.undertow.server.protocol.http2;
+
+/**
+ * A complete frame that is generated by the connection itself, such as <code>SETTINGS</code> or
+ * <code>WINDOW_UPDATE</code>. The whole frame, including the frame header, is written to the buffer up front.
+ *
+ * @author Stuart Douglas
+ */
+class Http2ControlFrameSinkChannel extends AbstractHttp2StreamSinkChannel {
+
+    private final int type;
+    private final boolean lastFrame;
+
+    Http2ControlFrameSinkChannel(final Http2Channel channel, final byte[] frame, final boolean lastFrame) {
+        super(channel);
+        this.type = frame[3] & 0xFF;
+        this.lastFrame = lastFrame;
+        getBuffer().put(frame);
+    }
+
+    int getType() {
+        return type;
+    }
+
+    @Override
+    protected boolean isLastFrame() {
+        return lastFrame;
+    }
+}
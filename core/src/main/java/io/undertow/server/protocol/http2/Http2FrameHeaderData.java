@@ -0,0 +1,78 @@
+package io.undertow.server.protocol.http2;
+
+import io.undertow.server.protocol.framed.AbstractFramedStreamSourceChannel;
+import io.undertow.server.protocol.framed.FrameHeaderData;
+import io.undertow.util.HeaderMap;
+
+/**
+ * The result of parsing a frame that carries stream data, either the request headers that open a new stream or a
+ * chunk of request data for an existing stream.
+ * <p/>
+ * Data frames may be split into several chunks, so the data for a frame does not have to be buffered before it is
+ * passed on to the stream. Only the last chunk of a frame carries the end of stream flag.
+ *
+ * @author Stuart Douglas
+ */
+class Http2FrameHeaderData implements FrameHeaderData {
+
+    private final int type;
+    private final int streamId;
+    private final long frameLength;
+    private final boolean endStream;
+    private final HeaderMap headers;
+    private final Http2StreamSourceChannel existingChannel;
+
+    private Http2FrameHeaderData(final int type, final int streamId, final long frameLength, final boolean endStream, final HeaderMap headers, final Http2StreamSourceChannel existingChannel) {
+        this.type = type;
+        this.streamId = streamId;
+        this.frameLength = frameLength;
+        this.endStream = endStream;
+        this.headers = headers;
+        this.existingChannel = existingChannel;
+    }
+
+    /**
+     * @param streamId  The new stream
+     * @param endStream <code>true</code> if the request has no entity body
+     * @param headers   The request headers, including the pseudo headers
+     */
+    static Http2FrameHeaderData headers(final int streamId, final boolean endStream, final HeaderMap headers) {
+        return new Http2FrameHeaderData(Http2Channel.FRAME_TYPE_HEADERS, streamId, 0, endStream, headers, null);
+    }
+
+    /**
+     * @param streamId  The stream the data is for
+     * @param length    The length of this chunk
+     * @param endStream <code>true</code> if this is the last data for the stream
+     * @param existing  The stream, or <code>null</code> if the stream has been closed and the data should be discarded
+     */
+    static Http2FrameHeaderData data(final int streamId, final int length, final boolean endStream, final Http2StreamSourceChannel existing) {
+        return new Http2FrameHeaderData(Http2Channel.FRAME_TYPE_DATA, streamId, length, endStream, null, existing);
+    }
+
+    int getType() {
+        return type;
+    }
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    boolean isEndStream() {
+        return endStream;
+    }
+
+    HeaderMap getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public AbstractFramedStreamSourceChannel<?, ?, ?> getExistingChannel() {
+        return existingChannel;
+    }
+}
@@ -0,0 +1,457 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.undertow.UndertowMessages;
+
+import static io.undertow.server.protocol.http2.Http2Channel.DEFAULT_MAX_FRAME_SIZE;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_ENHANCE_YOUR_CALM;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_FRAME_SIZE_ERROR;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_PROTOCOL_ERROR;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_ACK;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_STREAM;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_PADDED;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_PRIORITY;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_HEADER_LENGTH;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_CONTINUATION;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_DATA;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_GOAWAY;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_PING;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_PRIORITY;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_PUSH_PROMISE;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_RST_STREAM;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_SETTINGS;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_WINDOW_UPDATE;
+import static io.undertow.server.protocol.http2.Http2Channel.PREFACE;
+import static io.undertow.server.protocol.http2.Http2Channel.SETTING_LENGTH;
+import static io.undertow.server.protocol.http2.Http2Channel.readInt;
+
+/**
+ * Incremental parser for the frames sent by a HTTP/2 client.
+ * <p/>
+ * The parser keeps its state between calls, so frames can be split across any number of reads. Frames that only
+ * affect the connection are handled as soon as they are complete, and the parser carries on with the next frame.
+ * Parsing only stops when there is no more data, or when it reaches data for a stream, which is either a new stream
+ * or a chunk of a <code>DATA</code> frame. Data is returned in whatever chunks it was read in, so the data of a frame
+ * never needs to be buffered.
+ *
+ * @author Stuart Douglas
+ */
+class Http2FrameParser {
+
+    private static final int STATE_PREFACE = 0;
+    private static final int STATE_FRAME_HEADER = 1;
+    private static final int STATE_PAD_LENGTH = 2;
+    private static final int STATE_DATA = 3;
+    private static final int STATE_PAYLOAD = 4;
+    private static final int STATE_SKIP = 5;
+
+    private final FrameListener listener;
+    private final int maxHeaderBlockSize;
+
+    private int state;
+    private int prefaceOffset;
+
+    private final byte[] header = new byte[FRAME_HEADER_LENGTH];
+    private int headerRead;
+
+    private int length;
+    private int type;
+    private int flags;
+    private int streamId;
+
+    private byte[] payload = new byte[64];
+    private int payloadRead;
+    private int skipRemaining;
+
+    /**
+     * The state of the <code>DATA</code> frame that is being read
+     */
+    private Http2StreamSourceChannel dataStream;
+    private int dataRemaining;
+    private int padding;
+
+    /**
+     * The header block that is being read, which may be split into a <code>HEADERS</code> frame followed by
+     * <code>CONTINUATION</code> frames. No other frames are allowed until the block is complete.
+     */
+    private byte[] headerBlock;
+    private int headerBlockLength;
+    private int headerBlockStreamId;
+    private boolean headerBlockEndStream;
+
+    /**
+     * @param listener           The listener that handles the frames for the connection
+     * @param prefaceOffset      The number of bytes of the preface that have already been read
+     * @param maxHeaderBlockSize The largest header block that will be accepted
+     */
+    Http2FrameParser(final FrameListener listener, final int prefaceOffset, final int maxHeaderBlockSize) {
+        this.listener = listener;
+        this.prefaceOffset = prefaceOffset;
+        this.maxHeaderBlockSize = maxHeaderBlockSize;
+        this.state = STATE_PREFACE;
+    }
+
+    /**
+     * Parses frames from the buffer.
+     *
+     * @param data The data read from the connection
+     * @return The header data for a new stream, or for a chunk of data for an existing stream, or <code>null</code>
+     *         if all data in the buffer has been consumed
+     */
+    Http2FrameHeaderData parse(final ByteBuffer data) throws IOException {
+        for (;;) {
+            switch (state) {
+                case STATE_PREFACE: {
+                    while (prefaceOffset < PREFACE.length) {
+                        if (!data.hasRemaining()) {
+                            return null;
+                        }
+                        if (data.get() != PREFACE[prefaceOffset++]) {
+                            throw UndertowMessages.MESSAGES.incorrectHttp2Preface();
+                        }
+                    }
+                    state = STATE_FRAME_HEADER;
+                    break;
+                }
+                case STATE_FRAME_HEADER: {
+                    final int n = Math.min(data.remaining(), FRAME_HEADER_LENGTH - headerRead);
+                    data.get(header, headerRead, n);
+                    headerRead += n;
+                    if (headerRead < FRAME_HEADER_LENGTH) {
+                        return null;
+                    }
+                    headerRead = 0;
+                    final Http2FrameHeaderData result = frameHeaderComplete();
+                    if (result != null) {
+                        return result;
+                    }
+                    break;
+                }
+                case STATE_PAD_LENGTH: {
+                    if (!data.hasRemaining()) {
+                        return null;
+                    }
+                    padding = data.get() & 0xFF;
+                    if (padding >= length) {
+                        throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                    }
+                    dataRemaining = length - 1 - padding;
+                    final Http2FrameHeaderData result = startData();
+                    if (result != null) {
+                        return result;
+                    }
+                    break;
+                }
+                case STATE_DATA: {
+                    final int chunk = Math.min(dataRemaining, data.remaining());
+                    if (chunk == 0) {
+                        return null;
+                    }
+                    dataRemaining -= chunk;
+                    final Http2StreamSourceChannel stream = dataStream;
+                    final boolean endStream = dataRemaining == 0 && (flags & FLAG_END_STREAM) != 0;
+                    if (dataRemaining == 0) {
+                        dataComplete();
+                    }
+                    return Http2FrameHeaderData.data(streamId, chunk, endStream, stream);
+                }
+                case STATE_PAYLOAD: {
+                    final int n = Math.min(data.remaining(), length - payloadRead);
+                    data.get(payload, payloadRead, n);
+                    payloadRead += n;
+                    if (payloadRead < length) {
+                        return null;
+                    }
+                    state = STATE_FRAME_HEADER;
+                    final Http2FrameHeaderData result = payloadComplete();
+                    if (result != null) {
+                        return result;
+                    }
+                    break;
+                }
+                case STATE_SKIP: {
+                    final int n = Math.min(data.remaining(), skipRemaining);
+                    data.position(data.position() + n);
+                    skipRemaining -= n;
+                    if (skipRemaining > 0) {
+                        return null;
+                    }
+                    state = STATE_FRAME_HEADER;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+
+    private Http2FrameHeaderData frameHeaderComplete() throws IOException {
+        length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+        type = header[3] & 0xFF;
+        flags = header[4] & 0xFF;
+        streamId = readInt(header, 5) & 0x7FFFFFFF;
+        //we never change SETTINGS_MAX_FRAME_SIZE, so this is the largest frame the client can send
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+        }
+        if (headerBlockStreamId != 0 && (type != FRAME_TYPE_CONTINUATION || streamId != headerBlockStreamId)) {
+            throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+        }
+        switch (type) {
+            case FRAME_TYPE_DATA: {
+                if (streamId == 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                dataStream = listener.handleData(streamId, length, (flags & FLAG_END_STREAM) != 0);
+                if ((flags & FLAG_PADDED) != 0) {
+                    if (length == 0) {
+                        throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                    }
+                    state = STATE_PAD_LENGTH;
+                    return null;
+                }
+                padding = -1;
+                dataRemaining = length;
+                return startData();
+            }
+            case FRAME_TYPE_HEADERS:
+            case FRAME_TYPE_CONTINUATION:
+            case FRAME_TYPE_PRIORITY:
+            case FRAME_TYPE_RST_STREAM:
+            case FRAME_TYPE_SETTINGS:
+            case FRAME_TYPE_PUSH_PROMISE:
+            case FRAME_TYPE_PING:
+            case FRAME_TYPE_GOAWAY:
+            case FRAME_TYPE_WINDOW_UPDATE: {
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                payloadRead = 0;
+                state = STATE_PAYLOAD;
+                return null;
+            }
+            default: {
+                //unknown frame types must be ignored
+                skipRemaining = length;
+                state = STATE_SKIP;
+                return null;
+            }
+        }
+    }
+
+    private Http2FrameHeaderData startData() {
+        if (dataRemaining > 0) {
+            state = STATE_DATA;
+            return null;
+        }
+        final Http2StreamSourceChannel stream = dataStream;
+        dataComplete();
+        if ((flags & FLAG_END_STREAM) != 0 && stream != null) {
+            return Http2FrameHeaderData.data(streamId, 0, true, stream);
+        }
+        return null;
+    }
+
+    private void dataComplete() {
+        if (padding >= 0) {
+            //the padding counts towards flow control, but is never read so the window is replenished now
+            if (dataStream != null) {
+                listener.paddingReceived(dataStream, padding + 1);
+            }
+            skipRemaining = padding;
+            state = STATE_SKIP;
+        } else {
+            state = STATE_FRAME_HEADER;
+        }
+        dataStream = null;
+    }
+
+    private Http2FrameHeaderData payloadComplete() throws IOException {
+        switch (type) {
+            case FRAME_TYPE_HEADERS: {
+                if (streamId == 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                int offset = 0;
+                int end = length;
+                if ((flags & FLAG_PADDED) != 0) {
+                    if (length == 0) {
+                        throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                    }
+                    end -= payload[0] & 0xFF;
+                    offset = 1;
+                }
+                if ((flags & FLAG_PRIORITY) != 0) {
+                    //priority is not supported
+                    offset += 5;
+                }
+                if (end < offset) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                headerBlockEndStream = (flags & FLAG_END_STREAM) != 0;
+                headerBlockLength = 0;
+                appendHeaderBlock(offset, end - offset);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    return headerBlockComplete();
+                }
+                headerBlockStreamId = streamId;
+                return null;
+            }
+            case FRAME_TYPE_CONTINUATION: {
+                if (headerBlockStreamId == 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                appendHeaderBlock(0, length);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    headerBlockStreamId = 0;
+                    return headerBlockComplete();
+                }
+                return null;
+            }
+            case FRAME_TYPE_PRIORITY: {
+                if (streamId == 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                if (length != 5) {
+                    throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                }
+                return null;
+            }
+            case FRAME_TYPE_RST_STREAM: {
+                if (streamId == 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                if (length != 4) {
+                    throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                }
+                listener.handleRstStream(streamId);
+                return null;
+            }
+            case FRAME_TYPE_SETTINGS: {
+                if (streamId != 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                if ((flags & FLAG_ACK) != 0) {
+                    if (length != 0) {
+                        throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                    }
+                    listener.handleSettingsAck();
+                } else {
+                    if (length % SETTING_LENGTH != 0) {
+                        throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                    }
+                    listener.handleSettings(payload, length);
+                }
+                return null;
+            }
+            case FRAME_TYPE_PUSH_PROMISE: {
+                //clients cannot push
+                throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+            }
+            case FRAME_TYPE_PING: {
+                if (streamId != 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                if (length != 8) {
+                    throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    listener.handlePing(payload);
+                }
+                return null;
+            }
+            case FRAME_TYPE_GOAWAY: {
+                if (streamId != 0) {
+                    throw listener.connectionError(ERROR_PROTOCOL_ERROR);
+                }
+                if (length < 8) {
+                    throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                }
+                listener.handleGoAway(readInt(payload, 4));
+                return null;
+            }
+            case FRAME_TYPE_WINDOW_UPDATE: {
+                if (length != 4) {
+                    throw listener.connectionError(ERROR_FRAME_SIZE_ERROR);
+                }
+                listener.handleWindowUpdate(streamId, readInt(payload, 0) & 0x7FFFFFFF);
+                return null;
+            }
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void appendHeaderBlock(final int offset, final int length) throws IOException {
+        final int newLength = headerBlockLength + length;
+        if (newLength > maxHeaderBlockSize) {
+            throw listener.connectionError(ERROR_ENHANCE_YOUR_CALM);
+        }
+        if (headerBlock == null || headerBlock.length < newLength) {
+            final byte[] old = headerBlock;
+            headerBlock = new byte[Math.max(newLength, old == null ? 256 : old.length * 2)];
+            if (old != null) {
+                System.arraycopy(old, 0, headerBlock, 0, headerBlockLength);
+            }
+        }
+        System.arraycopy(payload, offset, headerBlock, headerBlockLength, length);
+        headerBlockLength = newLength;
+    }
+
+    private Http2FrameHeaderData headerBlockComplete() throws IOException {
+        final Http2FrameHeaderData result = listener.handleHeaders(streamId, headerBlockEndStream, headerBlock, headerBlockLength);
+        headerBlockLength = 0;
+        if (headerBlock.length > DEFAULT_MAX_FRAME_SIZE) {
+            //do not hold on to the space used by an unusually large block
+            headerBlock = null;
+        }
+        return result;
+    }
+
+    /**
+     * Handles the frames once they have been parsed. This is implemented by the connection, which does the flow
+     * control accounting and manages the streams.
+     */
+    interface FrameListener {
+
+        /**
+         * Called when the header of a <code>DATA</code> frame has been read.
+         *
+         * @return The stream to pass the data to, or <code>null</code> if the data should be discarded
+         */
+        Http2StreamSourceChannel handleData(int streamId, int length, boolean endStream) throws IOException;
+
+        /**
+         * Called when the padding of a <code>DATA</code> frame for an open stream has been read.
+         */
+        void paddingReceived(Http2StreamSourceChannel source, int length);
+
+        /**
+         * Called when a complete header block has been read.
+         *
+         * @return The header data for a new stream or for the end of an existing stream, or <code>null</code>
+         */
+        Http2FrameHeaderData handleHeaders(int streamId, boolean endStream, byte[] block, int length) throws IOException;
+
+        void handleRstStream(int streamId) throws IOException;
+
+        void handleSettings(byte[] payload, int length) throws IOException;
+
+        void handleSettingsAck();
+
+        void handlePing(byte[] payload);
+
+        void handleGoAway(int errorCode);
+
+        void handleWindowUpdate(int streamId, int increment) throws IOException;
+
+        /**
+         * Called when the client has broken the protocol, the parser throws the returned exception.
+         */
+        IOException connectionError(int errorCode);
+    }
+}
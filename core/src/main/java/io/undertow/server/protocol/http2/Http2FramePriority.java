@@ -0,0 +1,60 @@
+package io.undertow.server.protocol.http2;
+
+import java.util.Deque;
+import java.util.List;
+
+import io.undertow.server.protocol.framed.FramePriority;
+
+/**
+ * HTTP/2 frame priority.
+ * <p/>
+ * Frames for different streams can be freely interleaved, so stream frames are sent in the order they are queued.
+ * Connection control frames such as <code>WINDOW_UPDATE</code> and <code>PING</code> acknowledgements are moved ahead of any
+ * queued stream frames, so they are not held up behind large responses. Once <code>GOAWAY</code> has been queued no
+ * more frames are sent.
+ *
+ * @author Stuart Douglas
+ */
+class Http2FramePriority implements FramePriority<Http2Channel, Http2StreamSourceChannel, AbstractHttp2StreamSinkChannel> {
+
+    private boolean closed;
+
+    @Override
+    public boolean insertFrame(final AbstractHttp2StreamSinkChannel newFrame, final List<AbstractHttp2StreamSinkChannel> pendingFrames) {
+        if (closed) {
+            //drop the frame
+            newFrame.markBroken();
+            return true;
+        }
+        if (newFrame.isLastFrame()) {
+            closed = true;
+            pendingFrames.add(newFrame);
+        } else if (isUrgent(newFrame)) {
+            //the first frame may already be partially written, so it is never moved
+            int index = 1;
+            while (index < pendingFrames.size() && isUrgent(pendingFrames.get(index))) {
+                ++index;
+            }
+            if (index > pendingFrames.size()) {
+                pendingFrames.add(newFrame);
+            } else {
+                pendingFrames.add(index, newFrame);
+            }
+        } else {
+            pendingFrames.add(newFrame);
+        }
+        return true;
+    }
+
+    /**
+     * <code>RST_STREAM</code> is not moved, as it must not overtake frames that were already queued for the stream.
+     */
+    private static boolean isUrgent(final AbstractHttp2StreamSinkChannel frame) {
+        return frame instanceof Http2ControlFrameSinkChannel && ((Http2ControlFrameSinkChannel) frame).getType() != Http2Channel.FRAME_TYPE_RST_STREAM;
+    }
+
+    @Override
+    public void frameAdded(final AbstractHttp2StreamSinkChannel addedFrame, final List<AbstractHttp2StreamSinkChannel> pendingFrames, final Deque<AbstractHttp2StreamSinkChannel> holdFrames) {
+        //frames are never held
+    }
+}
@@ -0,0 +1,186 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Map;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowOptions;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import io.undertow.util.StatusCodes;
+import io.undertow.util.URLUtils;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+/**
+ * The receive listener of a HTTP/2 connection. Every new stream is turned into a {@link HttpServerExchange} and
+ * dispatched to the root handler.
+ *
+ * @author Stuart Douglas
+ */
+public class Http2ReceiveListener implements ChannelListener<Http2Channel> {
+
+    private final HttpHandler rootHandler;
+    private final OptionMap undertowOptions;
+    private final int bufferSize;
+    private final long maxEntitySize;
+    private final boolean recordRequestStartTime;
+    private final boolean decode;
+    private final boolean allowEncodedSlash;
+    private final String charset;
+
+    public Http2ReceiveListener(final HttpHandler rootHandler, final OptionMap undertowOptions, final int bufferSize) {
+        this.rootHandler = rootHandler;
+        this.undertowOptions = undertowOptions;
+        this.bufferSize = bufferSize;
+        this.maxEntitySize = undertowOptions.get(UndertowOptions.MAX_ENTITY_SIZE, 0);
+        this.recordRequestStartTime = undertowOptions.get(UndertowOptions.RECORD_REQUEST_START_TIME, false);
+        this.decode = undertowOptions.get(UndertowOptions.DECODE_URL, true);
+        this.allowEncodedSlash = undertowOptions.get(UndertowOptions.ALLOW_ENCODED_SLASH, false);
+        this.charset = undertowOptions.get(UndertowOptions.URL_CHARSET, "UTF-8");
+    }
+
+    @Override
+    public void handleEvent(final Http2Channel channel) {
+        try {
+            Http2StreamSourceChannel stream = channel.receive();
+            while (stream != null) {
+                handleRequest(channel, stream);
+                stream = channel.receive();
+            }
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_IO_LOGGER.debug("Error reading HTTP/2 connection", e);
+            if (channel.isGoAwaySent()) {
+                //the write side is shut down once GOAWAY has been sent
+                channel.suspendReceives();
+            } else {
+                IoUtils.safeClose(channel);
+            }
+        }
+    }
+
+    private void handleRequest(final Http2Channel channel, final Http2StreamSourceChannel stream) {
+        final HeaderMap headers = stream.getHeaders();
+        final String method = headers.getFirst(Http2Channel.METHOD);
+        final String scheme = headers.getFirst(Http2Channel.SCHEME);
+        final String path = headers.getFirst(Http2Channel.PATH);
+        if (method == null || scheme == null || path == null || path.isEmpty()) {
+            channel.resetStream(stream.getStreamId(), Http2Channel.ERROR_PROTOCOL_ERROR);
+            return;
+        }
+        final Http2ServerConnection connection = new Http2ServerConnection(channel, stream.isHeadersEndStream() ? null : stream, stream.getResponseChannel(), undertowOptions, bufferSize);
+        final HttpServerExchange exchange = new HttpServerExchange(connection, maxEntitySize);
+        connection.setExchange(exchange);
+
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        long fiCookie = headers.fastIterateNonEmpty();
+        while (fiCookie != -1) {
+            final HeaderValues values = headers.fiCurrent(fiCookie);
+            final HttpString name = values.getHeaderName();
+            if (name.byteAt(0) != ':') {
+                requestHeaders.putAll(name, values);
+            }
+            fiCookie = headers.fiNextNonEmpty(fiCookie);
+        }
+        final String authority = headers.getFirst(Http2Channel.AUTHORITY);
+        if (authority != null && !requestHeaders.contains(Headers.HOST)) {
+            requestHeaders.put(Headers.HOST, authority);
+        }
+        exchange.setProtocol(Protocols.HTTP_2_0);
+        exchange.setRequestMethod(new HttpString(method));
+        exchange.setRequestScheme(scheme);
+        try {
+            setRequestPath(exchange, path);
+        } catch (IllegalArgumentException e) {
+            UndertowLogger.REQUEST_IO_LOGGER.debugf(e, "Invalid HTTP/2 request path %s", path);
+            exchange.setResponseCode(StatusCodes.BAD_REQUEST);
+            exchange.endExchange();
+            return;
+        }
+        if (stream.isHeadersEndStream()) {
+            Connectors.terminateRequest(exchange);
+        }
+        if (recordRequestStartTime) {
+            Connectors.setRequestStartTime(exchange);
+        }
+        Connectors.executeRootHandler(rootHandler, exchange);
+    }
+
+    /**
+     * Handles the request that was sent with a <code>h2c</code> upgrade. It is dispatched again as stream 1 of the
+     * new connection, and the response is sent over HTTP/2.
+     *
+     * @param initial  The upgrade request
+     * @param channel  The new connection
+     * @param settings The decoded value of the <code>HTTP2-Settings</code> header
+     */
+    void handleInitialRequest(final HttpServerExchange initial, final Http2Channel channel, final byte[] settings) throws IOException {
+        final Http2StreamSinkChannel sink = channel.createUpgradeStream(settings);
+        final Http2ServerConnection connection = new Http2ServerConnection(channel, null, sink, undertowOptions, bufferSize);
+        final HttpServerExchange exchange = new HttpServerExchange(connection, maxEntitySize);
+        connection.setExchange(exchange);
+
+        final HeaderMap initialHeaders = initial.getRequestHeaders();
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        long fiCookie = initialHeaders.fastIterateNonEmpty();
+        while (fiCookie != -1) {
+            final HeaderValues values = initialHeaders.fiCurrent(fiCookie);
+            final HttpString name = values.getHeaderName();
+            if (!name.equals(Headers.CONNECTION) && !name.equals(Headers.UPGRADE) && !name.equals(Http2UpgradeHandler.HTTP2_SETTINGS)) {
+                requestHeaders.putAll(name, values);
+            }
+            fiCookie = initialHeaders.fiNextNonEmpty(fiCookie);
+        }
+        exchange.setProtocol(Protocols.HTTP_2_0);
+        exchange.setRequestMethod(initial.getRequestMethod());
+        exchange.setRequestScheme(initial.getRequestScheme());
+        exchange.setRequestURI(initial.getRequestURI(), initial.isHostIncludedInRequestURI());
+        exchange.setRequestPath(initial.getRequestPath());
+        exchange.setRelativePath(initial.getRequestPath());
+        exchange.setQueryString(initial.getQueryString());
+        for (final Map.Entry<String, Deque<String>> param : initial.getQueryParameters().entrySet()) {
+            for (final String value : param.getValue()) {
+                exchange.addQueryParam(param.getKey(), value);
+            }
+        }
+        for (final Map.Entry<String, Deque<String>> param : initial.getPathParameters().entrySet()) {
+            for (final String value : param.getValue()) {
+                exchange.addPathParam(param.getKey(), value);
+            }
+        }
+        Connectors.terminateRequest(exchange);
+        if (recordRequestStartTime) {
+            Connectors.setRequestStartTime(exchange);
+        }
+        Connectors.executeRootHandler(rootHandler, exchange);
+    }
+
+    /**
+     * Sets up the path of the exchange from the <code>:path</code> pseudo header, in the same way
+     * {@link io.undertow.server.protocol.http.HttpRequestParser} handles the request target.
+     */
+    private void setRequestPath(final HttpServerExchange exchange, final String path) {
+        final int queryStart = path.indexOf('?');
+        final String requestURI = queryStart == -1 ? path : path.substring(0, queryStart);
+        final String queryString = queryStart == -1 ? "" : path.substring(queryStart + 1);
+        exchange.setRequestURI(requestURI);
+        final int paramStart = requestURI.indexOf(';');
+        final String requestPath = paramStart == -1 ? requestURI : requestURI.substring(0, paramStart);
+        final String decodedPath = decode ? URLUtils.decode(requestPath, charset, allowEncodedSlash, new StringBuilder()) : requestPath;
+        exchange.setRequestPath(decodedPath);
+        exchange.setRelativePath(decodedPath);
+        if (paramStart != -1) {
+            URLUtils.parsePathParms(requestURI.substring(paramStart + 1), exchange, charset, decode);
+        }
+        exchange.setQueryString(queryString);
+        URLUtils.parseQueryString(queryString, exchange, charset, decode);
+    }
+}
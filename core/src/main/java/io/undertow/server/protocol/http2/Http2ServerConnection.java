@@ -0,0 +1,251 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.conduits.ConduitListener;
+import io.undertow.conduits.EmptyStreamSourceConduit;
+import io.undertow.conduits.FinishableStreamSinkConduit;
+import io.undertow.conduits.FinishableStreamSourceConduit;
+import io.undertow.conduits.HeadStreamSinkConduit;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.HttpUpgradeListener;
+import io.undertow.server.SSLSessionInfo;
+import io.undertow.server.ServerConnection;
+import io.undertow.util.DateUtils;
+import io.undertow.util.Methods;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.Option;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.StreamConnection;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.Configurable;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+import org.xnio.conduits.StreamSinkChannelWrappingConduit;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.StreamSourceChannelWrappingConduit;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * A server connection for a single HTTP/2 stream.
+ * <p/>
+ * Every request on a HTTP/2 connection has its own server connection, the request and response channels of the
+ * exchange read from and write to the stream. Operations that affect the whole connection, such as the options and
+ * addresses, are delegated to the underlying {@link Http2Channel}.
+ *
+ * @author Stuart Douglas
+ */
+public class Http2ServerConnection extends ServerConnection {
+
+    private final Http2Channel channel;
+    private final Http2StreamSinkChannel responseChannel;
+    private final ConduitStreamSinkChannel sinkChannel;
+    private final ConduitStreamSourceChannel sourceChannel;
+    private final OptionMap undertowOptions;
+    private final int bufferSize;
+    private final List<CloseListener> closeListeners = new ArrayList<CloseListener>(1);
+    private final ChannelListener.SimpleSetter<ServerConnection> closeSetter = new ChannelListener.SimpleSetter<ServerConnection>();
+    private SSLSessionInfo sslSessionInfo;
+    private HttpServerExchange exchange;
+
+    /**
+     * @param channel         The connection
+     * @param requestChannel  The channel the request entity is read from, or <code>null</code> if there is no entity
+     * @param responseChannel The channel the response is written to
+     * @param undertowOptions The undertow options
+     * @param bufferSize      The buffer size
+     */
+    public Http2ServerConnection(final Http2Channel channel, final Http2StreamSourceChannel requestChannel, final Http2StreamSinkChannel responseChannel, final OptionMap undertowOptions, final int bufferSize) {
+        this.channel = channel;
+        this.responseChannel = responseChannel;
+        this.undertowOptions = undertowOptions;
+        this.bufferSize = bufferSize;
+        this.sinkChannel = new ConduitStreamSinkChannel(Configurable.EMPTY, new StreamSinkChannelWrappingConduit(responseChannel));
+        final StreamSourceConduit source;
+        if (requestChannel == null) {
+            source = new EmptyStreamSourceConduit(channel.getIoThread());
+        } else {
+            source = new FinishableStreamSourceConduit(new StreamSourceChannelWrappingConduit(requestChannel), new ConduitListener<FinishableStreamSourceConduit>() {
+                @Override
+                public void handleEvent(final FinishableStreamSourceConduit conduit) {
+                    Connectors.terminateRequest(exchange);
+                }
+            });
+        }
+        this.sourceChannel = new ConduitStreamSourceChannel(Configurable.EMPTY, source);
+    }
+
+    void setExchange(final HttpServerExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    public Http2Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public Pool<ByteBuffer> getBufferPool() {
+        return channel.getBufferPool();
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return channel.getWorker();
+    }
+
+    @Override
+    public XnioIoThread getIoThread() {
+        return channel.getIoThread();
+    }
+
+    @Override
+    public HttpServerExchange sendOutOfBandResponse(final HttpServerExchange exchange) {
+        throw UndertowMessages.MESSAGES.outOfBandResponseNotSupported();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public boolean supportsOption(final Option<?> option) {
+        return false;
+    }
+
+    @Override
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return null;
+    }
+
+    @Override
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return null;
+    }
+
+    /**
+     * Closing the connection of a single request only aborts its stream, the HTTP/2 connection stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.cancelStream(responseChannel.getStreamId());
+    }
+
+    @Override
+    public SocketAddress getPeerAddress() {
+        return channel.getPeerAddress();
+    }
+
+    @Override
+    public <A extends SocketAddress> A getPeerAddress(final Class<A> type) {
+        return channel.getPeerAddress(type);
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends ServerConnection> getCloseSetter() {
+        return closeSetter;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return channel.getLocalAddress();
+    }
+
+    @Override
+    public <A extends SocketAddress> A getLocalAddress(final Class<A> type) {
+        return channel.getLocalAddress(type);
+    }
+
+    @Override
+    public OptionMap getUndertowOptions() {
+        return undertowOptions;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public SSLSessionInfo getSslSessionInfo() {
+        return sslSessionInfo;
+    }
+
+    @Override
+    public void setSslSessionInfo(final SSLSessionInfo sessionInfo) {
+        this.sslSessionInfo = sessionInfo;
+    }
+
+    @Override
+    public void addCloseListener(final CloseListener listener) {
+        closeListeners.add(listener);
+    }
+
+    @Override
+    protected StreamConnection upgradeChannel() {
+        throw UndertowMessages.MESSAGES.upgradeNotSupported();
+    }
+
+    @Override
+    protected ConduitStreamSinkChannel getSinkChannel() {
+        return sinkChannel;
+    }
+
+    @Override
+    protected ConduitStreamSourceChannel getSourceChannel() {
+        return sourceChannel;
+    }
+
+    @Override
+    protected StreamSinkConduit getSinkConduit(final HttpServerExchange exchange, final StreamSinkConduit conduit) {
+        DateUtils.addDateHeaderIfRequired(exchange);
+        Connectors.flattenCookies(exchange);
+        responseChannel.setResponse(exchange.getResponseCode(), exchange.getResponseHeaders());
+        final ConduitListener<StreamSinkConduit> finishListener = new ConduitListener<StreamSinkConduit>() {
+            @Override
+            public void handleEvent(final StreamSinkConduit channel) {
+                Connectors.terminateResponse(exchange);
+            }
+        };
+        if (exchange.getRequestMethod().equals(Methods.HEAD)) {
+            //the stream has to be ended even though no data is sent
+            return new HeadStreamSinkConduit(conduit, finishListener, true);
+        }
+        return new FinishableStreamSinkConduit(conduit, finishListener);
+    }
+
+    @Override
+    protected boolean isUpgradeSupported() {
+        return false;
+    }
+
+    /**
+     * The stream is finished once the exchange is complete, so this is treated as the connection being closed.
+     */
+    @Override
+    protected void exchangeComplete(final HttpServerExchange exchange) {
+        for (final CloseListener listener : closeListeners) {
+            try {
+                listener.closed(this);
+            } catch (Throwable e) {
+                UndertowLogger.REQUEST_LOGGER.exceptionInvokingCloseListener(listener, e);
+            }
+        }
+        ChannelListeners.invokeChannelListener(this, closeSetter.get());
+    }
+
+    @Override
+    protected void setUpgradeListener(final HttpUpgradeListener upgradeListener) {
+        throw UndertowMessages.MESSAGES.upgradeNotSupported();
+    }
+}
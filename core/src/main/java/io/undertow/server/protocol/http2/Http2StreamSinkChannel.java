@@ -0,0 +1,339 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.ImmediatePooled;
+import org.xnio.Pooled;
+
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_STREAM;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_HEADER_LENGTH;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_CONTINUATION;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_DATA;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.MAX_WINDOW_SIZE;
+
+/**
+ * The channel a response is written to.
+ * <p/>
+ * Each buffer that is written out is sent as a <code>DATA</code> frame. The response headers are encoded when the
+ * first frame is sent, so they can be modified until then. If the response has no entity body they are sent as a
+ * single <code>HEADERS</code> frame that ends the stream.
+ * <p/>
+ * Data is only copied into the buffer once flow control window has been obtained for it. If no window is available
+ * writes return 0, and writes are resumed once the client opens the window again.
+ *
+ * @author Stuart Douglas
+ */
+public class Http2StreamSinkChannel extends AbstractHttp2StreamSinkChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final int streamId;
+
+    /**
+     * The stream send window. Guarded by the flow control lock of the connection.
+     */
+    private int sendWindow;
+
+    private int status = 200;
+    private HeaderMap headers = new HeaderMap();
+    private boolean headersWritten;
+
+    private final Object flowControlLock = new Object();
+    private boolean flowControlBlocked;
+    private boolean resumedWhileBlocked;
+
+    Http2StreamSinkChannel(final Http2Channel channel, final int streamId, final int initialSendWindow) {
+        super(channel);
+        this.streamId = streamId;
+        this.sendWindow = initialSendWindow;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * Sets the response that is sent when the first frame is written.
+     *
+     * @param status  The status code
+     * @param headers The response headers
+     */
+    public void setResponse(final int status, final HeaderMap headers) {
+        this.status = status;
+        this.headers = headers;
+    }
+
+    @Override
+    protected Pooled<ByteBuffer> createFrameHeader() {
+        final int dataLength = getBuffer().remaining();
+        final boolean endStream = isFinalFrameQueued();
+        if (headersWritten) {
+            final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+            Http2Channel.writeFrameHeader(header, dataLength, FRAME_TYPE_DATA, endStream ? FLAG_END_STREAM : 0, streamId);
+            header.flip();
+            return new ImmediatePooled<ByteBuffer>(header);
+        }
+        headersWritten = true;
+        final HpackEncoder encoder = getChannel().getEncoder();
+        final ByteBuffer block = ByteBuffer.allocate(encoder.maxEncodedLength(headers));
+        encoder.encode(block, status, headers);
+        block.flip();
+
+        final int maxFrameSize = getChannel().getSendMaxFrameSize();
+        final int blockLength = block.remaining();
+        final int headerFrames = blockLength == 0 ? 1 : (blockLength + maxFrameSize - 1) / maxFrameSize;
+        final boolean headersOnly = endStream && dataLength == 0;
+        final ByteBuffer header = ByteBuffer.allocate(blockLength + (headerFrames + (headersOnly ? 0 : 1)) * FRAME_HEADER_LENGTH);
+        int type = FRAME_TYPE_HEADERS;
+        do {
+            final int length = Math.min(block.remaining(), maxFrameSize);
+            int flags = length == block.remaining() ? FLAG_END_HEADERS : 0;
+            if (headersOnly && type == FRAME_TYPE_HEADERS) {
+                flags |= FLAG_END_STREAM;
+            }
+            Http2Channel.writeFrameHeader(header, length, type, flags, streamId);
+            final int limit = block.limit();
+            block.limit(block.position() + length);
+            header.put(block);
+            block.limit(limit);
+            type = FRAME_TYPE_CONTINUATION;
+        } while (block.hasRemaining());
+        if (!headersOnly) {
+            Http2Channel.writeFrameHeader(header, dataLength, FRAME_TYPE_DATA, endStream ? FLAG_END_STREAM : 0, streamId);
+        }
+        header.flip();
+        return new ImmediatePooled<ByteBuffer>(header);
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!src.hasRemaining() || !prepareWrite()) {
+            return super.write(src);
+        }
+        final int window = getChannel().grabFlowControlWindow(this, Math.min(src.remaining(), getBuffer().remaining()));
+        if (window == 0) {
+            sendPartialFrame();
+            return 0;
+        }
+        int written = 0;
+        final int limit = src.limit();
+        try {
+            src.limit(src.position() + window);
+            written = super.write(src);
+            return written;
+        } finally {
+            src.limit(limit);
+            if (written < window) {
+                getChannel().returnFlowControlWindow(this, window - written);
+            }
+        }
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            final ByteBuffer src = srcs[i];
+            if (src.hasRemaining()) {
+                written += write(src);
+                if (src.hasRemaining()) {
+                    break;
+                }
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        if (!isWritesShutdown()) {
+            //data is only sent when the buffer is full, so anything that has been written is sent as a smaller frame
+            sendPartialFrame();
+        }
+        return super.flush();
+    }
+
+    /**
+     * @return <code>true</code> if data can be copied to the buffer
+     */
+    private boolean prepareWrite() throws IOException {
+        if (isReadyForFlush()) {
+            super.flush();
+            if (isReadyForFlush()) {
+                return false;
+            }
+        }
+        final ByteBuffer buffer = getBuffer();
+        final int maxFrameSize = getChannel().getSendMaxFrameSize();
+        if (buffer.limit() > maxFrameSize) {
+            buffer.limit(maxFrameSize);
+        }
+        return buffer.hasRemaining();
+    }
+
+    private void sendPartialFrame() throws IOException {
+        final ByteBuffer buffer = getBuffer();
+        if (!isReadyForFlush() && isOpen() && buffer.position() > 0) {
+            //the frame is queued when the buffer is full
+            buffer.limit(buffer.position());
+            super.write(EMPTY);
+        }
+    }
+
+    @Override
+    public void resumeWrites() {
+        synchronized (flowControlLock) {
+            if (flowControlBlocked) {
+                resumedWhileBlocked = true;
+                return;
+            }
+        }
+        super.resumeWrites();
+    }
+
+    @Override
+    public void wakeupWrites() {
+        synchronized (flowControlLock) {
+            if (flowControlBlocked) {
+                resumedWhileBlocked = true;
+                return;
+            }
+        }
+        super.wakeupWrites();
+    }
+
+    @Override
+    public void suspendWrites() {
+        synchronized (flowControlLock) {
+            resumedWhileBlocked = false;
+        }
+        super.suspendWrites();
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+        synchronized (flowControlLock) {
+            if (flowControlBlocked) {
+                try {
+                    flowControlLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                return;
+            }
+        }
+        super.awaitWritable();
+    }
+
+    @Override
+    public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        synchronized (flowControlLock) {
+            if (flowControlBlocked) {
+                try {
+                    flowControlLock.wait(timeUnit.toMillis(time));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                return;
+            }
+        }
+        super.awaitWritable(time, timeUnit);
+    }
+
+    /**
+     * Called with the connection flow control lock held when no window is available. Writes stay suspended until
+     * {@link #flowControlUnblocked()} is called.
+     */
+    void flowControlBlocked() {
+        final boolean resumed = isWriteResumed();
+        synchronized (flowControlLock) {
+            flowControlBlocked = true;
+            if (resumed) {
+                resumedWhileBlocked = true;
+            }
+        }
+        if (resumed) {
+            //stop the write listener from being called until there is window to write with
+            super.suspendWrites();
+        }
+    }
+
+    /**
+     * Called when the window has been opened again.
+     */
+    void flowControlUnblocked() {
+        final boolean resume;
+        synchronized (flowControlLock) {
+            flowControlBlocked = false;
+            resume = resumedWhileBlocked;
+            resumedWhileBlocked = false;
+            flowControlLock.notifyAll();
+        }
+        if (resume) {
+            super.wakeupWrites();
+        }
+    }
+
+    /**
+     * Must be called with the connection flow control lock held.
+     */
+    int getSendWindow() {
+        return sendWindow;
+    }
+
+    /**
+     * Must be called with the connection flow control lock held.
+     *
+     * @return <code>false</code> if the window has overflowed
+     */
+    boolean updateSendWindow(final int delta) {
+        final long window = (long) sendWindow + delta;
+        if (window > MAX_WINDOW_SIZE) {
+            return false;
+        }
+        sendWindow = (int) window;
+        return true;
+    }
+
+    /**
+     * Called when the stream has been reset, any further writes will fail.
+     */
+    void reset() {
+        markBroken();
+        flowControlUnblocked();
+    }
+
+    @Override
+    protected void handleFlushComplete() {
+        if (isFinalFrameQueued()) {
+            getIoThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    getChannel().responseComplete(Http2StreamSinkChannel.this);
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void channelForciblyClosed() throws IOException {
+        if (!isFinalFrameQueued()) {
+            getChannel().cancelStream(streamId);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Http2StreamSinkChannel{" +
+                "streamId=" + streamId +
+                '}';
+    }
+}
@@ -0,0 +1,179 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import io.undertow.server.protocol.framed.AbstractFramedStreamSourceChannel;
+import io.undertow.server.protocol.framed.FrameHeaderData;
+import io.undertow.util.HeaderMap;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * The channel the request entity of a stream is read from.
+ * <p/>
+ * The flow control window of the stream is replenished as data is read, so a client can never send more data than
+ * the application is prepared to buffer.
+ *
+ * @author Stuart Douglas
+ */
+public class Http2StreamSourceChannel extends AbstractFramedStreamSourceChannel<Http2Channel, Http2StreamSourceChannel, AbstractHttp2StreamSinkChannel> {
+
+    private final Http2Channel channel;
+    private final int streamId;
+    private final HeaderMap headers;
+    private final boolean headersEndStream;
+    private final Http2StreamSinkChannel response;
+
+    /**
+     * The receive window, and the data that has been read but not yet returned to the window
+     */
+    private int initialWindowSize;
+    private int receiveWindow;
+    private int consumed;
+
+    Http2StreamSourceChannel(final Http2Channel channel, final int streamId, final HeaderMap headers, final boolean endStream, final Http2StreamSinkChannel response, final int initialWindowSize) {
+        super(channel);
+        this.channel = channel;
+        this.streamId = streamId;
+        this.headers = headers;
+        this.headersEndStream = endStream;
+        this.response = response;
+        this.initialWindowSize = initialWindowSize;
+        this.receiveWindow = initialWindowSize;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * @return The request headers, including the pseudo headers
+     */
+    public HeaderMap getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return <code>true</code> if the request has no entity body
+     */
+    public boolean isHeadersEndStream() {
+        return headersEndStream;
+    }
+
+    /**
+     * @return The channel the response for this stream is written to
+     */
+    public Http2StreamSinkChannel getResponseChannel() {
+        return response;
+    }
+
+    @Override
+    protected void handleHeaderData(final FrameHeaderData headerData) {
+        if (((Http2FrameHeaderData) headerData).isEndStream()) {
+            lastFrame();
+        }
+    }
+
+    /**
+     * Called by the read thread when a <code>DATA</code> frame for this stream arrives.
+     *
+     * @return <code>false</code> if the client has exceeded the window
+     */
+    synchronized boolean dataReceived(final int length) {
+        receiveWindow -= length;
+        return receiveWindow >= 0;
+    }
+
+    /**
+     * Called by the read thread when the client acknowledges a window size that is smaller than the one this stream
+     * was created with. The window may become negative, in which case the client cannot send any more data until
+     * enough has been read.
+     */
+    synchronized void updateInitialWindowSize(final int size) {
+        receiveWindow += size - initialWindowSize;
+        initialWindowSize = size;
+    }
+
+    /**
+     * Called when data has been read by the application, or discarded, so the window can be opened again.
+     */
+    void dataConsumed(final int length) {
+        final int update;
+        synchronized (this) {
+            consumed += length;
+            if (consumed < initialWindowSize / 2 || isComplete()) {
+                return;
+            }
+            update = consumed;
+            receiveWindow += consumed;
+            consumed = 0;
+        }
+        channel.sendWindowUpdate(streamId, update);
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        final int read = super.read(dst);
+        if (read > 0) {
+            dataConsumed(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+        final long read = super.read(dsts, offset, length);
+        if (read > 0) {
+            dataConsumed((int) read);
+        }
+        return read;
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
+        final long read = super.transferTo(position, count, target);
+        if (read > 0) {
+            dataConsumed((int) read);
+        }
+        return read;
+    }
+
+    @Override
+    public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
+        final long read = super.transferTo(count, throughBuffer, target);
+        if (read > 0) {
+            dataConsumed((int) read);
+        }
+        return read;
+    }
+
+    @Override
+    protected void markStreamBroken() {
+        super.markStreamBroken();
+    }
+
+    @Override
+    protected void channelForciblyClosed() throws IOException {
+        //any data that arrives from now on is discarded by the connection, and data that has already
+        //arrived is drained so the buffers it is held in are released
+        channel.requestClosed(this);
+        final ByteBuffer scratch = ByteBuffer.allocate(1024);
+        try {
+            long read;
+            do {
+                scratch.clear();
+                read = super.read(scratch);
+            } while (read > 0);
+        } catch (IOException e) {
+            //the stream has been broken, there is nothing left to drain
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Http2StreamSourceChannel{" +
+                "streamId=" + streamId +
+                '}';
+    }
+}
@@ -0,0 +1,124 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.undertow.UndertowLogger;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.HttpUpgradeListener;
+import io.undertow.util.FlexBase64;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.StreamConnection;
+
+/**
+ * Handler that upgrades HTTP/1.1 requests that ask for it to HTTP/2 over cleartext (<code>h2c</code>).
+ * <p/>
+ * The request that carries the upgrade is answered with a 101 response, and is then handled again as the first stream
+ * of the new connection. Requests that have an entity body are not upgraded, as the body would have to be read before
+ * the connection could switch protocols. All other requests are passed on to the next handler.
+ *
+ * @author Stuart Douglas
+ */
+public class Http2UpgradeHandler implements HttpHandler {
+
+    static final HttpString HTTP2_SETTINGS = new HttpString("HTTP2-Settings");
+
+    private final HttpHandler next;
+
+    public Http2UpgradeHandler(final HttpHandler next) {
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        final String upgrade = requestHeaders.getFirst(Headers.UPGRADE);
+        final String settingsHeader = requestHeaders.getFirst(HTTP2_SETTINGS);
+        if (upgrade != null && settingsHeader != null && exchange.getProtocol().equals(Protocols.HTTP_1_1)
+                && containsToken(upgrade, Http2Channel.CLEARTEXT_UPGRADE_STRING) && !hasEntityBody(requestHeaders)) {
+            final byte[] settings = decodeSettings(settingsHeader);
+            if (settings != null) {
+                final HttpHandler rootHandler = next;
+                final Pool<ByteBuffer> bufferPool = exchange.getConnection().getBufferPool();
+                final OptionMap undertowOptions = exchange.getConnection().getUndertowOptions();
+                final int bufferSize = exchange.getConnection().getBufferSize();
+                exchange.upgradeChannel(Http2Channel.CLEARTEXT_UPGRADE_STRING, new HttpUpgradeListener() {
+                    @Override
+                    public void handleUpgrade(final StreamConnection streamConnection, final HttpServerExchange initial) {
+                        final Http2ReceiveListener receiveListener = new Http2ReceiveListener(rootHandler, undertowOptions, bufferSize);
+                        final Http2Channel channel = new Http2Channel(streamConnection, bufferPool, null, false, undertowOptions);
+                        try {
+                            receiveListener.handleInitialRequest(initial, channel, settings);
+                        } catch (IOException e) {
+                            UndertowLogger.REQUEST_IO_LOGGER.debug("Failed to upgrade to HTTP/2", e);
+                            IoUtils.safeClose(channel);
+                            return;
+                        }
+                        channel.getReceiveSetter().set(receiveListener);
+                        channel.resumeReceives();
+                    }
+                });
+                exchange.endExchange();
+                return;
+            }
+        }
+        next.handleRequest(exchange);
+    }
+
+    private static boolean hasEntityBody(final HeaderMap requestHeaders) {
+        if (requestHeaders.contains(Headers.TRANSFER_ENCODING)) {
+            return true;
+        }
+        final String contentLength = requestHeaders.getFirst(Headers.CONTENT_LENGTH);
+        return contentLength != null && !contentLength.trim().equals("0");
+    }
+
+    private static boolean containsToken(final String header, final String token) {
+        for (final String part : header.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the <code>HTTP2-Settings</code> header, which uses the URL safe base64 alphabet without padding.
+     *
+     * @return The settings payload, or <code>null</code> if the header is not valid
+     */
+    private static byte[] decodeSettings(final String header) {
+        final StringBuilder sb = new StringBuilder(header.length() + 3);
+        for (int i = 0; i < header.length(); ++i) {
+            final char c = header.charAt(i);
+            if (c == '-') {
+                sb.append('+');
+            } else if (c == '_') {
+                sb.append('/');
+            } else if (c != '=') {
+                sb.append(c);
+            }
+        }
+        while (sb.length() % 4 != 0) {
+            sb.append('=');
+        }
+        try {
+            final ByteBuffer decoded = FlexBase64.decode(sb.toString());
+            final byte[] settings = new byte[decoded.remaining()];
+            decoded.get(settings);
+            if (settings.length % Http2Channel.SETTING_LENGTH != 0) {
+                return null;
+            }
+            return settings;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -29,16 +29,21 @@ import org.xnio.XnioExecutor;
 import org.xnio.XnioWorker;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * The default in memory session manager. This basically just stores sessions in an in memory hash map.
  * <p/>
+ * By default every session has its own expiry timer, which is cancelled and rescheduled whenever the session is used.
+ * If timer wheel expiry is enabled sessions are instead tracked by a {@link SessionTimerWheel}, which is swept once
+ * a second. Using a session then only records the time, which is much cheaper when there are a large number of sessions.
  *
  * @author Stuart Douglas
  */
@@ -61,8 +66,26 @@ public class InMemorySessionManager implements SessionManager {
 
     private final String deploymentName;
 
+    /**
+     * The timer wheel used to expire sessions, or null if each session has its own timer
+     */
+    private final SessionTimerWheel<SessionImpl> expiryWheel;
+
+    private final ExpirySweeper expirySweeper;
+
     public InMemorySessionManager(String deploymentName, int maxSessions) {
+        this(deploymentName, maxSessions, false);
+    }
+
+    /**
+     * @param deploymentName   The deployment name
+     * @param maxSessions      The maximum number of sessions, or -1 for no limit
+     * @param timerWheelExpiry <code>true</code> if sessions should be expired using a timer wheel rather than a timer per session
+     */
+    public InMemorySessionManager(String deploymentName, int maxSessions, boolean timerWheelExpiry) {
         this.deploymentName = deploymentName;
+        this.expiryWheel = timerWheelExpiry ? new SessionTimerWheel<SessionImpl>(ExpirySweeper.TICK, System.currentTimeMillis()) : null;
+        this.expirySweeper = timerWheelExpiry ? new ExpirySweeper(expiryWheel) : null;
         this.sessions = new ConcurrentHashMap<String, InMemorySession>();
         this.maxSize = maxSessions;
         ConcurrentDirectDeque<String> evictionQueue = null;
@@ -92,6 +115,9 @@ public class InMemorySessionManager implements SessionManager {
 
     @Override
     public void stop() {
+        if (expirySweeper != null) {
+            expirySweeper.stop();
+        }
         for (Map.Entry<String, InMemorySession> session : sessions.entrySet()) {
             session.getValue().session.destroy();
             sessionListeners.sessionDestroyed(session.getValue().session, null, SessionListener.SessionDestroyedReason.UNDEPLOY);
@@ -129,6 +155,11 @@ public class InMemorySessionManager implements SessionManager {
         sessions.put(sessionID, im);
         config.setSessionId(serverExchange, session.getId());
         im.lastAccessed = System.currentTimeMillis();
+        if (expiryWheel != null) {
+            session.lastUsed = im.lastAccessed;
+            expiryWheel.schedule(session);
+            expirySweeper.start(serverExchange.getIoThread(), serverExchange.getConnection().getWorker());
+        }
         session.bumpTimeout();
         sessionListeners.sessionCreated(session, serverExchange);
         return session;
@@ -204,7 +235,7 @@ public class InMemorySessionManager implements SessionManager {
     /**
      * session implementation for the in memory session manager
      */
-    private static class SessionImpl implements Session {
+    private static class SessionImpl extends SessionTimerWheel.Entry implements Session {
 
         private final InMemorySessionManager sessionManager;
 
@@ -219,6 +250,11 @@ public class InMemorySessionManager implements SessionManager {
 
         XnioExecutor.Key cancelKey;
 
+        /**
+         * The last time the session was used, only maintained when the timer wheel is in use
+         */
+        volatile long lastUsed;
+
         Runnable cancelTask = new Runnable() {
             @Override
             public void run() {
@@ -240,7 +276,17 @@ public class InMemorySessionManager implements SessionManager {
             this.evictionToken = evictionToken;
         }
 
-        synchronized void bumpTimeout() {
+        void bumpTimeout() {
+            if (sessionManager.expiryWheel != null) {
+                //the wheel reads this when the session comes up for expiry
+                lastUsed = System.currentTimeMillis();
+                bumpEvictionToken();
+            } else {
+                rescheduleTimeout();
+            }
+        }
+
+        private synchronized void rescheduleTimeout() {
             if (cancelKey != null) {
                 if (!cancelKey.remove()) {
                     return;
@@ -249,6 +295,10 @@ public class InMemorySessionManager implements SessionManager {
             if (getMaxInactiveInterval() > 0) {
                 cancelKey = executor.executeAfter(cancelTask, getMaxInactiveInterval(), TimeUnit.SECONDS);
             }
+            bumpEvictionToken();
+        }
+
+        private void bumpEvictionToken() {
             if (evictionToken != null) {
                 Object token = evictionToken;
                 if (evictionTokenUpdater.compareAndSet(this, token, null)) {
@@ -259,6 +309,15 @@ public class InMemorySessionManager implements SessionManager {
         }
 
 
+        @Override
+        protected long getExpiryTime() {
+            final InMemorySession sess = sessionManager.sessions.get(sessionId);
+            if (sess == null || sess.maxInactiveInterval <= 0) {
+                return -1;
+            }
+            return lastUsed + sess.maxInactiveInterval * 1000L;
+        }
+
         @Override
         public String getId() {
             return sessionId;
@@ -269,6 +328,9 @@ public class InMemorySessionManager implements SessionManager {
             final InMemorySession sess = sessionManager.sessions.get(sessionId);
             if (sess != null) {
                 sess.lastAccessed = System.currentTimeMillis();
+                if (sessionManager.expiryWheel != null) {
+                    lastUsed = sess.lastAccessed;
+                }
             }
         }
 
@@ -298,6 +360,10 @@ public class InMemorySessionManager implements SessionManager {
             }
             sess.maxInactiveInterval = interval;
             bumpTimeout();
+            if (sessionManager.expiryWheel != null) {
+                //the session may now expire earlier than the slot it is in
+                sessionManager.expiryWheel.schedule(this);
+            }
         }
 
         @Override
@@ -366,6 +432,9 @@ public class InMemorySessionManager implements SessionManager {
             if (cancelKey != null) {
                 cancelKey.remove();
             }
+            if (sessionManager.expiryWheel != null) {
+                sessionManager.expiryWheel.cancel(this);
+            }
             InMemorySession sess = sessionManager.sessions.get(sessionId);
             if (sess == null) {
                 if (reason == SessionListener.SessionDestroyedReason.INVALIDATED) {
@@ -402,11 +471,89 @@ public class InMemorySessionManager implements SessionManager {
             if (cancelKey != null) {
                 cancelKey.remove();
             }
+            if (sessionManager.expiryWheel != null) {
+                sessionManager.expiryWheel.cancel(this);
+            }
             cancelTask = null;
         }
 
     }
 
+    /**
+     * Periodically advances the expiry wheel, and invalidates the sessions that have expired. The timer runs on
+     * the IO thread of the first session that is created, and the sweep itself runs in the worker.
+     */
+    private static final class ExpirySweeper implements Runnable {
+
+        static final long TICK = 1000;
+
+        private static final AtomicIntegerFieldUpdater<ExpirySweeper> startedUpdater = AtomicIntegerFieldUpdater.newUpdater(ExpirySweeper.class, "started");
+
+        private final SessionTimerWheel<SessionImpl> expiryWheel;
+
+        @SuppressWarnings("unused")
+        private volatile int started;
+
+        private volatile XnioExecutor executor;
+        private volatile XnioWorker worker;
+        private volatile XnioExecutor.Key timerKey;
+
+        private final Runnable timerTask = new Runnable() {
+            @Override
+            public void run() {
+                worker.execute(ExpirySweeper.this);
+            }
+        };
+
+        private ExpirySweeper(final SessionTimerWheel<SessionImpl> expiryWheel) {
+            this.expiryWheel = expiryWheel;
+        }
+
+        void start(final XnioExecutor executor, final XnioWorker worker) {
+            if (started == 0 && startedUpdater.compareAndSet(this, 0, 1)) {
+                this.executor = executor;
+                this.worker = worker;
+                timerKey = executor.executeAfter(timerTask, TICK, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void stop() {
+            if (startedUpdater.compareAndSet(this, 1, 0)) {
+                final XnioExecutor.Key key = timerKey;
+                if (key != null) {
+                    key.remove();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            if (started == 0) {
+                return;
+            }
+            try {
+                final List<SessionImpl> expired = expiryWheel.advance(System.currentTimeMillis());
+                for (SessionImpl session : expired) {
+                    //the session may have been used since the wheel looked at it
+                    final long expiry = session.getExpiryTime();
+                    if (expiry < 0) {
+                        continue;
+                    } else if (expiry > System.currentTimeMillis()) {
+                        expiryWheel.schedule(session);
+                    } else {
+                        session.invalidate(null, SessionListener.SessionDestroyedReason.TIMEOUT);
+                    }
+                }
+            } catch (Throwable t) {
+                UndertowLogger.REQUEST_LOGGER.failedToExpireSessions(t);
+            } finally {
+                if (started != 0) {
+                    timerKey = executor.executeAfter(timerTask, TICK, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
     /**
      * class that holds the real session data
      */
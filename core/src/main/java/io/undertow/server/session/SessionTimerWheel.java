@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hierarchical timing wheel used to expire sessions.
+ * <p/>
+ * Rather than scheduling a timer for every session, and cancelling and rescheduling it whenever the session is used,
+ * entries are placed into a wheel slot based on their expiry time and only looked at again when that slot comes up.
+ * At that point the real expiry time is read from the entry. If the entry has been used in the meantime it is simply
+ * placed into a later slot, so using a session only has to record the time it was used.
+ * <p/>
+ * There are four levels of 64 slots each. The first level has one slot per tick, the second one slot per 64 ticks
+ * and so on, so with a one second tick the wheel covers about 194 days. Entries further out than that are placed in
+ * the last slot and re-examined when it comes up. When a slot in a higher level comes up its entries are moved down
+ * into the lower levels.
+ * <p/>
+ * Adding entries is lock free, each slot is a stack that is updated with compare and set. {@link #advance(long)}
+ * must be called regularly, and returns the entries that have expired as a batch. Entries are never returned before
+ * their expiry time, but may be returned up to a tick late, or in rare cases when an entry is added at the same time
+ * as its slot is being processed, up to 64 ticks late.
+ *
+ * @author Stuart Douglas
+ */
+public class SessionTimerWheel<T extends SessionTimerWheel.Entry> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+    private final long tickMillis;
+    private final AtomicReferenceArray<Node<T>>[] levels;
+
+    /**
+     * The tick that is currently being processed, or was last processed. Only written by the thread that is
+     * advancing the wheel.
+     */
+    private volatile long currentTick;
+
+    @SuppressWarnings("unused")
+    private volatile int advancing;
+    private static final AtomicIntegerFieldUpdater<SessionTimerWheel> advancingUpdater = AtomicIntegerFieldUpdater.newUpdater(SessionTimerWheel.class, "advancing");
+
+    /**
+     * @param tickMillis The length of a tick in milliseconds
+     * @param now        The current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public SessionTimerWheel(final long tickMillis, final long now) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be at least 1ms");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = now / tickMillis;
+        this.levels = new AtomicReferenceArray[LEVELS];
+        for (int i = 0; i < LEVELS; ++i) {
+            levels[i] = new AtomicReferenceArray<Node<T>>(SLOTS);
+        }
+    }
+
+    /**
+     * Adds an entry to the wheel, based on its current expiry time. This must be called when the entry is created,
+     * and again if its expiry time is moved earlier. It does not need to be called if the expiry time moves later.
+     * Entries with an expiry time of -1 are not added.
+     *
+     * @param entry The entry
+     */
+    public void schedule(final T entry) {
+        final long expiry = entry.getExpiryTime();
+        if (expiry < 0) {
+            entry.node = null;
+            return;
+        }
+        final Node<T> node = new Node<T>(entry, expiry);
+        //any node that was previously added for this entry is now stale, and will be dropped when it comes up
+        entry.node = node;
+        place(node);
+    }
+
+    /**
+     * Removes an entry from the wheel. The memory used by the entry is released when its slot comes up.
+     *
+     * @param entry The entry
+     */
+    public void cancel(final T entry) {
+        entry.node = null;
+    }
+
+    /**
+     * Processes all ticks up to the given time.
+     *
+     * @param now The current time in milliseconds
+     * @return The entries that have expired. If another thread is advancing the wheel at the same time this is empty.
+     */
+    public List<T> advance(final long now) {
+        final List<T> expired = new ArrayList<T>();
+        if (!advancingUpdater.compareAndSet(this, 0, 1)) {
+            return expired;
+        }
+        try {
+            final long target = now / tickMillis;
+            long tick = currentTick;
+            while (tick < target) {
+                ++tick;
+                currentTick = tick;
+                //move entries down from the higher levels first, as some of them may belong in this tick
+                for (int level = LEVELS - 1; level > 0; --level) {
+                    if ((tick & ((1L << (BITS * level)) - 1)) == 0) {
+                        process(levels[level], (int) (tick >>> (BITS * level)) & MASK, now, expired);
+                    }
+                }
+                process(levels[0], (int) tick & MASK, now, expired);
+            }
+        } finally {
+            advancing = 0;
+        }
+        return expired;
+    }
+
+    private void process(final AtomicReferenceArray<Node<T>> level, final int slot, final long now, final List<T> expired) {
+        Node<T> node = level.getAndSet(slot, null);
+        while (node != null) {
+            final Node<T> next = node.next;
+            final T entry = node.entry;
+            if (entry.node == node) {
+                final long expiry = entry.getExpiryTime();
+                if (expiry < 0) {
+                    entry.node = null;
+                } else if (expiry <= now) {
+                    entry.node = null;
+                    expired.add(entry);
+                } else {
+                    //either the entry was used since it was added, or it is moving to a lower level
+                    node.expiry = expiry;
+                    place(node);
+                }
+            }
+            node = next;
+        }
+    }
+
+    private void place(final Node<T> node) {
+        final long current = currentTick;
+        long tick = (node.expiry + tickMillis - 1) / tickMillis;
+        long delta = tick - current;
+        if (delta < 0) {
+            tick = current;
+            delta = 0;
+        } else if (delta > MAX_DELTA) {
+            tick = current + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            ++level;
+        }
+        final AtomicReferenceArray<Node<T>> slots = levels[level];
+        final int slot = (int) (tick >>> (BITS * level)) & MASK;
+        Node<T> head;
+        do {
+            head = slots.get(slot);
+            node.next = head;
+        } while (!slots.compareAndSet(slot, head, node));
+    }
+
+    /**
+     * An entry that can be added to the wheel.
+     */
+    public abstract static class Entry {
+
+        /**
+         * The node that currently represents this entry in the wheel
+         */
+        volatile Node<?> node;
+
+        /**
+         * @return The time this entry expires in milliseconds, or -1 if it does not expire
+         */
+        protected abstract long getExpiryTime();
+    }
+
+    static final class Node<T extends Entry> {
+        final T entry;
+        long expiry;
+        Node<T> next;
+
+        Node(final T entry, final long expiry) {
+            this.entry = entry;
+            this.expiry = expiry;
+        }
+    }
+}
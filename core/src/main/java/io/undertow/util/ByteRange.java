@@ -0,0 +1,297 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Representation of a byte range request, as specified by the <code>Range</code> header.
+ * <p/>
+ * Ranges are stored as they appear in the header. A start of -1 indicates a suffix range
+ * (e.g. <code>bytes=-500</code>) and an end of -1 indicates an open ended range
+ * (e.g. <code>bytes=500-</code>).
+ * <p/>
+ * As every range is a separate part of the response a header with a large number of ranges is ignored, and ranges
+ * that overlap or are adjacent are coalesced, so a client cannot make the server send the same data many times over.
+ *
+ * @author Stuart Douglas
+ */
+public class ByteRange {
+
+    /**
+     * The maximum number of ranges that are accepted in a single header, if there are more the header is ignored
+     */
+    private static final int MAX_RANGES = 100;
+
+    private static final Comparator<Range> START_ORDER = new Comparator<Range>() {
+        @Override
+        public int compare(final Range o1, final Range o2) {
+            return o1.getStart() < o2.getStart() ? -1 : (o1.getStart() == o2.getStart() ? 0 : 1);
+        }
+    };
+
+    private final List<Range> ranges;
+
+    public ByteRange(final List<Range> ranges) {
+        this.ranges = ranges;
+    }
+
+    public int getRanges() {
+        return ranges.size();
+    }
+
+    /**
+     * Gets the start of the specified range segment, or -1 if this is a suffix range segment
+     *
+     * @param range The range segment to get
+     * @return The range start
+     */
+    public long getStart(int range) {
+        return ranges.get(range).getStart();
+    }
+
+    /**
+     * Gets the end of the specified range segment, or the number of bytes if this is a suffix range segment
+     *
+     * @param range The range segment to get
+     * @return The range end
+     */
+    public long getEnd(int range) {
+        return ranges.get(range).getEnd();
+    }
+
+    /**
+     * Attempts to parse a range request. If the range request is invalid, or contains more ranges than are
+     * allowed, it will just return null so that it may be ignored.
+     *
+     * @param rangeHeader The range spec
+     * @return A range spec, or null if the range header could not be parsed
+     */
+    public static ByteRange parse(final String rangeHeader) {
+        if (rangeHeader == null || rangeHeader.length() < 7) {
+            return null;
+        }
+        if (!rangeHeader.startsWith("bytes=")) {
+            return null;
+        }
+        final List<Range> ranges = new ArrayList<Range>();
+        final String[] parts = rangeHeader.substring(6).split(",");
+        for (String part : parts) {
+            final String spec = part.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            if (ranges.size() == MAX_RANGES) {
+                return null;
+            }
+            final int dash = spec.indexOf('-');
+            if (dash == -1 || dash != spec.lastIndexOf('-')) {
+                return null;
+            }
+            try {
+                if (dash == 0) {
+                    //suffix range
+                    final long suffix = Long.parseLong(spec.substring(1).trim());
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    ranges.add(new Range(-1, suffix));
+                } else {
+                    final long start = Long.parseLong(spec.substring(0, dash).trim());
+                    final String endString = spec.substring(dash + 1).trim();
+                    if (endString.isEmpty()) {
+                        ranges.add(new Range(start, -1));
+                    } else {
+                        final long end = Long.parseLong(endString);
+                        if (start < 0 || end < start) {
+                            return null;
+                        }
+                        ranges.add(new Range(start, end));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        return new ByteRange(ranges);
+    }
+
+    /**
+     * Returns a representation of the range result. If this returns null then a 200 response should be sent instead
+     * of a partial response.
+     *
+     * @param resourceContentLength The length of the resource
+     * @param ifRange               The If-Range header, or null
+     * @param lastModified          The last modified date of the resource, or null
+     * @param eTag                  The ETag of the resource, or null
+     * @return The range response result, or null if the full resource should be sent
+     */
+    public RangeResponseResult getResponseResult(final long resourceContentLength, final String ifRange, final Date lastModified, final ETag eTag) {
+        if (ifRange != null && !ifRangeMatches(ifRange, lastModified, eTag)) {
+            return null;
+        }
+        List<Range> satisfiable = new ArrayList<Range>(ranges.size());
+        for (Range range : ranges) {
+            long start = range.getStart();
+            long end = range.getEnd();
+            if (start == -1) {
+                //suffix range
+                if (end == 0 || resourceContentLength == 0) {
+                    continue;
+                }
+                start = Math.max(0, resourceContentLength - end);
+                end = resourceContentLength - 1;
+            } else if (start >= resourceContentLength) {
+                continue;
+            } else if (end == -1 || end >= resourceContentLength) {
+                end = resourceContentLength - 1;
+            }
+            satisfiable.add(new Range(start, end));
+        }
+        if (satisfiable.isEmpty()) {
+            return new RangeResponseResult(StatusCodes.REQUEST_RANGE_NOT_SATISFIABLE, new long[0], new long[0], resourceContentLength);
+        }
+        if (satisfiable.size() > 1) {
+            satisfiable = coalesce(satisfiable);
+        }
+        final long[] starts = new long[satisfiable.size()];
+        final long[] ends = new long[satisfiable.size()];
+        for (int i = 0; i < starts.length; ++i) {
+            starts[i] = satisfiable.get(i).getStart();
+            ends[i] = satisfiable.get(i).getEnd();
+        }
+        return new RangeResponseResult(StatusCodes.PARTIAL_CONTENT, starts, ends, resourceContentLength);
+    }
+
+    /**
+     * Merges ranges that overlap or are adjacent. If no ranges are merged the original order is kept, otherwise the
+     * result is in order of the start of each range.
+     */
+    private static List<Range> coalesce(final List<Range> ranges) {
+        final List<Range> sorted = new ArrayList<Range>(ranges);
+        Collections.sort(sorted, START_ORDER);
+        final List<Range> result = new ArrayList<Range>(sorted.size());
+        Range current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); ++i) {
+            final Range range = sorted.get(i);
+            if (range.getStart() <= current.getEnd() + 1) {
+                current = new Range(current.getStart(), Math.max(current.getEnd(), range.getEnd()));
+            } else {
+                result.add(current);
+                current = range;
+            }
+        }
+        result.add(current);
+        return result.size() == ranges.size() ? ranges : result;
+    }
+
+    private static boolean ifRangeMatches(final String ifRange, final Date lastModified, final ETag eTag) {
+        final String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            //If-Range requires a strong comparison
+            if (eTag == null || eTag.isWeak()) {
+                return false;
+            }
+            final List<ETag> tags = ETagUtils.parseETagList(value);
+            return tags.size() == 1 && eTag.equals(tags.get(0));
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        final Date date = DateUtils.parseDate(value);
+        //HTTP dates only have second precision
+        return date != null && date.getTime() / 1000 == lastModified.getTime() / 1000;
+    }
+
+    public static class Range {
+        private final long start, end;
+
+        public Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * The resolved result of applying a range request to a resource of a known length. All range segments
+     * are inclusive and guaranteed to lie within the resource.
+     */
+    public static class RangeResponseResult {
+        private final int statusCode;
+        private final long[] starts;
+        private final long[] ends;
+        private final long resourceContentLength;
+
+        public RangeResponseResult(int statusCode, long[] starts, long[] ends, long resourceContentLength) {
+            this.statusCode = statusCode;
+            this.starts = starts;
+            this.ends = ends;
+            this.resourceContentLength = resourceContentLength;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public int getRanges() {
+            return starts.length;
+        }
+
+        public long getStart(int range) {
+            return starts[range];
+        }
+
+        public long getEnd(int range) {
+            return ends[range];
+        }
+
+        public long getResourceContentLength() {
+            return resourceContentLength;
+        }
+
+        /**
+         * @return The Content-Range header value for the given range segment
+         */
+        public String getContentRange(int range) {
+            return "bytes " + starts[range] + "-" + ends[range] + "/" + resourceContentLength;
+        }
+
+        /**
+         * @return The Content-Range header value to send with a 416 response
+         */
+        public String getUnsatisfiedContentRange() {
+            return "bytes */" + resourceContentLength;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import io.undertow.annotationprocessor.TokenMatcherConfig;
+
+/**
+ * The cookie names that are known to {@link Cookies} when parsing request cookies.
+ *
+ * @author Stuart Douglas
+ */
+@TokenMatcherConfig(tokens = {
+        "JSESSIONID",
+        "JSESSIONIDSSO",
+        Cookies.VERSION,
+        Cookies.PATH,
+        Cookies.DOMAIN
+})
+public abstract class CookieNameMatcher extends TokenMatcher {
+
+    public static final CookieNameMatcher INSTANCE = instance(CookieNameMatcher.class);
+
+    protected CookieNameMatcher(final String[] tokens) {
+        super(tokens);
+    }
+}
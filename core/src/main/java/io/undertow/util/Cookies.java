@@ -170,7 +170,7 @@ public class Cookies {
                 case 1: {
                     //extract key
                     if (c == '=') {
-                        name = cookie.substring(start, i);
+                        name = CookieNameMatcher.INSTANCE.substring(cookie, start, i);
                         start = i + 1;
                         state = 2;
                     } else if (c == ';') {
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.Date;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.xnio.XnioIoThread;
+
+/**
+ * The value of the <code>Date</code> header for responses that are being sent now.
+ * <p/>
+ * The value is formatted once a second by a timer that runs on an IO thread, and is shared by all connectors. It is
+ * kept both as a header value and as a complete encoded header line, so it can be written out without any formatting
+ * or encoding on the request path.
+ * <p/>
+ * The timer stops when no responses have been sent for a whole second, and is started again by the next response,
+ * so an idle server does not keep waking up.
+ *
+ * @author Stuart Douglas
+ */
+public final class DateHeaderCache {
+
+    private static final long UPDATE_INTERVAL = 1000;
+
+    private static final AtomicBoolean timerRunning = new AtomicBoolean();
+
+    /**
+     * The current value, or <code>null</code> if the timer is not running and the value may be out of date
+     */
+    private static volatile Entry current;
+
+    /**
+     * If the value has been used since the timer last ran
+     */
+    private static volatile boolean used;
+
+    private DateHeaderCache() {
+    }
+
+    /**
+     * @param ioThread The IO thread of the connection, used to run the timer if it is not already running
+     * @return The current date, formatted as per RFC 1123
+     */
+    public static HttpString getDateValue(final XnioIoThread ioThread) {
+        return getEntry(ioThread).value;
+    }
+
+    /**
+     * @param ioThread The IO thread of the connection, used to run the timer if it is not already running
+     * @return The complete <code>Date</code> header line for the current date, including the trailing CRLF
+     */
+    public static byte[] getDateLine(final XnioIoThread ioThread) {
+        return getEntry(ioThread).line;
+    }
+
+    private static Entry getEntry(final XnioIoThread ioThread) {
+        if (!used) {
+            used = true;
+        }
+        Entry entry = current;
+        if (entry == null) {
+            //the timer is not running, so the date is formatted here and the timer started
+            final long now = System.currentTimeMillis();
+            current = entry = new Entry(now);
+            if (timerRunning.compareAndSet(false, true)) {
+                schedule(ioThread, now);
+            }
+        }
+        return entry;
+    }
+
+    private static void schedule(final XnioIoThread ioThread, final long now) {
+        try {
+            //run just after the start of the next second, so the value changes at the same time as the clock
+            ioThread.executeAfter(new UpdateTask(ioThread), UPDATE_INTERVAL - now % UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //the IO thread is shutting down, the timer will be started again on another thread when needed
+            timerRunning.set(false);
+            current = null;
+        }
+    }
+
+    private static final class UpdateTask implements Runnable {
+
+        private final XnioIoThread ioThread;
+
+        UpdateTask(final XnioIoThread ioThread) {
+            this.ioThread = ioThread;
+        }
+
+        @Override
+        public void run() {
+            if (!used) {
+                timerRunning.set(false);
+                current = null;
+                return;
+            }
+            used = false;
+            final long now = System.currentTimeMillis();
+            current = new Entry(now);
+            schedule(ioThread, now);
+        }
+    }
+
+    private static final class Entry {
+
+        final HttpString value;
+        final byte[] line;
+
+        Entry(final long time) {
+            final String date = DateUtils.toDateString(new Date(time));
+            this.value = new HttpString(date);
+            final int nameLength = Headers.DATE.length();
+            final byte[] line = new byte[nameLength + date.length() + 4];
+            Headers.DATE.copyTo(line, 0);
+            line[nameLength] = ':';
+            line[nameLength + 1] = ' ';
+            value.copyTo(line, nameLength + 2);
+            line[line.length - 2] = '\r';
+            line[line.length - 1] = '\n';
+            this.line = line;
+        }
+    }
+}
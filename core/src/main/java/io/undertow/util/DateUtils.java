@@ -40,9 +40,6 @@ public class DateUtils {
 
     private static final String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
 
-    private static volatile String cachedDateString;
-    private static volatile long nextUpdateTime = -1;
-
     /**
      * Thread local cache of this date format. This is technically a small memory leak, however
      * in practice it is fine, as it will only be used by server threads.
@@ -227,16 +224,7 @@ public class DateUtils {
     public static void addDateHeaderIfRequired(HttpServerExchange exchange) {
         HeaderMap responseHeaders = exchange.getResponseHeaders();
         if(exchange.getConnection().getUndertowOptions().get(UndertowOptions.ALWAYS_SET_DATE, true) && !responseHeaders.contains(Headers.DATE)) {
-            long time = System.nanoTime();
-            if(time < nextUpdateTime) {
-                responseHeaders.put(Headers.DATE, cachedDateString);
-            } else {
-                long realTime = System.currentTimeMillis();
-                String dateString = DateUtils.toDateString(new Date(realTime));
-                cachedDateString = dateString;
-                nextUpdateTime = time + 1000000000;
-                responseHeaders.put(Headers.DATE, dateString);
-            }
+            responseHeaders.put(Headers.DATE, DateHeaderCache.getDateValue(exchange.getIoThread()));
         }
     }
 
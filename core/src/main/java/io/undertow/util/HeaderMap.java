@@ -704,6 +704,46 @@ public final class HeaderMap implements Iterable<HeaderValues> {
         return this;
     }
 
+    /**
+     * Adds a header value that has already been encoded. If it ends up as the only value of the header it is written
+     * out as is.
+     */
+    public HeaderMap add(HttpString headerName, HttpString headerValue) {
+        if (headerName == null) {
+            throw new IllegalArgumentException("headerName is null");
+        }
+        if (headerValue == null) {
+            return this;
+        }
+        final HeaderValues entry = getOrCreateEntry(headerName);
+        entry.addLast(headerValue.toString());
+        entry.encodedValue = headerValue;
+        return this;
+    }
+
+    /**
+     * Adds a header value that is held as a range of latin-1 bytes, and is only converted to a string when it is first
+     * read. The array must not be modified afterwards, however it may be shared by several values.
+     *
+     * @param headerName The header name
+     * @param bytes      The array holding the value
+     * @param offset     The start of the value
+     * @param length     The length of the value
+     */
+    @SuppressWarnings("deprecation")
+    public HeaderMap addLazy(HttpString headerName, byte[] bytes, int offset, int length) {
+        if (headerName == null) {
+            throw new IllegalArgumentException("headerName is null");
+        }
+        final HeaderValues entry = getOrCreateEntry(headerName);
+        if (entry.isEmpty()) {
+            entry.setLazyValue(bytes, offset, length);
+        } else {
+            entry.addLast(new String(bytes, 0, offset, length));
+        }
+        return this;
+    }
+
     public HeaderMap add(HttpString headerName, long headerValue) {
         add(headerName, Long.toString(headerValue));
         return this;
@@ -737,6 +777,25 @@ public final class HeaderMap implements Iterable<HeaderValues> {
         return this;
     }
 
+    /**
+     * Sets a header to a value that has already been encoded, so it can be written out without being converted from
+     * a string again. This is intended for values that are used for many responses, such as constant content types.
+     */
+    public HeaderMap put(HttpString headerName, HttpString headerValue) {
+        if (headerName == null) {
+            throw new IllegalArgumentException("headerName is null");
+        }
+        if (headerValue == null) {
+            remove(headerName);
+            return this;
+        }
+        final HeaderValues entry = getOrCreateEntry(headerName);
+        entry.clear();
+        entry.add(headerValue.toString());
+        entry.encodedValue = headerValue;
+        return this;
+    }
+
     public HeaderMap put(HttpString headerName, long headerValue) {
         if (headerName == null) {
             throw new IllegalArgumentException("headerName is null");
@@ -796,6 +855,9 @@ public final class HeaderMap implements Iterable<HeaderValues> {
         final Object v = headerValues.value;
         if (v instanceof String) {
             return true;
+        } else if (v == null) {
+            //the value has not been converted to a string yet
+            return headerValues.size() != 0;
         }
         final String[] list = (String[]) v;
         for (int i = 0; i < list.length; i++) {
@@ -814,6 +876,9 @@ public final class HeaderMap implements Iterable<HeaderValues> {
         final Object v = headerValues.value;
         if (v instanceof String) {
             return true;
+        } else if (v == null) {
+            //the value has not been converted to a string yet
+            return headerValues.size() != 0;
         }
         final String[] list = (String[]) v;
         for (int i = 0; i < list.length; i++) {
@@ -39,6 +39,17 @@ public final class HeaderValues extends AbstractCollection<String> implements De
     final HttpString key;
     byte head, size;
     Object value;
+    /**
+     * The value as it was added through {@link HeaderMap#put(HttpString, HttpString)}. It is only valid while it is
+     * the single value of this list, which is checked on access so the list operations do not need to clear it.
+     */
+    HttpString encodedValue;
+    /**
+     * A value that has been parsed but not yet converted to a string, see {@link #setLazyValue(byte[], int, int)}
+     */
+    private byte[] lazyBytes;
+    private int lazyOffset;
+    private int lazyLength;
 
     HeaderValues(final HttpString key) {
         this.key = key;
@@ -48,6 +59,50 @@ public final class HeaderValues extends AbstractCollection<String> implements De
         return key;
     }
 
+    /**
+     * Sets the only value of this list to a range of bytes that is only converted to a string when it is first
+     * accessed. Most request headers are never read by the application, so this avoids creating a string for them.
+     * <p/>
+     * The bytes must not be modified once they have been passed to this method.
+     *
+     * @param bytes  The array holding the value
+     * @param offset The start of the value
+     * @param length The length of the value
+     */
+    void setLazyValue(final byte[] bytes, final int offset, final int length) {
+        assert size == 0;
+        this.value = null;
+        this.lazyBytes = bytes;
+        this.lazyOffset = offset;
+        this.lazyLength = length;
+        this.head = 0;
+        this.size = 1;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void resolveLazyValue() {
+        final byte[] lazyBytes = this.lazyBytes;
+        if (lazyBytes != null) {
+            this.value = new String(lazyBytes, 0, lazyOffset, lazyLength);
+            this.lazyBytes = null;
+        }
+    }
+
+    /**
+     * Returns the value at the given index in its encoded form, if it was added as a {@link HttpString}. This allows
+     * the value to be copied out as bytes rather than encoded a character at a time.
+     *
+     * @param idx The index of the value
+     * @return The encoded value, or <code>null</code> if it is not available
+     */
+    public HttpString getEncodedValue(int idx) {
+        final HttpString encodedValue = this.encodedValue;
+        if (encodedValue == null || idx != 0 || size != 1 || get(0) != encodedValue.toString()) {
+            return null;
+        }
+        return encodedValue;
+    }
+
     public int size() {
         return size;
     }
@@ -63,6 +118,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
     }
 
     private void clearInternal(byte size) {
+        lazyBytes = null;
         final byte head = this.head;
         final Object value = this.value;
         if (value instanceof String[]) {
@@ -199,6 +255,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
     public boolean offerFirst(final String headerValue) {
         int size = this.size;
         if (headerValue == null || size == Byte.MAX_VALUE) return false;
+        resolveLazyValue();
         final Object value = this.value;
         if (value instanceof String[]) {
             final String[] strings = (String[]) value;
@@ -234,6 +291,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
     public boolean offerLast(final String headerValue) {
         int size = this.size;
         if (headerValue == null || size == Byte.MAX_VALUE) return false;
+        resolveLazyValue();
         final Object value = this.value;
         if (value instanceof String[]) {
             offerLastMultiValue(headerValue, size, (String[]) value);
@@ -342,6 +400,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
         final byte size = this.size;
         if (size == 0) return null;
 
+        resolveLazyValue();
         final Object value = this.value;
         if (value instanceof String) {
             this.size = 0;
@@ -365,6 +424,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
         final byte size = this.size;
         if (size == 0) return null;
 
+        resolveLazyValue();
         final Object value = this.value;
         if (value instanceof String) {
             this.size = 0;
@@ -425,6 +485,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
         if (idx > size) {
             throw new IndexOutOfBoundsException();
         }
+        resolveLazyValue();
         Object value = this.value;
         assert value != null;
         if (value instanceof String) {
@@ -437,6 +498,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
 
     public int indexOf(final Object o) {
         if (o == null || size == 0) return -1;
+        resolveLazyValue();
         if (value instanceof String[]) {
             final String[] list = (String[]) value;
             final int len = list.length;
@@ -455,6 +517,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
 
     public int lastIndexOf(final Object o) {
         if (o == null || size == 0) return -1;
+        resolveLazyValue();
         if (value instanceof String[]) {
             final String[] list = (String[]) value;
             final int len = list.length;
@@ -477,6 +540,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
         final byte size = this.size;
         if (index < 0 || index >= size) throw new IndexOutOfBoundsException();
 
+        resolveLazyValue();
         final Object value = this.value;
         if (size == 1 && value instanceof String) try {
             return (String) value;
@@ -516,6 +580,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
     public String[] toArray() {
         int size = this.size;
         if (size == 0) { return NO_STRINGS; }
+        resolveLazyValue();
         final Object v = this.value;
         if (v instanceof String) return new String[] { (String) v };
         final String[] list = (String[]) v;
@@ -536,6 +601,7 @@ public final class HeaderValues extends AbstractCollection<String> implements De
         if (size == 0) return a;
         final int inLen = a.length;
         final Object[] target = inLen < size ? Arrays.copyOfRange(a, inLen, inLen + size) : a;
+        resolveLazyValue();
         final Object v = this.value;
         if (v instanceof String) {
             target[0] = (T)v;
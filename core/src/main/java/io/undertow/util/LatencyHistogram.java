@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ * <p/>
+ * Values are recorded into log-linear buckets: every power of two range is split into 32 linear sub buckets, so
+ * the value reported for a bucket is within about 3% of the recorded values. Values up to 2^36 nanoseconds (about
+ * 68 seconds) are bucketed, larger values are counted in the last bucket, although the minimum, maximum and total
+ * are always exact.
+ * <p/>
+ * Recording does not allocate and does not lock. The buckets are striped by thread id, so threads recording at
+ * the same time generally do not contend. Snapshots are taken without blocking writers, which means that they are
+ * not an atomic view of the histogram, however a value is never lost: it is either included in a
+ * {@link #snapshotThenReset()} or retained for the next one.
+ *
+ * @author Stuart Douglas
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 36;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Slots after the buckets in each stripe
+     */
+    private static final int COUNT = BUCKETS;
+    private static final int TOTAL = BUCKETS + 1;
+    private static final int MIN = BUCKETS + 2;
+    private static final int MAX = BUCKETS + 3;
+    private static final int STRIPE_SIZE = BUCKETS + 4;
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < 4 && stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray[] stripes;
+
+    public LatencyHistogram() {
+        stripes = new AtomicLongArray[STRIPES];
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = newStripe();
+        }
+    }
+
+    private static AtomicLongArray newStripe() {
+        final AtomicLongArray stripe = new AtomicLongArray(STRIPE_SIZE);
+        stripe.set(MIN, Long.MAX_VALUE);
+        return stripe;
+    }
+
+    /**
+     * Records a value
+     *
+     * @param nanos The latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        stripe.getAndIncrement(bucketIndex(nanos));
+        stripe.getAndIncrement(COUNT);
+        stripe.getAndAdd(TOTAL, nanos);
+        long current;
+        while (nanos > (current = stripe.get(MAX))) {
+            if (stripe.compareAndSet(MAX, current, nanos)) {
+                break;
+            }
+        }
+        while (nanos < (current = stripe.get(MIN))) {
+            if (stripe.compareAndSet(MIN, current, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return A snapshot of the histogram
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Takes a snapshot of the histogram and resets it
+     *
+     * @return A snapshot of the values that were recorded since the last reset
+     */
+    public Snapshot snapshotThenReset() {
+        return snapshot(true);
+    }
+
+    public void reset() {
+        snapshot(true);
+    }
+
+    private Snapshot snapshot(final boolean reset) {
+        final long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; ++i) {
+                buckets[i] += reset ? stripe.getAndSet(i, 0) : stripe.get(i);
+            }
+            count += reset ? stripe.getAndSet(COUNT, 0) : stripe.get(COUNT);
+            total += reset ? stripe.getAndSet(TOTAL, 0) : stripe.get(TOTAL);
+            min = Math.min(min, reset ? stripe.getAndSet(MIN, Long.MAX_VALUE) : stripe.get(MIN));
+            max = Math.max(max, reset ? stripe.getAndSet(MAX, 0) : stripe.get(MAX));
+        }
+        return new Snapshot(buckets, count, total, count == 0 ? 0 : min, max);
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        final long clamped = Math.min(value, MAX_VALUE);
+        final int shift = 63 - Long.numberOfLeadingZeros(clamped) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (clamped >>> shift);
+    }
+
+    /**
+     * @return The value that is reported for a bucket, which is the middle of the range of values it contains
+     */
+    static long bucketValue(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = ((long) (index % SUB_BUCKETS + SUB_BUCKETS)) << shift;
+        return lowest + ((1L << shift) - 1) / 2;
+    }
+
+    /**
+     * An immutable view of a histogram
+     */
+    public static final class Snapshot {
+
+        private final long[] buckets;
+        private final long count;
+        private final long total;
+        private final long min;
+        private final long max;
+
+        private Snapshot(final long[] buckets, final long count, final long total, final long min, final long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @return The number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The sum of all the recorded values in nanoseconds
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * Returns the value at the given percentile. The result is clamped to the exact minimum and maximum, so the
+         * 0th and 100th percentiles are exact.
+         *
+         * @param percentile The percentile, between 0 and 100
+         * @return The value at the given percentile, in nanoseconds
+         */
+        public long getValueAtPercentile(final double percentile) {
+            //the bucket counts may not add up to the count if the snapshot raced with writers, so use the buckets
+            long recorded = 0;
+            for (long bucket : buckets) {
+                recorded += bucket;
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            if (percentile <= 0) {
+                return min;
+            } else if (percentile >= 100) {
+                return max;
+            }
+            final long target = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return Math.min(max, Math.max(min, bucketValue(i)));
+                }
+            }
+            return max;
+        }
+    }
+}
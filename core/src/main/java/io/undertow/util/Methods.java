@@ -57,6 +57,7 @@ public final class Methods {
     public static final String MERGE_STRING = "MERGE";
     public static final String BASELINE_CONTROL_STRING = "BASELINE_CONTROL";
     public static final String MKACTIVITY_STRING = "MKACTIVITY";
+    public static final String PRI_STRING = "PRI";
 
 
     public static final HttpString OPTIONS = new HttpString(OPTIONS_STRING);
@@ -87,6 +88,7 @@ public final class Methods {
     public static final HttpString MERGE =new HttpString(MERGE_STRING);
     public static final HttpString BASELINE_CONTROL =new HttpString(BASELINE_CONTROL_STRING);
     public static final HttpString MKACTIVITY =new HttpString(MKACTIVITY_STRING);
+    public static final HttpString PRI = new HttpString(PRI_STRING);
 
 
 }
@@ -40,6 +40,10 @@ public final class Protocols {
      * HTTP 1.1.
      */
     public static final String HTTP_1_1_STRING = "HTTP/1.1";
+    /**
+     * HTTP 2.0.
+     */
+    public static final String HTTP_2_0_STRING = "HTTP/2.0";
 
 
     public static final HttpString HTTP_0_9 = new HttpString(HTTP_0_9_STRING);
@@ -51,4 +55,8 @@ public final class Protocols {
      * HTTP 1.1.
      */
     public static final HttpString HTTP_1_1 = new HttpString(HTTP_1_1_STRING);
+    /**
+     * HTTP 2.0.
+     */
+    public static final HttpString HTTP_2_0 = new HttpString(HTTP_2_0_STRING);
 }
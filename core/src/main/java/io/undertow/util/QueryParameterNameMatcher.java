@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import io.undertow.annotationprocessor.TokenMatcherConfig;
+
+/**
+ * Common query parameter names. These are matched by the request parser and {@link URLUtils} so that the parameter
+ * map keys for the most frequent names do not need a new string for each request.
+ *
+ * @author Stuart Douglas
+ */
+@TokenMatcherConfig(tokens = {
+        "id",
+        "q",
+        "query",
+        "page",
+        "size",
+        "limit",
+        "offset",
+        "start",
+        "sort",
+        "order",
+        "format",
+        "callback",
+        "lang",
+        "locale",
+        "v",
+        "version",
+        "action",
+        "type",
+        "name",
+        "_"
+})
+public abstract class QueryParameterNameMatcher extends TokenMatcher {
+
+    public static final QueryParameterNameMatcher INSTANCE = instance(QueryParameterNameMatcher.class);
+
+    protected QueryParameterNameMatcher(final String[] tokens) {
+        super(tokens);
+    }
+}
@@ -73,9 +73,9 @@ public class QueryParameterUtils {
         String key;
         String value = "";
         if(equalPos == -1) {
-            key = newQueryString.substring(startPos, i);
+            key = QueryParameterNameMatcher.INSTANCE.substring(newQueryString, startPos, i);
         } else {
-            key = newQueryString.substring(startPos, equalPos);
+            key = QueryParameterNameMatcher.INSTANCE.substring(newQueryString, startPos, equalPos);
             value = newQueryString.substring(equalPos + 1, i);
         }
 
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is spread over multiple cells to reduce contention when it is
+ * updated by many threads at once (e.g. from every IO thread).
+ * <p/>
+ * Each thread updates the cell selected by its thread id, and cells are padded so
+ * that they do not share a cache line. Reads sum all the cells, so they are more
+ * expensive than updates and are not an atomic snapshot.
+ *
+ * @author Stuart Douglas
+ */
+public final class StripedCounter {
+
+    /**
+     * Number of longs between cells, so each cell sits in its own cache line
+     */
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        cells.getAndIncrement(index());
+    }
+
+    public void decrement() {
+        cells.getAndDecrement(index());
+    }
+
+    public void add(long value) {
+        cells.getAndAdd(index(), value);
+    }
+
+    /**
+     * @return The current value of the counter
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; ++i) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Resets the counter to zero, returning the value it had before the reset. Updates that happen
+     * concurrently with the reset are either included in the result or retained in the counter, they
+     * are never lost.
+     *
+     * @return The value of the counter before it was reset
+     */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; ++i) {
+            sum += cells.getAndSet(i * PADDING, 0);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        sumThenReset();
+    }
+
+    private static int index() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
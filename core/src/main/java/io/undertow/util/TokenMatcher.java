@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+/**
+ * Matches a range of characters against a fixed set of tokens.
+ * <p/>
+ * Sub classes are annotated with {@link io.undertow.annotationprocessor.TokenMatcherConfig}, and the actual matcher is a
+ * sub class that is generated as part of the build process by the annotation processor. When a value matches the
+ * interned token is returned, so known names can be used without creating a new string for each one.
+ *
+ * @author Stuart Douglas
+ */
+public abstract class TokenMatcher {
+
+    private final String[] tokens;
+
+    protected TokenMatcher(final String[] tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * @param value The characters to match
+     * @param start The start index, inclusive
+     * @param end   The end index, exclusive
+     * @return The index of the matching token, or <code>-1</code> if there is no match
+     */
+    public abstract int match(CharSequence value, int start, int end);
+
+    /**
+     * @param value The characters to match
+     * @param start The start index, inclusive
+     * @param end   The end index, exclusive
+     * @return The matching token, or <code>null</code> if there is no match
+     */
+    public String matchToken(final CharSequence value, final int start, final int end) {
+        final int index = match(value, start, end);
+        if (index == -1) {
+            return null;
+        }
+        return tokens[index];
+    }
+
+    /**
+     * Returns the matching token if there is one, otherwise the given range as a new string.
+     *
+     * @param value The value
+     * @param start The start index, inclusive
+     * @param end   The end index, exclusive
+     * @return The token or substring
+     */
+    public String substring(final String value, final int start, final int end) {
+        final int index = match(value, start, end);
+        if (index == -1) {
+            return value.substring(start, end);
+        }
+        return tokens[index];
+    }
+
+    public String getToken(final int index) {
+        return tokens[index];
+    }
+
+    public int getTokenCount() {
+        return tokens.length;
+    }
+
+    protected static <T extends TokenMatcher> T instance(final Class<T> type) {
+        try {
+            final Class<?> cls = type.getClassLoader().loadClass(type.getName() + "$$generated");
+            return type.cast(cls.getConstructor().newInstance());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
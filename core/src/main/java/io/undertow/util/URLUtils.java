@@ -168,13 +168,13 @@ public class URLUtils {
                 for (int i = 0; i < string.length(); ++i) {
                     char c = string.charAt(i);
                     if (c == '=' && attrName == null) {
-                        attrName = string.substring(stringStart, i);
+                        attrName = QueryParameterNameMatcher.INSTANCE.substring(string, stringStart, i);
                         stringStart = i + 1;
                     } else if (c == '&') {
                         if (attrName != null) {
                             handle(exchange, decode(charset, attrName, doDecode), decode(charset, string.substring(stringStart, i), doDecode));
                         } else {
-                            handle(exchange, decode(charset, string.substring(stringStart, i), doDecode), "");
+                            handle(exchange, decode(charset, QueryParameterNameMatcher.INSTANCE.substring(string, stringStart, i), doDecode), "");
                         }
                         stringStart = i + 1;
                         attrName = null;
@@ -183,7 +183,7 @@ public class URLUtils {
                 if (attrName != null) {
                     handle(exchange, decode(charset, attrName, doDecode), decode(charset, string.substring(stringStart, string.length()), doDecode));
                 } else if (string.length() != stringStart) {
-                    handle(exchange, decode(charset, string.substring(stringStart, string.length()), doDecode), "");
+                    handle(exchange, decode(charset, QueryParameterNameMatcher.INSTANCE.substring(string, stringStart, string.length()), doDecode), "");
                 }
             } catch (UnsupportedEncodingException e) {
                 throw new RuntimeException(e);
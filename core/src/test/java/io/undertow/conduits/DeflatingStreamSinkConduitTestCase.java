@@ -0,0 +1,319 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.conduits;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.MockServerConnection;
+import io.undertow.util.ImmediateConduitFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.IoUtils;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * Tests {@link DeflatingStreamSinkConduit} directly, over a conduit that captures the compressed data.
+ * <p/>
+ * The output buffers are small, so the deflated data is flushed to the next conduit several times for each response.
+ *
+ * @author Stuart Douglas
+ */
+public class DeflatingStreamSinkConduitTestCase {
+
+    private static final int LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    private final ByteBufferSlicePool heapPool = new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 512, 512 * 16);
+    private final ByteBufferSlicePool directPool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, 512, 512 * 16);
+
+    @Test
+    public void testRoundTripHeapBuffers() throws IOException {
+        runRoundTrip(heapPool, false);
+    }
+
+    @Test
+    public void testRoundTripDirectBuffers() throws IOException {
+        runRoundTrip(directPool, true);
+    }
+
+    @Test
+    public void testRoundTripEmptyResponse() throws IOException {
+        final CapturingConduit target = new CapturingConduit(-1);
+        final DeflatingStreamSinkConduit conduit = createConduit(heapPool, target);
+        conduit.terminateWrites();
+        Assert.assertTrue(conduit.flush());
+        Assert.assertEquals(0, inflate(target.data.toByteArray()).length);
+        Assert.assertTrue(target.terminated);
+    }
+
+    @Test
+    public void testDeflaterReturnedToPoolOnClose() throws IOException {
+        final CapturingConduit target = new CapturingConduit(-1);
+        final DeflatingStreamSinkConduit conduit = createConduit(heapPool, target);
+        write(conduit, data(10000), 1000, false);
+        conduit.terminateWrites();
+        Assert.assertTrue(conduit.flush());
+        assertReturnedToPool(conduit.deflater);
+    }
+
+    @Test
+    public void testDeflaterReturnedToPoolOnError() throws IOException {
+        //the connection fails after the first buffer of compressed data has been written. The data does not compress,
+        //so the deflater produces output before it is finished
+        final CapturingConduit target = new CapturingConduit(100);
+        final DeflatingStreamSinkConduit conduit = createConduit(heapPool, target);
+        try {
+            write(conduit, randomData(100000), 1000, false);
+            Assert.fail("write should have failed");
+        } catch (IOException expected) {
+        }
+        Assert.assertTrue(target.data.size() > 0);
+        //the exchange truncates the response when the write fails
+        conduit.truncateWrites();
+        Assert.assertTrue(target.truncated);
+        assertReturnedToPool(conduit.deflater);
+    }
+
+    @Test
+    public void testDeflaterReturnedToPoolOnErrorBeforeAnythingIsWritten() throws IOException {
+        final CapturingConduit target = new CapturingConduit(-1);
+        final DeflatingStreamSinkConduit conduit = createConduit(heapPool, target);
+        write(conduit, data(100), 100, false);
+        conduit.truncateWrites();
+        Assert.assertTrue(target.truncated);
+        Assert.assertEquals(0, target.data.size());
+        assertReturnedToPool(conduit.deflater);
+    }
+
+    private void runRoundTrip(final ByteBufferSlicePool pool, final boolean direct) throws IOException {
+        final byte[] data = data(100000);
+        final CapturingConduit target = new CapturingConduit(-1);
+        final DeflatingStreamSinkConduit conduit = createConduit(pool, target);
+        write(conduit, data, 3000, direct);
+        conduit.terminateWrites();
+        Assert.assertTrue(conduit.flush());
+        Assert.assertTrue(target.terminated);
+        final byte[] compressed = target.data.toByteArray();
+        Assert.assertTrue(compressed.length < data.length);
+        Assert.assertArrayEquals(data, inflate(compressed));
+    }
+
+    private static DeflatingStreamSinkConduit createConduit(final ByteBufferSlicePool pool, final CapturingConduit target) {
+        final HttpServerExchange exchange = new HttpServerExchange(new MockServerConnection(pool));
+        return new DeflatingStreamSinkConduit(new ImmediateConduitFactory<StreamSinkConduit>(target), exchange, LEVEL);
+    }
+
+    private static void write(final StreamSinkConduit conduit, final byte[] data, final int chunkSize, final boolean direct) throws IOException {
+        for (int pos = 0; pos < data.length; pos += chunkSize) {
+            final int length = Math.min(chunkSize, data.length - pos);
+            final ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            chunk.put(data, pos, length);
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                //the target never blocks, so the conduit always makes progress
+                Assert.assertTrue(conduit.write(chunk) > 0);
+            }
+        }
+    }
+
+    private static void assertReturnedToPool(final Deflater deflater) {
+        final Deflater next = DeflaterPool.allocate(LEVEL);
+        try {
+            Assert.assertSame(deflater, next);
+            //the deflater has been reset
+            Assert.assertEquals(0, next.getBytesRead());
+        } finally {
+            DeflaterPool.free(next, LEVEL);
+        }
+    }
+
+    private static byte[] data(final int length) {
+        //compressible, but not trivially so
+        final Random random = new Random(length);
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) {
+            builder.append("{\"id\":").append(random.nextInt(100000)).append(",\"name\":\"item").append(random.nextInt(100)).append("\"},");
+        }
+        return builder.substring(0, length).getBytes();
+    }
+
+    private static byte[] randomData(final int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] inflate(final byte[] compressed) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            //raw deflate needs an extra byte at the end of the input
+            final byte[] input = new byte[compressed.length + 1];
+            System.arraycopy(compressed, 0, input, 0, compressed.length);
+            inflater.setInput(input);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                final int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate stream");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * The end of the conduit chain, which records everything that is written to it.
+     */
+    private static final class CapturingConduit implements StreamSinkConduit {
+
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        /**
+         * The number of bytes after which writes fail, or -1 if they never fail
+         */
+        private final int failAfter;
+        private boolean terminated;
+        private boolean truncated;
+
+        private CapturingConduit(final int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+        }
+
+        @Override
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            if (failAfter >= 0 && data.size() >= failAfter) {
+                throw new IOException("Connection reset");
+            }
+            final int length = src.remaining();
+            while (src.hasRemaining()) {
+                data.write(src.get());
+            }
+            return length;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            return Conduits.writeFinalBasic(this, src);
+        }
+
+        @Override
+        public long writeFinal(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return Conduits.writeFinalBasic(this, srcs, offset, length);
+        }
+
+        @Override
+        public void terminateWrites() throws IOException {
+            terminated = true;
+        }
+
+        @Override
+        public boolean isWriteShutdown() {
+            return terminated || truncated;
+        }
+
+        @Override
+        public void resumeWrites() {
+        }
+
+        @Override
+        public void suspendWrites() {
+        }
+
+        @Override
+        public void wakeupWrites() {
+        }
+
+        @Override
+        public boolean isWriteResumed() {
+            return false;
+        }
+
+        @Override
+        public void awaitWritable() throws IOException {
+        }
+
+        @Override
+        public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        }
+
+        @Override
+        public XnioIoThread getWriteThread() {
+            return null;
+        }
+
+        @Override
+        public void setWriteReadyHandler(final WriteReadyHandler handler) {
+        }
+
+        @Override
+        public void truncateWrites() throws IOException {
+            truncated = true;
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            return true;
+        }
+
+        @Override
+        public XnioWorker getWorker() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.undertow.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Stuart Douglas
+ */
+public class AdaptiveConcurrencyLimitTestCase {
+
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testLimitGrowsWhileLatencyIsStable() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        long now = 0;
+        int last = limit.getLimit();
+        for (int i = 0; i < 20; ++i) {
+            now = window(limit, now, 20, TimeUnit.MILLISECONDS.toNanos(10), last);
+            Assert.assertTrue(limit.getLimit() >= last);
+            last = limit.getLimit();
+        }
+        Assert.assertTrue(limit.getLimit() > 10);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), limit.getShortRtt());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), limit.getLongRtt());
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 5, 100);
+        long now = 0;
+        for (int i = 0; i < 5; ++i) {
+            now = window(limit, now, 20, TimeUnit.MILLISECONDS.toNanos(10), 50);
+        }
+        final int before = limit.getLimit();
+        for (int i = 0; i < 20; ++i) {
+            now = window(limit, now, 20, TimeUnit.MILLISECONDS.toNanos(100), limit.getLimit());
+        }
+        Assert.assertTrue(limit.getLimit() < before);
+        Assert.assertTrue(limit.getShortRtt() > limit.getLongRtt());
+        //never goes below the minimum, no matter how fast latency grows
+        long rtt = TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < 100; ++i) {
+            now = window(limit, now, 20, rtt += rtt / 5, limit.getLimit());
+        }
+        Assert.assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitNotRaisedWhenUnderused() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        long now = 0;
+        for (int i = 0; i < 10; ++i) {
+            now = window(limit, now, 20, TimeUnit.MILLISECONDS.toNanos(10), 2);
+        }
+        Assert.assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testSmallWindowsAreMerged() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        Assert.assertEquals(-1, update(limit, 0, 5, 1000, 10));
+        Assert.assertTrue(update(limit, WINDOW, 5, 1000, 10) > 0);
+        Assert.assertEquals(1000, limit.getShortRtt());
+    }
+
+    @Test
+    public void testOverloadedWhenQueueTimeIsHigh() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100)
+                .setMaximumQueueTime(100, TimeUnit.MILLISECONDS);
+        Assert.assertFalse(limit.isOverloaded());
+        for (int i = 0; i < 50; ++i) {
+            limit.addQueueTime(TimeUnit.MILLISECONDS.toNanos(500));
+        }
+        Assert.assertTrue(limit.isOverloaded());
+        for (int i = 0; i < 50; ++i) {
+            limit.addQueueTime(0);
+        }
+        Assert.assertFalse(limit.isOverloaded());
+    }
+
+    private static long window(AdaptiveConcurrencyLimit limit, long now, int samples, long rtt, int inFlight) {
+        update(limit, now, samples, rtt, inFlight);
+        return now + WINDOW;
+    }
+
+    private static int update(AdaptiveConcurrencyLimit limit, long now, int samples, long rtt, int inFlight) {
+        for (int i = 0; i < samples; ++i) {
+            limit.addSample(rtt);
+        }
+        return limit.update(now, inFlight);
+    }
+}
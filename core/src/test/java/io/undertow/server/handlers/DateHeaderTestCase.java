@@ -0,0 +1,83 @@
+package io.undertow.server.handlers;
+
+import java.io.IOException;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.DateUtils;
+import io.undertow.util.Headers;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that the <code>Date</code> header is written by the connector when no handler has set it.
+ *
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class DateHeaderTestCase {
+
+    private static final String CUSTOM_DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+    @BeforeClass
+    public static void setup() {
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                if (exchange.getRelativePath().equals("/custom")) {
+                    exchange.getResponseHeaders().put(Headers.DATE, CUSTOM_DATE);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testDateHeaderWritten() throws IOException, InterruptedException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Header[] dates = result.getHeaders("Date");
+            Assert.assertEquals(1, dates.length);
+            final long firstDate = DateUtils.parseDate(dates[0].getValue()).getTime();
+            Assert.assertTrue((firstDate + 3000) > System.currentTimeMillis());
+            HttpClientUtils.readResponse(result);
+
+            Thread.sleep(1500);
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            dates = result.getHeaders("Date");
+            Assert.assertEquals(1, dates.length);
+            final long secondDate = DateUtils.parseDate(dates[0].getValue()).getTime();
+            Assert.assertTrue(secondDate > firstDate);
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testDateHeaderSetByHandler() throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/custom");
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Header[] dates = result.getHeaders("Date");
+            Assert.assertEquals(1, dates.length);
+            Assert.assertEquals(CUSTOM_DATE, dates[0].getValue());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -210,4 +211,91 @@ public class JDBCLogDatabaseTestCase {
         }
     }
 
+    @Test
+    public void testMultiRowBatchInsert() throws IOException, InterruptedException, SQLException {
+        JDBCLogHandler logHandler = new JDBCLogHandler(HELLO_HANDLER, DefaultServer.getWorker(), "combined", ds)
+                .setBatchSize(5)
+                .setFlushInterval(100)
+                .setMultiRowInsert(true);
+        CompletionLatchHandler latchHandler;
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(12, logHandler));
+        sendRequests(12);
+        latchHandler.await();
+        logHandler.awaitWrittenForTest();
+
+        //two full batches, and a partial batch written after the flush interval
+        Assert.assertEquals(12, countRows());
+        Assert.assertEquals(12, logHandler.getWrittenMessages());
+        Assert.assertEquals(0, logHandler.getBacklog());
+        Assert.assertTrue(logHandler.getFlushLatency().getCount() >= 3);
+    }
+
+    @Test
+    public void testBacklogIsBounded() throws IOException, InterruptedException, SQLException {
+        //the writer never runs
+        JDBCLogHandler logHandler = new JDBCLogHandler(HELLO_HANDLER, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        }, "common", ds).setMaxBacklog(5);
+        CompletionLatchHandler latchHandler;
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(8, logHandler));
+        sendRequests(8);
+        latchHandler.await();
+
+        Assert.assertEquals(5, logHandler.getBacklog());
+        Assert.assertEquals(3, logHandler.getDroppedMessages());
+    }
+
+    @Test
+    public void testFailedBatchIsRetried() throws IOException, InterruptedException, SQLException {
+        JDBCLogHandler logHandler = new JDBCLogHandler(HELLO_HANDLER, DefaultServer.getWorker(), "common", ds)
+                .setFlushInterval(0)
+                .setMaxRetries(2)
+                .setRetryBackoff(10, 100);
+        logHandler.setTableName("MISSING_TABLE");
+        CompletionLatchHandler latchHandler;
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(logHandler));
+        sendRequests(1);
+        latchHandler.await();
+        logHandler.awaitWrittenForTest();
+
+        Assert.assertEquals(1, logHandler.getFailedMessages());
+        Assert.assertEquals(0, logHandler.getWrittenMessages());
+        Assert.assertEquals(0, logHandler.getBacklog());
+    }
+
+    private void sendRequests(final int count) throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < count; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("Hello", HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private int countRows() throws SQLException {
+        Connection conn = null;
+        Statement statement = null;
+        try {
+            conn = ds.getConnection();
+            statement = conn.createStatement();
+            ResultSet resultDatabase = statement.executeQuery("SELECT COUNT(*) FROM PUBLIC.ACCESS;");
+            resultDatabase.next();
+            return resultDatabase.getInt(1);
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
 }
@@ -14,6 +14,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Stuart Douglas
@@ -31,11 +33,12 @@ public class MetricsHandlerTestCase {
                 Thread.sleep(100);
                 exchange.getResponseSender().send("Hello");
             }
-        })));
+        }).setMaxPaths(1)));
     }
 
     @Test
     public void testMetrics() throws IOException, InterruptedException {
+        metricsHandler.reset();
         HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
         TestHttpClient client = new TestHttpClient();
         try {
@@ -60,10 +63,57 @@ public class MetricsHandlerTestCase {
 
             metrics = metricsHandler.getMetrics();
             Assert.assertEquals(2, metrics.getTotalRequests());
+            Assert.assertEquals(2, metrics.getResponseCount(2));
+            Assert.assertEquals(0, metrics.getResponseCount(5));
+            Assert.assertTrue(metrics.getP50Nanos() >= 100000000L);
+            Assert.assertTrue(metrics.getP50Nanos() <= metrics.getP999Nanos());
+            Assert.assertTrue(metrics.getP999Nanos() <= metrics.getMaxRequestTimeNanos());
+
+            Assert.assertEquals(2, metrics.getTotalRequests());
+            final long beforeReset = System.currentTimeMillis();
+            metrics = metricsHandler.getMetricsThenReset();
+            Assert.assertEquals(2, metrics.getTotalRequests());
+            //the next period starts when the metrics are reset
+            final MetricsHandler.MetricResult next = metricsHandler.getMetrics();
+            Assert.assertEquals(0, next.getTotalRequests());
+            Assert.assertTrue(metrics.getMetricsStartDate().getTime() <= beforeReset);
+            Assert.assertTrue(next.getMetricsStartDate().getTime() >= beforeReset);
+            Assert.assertEquals(next.getMetricsStartDate(), metricsHandler.getMetricsThenReset().getMetricsStartDate());
 
         } finally {
 
             client.getConnectionManager().shutdown();
         }
     }
+
+    @Test
+    public void testPathMetrics() throws IOException, InterruptedException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            metricsHandler.reset();
+            for (String path : new String[]{"/path", "/path", "/other"}) {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+                latchHandler.await();
+                latchHandler.reset();
+            }
+            Map<String, MetricsHandler.MetricResult> paths = metricsHandler.getPathMetrics();
+            Assert.assertEquals(2, paths.get("/path").getTotalRequests());
+            Assert.assertEquals(1, paths.get(MetricsHandler.OTHER_PATHS).getTotalRequests());
+            Assert.assertEquals(3, metricsHandler.getMetrics().getTotalRequests());
+
+            final Map<String, MetricsHandler.MetricResult> resetPaths = new HashMap<String, MetricsHandler.MetricResult>();
+            Assert.assertEquals(3, metricsHandler.getMetricsThenReset(resetPaths).getTotalRequests());
+            Assert.assertEquals(2, resetPaths.get("/path").getTotalRequests());
+            Assert.assertEquals(1, resetPaths.get(MetricsHandler.OTHER_PATHS).getTotalRequests());
+            paths = metricsHandler.getPathMetrics();
+            Assert.assertEquals(0, paths.get("/path").getTotalRequests());
+            Assert.assertEquals(0, paths.get("/path").getP99Nanos());
+            Assert.assertEquals(0, paths.get(MetricsHandler.OTHER_PATHS).getTotalRequests());
+            Assert.assertEquals(0, metricsHandler.getMetrics().getTotalRequests());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
 }
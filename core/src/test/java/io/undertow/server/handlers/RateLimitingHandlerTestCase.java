@@ -0,0 +1,127 @@
+package io.undertow.server.handlers;
+
+import java.io.IOException;
+
+import io.undertow.Handlers;
+import io.undertow.attribute.ExchangeAttributes;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.builder.PredicatedHandlersParser;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class RateLimitingHandlerTestCase {
+
+    private static final HttpHandler HELLO = new HttpHandler() {
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            exchange.getResponseSender().send("hello");
+        }
+    };
+
+    @Test
+    public void testRateLimit() throws IOException {
+        RateLimitingHandler handler = new RateLimitingHandler(HELLO, ExchangeAttributes.requestHeader(new HttpString("key")), 0.1, 3);
+        DefaultServer.setRootHandler(handler);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                HttpResponse result = execute(client, "a");
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("hello", HttpClientUtils.readResponse(result));
+                Assert.assertEquals("3", result.getFirstHeader("X-RateLimit-Limit").getValue());
+                Assert.assertEquals(Integer.toString(2 - i), result.getFirstHeader("X-RateLimit-Remaining").getValue());
+            }
+            HttpResponse result = execute(client, "a");
+            Assert.assertEquals(StatusCodes.TOO_MANY_REQUESTS, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            final int retryAfter = Integer.parseInt(result.getFirstHeader(Headers.RETRY_AFTER_STRING).getValue());
+            Assert.assertTrue(retryAfter > 0 && retryAfter <= 10);
+            Assert.assertEquals("0", result.getFirstHeader("X-RateLimit-Remaining").getValue());
+            Assert.assertEquals(1, handler.getRejectedRequests());
+
+            //other keys have their own bucket
+            result = execute(client, "b");
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            //requests without a key share a bucket
+            for (int i = 0; i < 3; ++i) {
+                result = execute(client, null);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+            }
+            result = execute(client, null);
+            Assert.assertEquals(StatusCodes.TOO_MANY_REQUESTS, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testTokensAreRefilled() throws Exception {
+        DefaultServer.setRootHandler(new RateLimitingHandler(HELLO, ExchangeAttributes.remoteIp(), 20, 1).setAddHeaders(false));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = execute(client, null);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertNull(result.getFirstHeader("X-RateLimit-Limit"));
+            result = execute(client, null);
+            Assert.assertEquals(StatusCodes.TOO_MANY_REQUESTS, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Thread.sleep(100);
+            result = execute(client, null);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testHandlerBuilder() throws IOException {
+        DefaultServer.setRootHandler(Handlers.predicates(
+                PredicatedHandlersParser.parse("path-prefix['/limited'] -> rate-limit[rate=0.1, burst=2, key='%{i,key}']", getClass().getClassLoader()), HELLO));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 2; ++i) {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/limited"));
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+            }
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/limited"));
+            Assert.assertEquals(StatusCodes.TOO_MANY_REQUESTS, result.getStatusLine().getStatusCode());
+            Assert.assertNotNull(result.getFirstHeader(Headers.RETRY_AFTER_STRING));
+            HttpClientUtils.readResponse(result);
+
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/other"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static HttpResponse execute(TestHttpClient client, String key) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+        if (key != null) {
+            get.addHeader("key", key);
+        }
+        return client.execute(get);
+    }
+}
@@ -0,0 +1,274 @@
+package io.undertow.server.handlers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.predicate.Predicates;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class RequestLimitingHandlerTestCase {
+
+    private static final int N_THREADS = 10;
+
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    private static final HttpHandler SLOW_HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(this);
+                return;
+            }
+            final int current = running.incrementAndGet();
+            int max;
+            while ((max = maxRunning.get()) < current && !maxRunning.compareAndSet(max, current)) {
+            }
+            try {
+                Thread.sleep(50);
+            } finally {
+                running.decrementAndGet();
+            }
+            exchange.getResponseSender().send("done");
+        }
+    };
+
+    private static volatile CountDownLatch blockLatch;
+    private static final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Blocks requests to /block until the latch is released, and records the order other requests started in
+     */
+    private static final HttpHandler BLOCKING_HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(this);
+                return;
+            }
+            if (exchange.getRelativePath().equals("/block")) {
+                blockLatch.await(30, TimeUnit.SECONDS);
+            } else {
+                started.add(exchange.getRelativePath());
+            }
+            exchange.getResponseSender().send("done");
+        }
+    };
+
+    @Test
+    public void testRequestsAreQueued() throws Exception {
+        maxRunning.set(0);
+        RequestLimit limit = new RequestLimit(2);
+        DefaultServer.setRootHandler(new RequestLimitingHandler(limit, SLOW_HANDLER));
+        for (Integer code : runRequests(N_THREADS * 2)) {
+            Assert.assertEquals(200, code.intValue());
+        }
+        Assert.assertTrue(maxRunning.get() <= 2);
+        Assert.assertEquals(0, limit.getQueuedRequests());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        RequestLimit limit = new RequestLimit(1, 1);
+        DefaultServer.setRootHandler(new RequestLimitingHandler(limit, SLOW_HANDLER));
+        int ok = 0, rejected = 0;
+        for (Integer code : runRequests(N_THREADS)) {
+            if (code == 200) {
+                ++ok;
+            } else {
+                Assert.assertEquals(513, code.intValue());
+                ++rejected;
+            }
+        }
+        Assert.assertTrue(ok >= 2);
+        Assert.assertTrue(rejected > 0);
+    }
+
+    @Test
+    public void testAdaptiveLimit() throws Exception {
+        maxRunning.set(0);
+        RequestLimit limit = new RequestLimit(100);
+        AdaptiveConcurrencyLimit adaptive = new AdaptiveConcurrencyLimit(3, 1, 20)
+                .setMinimumSamples(1)
+                .setWindow(10, TimeUnit.MILLISECONDS)
+                .setMaximumQueueTime(10, TimeUnit.SECONDS);
+        limit.setAdaptiveLimit(adaptive);
+        Assert.assertEquals(3, limit.getMaximumConcurrentRequests());
+        DefaultServer.setRootHandler(new RequestLimitingHandler(limit, SLOW_HANDLER));
+        for (Integer code : runRequests(N_THREADS * 2)) {
+            Assert.assertEquals(200, code.intValue());
+        }
+        Assert.assertTrue(adaptive.getLongRtt() >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(maxRunning.get() <= 20);
+        Assert.assertEquals(adaptive.getLimit(), limit.getMaximumConcurrentRequests());
+    }
+
+    @Test
+    public void testAdaptiveLimitShedsLoad() throws Exception {
+        RequestLimit limit = new RequestLimit(1);
+        AdaptiveConcurrencyLimit adaptive = new AdaptiveConcurrencyLimit(1, 1, 1)
+                .setMaximumQueueTime(1, TimeUnit.MILLISECONDS);
+        limit.setAdaptiveLimit(adaptive);
+        DefaultServer.setRootHandler(new RequestLimitingHandler(limit, SLOW_HANDLER));
+        int rejected = 0;
+        for (Integer code : runRequests(N_THREADS)) {
+            if (code != 200) {
+                Assert.assertEquals(513, code.intValue());
+                ++rejected;
+            }
+        }
+        Assert.assertTrue(rejected > 0);
+        Assert.assertTrue(adaptive.getQueueTime() > 0);
+    }
+
+    @Test
+    public void testPriorityClasses() throws Exception {
+        started.clear();
+        blockLatch = new CountDownLatch(1);
+        RequestLimit limit = new RequestLimit(1)
+                .addPriorityClass(Predicates.prefix("/high"), 10);
+        DefaultServer.setRootHandler(new RequestLimitingHandler(limit, BLOCKING_HANDLER));
+        final ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            futures.add(executor.submit(new Request("/block")));
+            waitFor(limit, 0, 1);
+            final String[] paths = {"/low", "/low", "/low", "/high", "/high", "/high"};
+            for (int i = 0; i < paths.length; ++i) {
+                futures.add(executor.submit(new Request(paths[i])));
+                waitFor(limit, i + 1, 1);
+            }
+            blockLatch.countDown();
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(200, future.get(30, TimeUnit.SECONDS).intValue());
+            }
+            Assert.assertEquals(Arrays.asList("/high", "/high", "/high", "/low", "/low", "/low"), started);
+        } finally {
+            blockLatch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueueTimeout() throws Exception {
+        started.clear();
+        blockLatch = new CountDownLatch(1);
+        RequestLimit limit = new RequestLimit(1)
+                .setMaximumQueueTime(100, TimeUnit.MILLISECONDS)
+                .addPriorityClass(Predicates.prefix("/patient"), 1, 10, TimeUnit.SECONDS);
+        DefaultServer.setRootHandler(new RequestLimitingHandler(limit, BLOCKING_HANDLER));
+        final ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            final Future<Integer> blocked = executor.submit(new Request("/block"));
+            waitFor(limit, 0, 1);
+            final Future<Integer> impatient = executor.submit(new Request("/impatient"));
+            waitFor(limit, 1, 1);
+            final Future<Integer> patient = executor.submit(new Request("/patient"));
+            waitFor(limit, 2, 1);
+            Thread.sleep(200);
+            blockLatch.countDown();
+            Assert.assertEquals(200, blocked.get(30, TimeUnit.SECONDS).intValue());
+            Assert.assertEquals(513, impatient.get(30, TimeUnit.SECONDS).intValue());
+            Assert.assertEquals(200, patient.get(30, TimeUnit.SECONDS).intValue());
+            Assert.assertEquals(Collections.singletonList("/patient"), started);
+        } finally {
+            blockLatch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueueTimeoutWhileRequestsAreStalled() throws Exception {
+        started.clear();
+        blockLatch = new CountDownLatch(1);
+        RequestLimit limit = new RequestLimit(1)
+                .setMaximumQueueTime(100, TimeUnit.MILLISECONDS);
+        DefaultServer.setRootHandler(new RequestLimitingHandler(limit, BLOCKING_HANDLER));
+        final ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            final Future<Integer> blocked = executor.submit(new Request("/block"));
+            waitFor(limit, 0, 1);
+            //the running request is still blocked, so the queued one has to be rejected by its timeout
+            final Future<Integer> impatient = executor.submit(new Request("/impatient"));
+            Assert.assertEquals(513, impatient.get(30, TimeUnit.SECONDS).intValue());
+            Assert.assertEquals(0, limit.getQueuedRequests());
+            Assert.assertFalse(blocked.isDone());
+            blockLatch.countDown();
+            Assert.assertEquals(200, blocked.get(30, TimeUnit.SECONDS).intValue());
+            Assert.assertEquals(Collections.<String>emptyList(), started);
+        } finally {
+            blockLatch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static void waitFor(RequestLimit limit, int queued, int running) throws InterruptedException {
+        for (int i = 0; i < 1000; ++i) {
+            if (limit.getQueuedRequests() == queued && limit.getCurrentConcurrentRequests() == running) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        Assert.fail("Timed out waiting for " + queued + " queued requests, queued " + limit.getQueuedRequests());
+    }
+
+    private static final class Request implements Callable<Integer> {
+        private final String path;
+
+        private Request(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            TestHttpClient client = new TestHttpClient();
+            try {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+                HttpClientUtils.readResponse(result);
+                return result.getStatusLine().getStatusCode();
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+    }
+
+    private static List<Integer> runRequests(final int count) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < count; ++i) {
+                futures.add(executor.submit(new Request("/path")));
+            }
+            final List<Integer> results = new ArrayList<Integer>();
+            for (Future<Integer> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
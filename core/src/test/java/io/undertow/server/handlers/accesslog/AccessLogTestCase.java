@@ -62,4 +62,33 @@ public class AccessLogTestCase {
         }
     }
 
+    @Test
+    public void testCompiledFormatMatchesInterpreted() throws IOException, InterruptedException {
+        final String format = "%a %h %l %u \"%r\" %s %b %B %m %H %U%q test-header %{i,test-header} missing %{i,missing-header}";
+        final String interpreted = logRequest(new AccessLogHandler(HELLO_HANDLER, RECEIVER, format, AccessLogTestCase.class.getClassLoader(), false));
+        final String compiled = logRequest(new AccessLogHandler(HELLO_HANDLER, RECEIVER, format, AccessLogTestCase.class.getClassLoader(), true));
+        Assert.assertTrue(interpreted, interpreted.startsWith("127.0.0.1 127.0.0.1 "));
+        //the request line attribute does not include the query string
+        Assert.assertTrue(interpreted, interpreted.contains("\"GET /path HTTP/1.1\" 200 "));
+        Assert.assertTrue(interpreted, interpreted.endsWith(" test-header test-value missing "));
+        Assert.assertEquals(interpreted, compiled);
+    }
+
+    private String logRequest(final AccessLogHandler handler) throws IOException, InterruptedException {
+        latch = new CountDownLatch(1);
+        DefaultServer.setRootHandler(handler);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path?a=b");
+            get.addHeader("test-header", "test-value");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Hello", HttpClientUtils.readResponse(result));
+            latch.await(10, TimeUnit.SECONDS);
+            return message;
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,133 @@
+package io.undertow.server.handlers.accesslog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.CompletionLatchHandler;
+import io.undertow.util.FileUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests writing the access log to a file with {@link NioAccessLogReceiver}
+ *
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class NioAccessLogReceiverTestCase {
+
+    private static final File logDirectory = new File(System.getProperty("java.io.tmpdir") + "/nio-logs");
+
+    @Before
+    public void before() {
+        logDirectory.mkdirs();
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteRecursive(logDirectory);
+    }
+
+    private static final HttpHandler HELLO_HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            exchange.getResponseSender().send("Hello");
+        }
+    };
+
+    @Test
+    public void testLogMessagesToFile() throws IOException, InterruptedException {
+        File logFileName = new File(logDirectory, "server1.log");
+
+        CompletionLatchHandler latchHandler;
+        NioAccessLogReceiver logReceiver = new NioAccessLogReceiver(DefaultServer.getWorker(), logDirectory, "server1");
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(new AccessLogHandler(HELLO_HANDLER, logReceiver, "Remote address %a Code %s test-header %{i,test-header}", NioAccessLogReceiverTestCase.class.getClassLoader())));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 2; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+                get.addHeader("test-header", "v" + i);
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("Hello", HttpClientUtils.readResponse(result));
+                latchHandler.await();
+                latchHandler.reset();
+            }
+            logReceiver.awaitWrittenForTest();
+            Assert.assertEquals("Remote address 127.0.0.1 Code 200 test-header v0\nRemote address 127.0.0.1 Code 200 test-header v1\n", FileUtils.readFile(logFileName));
+            Assert.assertEquals(0, logReceiver.getQueuedMessages());
+            Assert.assertEquals(0, logReceiver.getDroppedMessages());
+        } finally {
+            client.getConnectionManager().shutdown();
+            logReceiver.close();
+        }
+    }
+
+    @Test
+    public void testSizeBasedRotationWithCompression() throws IOException, InterruptedException {
+        File logFileName = new File(logDirectory, "server2.log");
+        NioAccessLogReceiver logReceiver = new NioAccessLogReceiver(DefaultServer.getWorker(), logDirectory, "server2")
+                .setMaxFileSize(10)
+                .setCompressRotatedFiles(true);
+        logReceiver.logMessage("first message");
+        logReceiver.awaitWrittenForTest();
+        Assert.assertFalse(logFileName.exists());
+
+        File rotated = new File(logDirectory, "server2_" + new SimpleDateFormat("yyyy-MM-dd").format(new Date()) + ".log.gz");
+        for (int i = 0; i < 100 && !rotated.exists(); ++i) {
+            Thread.sleep(50);
+        }
+        //the compressed file is written to before the uncompressed one is deleted
+        for (int i = 0; i < 100 && new File(logDirectory, rotated.getName().substring(0, rotated.getName().length() - 3)).exists(); ++i) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals("first message\n", FileUtils.readFile(new GZIPInputStream(new FileInputStream(rotated))));
+        logReceiver.close();
+    }
+
+    @Test
+    public void testMessagesDroppedWhenBacklogIsFull() throws IOException {
+        //the writer never runs
+        NioAccessLogReceiver logReceiver = new NioAccessLogReceiver(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        }, logDirectory, "server3").setMaxQueuedBuffers(0);
+        char[] large = new char[10000];
+        Arrays.fill(large, 'a');
+        logReceiver.logMessage(new String(large));
+        logReceiver.logMessage("small");
+        Assert.assertEquals(1, logReceiver.getDroppedMessages());
+        Assert.assertEquals(1, logReceiver.getQueuedMessages());
+    }
+
+    @Test
+    public void testUtf8Encoding() throws IOException {
+        String message = "caf\u00e9 \u2603 \ud83d\ude00";
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        Assert.assertTrue(NioAccessLogReceiver.encode(message, buffer));
+        buffer.flip();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        Assert.assertEquals(message + "\n", new String(data, "UTF-8"));
+
+        Assert.assertFalse(NioAccessLogReceiver.encode(message, ByteBuffer.allocate(10)));
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.caching;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.CacheHandler;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that the cache handler honours the Cache-Control and Vary response headers
+ *
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class CacheControlTestCase {
+
+    private static final AtomicInteger responseCount = new AtomicInteger();
+
+    private static volatile CountDownLatch refreshStarted;
+    private static volatile CountDownLatch refreshRelease;
+    private static volatile boolean failRefresh;
+
+    @BeforeClass
+    public static void setup() {
+        final HttpHandler messageHandler = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                if (exchange.getRequestPath().startsWith("/refresh") && exchange.isInIoThread()) {
+                    //these responses block, so must be generated by a worker
+                    exchange.dispatch(this);
+                    return;
+                }
+                final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+                if (!cache.tryServeResponse()) {
+                    String data = "Response " + responseCount.incrementAndGet();
+                    if (exchange.getRequestPath().equals("/nostore")) {
+                        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "public, no-store");
+                    } else if (exchange.getRequestPath().equals("/vary")) {
+                        exchange.getResponseHeaders().put(Headers.VARY, "Accept-Language");
+                        data = data + " " + exchange.getRequestHeaders().getFirst(Headers.ACCEPT_LANGUAGE);
+                    } else if (exchange.getRequestPath().equals("/stale")) {
+                        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "max-age=1, stale-while-revalidate=60");
+                    } else if (exchange.getRequestPath().startsWith("/refresh")) {
+                        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "max-age=1, stale-while-revalidate=60");
+                        final CountDownLatch release = refreshRelease;
+                        if (release != null) {
+                            refreshStarted.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                        }
+                        if (failRefresh) {
+                            //the response is cut short after it has started to be written into the cache
+                            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length() + "");
+                            exchange.startBlocking();
+                            final OutputStream out = exchange.getOutputStream();
+                            out.write(data.getBytes("UTF-8"), 0, 2);
+                            out.flush();
+                            throw new IOException("Refresh failed");
+                        }
+                    }
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length() + "");
+                    exchange.getResponseSender().send(data);
+                }
+            }
+        };
+        DefaultServer.setRootHandler(new CacheHandler(new DirectBufferCache(100, 10, 1000), messageHandler));
+    }
+
+    @Test
+    public void testNoStoreIsNotCached() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            String last = null;
+            for (int i = 0; i < 10; ++i) {
+                String response = get(client, "/nostore", null);
+                Assert.assertFalse(response.equals(last));
+                last = response;
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testVariantsAreCachedSeparately() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final String english = fill(client, "/vary", "en");
+            Assert.assertTrue(english, english.endsWith(" en"));
+            Assert.assertEquals(english, get(client, "/vary", "en"));
+
+            final String french = get(client, "/vary", "fr");
+            Assert.assertTrue(french, french.endsWith(" fr"));
+            Assert.assertEquals(english, get(client, "/vary", "en"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final String original = fill(client, "/stale", null);
+            Assert.assertEquals(original, get(client, "/stale", null));
+            Thread.sleep(1500);
+
+            //the first request after expiry refreshes the entry
+            final String refreshed = get(client, "/stale", null);
+            Assert.assertFalse(original.equals(refreshed));
+            final int count = responseCount.get();
+            Assert.assertEquals(refreshed, get(client, "/stale", null));
+            Assert.assertEquals(count, responseCount.get());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testStaleEntryIsServedWhileRefreshing() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final String original = fill(client, "/refresh", null);
+            Thread.sleep(1500);
+            final String refreshed = refreshWhileRequesting(client, "/refresh", original);
+            Assert.assertEquals(refreshed, get(client, "/refresh", null));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedRefreshKeepsStaleEntry() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final String original = fill(client, "/refresh-fail", null);
+            Thread.sleep(1500);
+
+            failRefresh = true;
+            final TestHttpClient failingClient = new TestHttpClient();
+            try {
+                get(failingClient, "/refresh-fail", null);
+            } catch (IOException expected) {
+                //the response was truncated
+            } finally {
+                failRefresh = false;
+                failingClient.getConnectionManager().shutdown();
+            }
+
+            //the stale entry is still there, and another request can refresh it
+            final String refreshed = refreshWhileRequesting(client, "/refresh-fail", original);
+            Assert.assertEquals(refreshed, get(client, "/refresh-fail", null));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    /**
+     * Starts a request that refreshes a stale entry, and checks that the stale entry is served while the refresh
+     * is in progress.
+     *
+     * @return The refreshed response
+     */
+    private static String refreshWhileRequesting(final TestHttpClient client, final String path, final String stale) throws Exception {
+        refreshStarted = new CountDownLatch(1);
+        refreshRelease = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> refresh = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    final TestHttpClient refreshClient = new TestHttpClient();
+                    try {
+                        return get(refreshClient, path, null);
+                    } finally {
+                        refreshClient.getConnectionManager().shutdown();
+                    }
+                }
+            });
+            Assert.assertTrue(refreshStarted.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(stale, get(client, path, null));
+            refreshRelease.countDown();
+            final String refreshed = refresh.get(10, TimeUnit.SECONDS);
+            Assert.assertFalse(stale.equals(refreshed));
+            return refreshed;
+        } finally {
+            refreshRelease.countDown();
+            refreshRelease = null;
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Makes requests until the response is served from the cache
+     */
+    private static String fill(final TestHttpClient client, final String path, final String language) throws IOException {
+        String last = get(client, path, language);
+        for (int i = 0; i < 10; ++i) {
+            String response = get(client, path, language);
+            if (response.equals(last)) {
+                return response;
+            }
+            last = response;
+        }
+        Assert.fail("Response was not cached");
+        return null;
+    }
+
+    private static String get(final TestHttpClient client, final String path, final String language) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+        if (language != null) {
+            get.addHeader(Headers.ACCEPT_LANGUAGE_STRING, language);
+        }
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        return HttpClientUtils.readResponse(result);
+    }
+}
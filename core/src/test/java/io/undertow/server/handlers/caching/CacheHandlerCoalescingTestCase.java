@@ -0,0 +1,230 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.caching;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.CacheHandler;
+import io.undertow.server.handlers.cache.CachedHttpRequest;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that concurrent requests for a response that is being cached wait for the cache, rather than
+ * all invoking the handler.
+ *
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class CacheHandlerCoalescingTestCase {
+
+    private static final int WAITING_REQUESTS = 5;
+
+    @Test
+    public void testConcurrentMissesAreCoalesced() throws Exception {
+        final AtomicInteger responseCount = new AtomicInteger();
+        final AtomicBoolean filling = new AtomicBoolean();
+        final CountDownLatch fillStarted = new CountDownLatch(1);
+        final CountDownLatch fillRelease = new CountDownLatch(1);
+        final DirectBufferCache cache = new DirectBufferCache(100, 10, 1000);
+
+        final HttpHandler messageHandler = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                if (exchange.isInIoThread()) {
+                    exchange.dispatch(this);
+                    return;
+                }
+                final ResponseCache responseCache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+                if (responseCache.tryServeResponse()) {
+                    return;
+                }
+                final byte[] data = ("Response " + responseCount.incrementAndGet()).getBytes("UTF-8");
+                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length + "");
+                exchange.startBlocking();
+                final OutputStream out = exchange.getOutputStream();
+                out.write(data, 0, 2);
+                out.flush();
+                //if this response is being written to the cache then hold it until the other requests are waiting
+                final DirectBufferCache.CacheEntry entry = cache.peek(new CachedHttpRequest(exchange));
+                if (entry != null && entry.loading() && filling.compareAndSet(false, true)) {
+                    fillStarted.countDown();
+                    fillRelease.await(10, TimeUnit.SECONDS);
+                }
+                out.write(data, 2, data.length - 2);
+                out.close();
+            }
+        };
+        DefaultServer.setRootHandler(new CacheHandler(cache, messageHandler)
+                .setRequestCoalescing(true)
+                .setCoalescingTimeout(10000));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(WAITING_REQUESTS + 1);
+        try {
+            //keep making requests until one of them starts filling the cache
+            final Future<String> filler = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    String last = null;
+                    while (fillStarted.getCount() > 0) {
+                        last = get();
+                    }
+                    return last;
+                }
+            });
+            Assert.assertTrue(fillStarted.await(10, TimeUnit.SECONDS));
+            final int count = responseCount.get();
+
+            final List<Future<String>> waiting = new ArrayList<Future<String>>();
+            for (int i = 0; i < WAITING_REQUESTS; ++i) {
+                waiting.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return get();
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            fillRelease.countDown();
+
+            Assert.assertEquals("Response " + count, filler.get(10, TimeUnit.SECONDS));
+            for (Future<String> result : waiting) {
+                Assert.assertEquals("Response " + count, result.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(count, responseCount.get());
+        } finally {
+            fillRelease.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaitingRequestsAreResumedWhenTheLoadFails() throws Exception {
+        final AtomicInteger responseCount = new AtomicInteger();
+        final AtomicBoolean filling = new AtomicBoolean();
+        final CountDownLatch fillStarted = new CountDownLatch(1);
+        final CountDownLatch fillRelease = new CountDownLatch(1);
+        final DirectBufferCache cache = new DirectBufferCache(100, 10, 1000);
+
+        final HttpHandler messageHandler = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                if (exchange.isInIoThread()) {
+                    exchange.dispatch(this);
+                    return;
+                }
+                final ResponseCache responseCache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+                if (responseCache.tryServeResponse()) {
+                    return;
+                }
+                final byte[] data = ("Response " + responseCount.incrementAndGet()).getBytes("UTF-8");
+                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length + "");
+                exchange.startBlocking();
+                final OutputStream out = exchange.getOutputStream();
+                out.write(data, 0, 2);
+                out.flush();
+                //the request that is filling the cache fails once the other requests are waiting for it
+                final DirectBufferCache.CacheEntry entry = cache.peek(new CachedHttpRequest(exchange));
+                if (entry != null && entry.loading() && filling.compareAndSet(false, true)) {
+                    fillStarted.countDown();
+                    fillRelease.await(10, TimeUnit.SECONDS);
+                    throw new IOException("Leader failed");
+                }
+                out.write(data, 2, data.length - 2);
+                out.close();
+            }
+        };
+        //the timeout is much longer than the test waits, so the waiting requests must be woken by the failure
+        DefaultServer.setRootHandler(new CacheHandler(cache, messageHandler)
+                .setRequestCoalescing(true)
+                .setCoalescingTimeout(60000));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(WAITING_REQUESTS + 1);
+        try {
+            final Future<?> filler = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    while (fillStarted.getCount() > 0) {
+                        try {
+                            get();
+                        } catch (IOException expected) {
+                            //the failed request
+                        }
+                    }
+                    return null;
+                }
+            });
+            Assert.assertTrue(fillStarted.await(10, TimeUnit.SECONDS));
+
+            final List<Future<String>> waiting = new ArrayList<Future<String>>();
+            for (int i = 0; i < WAITING_REQUESTS; ++i) {
+                waiting.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return get();
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            fillRelease.countDown();
+
+            filler.get(10, TimeUnit.SECONDS);
+            for (Future<String> result : waiting) {
+                Assert.assertTrue(result.get(10, TimeUnit.SECONDS).startsWith("Response "));
+            }
+        } finally {
+            fillRelease.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static String get() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.caching;
+
+import io.undertow.server.handlers.cache.EvictionPolicy;
+import io.undertow.server.handlers.cache.LRUCache;
+import io.undertow.server.handlers.cache.TinyLFUEvictionPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Stuart Douglas
+ */
+public class LRUCacheTestCase {
+
+    private static final int MAX_ENTRIES = 100;
+    private static final int HOT_ENTRIES = 50;
+
+    @Test
+    public void testScanEvictsHotEntriesWithLRU() {
+        LRUCache<String, String> cache = new LRUCache<String, String>(MAX_ENTRIES, -1, EvictionPolicy.LRU);
+        int hotRemaining = runScan(cache);
+        Assert.assertTrue(hotRemaining < HOT_ENTRIES);
+        Assert.assertEquals(0, cache.getAdmissionRejections());
+        Assert.assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void testScanDoesNotEvictHotEntriesWithTinyLFU() {
+        LRUCache<String, String> cache = new LRUCache<String, String>(MAX_ENTRIES, -1, new TinyLFUEvictionPolicy(MAX_ENTRIES));
+        int hotRemaining = runScan(cache);
+        Assert.assertEquals(HOT_ENTRIES, hotRemaining);
+        Assert.assertTrue(cache.getAdmissionRejections() > 0);
+        Assert.assertTrue(cache.getHits() > 0);
+        Assert.assertTrue(cache.getMisses() > 0);
+    }
+
+    /**
+     * Populates the cache with some popular entries, then simulates a scan over a large number of
+     * keys that are only requested once, with normal traffic to the popular entries mixed in.
+     *
+     * @return the number of popular entries that are still in the cache
+     */
+    private int runScan(LRUCache<String, String> cache) {
+        for (int i = 0; i < HOT_ENTRIES; ++i) {
+            String key = "/hot/" + i;
+            cache.get(key);
+            cache.add(key, key);
+            for (int j = 0; j < 10; ++j) {
+                cache.get(key);
+            }
+        }
+        for (int i = 0; i < 2000; ++i) {
+            String key = "/crawl/" + i;
+            if (cache.get(key) == null) {
+                cache.add(key, key);
+            }
+            if (i % 20 == 0) {
+                for (int j = 0; j < HOT_ENTRIES; ++j) {
+                    cache.get("/hot/" + j);
+                }
+            }
+        }
+        int remaining = 0;
+        for (int i = 0; i < HOT_ENTRIES; ++i) {
+            if (cache.get("/hot/" + i) != null) {
+                ++remaining;
+            }
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.caching;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.server.handlers.cache.EvictionPolicy;
+import io.undertow.server.handlers.cache.MappedFileCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Stuart Douglas
+ */
+public class MappedFileCacheTestCase {
+
+    private static final int FILE_SIZE = 1000;
+
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void cleanup() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSizeLimit() throws IOException {
+        final MappedFileCache cache = new MappedFileCache(FILE_SIZE * 2, FILE_SIZE * 2, 1, EvictionPolicy.LRU);
+        Assert.assertNotNull(add(cache, "a", createFile('a', FILE_SIZE)));
+        Assert.assertNotNull(add(cache, "b", createFile('b', FILE_SIZE)));
+        Assert.assertEquals(FILE_SIZE * 2, cache.getMappedSize());
+
+        //too big to ever be mapped
+        Assert.assertNull(add(cache, "big", createFile('c', FILE_SIZE * 2 + 1)));
+        Assert.assertNotNull(cache.peek("a"));
+        Assert.assertNotNull(cache.peek("b"));
+
+        //there is only room for two files
+        Assert.assertNotNull(add(cache, "c", createFile('c', FILE_SIZE)));
+        Assert.assertEquals(FILE_SIZE * 2, cache.getMappedSize());
+        Assert.assertEquals(2, cache.getAllKeys().size());
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        final MappedFileCache cache = new MappedFileCache(FILE_SIZE * 3, FILE_SIZE, 1, EvictionPolicy.LRU);
+        add(cache, "a", createFile('a', FILE_SIZE));
+        add(cache, "b", createFile('b', FILE_SIZE));
+        add(cache, "c", createFile('c', FILE_SIZE));
+        add(cache, "d", createFile('d', FILE_SIZE));
+        Assert.assertNull(cache.peek("a"));
+        Assert.assertNotNull(cache.peek("b"));
+        Assert.assertNotNull(cache.peek("c"));
+        Assert.assertNotNull(cache.peek("d"));
+
+        add(cache, "e", createFile('e', FILE_SIZE));
+        Assert.assertNull(cache.peek("b"));
+        Assert.assertEquals(2, cache.getEvictions());
+        Assert.assertEquals(FILE_SIZE * 3, cache.getMappedSize());
+    }
+
+    @Test
+    public void testMapThreshold() {
+        final MappedFileCache cache = new MappedFileCache(FILE_SIZE * 2, FILE_SIZE, 3, EvictionPolicy.LRU);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertFalse(cache.claimMapping("a"));
+        Assert.assertNull(cache.get("a"));
+        Assert.assertFalse(cache.claimMapping("a"));
+        Assert.assertNull(cache.get("a"));
+        Assert.assertTrue(cache.claimMapping("a"));
+        //only one caller maps the file
+        Assert.assertFalse(cache.claimMapping("a"));
+        //if it was not mapped the count starts again
+        Assert.assertNull(cache.get("a"));
+        Assert.assertFalse(cache.claimMapping("a"));
+        Assert.assertFalse(cache.claimMapping("b"));
+    }
+
+    @Test
+    public void testEntryInUseSurvivesRemoval() throws IOException {
+        final MappedFileCache cache = new MappedFileCache(FILE_SIZE * 2, FILE_SIZE, 1, EvictionPolicy.LRU);
+        final MappedFileCache.MappedEntry entry = add(cache, "a", createFile('a', FILE_SIZE));
+        Assert.assertTrue(entry.reference());
+        final ByteBuffer[] buffers = entry.duplicateBuffers();
+
+        cache.remove("a");
+        Assert.assertNull(cache.peek("a"));
+        Assert.assertEquals(0, cache.getMappedSize());
+        //the request that is using the entry can still read it
+        assertContents('a', FILE_SIZE, buffers);
+
+        Assert.assertTrue(entry.dereference());
+        //the last reference is gone, so the file has been unmapped and the entry cannot be used again
+        Assert.assertFalse(entry.reference());
+    }
+
+    @Test
+    public void testEntryInUseSurvivesEviction() throws IOException {
+        final MappedFileCache cache = new MappedFileCache(FILE_SIZE, FILE_SIZE, 1, EvictionPolicy.LRU);
+        final MappedFileCache.MappedEntry entry = add(cache, "a", createFile('a', FILE_SIZE));
+        Assert.assertTrue(entry.reference());
+        final ByteBuffer[] buffers = entry.duplicateBuffers();
+
+        Assert.assertNotNull(add(cache, "b", createFile('b', FILE_SIZE)));
+        Assert.assertNull(cache.peek("a"));
+        //the evicted mapping no longer counts towards the budget
+        Assert.assertEquals(FILE_SIZE, cache.getMappedSize());
+        assertContents('a', FILE_SIZE, buffers);
+
+        Assert.assertTrue(entry.dereference());
+        Assert.assertFalse(entry.reference());
+    }
+
+    @Test
+    public void testEntryInUseSurvivesReplacement() throws IOException {
+        final MappedFileCache cache = new MappedFileCache(FILE_SIZE * 4, FILE_SIZE * 2, 1, EvictionPolicy.LRU);
+        final MappedFileCache.MappedEntry original = add(cache, "a", createFile('a', FILE_SIZE));
+        Assert.assertTrue(original.reference());
+        final ByteBuffer[] buffers = original.duplicateBuffers();
+
+        //the file changes, so the old mapping is removed and the new version is mapped under the same key
+        cache.remove("a");
+        final MappedFileCache.MappedEntry replacement = add(cache, "a", createFile('z', FILE_SIZE * 2));
+        Assert.assertNotSame(original, replacement);
+        Assert.assertSame(replacement, cache.peek("a"));
+        Assert.assertEquals(FILE_SIZE * 2, cache.getMappedSize());
+
+        assertContents('a', FILE_SIZE, buffers);
+        Assert.assertTrue(original.dereference());
+        Assert.assertFalse(original.reference());
+
+        //the replacement is unaffected
+        Assert.assertTrue(replacement.reference());
+        try {
+            assertContents('z', FILE_SIZE * 2, replacement.duplicateBuffers());
+        } finally {
+            replacement.dereference();
+        }
+    }
+
+    @Test
+    public void testAddReturnsExistingEntry() throws IOException {
+        final MappedFileCache cache = new MappedFileCache(FILE_SIZE * 2, FILE_SIZE, 1, EvictionPolicy.LRU);
+        final File file = createFile('a', FILE_SIZE);
+        final MappedFileCache.MappedEntry entry = add(cache, "a", file);
+        Assert.assertSame(entry, add(cache, "a", file));
+        Assert.assertEquals(FILE_SIZE, cache.getMappedSize());
+        Assert.assertSame(entry, cache.get("a"));
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    private static MappedFileCache.MappedEntry add(final MappedFileCache cache, final String key, final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return cache.add(key, raf.getChannel(), file.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File createFile(final char content, final int size) throws IOException {
+        final File file = File.createTempFile("mapped", ".txt");
+        files.add(file);
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) content;
+        }
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertContents(final char content, final int size, final ByteBuffer[] buffers) {
+        int total = 0;
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                Assert.assertEquals((byte) content, buffer.get());
+                ++total;
+            }
+        }
+        Assert.assertEquals(size, total);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.io.IOException;
+
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.util.Headers;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.ContentEncodingHttpClient;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class AdaptiveEncodingPolicyTestCase {
+
+    private static volatile String message;
+    private static volatile String contentType;
+    private static volatile double load;
+
+    private static final AdaptiveEncodingPolicy.LoadMonitor LOAD = new AdaptiveEncodingPolicy.LoadMonitor() {
+        @Override
+        public double getLoad() {
+            return load;
+        }
+    };
+
+    @BeforeClass
+    public static void setup() {
+        final EncodingHandler handler = new EncodingHandler(new ContentEncodingRepository()
+                .addEncodingHandler("gzip", new GzipEncodingProvider(), 50))
+                .setEncodingPolicy(new AdaptiveEncodingPolicy()
+                        .setMinimumContentLength(100)
+                        .setLoadMonitor(LOAD))
+                .setNext(new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, message.length() + "");
+                        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, contentType);
+                        exchange.getResponseSender().send(message, IoCallback.END_EXCHANGE);
+                    }
+                });
+
+        DefaultServer.setRootHandler(handler);
+    }
+
+    @Test
+    public void testLargeTextResponseIsCompressed() throws IOException {
+        load = 0;
+        runTest(largeMessage(), "text/plain; charset=UTF-8", "gzip");
+    }
+
+    @Test
+    public void testCompressedUnderHighLoad() throws IOException {
+        load = 10;
+        runTest(largeMessage(), "text/html", "gzip");
+    }
+
+    @Test
+    public void testSmallResponseIsNotCompressed() throws IOException {
+        load = 0;
+        runTest("Hello World", "text/plain", null);
+    }
+
+    @Test
+    public void testExcludedTypesAreNotCompressed() throws IOException {
+        load = 0;
+        runTest(largeMessage(), "image/png", null);
+        runTest(largeMessage(), "application/zip", null);
+    }
+
+    @Test
+    public void testCompressionLevel() {
+        AdaptiveEncodingPolicy policy = new AdaptiveEncodingPolicy()
+                .setLevels(1, 9)
+                .setLoadRange(0.5, 1.5)
+                .setLoadMonitor(LOAD);
+        load = 0.2;
+        Assert.assertEquals(9, policy.getCompressionLevel());
+        load = 1;
+        Assert.assertEquals(5, policy.getCompressionLevel());
+        load = 2;
+        Assert.assertEquals(1, policy.getCompressionLevel());
+    }
+
+    private static String largeMessage() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            builder.append("Hello World ");
+        }
+        return builder.toString();
+    }
+
+    private void runTest(final String theMessage, final String theContentType, final String expectedEncoding) throws IOException {
+        ContentEncodingHttpClient client = new ContentEncodingHttpClient();
+        try {
+            message = theMessage;
+            contentType = theContentType;
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+            get.setHeader(Headers.ACCEPT_ENCODING_STRING, "gzip");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Header[] header = result.getHeaders(Headers.CONTENT_ENCODING_STRING);
+            if (expectedEncoding == null) {
+                Assert.assertEquals(0, header.length);
+            } else {
+                Assert.assertEquals(expectedEncoding, header[0].getValue());
+            }
+            final String body = HttpClientUtils.readResponse(result);
+            Assert.assertEquals(theMessage, body);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.resource.FileChannelCache;
+import io.undertow.server.handlers.resource.FileResourceManager;
+import io.undertow.server.handlers.resource.ResourceHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Xnio;
+
+/**
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class FileChannelCacheTestCase {
+
+    @Test
+    public void testCachedFileIsServed() throws IOException, URISyntaxException {
+        runTest(10485760);
+    }
+
+    @Test
+    public void testCachedFileTransfer() throws IOException, URISyntaxException {
+        // 1 byte = force transfer
+        runTest(1);
+    }
+
+    @Test
+    public void testEvictionAndInvalidation() throws IOException, URISyntaxException {
+        File rootPath = new File(getClass().getResource("page.html").toURI()).getParentFile();
+        File page = new File(rootPath, "page.html");
+        File test = new File(rootPath, "FileHandlerTestCase.class");
+        FileChannelCache cache = new FileChannelCache(1);
+        try {
+            FileChannelCache.CachedChannel first = cache.acquire(page.getCanonicalPath(), page, Xnio.getInstance());
+            Assert.assertSame(first, cache.acquire(page.getCanonicalPath(), page, Xnio.getInstance()));
+            Assert.assertEquals(page.length(), first.getSize());
+            first.release();
+
+            //evicts the first entry, but it is still in use so must stay open
+            FileChannelCache.CachedChannel second = cache.acquire(test.getCanonicalPath(), test, Xnio.getInstance());
+            Assert.assertEquals(1, cache.size());
+            Assert.assertNull(cache.getIfPresent(page.getCanonicalPath()));
+            Assert.assertTrue(first.getChannel().isOpen());
+            first.release();
+            Assert.assertFalse(first.getChannel().isOpen());
+
+            cache.invalidate(rootPath.getCanonicalPath());
+            Assert.assertEquals(0, cache.size());
+            Assert.assertTrue(second.getChannel().isOpen());
+            second.release();
+            Assert.assertFalse(second.getChannel().isOpen());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testSizeLimitAcrossSegments() throws IOException, URISyntaxException {
+        File rootPath = new File(getClass().getResource("page.html").toURI()).getParentFile();
+        final String[] names = {"page.html", "FileHandlerTestCase.class", "FileChannelCacheTestCase.class", "RangeRequestTestCase.class"};
+        FileChannelCache cache = new FileChannelCache(2);
+        try {
+            for (String name : names) {
+                File file = new File(rootPath, name);
+                FileChannelCache.CachedChannel channel = cache.acquire(file.getCanonicalPath(), file, Xnio.getInstance());
+                Assert.assertEquals(file.length(), channel.getSize());
+                channel.release();
+                Assert.assertTrue(cache.size() <= 2);
+            }
+            File page = new File(rootPath, "page.html");
+            cache.invalidate(rootPath.getCanonicalPath());
+            Assert.assertEquals(0, cache.size());
+            Assert.assertNull(cache.getIfPresent(page.getCanonicalPath()));
+        } finally {
+            cache.close();
+        }
+    }
+
+    private void runTest(long transferMinSize) throws IOException, URISyntaxException {
+        TestHttpClient client = new TestHttpClient();
+        File rootPath = new File(getClass().getResource("page.html").toURI()).getParentFile();
+        FileChannelCache cache = new FileChannelCache(10);
+        FileResourceManager resourceManager = new FileResourceManager(rootPath, transferMinSize, cache);
+        try {
+            DefaultServer.setRootHandler(new CanonicalPathHandler()
+                    .setNext(new PathHandler()
+                            .addPrefixPath("/path", new ResourceHandler()
+                                    .setResourceManager(resourceManager))));
+
+            for (int i = 0; i < 3; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                final String response = HttpClientUtils.readResponse(result);
+                Assert.assertTrue(response, response.contains("A web page"));
+                Assert.assertEquals(1, cache.size());
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+            //also closes the cache
+            resourceManager.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.undertow.server.handlers.file;
+
+import io.undertow.server.handlers.encoding.ContentEncodedResourceManager;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.server.handlers.resource.CachingResourceManager;
+import io.undertow.server.handlers.resource.FileResourceManager;
+import io.undertow.server.handlers.resource.ResourceHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.ContentEncodingHttpClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class PrecompressedResourceTestCase {
+
+    public static final String DIR_NAME = "/precompressedResourceTestCase";
+
+    private static final String SCRIPT = "function hello() { return 'hello world'; }";
+
+    static File tmpDir;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+
+        tmpDir = new File(System.getProperty("java.io.tmpdir") + DIR_NAME);
+        new File(tmpDir, "scripts").mkdirs();
+
+        writeFile(new File(tmpDir, "scripts/app.js"), SCRIPT);
+        File original = new File(tmpDir, "sibling.txt");
+        writeFile(original, "original content");
+        File sibling = new File(tmpDir, "sibling.txt.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(sibling));
+        try {
+            out.write("sibling content".getBytes());
+        } finally {
+            out.close();
+        }
+        sibling.setLastModified(original.lastModified() + 1000);
+
+        final FileResourceManager resourceManager = new FileResourceManager(tmpDir, 10485760);
+        final ContentEncodedResourceManager contentEncodedResourceManager = new ContentEncodedResourceManager(tmpDir, new CachingResourceManager(100, 10000, null, resourceManager, -1), new ContentEncodingRepository()
+                .addEncodingHandler("gzip", new GzipEncodingProvider(), 60, null)
+                .addEncodingHandler("deflate", new DeflateEncodingProvider(), 50, null), 0, 100000, null);
+        contentEncodedResourceManager.precompress(resourceManager, 2);
+
+        DefaultServer.setRootHandler(new ResourceHandler().setResourceManager(resourceManager)
+                .setContentEncodedResourceManager(contentEncodedResourceManager));
+    }
+
+    @AfterClass
+    public static void after() {
+        delete(tmpDir);
+    }
+
+    @Test
+    public void testResourcesAreEncodedAheadOfTime() throws IOException {
+        Assert.assertTrue(new File(tmpDir, "scripts/app.js.undertow.encoding.gzip").isFile());
+        Assert.assertTrue(new File(tmpDir, "scripts/app.js.undertow.encoding.deflate").isFile());
+        //the existing gzip file is used instead
+        Assert.assertFalse(new File(tmpDir, "sibling.txt.undertow.encoding.gzip").exists());
+
+        runTest("/scripts/app.js", "gzip", SCRIPT);
+        runTest("/scripts/app.js", "deflate", SCRIPT);
+    }
+
+    @Test
+    public void testGzipSiblingIsServed() throws IOException {
+        runTest("/sibling.txt", "gzip", "sibling content");
+    }
+
+    private void runTest(final String path, final String encoding, final String expected) throws IOException {
+        ContentEncodingHttpClient client = new ContentEncodingHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+            get.setHeader(Headers.ACCEPT_ENCODING_STRING, encoding);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            String response = HttpClientUtils.readResponse(result);
+            Assert.assertEquals(expected, response);
+            Assert.assertEquals(encoding, result.getHeaders(Headers.CONTENT_ENCODING_STRING)[0].getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void writeFile(final File f, final String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(contents.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.EvictionPolicy;
+import io.undertow.server.handlers.cache.MappedFileCache;
+import io.undertow.server.handlers.resource.CachingResourceManager;
+import io.undertow.server.handlers.resource.FileResourceManager;
+import io.undertow.server.handlers.resource.ResourceHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.DateUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class RangeRequestTestCase {
+
+    @Test
+    public void testRangeRequests() throws IOException, URISyntaxException {
+        File rootPath = new File(getClass().getResource("page.html").toURI()).getParentFile();
+        runTests(new CanonicalPathHandler()
+                .setNext(new PathHandler()
+                        .addPrefixPath("/path", new ResourceHandler()
+                                .setResourceManager(new FileResourceManager(rootPath, 10485760)))));
+    }
+
+    @Test
+    public void testRangeRequestsUsingTransfer() throws IOException, URISyntaxException {
+        File rootPath = new File(getClass().getResource("page.html").toURI()).getParentFile();
+        runTests(new CanonicalPathHandler()
+                .setNext(new PathHandler()
+                        .addPrefixPath("/path", new ResourceHandler()
+                                // 1 byte = force transfer
+                                .setResourceManager(new FileResourceManager(rootPath, 1)))));
+    }
+
+    @Test
+    public void testRangeRequestsFromCache() throws IOException, URISyntaxException {
+        File rootPath = new File(getClass().getResource("page.html").toURI()).getParentFile();
+        runTests(new CanonicalPathHandler()
+                .setNext(new PathHandler()
+                        .addPrefixPath("/path", new ResourceHandler()
+                                .setResourceManager(new CachingResourceManager(100, 10000, new DirectBufferCache(100, 10, 1000), new FileResourceManager(rootPath, 10485760), -1)))));
+    }
+
+    @Test
+    public void testRangeRequestsFromMappedCache() throws IOException, URISyntaxException {
+        File rootPath = new File(getClass().getResource("page.html").toURI()).getParentFile();
+        MappedFileCache mappedFileCache = new MappedFileCache(1000000, 100000);
+        runTests(new CanonicalPathHandler()
+                .setNext(new PathHandler()
+                        .addPrefixPath("/path", new ResourceHandler()
+                                .setResourceManager(new CachingResourceManager(100, 10000, null, mappedFileCache, new FileResourceManager(rootPath, 10485760), -1, EvictionPolicy.LRU)))));
+        Assert.assertTrue(mappedFileCache.getMappedSize() > 0);
+        Assert.assertTrue(mappedFileCache.getHits() > 0);
+    }
+
+    private void runTests(HttpHandler handler) throws IOException, URISyntaxException {
+        final byte[] data = readFile(new File(getClass().getResource("page.html").toURI()));
+        final String content = new String(data, "UTF-8");
+        DefaultServer.setRootHandler(handler);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            //make enough requests that the data cache will be populated if present
+            for (int i = 0; i < 10; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("bytes", result.getFirstHeader("Accept-Ranges").getValue());
+                Assert.assertEquals(content, HttpClientUtils.readResponse(result));
+            }
+
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=2-10");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes 2-10/" + data.length, result.getFirstHeader("Content-Range").getValue());
+            Assert.assertEquals(content.substring(2, 11), HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=-20");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes " + (data.length - 20) + "-" + (data.length - 1) + "/" + data.length, result.getFirstHeader("Content-Range").getValue());
+            Assert.assertEquals(content.substring(data.length - 20), HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=100-");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(content.substring(100), HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=0-4,10-14");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            String contentType = result.getFirstHeader("Content-Type").getValue();
+            Assert.assertTrue(contentType, contentType.startsWith("multipart/byteranges; boundary="));
+            String boundary = contentType.substring("multipart/byteranges; boundary=".length());
+            String expected = "\r\n--" + boundary + "\r\nContent-Type: text/html\r\nContent-Range: bytes 0-4/" + data.length + "\r\n\r\n" +
+                    content.substring(0, 5) +
+                    "\r\n--" + boundary + "\r\nContent-Type: text/html\r\nContent-Range: bytes 10-14/" + data.length + "\r\n\r\n" +
+                    content.substring(10, 15) +
+                    "\r\n--" + boundary + "--\r\n";
+            Assert.assertEquals(expected, HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=" + data.length + "-");
+            result = client.execute(get);
+            Assert.assertEquals(416, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes */" + data.length, result.getFirstHeader("Content-Range").getValue());
+            HttpClientUtils.readResponse(result);
+
+            //an out of date If-Range results in the full entity being sent
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=2-10");
+            get.addHeader("If-Range", DateUtils.toDateString(new java.util.Date(0)));
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(content, HttpClientUtils.readResponse(result));
+
+            //invalid ranges are ignored
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=10-2");
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(content, HttpClientUtils.readResponse(result));
+
+            //overlapping ranges are only sent once
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", "bytes=0-,0-,0-,0-");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes 0-" + (data.length - 1) + "/" + data.length, result.getFirstHeader("Content-Range").getValue());
+            Assert.assertEquals(content, HttpClientUtils.readResponse(result));
+
+            //too many ranges result in the full entity being sent
+            final StringBuilder header = new StringBuilder("bytes=0-0");
+            for (int i = 0; i < 100; ++i) {
+                header.append(",0-0");
+            }
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.addHeader("Range", header.toString());
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(content, HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[1024];
+            int r;
+            while ((r = in.read(buf)) > 0) {
+                out.write(buf, 0, r);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
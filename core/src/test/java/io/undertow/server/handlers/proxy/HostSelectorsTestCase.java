@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the built in host selectors against hosts with a fixed load, using a seeded random so the results are
+ * repeatable.
+ *
+ * @author Stuart Douglas
+ */
+public class HostSelectorsTestCase {
+
+    private static final int SELECTIONS = 10000;
+
+    @Test
+    public void testRoundRobin() {
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 0), host(1, 0), host(1, 0)};
+        final int[] counts = select(HostSelectors.roundRobin(), hosts, 300);
+        Assert.assertArrayEquals(new int[]{100, 100, 100}, counts);
+    }
+
+    @Test
+    public void testRoundRobinSkipsUnavailableHosts() {
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 0), unhealthy(host(1, 0)), ejected(host(1, 0)), host(1, 0)};
+        final int[] counts = select(HostSelectors.roundRobin(), hosts, 400);
+        Assert.assertEquals(0, counts[1]);
+        Assert.assertEquals(0, counts[2]);
+        Assert.assertEquals(400, counts[0] + counts[3]);
+    }
+
+    @Test
+    public void testWeightedDistribution() {
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 0), host(2, 0), host(7, 0)};
+        final int[] counts = select(HostSelectors.weighted(new Random(1)), hosts, SELECTIONS);
+        assertShare(0.1, counts[0]);
+        assertShare(0.2, counts[1]);
+        assertShare(0.7, counts[2]);
+    }
+
+    @Test
+    public void testWeightedSkipsUnavailableHosts() {
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 0), unhealthy(host(5, 0)), host(3, 0), ejected(host(5, 0))};
+        final int[] counts = select(HostSelectors.weighted(new Random(2)), hosts, SELECTIONS);
+        Assert.assertEquals(0, counts[1]);
+        Assert.assertEquals(0, counts[3]);
+        assertShare(0.25, counts[0]);
+        assertShare(0.75, counts[2]);
+    }
+
+    @Test
+    public void testLeastOutstandingRequests() {
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 5), host(1, 1), host(1, 3)};
+        final int[] counts = select(HostSelectors.leastOutstandingRequests(new Random(3)), hosts, 100);
+        Assert.assertEquals(100, counts[1]);
+    }
+
+    @Test
+    public void testLeastOutstandingRequestsUsesWeights() {
+        //4 requests per unit of weight against 2
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 4), host(3, 6)};
+        final int[] counts = select(HostSelectors.leastOutstandingRequests(new Random(4)), hosts, 100);
+        Assert.assertEquals(100, counts[1]);
+    }
+
+    @Test
+    public void testLeastOutstandingRequestsSkipsUnavailableHosts() {
+        //the unavailable hosts have no outstanding requests, as nothing is being sent to them
+        final LoadBalancingProxyClient.Host[] hosts = {unhealthy(host(1, 0)), host(1, 7), ejected(host(1, 0)), host(1, 2)};
+        final int[] counts = select(HostSelectors.leastOutstandingRequests(new Random(5)), hosts, 100);
+        Assert.assertEquals(100, counts[3]);
+    }
+
+    @Test
+    public void testLeastOutstandingRequestsWithNoAvailableHosts() {
+        final LoadBalancingProxyClient.Host[] hosts = {unhealthy(host(1, 3)), ejected(host(1, 1)), unhealthy(host(1, 2))};
+        final int[] counts = select(HostSelectors.leastOutstandingRequests(new Random(6)), hosts, 100);
+        Assert.assertEquals(100, counts[1]);
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() {
+        //every pair of hosts includes one that is less loaded than the busiest host
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 1), host(1, 10), host(1, 2), host(1, 3)};
+        final int[] counts = select(HostSelectors.powerOfTwoChoices(new Random(7)), hosts, SELECTIONS);
+        Assert.assertEquals(0, counts[1]);
+        //the least loaded host wins every pair it is in, which is half of them
+        assertShare(0.5, counts[0]);
+        Assert.assertTrue(counts[0] > counts[2]);
+        Assert.assertTrue(counts[2] > counts[3]);
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesSkipsUnavailableHosts() {
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 4), unhealthy(host(1, 0)), ejected(host(1, 0)), host(1, 6)};
+        final int[] counts = select(HostSelectors.powerOfTwoChoices(new Random(8)), hosts, SELECTIONS);
+        Assert.assertEquals(0, counts[1]);
+        Assert.assertEquals(0, counts[2]);
+        Assert.assertTrue(counts[0] > counts[3]);
+        Assert.assertTrue(counts[3] > 0);
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesSingleHost() {
+        final LoadBalancingProxyClient.Host[] hosts = {host(1, 5)};
+        Assert.assertEquals(0, HostSelectors.powerOfTwoChoices(new Random(9)).selectHost(hosts));
+    }
+
+    private static int[] select(final HostSelector selector, final LoadBalancingProxyClient.Host[] hosts, final int selections) {
+        final int[] counts = new int[hosts.length];
+        for (int i = 0; i < selections; ++i) {
+            counts[selector.selectHost(hosts)]++;
+        }
+        return counts;
+    }
+
+    private static void assertShare(final double expected, final int count) {
+        final double actual = count / (double) SELECTIONS;
+        Assert.assertEquals(expected, actual, 0.03);
+    }
+
+    private static LoadBalancingProxyClient.Host host(final int weight, final long outstandingRequests) {
+        return new LoadBalancingProxyClient.Host(new FixedLoadPool(outstandingRequests), null, null, weight);
+    }
+
+    private static LoadBalancingProxyClient.Host unhealthy(final LoadBalancingProxyClient.Host host) {
+        host.connectionPool.setUnhealthy(true);
+        return host;
+    }
+
+    private static LoadBalancingProxyClient.Host ejected(final LoadBalancingProxyClient.Host host) {
+        host.connectionPool.eject(System.currentTimeMillis() + 60000);
+        return host;
+    }
+
+    /**
+     * A pool that never connects, and reports a fixed number of outstanding requests
+     */
+    private static final class FixedLoadPool extends ProxyConnectionPool {
+
+        private final long outstandingRequests;
+
+        FixedLoadPool(final long outstandingRequests) {
+            super(null, null, null);
+            this.outstandingRequests = outstandingRequests;
+        }
+
+        @Override
+        public long getOutstandingRequests() {
+            return outstandingRequests;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Tests the connection TTL, warm up and max requests settings of the proxy connection pool
+ *
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class ProxyConnectionPoolTestCase {
+
+    private static Undertow server;
+    private static URI serverUri;
+
+    @BeforeClass
+    public static void setup() throws URISyntaxException {
+        int port = DefaultServer.getHostPort("default");
+        server = Undertow.builder()
+                .addListener(port + 5, DefaultServer.getHostAddress("default"))
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        exchange.getResponseSender().send("hello");
+                    }
+                })
+                .build();
+        server.start();
+        serverUri = new URI("http", null, DefaultServer.getHostAddress("default"), port + 5, null, null, null);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        server.stop();
+    }
+
+    @Test
+    public void testMaxRequestsPerConnection() throws Exception {
+        final LoadBalancingProxyClient proxyClient = createClient()
+                .setMaxRequestsPerConnection(2);
+        for (int i = 0; i < 6; ++i) {
+            runRequest();
+        }
+        Assert.assertTrue(proxyClient.getHosts()[0].getCreatedConnections() >= 3);
+    }
+
+    @Test
+    public void testIdleConnectionsExpire() throws Exception {
+        final LoadBalancingProxyClient proxyClient = createClient()
+                .setTtl(100);
+        runRequest();
+        final LoadBalancingProxyClient.Host host = proxyClient.getHosts()[0];
+        Assert.assertEquals(1, host.getCreatedConnections());
+        for (int i = 0; i < 50 && host.getIdleConnections() > 0; ++i) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(0, host.getIdleConnections());
+        runRequest();
+        Assert.assertEquals(2, host.getCreatedConnections());
+    }
+
+    @Test
+    public void testWarmConnections() throws Exception {
+        final LoadBalancingProxyClient proxyClient = createClient()
+                .setConnectionsPerThread(5)
+                .setWarmConnectionsPerThread(3);
+        runRequest();
+        final LoadBalancingProxyClient.Host host = proxyClient.getHosts()[0];
+        for (int i = 0; i < 50 && host.getIdleConnections() < 3; ++i) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(host.getIdleConnections() >= 3);
+        Assert.assertEquals(0, host.getActiveConnections());
+        Assert.assertEquals(0, host.getQueuedRequests());
+    }
+
+    private static LoadBalancingProxyClient createClient() {
+        final LoadBalancingProxyClient proxyClient = new LoadBalancingProxyClient()
+                .setConnectionsPerThread(1)
+                .addHost(serverUri);
+        DefaultServer.setRootHandler(new ProxyHandler(proxyClient, 10000, ResponseCodeHandler.HANDLE_404));
+        return proxyClient;
+    }
+
+    private static void runRequest() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("hello", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import static io.undertow.Handlers.path;
+
+/**
+ * Tests that hosts that fail active health checks, or that are detected as outliers from the requests that are
+ * proxied to them, are taken out of rotation
+ *
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+public class ProxyHealthCheckTestCase {
+
+    private static final int OK = 0;
+    private static final int ERROR = 1;
+    private static final int RESET = 2;
+
+    private static volatile boolean server2Healthy = true;
+    private static volatile int server2Mode = OK;
+
+    private static Undertow server1;
+    private static Undertow server2;
+    private static LoadBalancingProxyClient proxyClient;
+    private static ProxyHealthChecker healthChecker;
+
+    @BeforeClass
+    public static void setup() throws URISyntaxException {
+        int port = DefaultServer.getHostPort("default");
+        server1 = Undertow.builder()
+                .addListener(port + 3, DefaultServer.getHostAddress("default"))
+                .setHandler(path()
+                        .addPrefixPath("/health", ResponseCodeHandler.HANDLE_200)
+                        .addPrefixPath("/name", new NameHandler("server1")))
+                .build();
+        server2 = Undertow.builder()
+                .addListener(port + 4, DefaultServer.getHostAddress("default"))
+                .setHandler(path()
+                        .addPrefixPath("/health", new HttpHandler() {
+                            @Override
+                            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                                exchange.setResponseCode(server2Healthy ? 200 : 503);
+                            }
+                        })
+                        .addPrefixPath("/name", new HttpHandler() {
+                            @Override
+                            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                                final int mode = server2Mode;
+                                if (mode == ERROR) {
+                                    exchange.setResponseCode(500);
+                                } else if (mode == RESET) {
+                                    IoUtils.safeClose(exchange.getConnection());
+                                } else {
+                                    exchange.getResponseSender().send("server2");
+                                }
+                            }
+                        }))
+                .build();
+        server1.start();
+        server2.start();
+
+        proxyClient = new LoadBalancingProxyClient()
+                .setConnectionsPerThread(1)
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 3, null, null, null))
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 4, null, null, null));
+        healthChecker = new ProxyHealthChecker(proxyClient)
+                .setPath("/health")
+                .setInterval(100)
+                .setUnhealthyThreshold(2)
+                .setHealthyThreshold(1)
+                .start(DefaultServer.getWorker(), DefaultServer.getBufferPool());
+        DefaultServer.setRootHandler(new ProxyHandler(proxyClient, 10000, ResponseCodeHandler.HANDLE_404));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        healthChecker.close();
+        server1.stop();
+        server2.stop();
+    }
+
+    @Test
+    public void testUnhealthyHostIsNotUsed() throws Exception {
+        server2Healthy = false;
+        try {
+            waitForHealth(false);
+            for (int i = 0; i < 6; ++i) {
+                Assert.assertEquals("server1", getName());
+            }
+        } finally {
+            server2Healthy = true;
+        }
+        waitForHealth(true);
+        final StringBuilder resultString = new StringBuilder();
+        for (int i = 0; i < 6; ++i) {
+            resultString.append(getName());
+            resultString.append(' ');
+        }
+        Assert.assertTrue(resultString.toString().contains("server1"));
+        Assert.assertTrue(resultString.toString().contains("server2"));
+    }
+
+    @Test
+    public void testHostReturningErrorsIsEjected() throws Exception {
+        runOutlierTest(ERROR);
+    }
+
+    @Test
+    public void testHostResettingConnectionsIsEjected() throws Exception {
+        runOutlierTest(RESET);
+    }
+
+    /**
+     * Makes server2 fail every proxied request, while still passing the active health check, and checks that it is
+     * ejected by outlier detection and then put back into rotation once the ejection time has passed
+     */
+    private static void runOutlierTest(final int mode) throws Exception {
+        final LoadBalancingProxyClient.Host host = proxyClient.getHosts()[1];
+        final int minimumRequests = healthChecker.getMinimumRequests();
+        final double latencyFactor = healthChecker.getLatencyFactor();
+        final int ejectionTime = healthChecker.getEjectionTime();
+        //only the error rate is under test, so response times on a loaded test machine must not eject anything
+        healthChecker.setMinimumRequests(5)
+                .setLatencyFactor(1000)
+                .setEjectionTime(2000);
+        try {
+            server2Mode = mode;
+            for (int i = 0; i < 1000 && !host.isEjected(); ++i) {
+                sendRequest();
+            }
+            Assert.assertTrue(host.isEjected());
+            Assert.assertTrue(host.isHealthy());
+            server2Mode = OK;
+            for (int i = 0; i < 4; ++i) {
+                Assert.assertEquals("server1", getName());
+            }
+
+            for (int i = 0; i < 150 && host.isEjected(); ++i) {
+                Thread.sleep(100);
+            }
+            Assert.assertFalse(host.isEjected());
+            final StringBuilder resultString = new StringBuilder();
+            for (int i = 0; i < 6; ++i) {
+                resultString.append(getName());
+                resultString.append(' ');
+            }
+            Assert.assertTrue(resultString.toString().contains("server1"));
+            Assert.assertTrue(resultString.toString().contains("server2"));
+        } finally {
+            server2Mode = OK;
+            healthChecker.setMinimumRequests(minimumRequests)
+                    .setLatencyFactor(latencyFactor)
+                    .setEjectionTime(ejectionTime);
+        }
+    }
+
+    private static void waitForHealth(final boolean healthy) throws InterruptedException {
+        final LoadBalancingProxyClient.Host host = proxyClient.getHosts()[1];
+        for (int i = 0; i < 50 && host.isHealthy() != healthy; ++i) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(healthy, host.isHealthy());
+    }
+
+    private static String getName() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/name");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void sendRequest() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/name");
+            HttpResponse result = client.execute(get);
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static final class NameHandler implements HttpHandler {
+
+        private final String name;
+
+        private NameHandler(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            exchange.getResponseSender().send(name);
+        }
+    }
+}
@@ -165,4 +165,53 @@ public class InMemorySessionTestCase {
         }
     }
 
+
+    @Test
+    public void inMemoryTimerWheelExpiryTest() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+        try {
+            final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+            final SessionAttachmentHandler handler = new SessionAttachmentHandler(new InMemorySessionManager("", -1, true), sessionConfig);
+            handler.setNext(new HttpHandler() {
+                @Override
+                public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                    final SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+                    Session session = manager.getSession(exchange, sessionConfig);
+                    if (session == null) {
+                        session = manager.createSession(exchange, sessionConfig);
+                        session.setMaxInactiveInterval(1);
+                        session.setAttribute(COUNT, 0);
+                    }
+                    Integer count = (Integer) session.getAttribute(COUNT);
+                    exchange.getResponseHeaders().add(new HttpString(COUNT), count.toString());
+                    session.setAttribute(COUNT, ++count);
+                }
+            });
+            DefaultServer.setRootHandler(handler);
+
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/notamatchingpath");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("0", result.getHeaders(COUNT)[0].getValue());
+
+            //keep using the session for longer than the timeout
+            for (int i = 1; i <= 4; ++i) {
+                Thread.sleep(500);
+                result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+                Assert.assertEquals(Integer.toString(i), result.getHeaders(COUNT)[0].getValue());
+            }
+
+            Thread.sleep(3000);
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("0", result.getHeaders(COUNT)[0].getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
 }
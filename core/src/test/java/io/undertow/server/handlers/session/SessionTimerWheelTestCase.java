@@ -0,0 +1,86 @@
+package io.undertow.server.handlers.session;
+
+import java.util.List;
+
+import io.undertow.server.session.SessionTimerWheel;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Stuart Douglas
+ */
+public class SessionTimerWheelTestCase {
+
+    private static final long TICK = 1000;
+
+    @Test
+    public void testEntriesExpireOnTime() {
+        SessionTimerWheel<TestEntry> wheel = new SessionTimerWheel<TestEntry>(TICK, 0);
+        //spread the entries over all the levels of the wheel
+        long[] expiries = {500, 1000, 63000, 64000, 65500, 4095000, 4096000, 300000000};
+        TestEntry[] entries = new TestEntry[expiries.length];
+        for (int i = 0; i < expiries.length; ++i) {
+            entries[i] = new TestEntry(expiries[i]);
+            wheel.schedule(entries[i]);
+        }
+        int found = 0;
+        for (long now = 0; now <= 300000000 + TICK; now += TICK) {
+            for (TestEntry entry : wheel.advance(now)) {
+                Assert.assertTrue("expired early", entry.expiry <= now);
+                Assert.assertTrue("expired late " + entry.expiry + " " + now, now - entry.expiry < TICK);
+                Assert.assertFalse(entry.expired);
+                entry.expired = true;
+                ++found;
+            }
+        }
+        Assert.assertEquals(expiries.length, found);
+    }
+
+    @Test
+    public void testUsedEntriesAreRescheduled() {
+        SessionTimerWheel<TestEntry> wheel = new SessionTimerWheel<TestEntry>(TICK, 0);
+        TestEntry entry = new TestEntry(10000);
+        wheel.schedule(entry);
+        Assert.assertTrue(wheel.advance(5000).isEmpty());
+        //the session is used, which only moves the expiry time
+        entry.expiry = 100000;
+        Assert.assertTrue(wheel.advance(50000).isEmpty());
+        List<TestEntry> expired = wheel.advance(100000);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertSame(entry, expired.get(0));
+    }
+
+    @Test
+    public void testEarlierExpiryAndCancel() {
+        SessionTimerWheel<TestEntry> wheel = new SessionTimerWheel<TestEntry>(TICK, 0);
+        TestEntry entry = new TestEntry(1000000);
+        wheel.schedule(entry);
+        entry.expiry = 5000;
+        wheel.schedule(entry);
+        List<TestEntry> expired = wheel.advance(5000);
+        Assert.assertEquals(1, expired.size());
+        //the stale node for the old expiry time is dropped
+        Assert.assertTrue(wheel.advance(2000000).isEmpty());
+
+        TestEntry cancelled = new TestEntry(3000000);
+        wheel.schedule(cancelled);
+        wheel.cancel(cancelled);
+        TestEntry never = new TestEntry(-1);
+        wheel.schedule(never);
+        Assert.assertTrue(wheel.advance(4000000).isEmpty());
+    }
+
+    private static final class TestEntry extends SessionTimerWheel.Entry {
+        long expiry;
+        boolean expired;
+
+        TestEntry(long expiry) {
+            this.expiry = expiry;
+        }
+
+        @Override
+        protected long getExpiryTime() {
+            return expiry;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.protocol.http;
+
+import java.io.UnsupportedEncodingException;
+
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Stuart Douglas
+ */
+public class HttpResponseHeaderCacheTestCase {
+
+    @Test
+    public void testStatusLines() throws UnsupportedEncodingException {
+        final HttpResponseHeaderCache cache = HttpResponseHeaderCache.get();
+        final byte[] ok = cache.getStatusLine(Protocols.HTTP_1_1, 200);
+        Assert.assertEquals("HTTP/1.1 200 OK\r\n", new String(ok, "US-ASCII"));
+        Assert.assertSame(ok, cache.getStatusLine(Protocols.HTTP_1_1, 200));
+        Assert.assertEquals("HTTP/1.0 404 Not Found\r\n", new String(cache.getStatusLine(Protocols.HTTP_1_0, 404), "US-ASCII"));
+        Assert.assertEquals("HTTP/1.1 999 Unknown\r\n", new String(cache.getStatusLine(Protocols.HTTP_1_1, 999), "US-ASCII"));
+        Assert.assertEquals("HTTP/0.9 200 OK\r\n", new String(cache.getStatusLine(new HttpString("HTTP/0.9"), 200), "US-ASCII"));
+    }
+
+    @Test
+    public void testStatusCodesOutsideTheCachedRange() throws UnsupportedEncodingException {
+        //the exchange accepts any code from 0 to 999
+        final HttpResponseHeaderCache cache = HttpResponseHeaderCache.get();
+        Assert.assertEquals("HTTP/1.1 099 Unknown\r\n", new String(cache.getStatusLine(Protocols.HTTP_1_1, 99), "US-ASCII"));
+        Assert.assertEquals("HTTP/1.0 000 Unknown\r\n", new String(cache.getStatusLine(Protocols.HTTP_1_0, 0), "US-ASCII"));
+    }
+}
@@ -38,41 +38,60 @@ public class ParserResumeTestCase {
 
     public static final String DATA = "POST http://www.somehost.net/apath+with+spaces%20and%20I%C3%B1t%C3%ABrn%C3%A2ti%C3%B4n%C3%A0li%C5%BE%C3%A6ti%C3%B8n?key1=value1&key2=I%C3%B1t%C3%ABrn%C3%A2ti%C3%B4n%C3%A0li%C5%BE%C3%A6ti%C3%B8n HTTP/1.1\r\nHost:   www.somehost.net\r\nOtherHeader: some\r\n    value\r\nHostee:another\r\nAccept-garbage:   a\r\n\r\ntttt";
     public static final HttpRequestParser PARSER = HttpRequestParser.instance(OptionMap.create(UndertowOptions.ALLOW_ENCODED_SLASH, true));
+    public static final HttpRequestParser LAZY_PARSER = HttpRequestParser.instance(OptionMap.create(UndertowOptions.ALLOW_ENCODED_SLASH, true, UndertowOptions.LAZY_HEADER_VALUES, true));
 
     @Test
     public void testMethodSplit() {
+        testMethodSplit(PARSER);
+    }
+
+    @Test
+    public void testMethodSplitLazyHeaderValues() {
+        testMethodSplit(LAZY_PARSER);
+    }
+
+    @Test
+    public void testOneCharacterAtATime() {
+        testOneCharacterAtATime(PARSER);
+    }
+
+    @Test
+    public void testOneCharacterAtATimeLazyHeaderValues() {
+        testOneCharacterAtATime(LAZY_PARSER);
+    }
+
+    private void testMethodSplit(final HttpRequestParser parser) {
         byte[] in = DATA.getBytes();
         for (int i = 0; i < in.length - 4; ++i) {
             try {
-                testResume(i, in);
+                testResume(parser, i, in);
             } catch (Throwable e) {
                 throw new RuntimeException("Test failed at split " + i, e);
             }
         }
     }
 
-    @Test
-    public void testOneCharacterAtATime() {
+    private void testOneCharacterAtATime(final HttpRequestParser parser) {
         byte[] in = DATA.getBytes();
         final ParseState context = new ParseState();
         HttpServerExchange result = new HttpServerExchange(null);
         ByteBuffer buffer = ByteBuffer.wrap(in);
         buffer.limit(1);
         while (context.state != ParseState.PARSE_COMPLETE) {
-            PARSER.handle(buffer, context, result);
+            parser.handle(buffer, context, result);
             buffer.limit(buffer.limit() + 1);
         }
         runAssertions(result, context);
     }
 
-    private void testResume(final int split, byte[] in) {
+    private void testResume(final HttpRequestParser parser, final int split, byte[] in) {
         final ParseState context = new ParseState();
         HttpServerExchange result = new HttpServerExchange(null);
         ByteBuffer buffer = ByteBuffer.wrap(in);
         buffer.limit(split);
-        PARSER.handle(buffer, context, result);
+        parser.handle(buffer, context, result);
         buffer.limit(buffer.capacity());
-        PARSER.handle(buffer, context, result);
+        parser.handle(buffer, context, result);
         runAssertions(result, context);
         Assert.assertEquals(4, buffer.remaining());
     }
@@ -0,0 +1,162 @@
+package io.undertow.server.protocol.http2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the HPACK encoder and decoder, using the examples from appendix C of RFC 7541.
+ *
+ * @author Stuart Douglas
+ */
+public class HpackTestCase {
+
+    @Test
+    public void testRequestsWithoutHuffmanCoding() throws HpackException {
+        final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        List<String> headers = decode(decoder, "828684410f7777772e6578616d706c652e636f6d");
+        Assert.assertEquals(listOf(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"), headers);
+        Assert.assertEquals(57, decoder.getTableSize());
+
+        headers = decode(decoder, "828684be58086e6f2d6361636865");
+        Assert.assertEquals(listOf(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"), headers);
+        Assert.assertEquals(110, decoder.getTableSize());
+    }
+
+    @Test
+    public void testRequestsWithHuffmanCoding() throws HpackException {
+        final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        List<String> headers = decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff");
+        Assert.assertEquals(listOf(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"), headers);
+        Assert.assertEquals(57, decoder.getTableSize());
+
+        headers = decode(decoder, "828684be5886a8eb10649cbf");
+        Assert.assertEquals(listOf(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"), headers);
+        Assert.assertEquals(110, decoder.getTableSize());
+
+        headers = decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf");
+        Assert.assertEquals(listOf(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"), headers);
+        Assert.assertEquals(164, decoder.getTableSize());
+    }
+
+    @Test
+    public void testHuffmanEncoding() throws HpackException {
+        final ByteBuffer encoded = ByteBuffer.allocate(HpackHuffman.encodedLength("www.example.com"));
+        HpackHuffman.encode("www.example.com", encoded);
+        encoded.flip();
+        Assert.assertEquals("f1e3c2e5f23a6ba0ab90f4ff", toHex(encoded));
+
+        final StringBuilder decoded = new StringBuilder();
+        HpackHuffman.decode(encoded, encoded.remaining(), decoded);
+        Assert.assertEquals("www.example.com", decoded.toString());
+    }
+
+    @Test
+    public void testResponseRoundTrip() throws HpackException {
+        final HpackEncoder encoder = new HpackEncoder();
+        final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        final HeaderMap headers = new HeaderMap();
+        headers.put(Headers.CONTENT_TYPE, "text/html");
+        headers.put(Headers.CONTENT_LENGTH, "1024");
+        headers.add(Headers.SET_COOKIE, "a=b");
+        headers.add(Headers.SET_COOKIE, "c=d");
+        headers.put(new HttpString("X-Custom"), "some value");
+        headers.put(Headers.CONNECTION, "keep-alive");
+
+        //the second block should be mostly made up of references to the dynamic table
+        int previousLength = Integer.MAX_VALUE;
+        for (int i = 0; i < 2; ++i) {
+            final ByteBuffer block = ByteBuffer.allocate(encoder.maxEncodedLength(headers));
+            encoder.encode(block, 200, headers);
+            block.flip();
+            Assert.assertTrue(block.remaining() < previousLength);
+            previousLength = block.remaining();
+
+            final List<String> decoded = new ArrayList<String>();
+            decoder.decode(block, collector(decoded));
+            Assert.assertEquals(listOf(":status", "200", "content-type", "text/html", "content-length", "1024",
+                    "set-cookie", "a=b", "set-cookie", "c=d", "x-custom", "some value"), sortAfterStatus(decoded));
+        }
+    }
+
+    @Test
+    public void testTableSizeUpdateExceedingLimit() {
+        final HpackDecoder decoder = new HpackDecoder(100);
+        try {
+            decode(decoder, "3fe101");
+            Assert.fail();
+        } catch (HpackException expected) {
+        }
+    }
+
+    private static List<String> decode(final HpackDecoder decoder, final String hex) throws HpackException {
+        final List<String> headers = new ArrayList<String>();
+        final ByteBuffer block = fromHex(hex);
+        decoder.decode(block, collector(headers));
+        Assert.assertFalse(block.hasRemaining());
+        return headers;
+    }
+
+    private static HpackDecoder.HeaderListener collector(final List<String> headers) {
+        return new HpackDecoder.HeaderListener() {
+            @Override
+            public void emitHeader(final HttpString name, final String value) {
+                headers.add(name.toString());
+                headers.add(value);
+            }
+        };
+    }
+
+    /**
+     * The order of the response headers depends on the header map, so they are compared as name/value pairs
+     */
+    private static List<String> sortAfterStatus(final List<String> headers) {
+        final List<String> expectedOrder = listOf(":status", "content-type", "content-length", "set-cookie", "x-custom");
+        final List<String> sorted = new ArrayList<String>();
+        for (final String name : expectedOrder) {
+            for (int i = 0; i < headers.size(); i += 2) {
+                if (headers.get(i).equals(name)) {
+                    sorted.add(headers.get(i));
+                    sorted.add(headers.get(i + 1));
+                }
+            }
+        }
+        Assert.assertEquals(headers.size(), sorted.size());
+        return sorted;
+    }
+
+    private static List<String> listOf(final String... values) {
+        final List<String> list = new ArrayList<String>();
+        for (final String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static ByteBuffer fromHex(final String hex) {
+        final ByteBuffer buffer = ByteBuffer.allocate(hex.length() / 2);
+        for (int i = 0; i < hex.length(); i += 2) {
+            buffer.put((byte) Integer.parseInt(hex.substring(i, i + 2), 16));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String toHex(final ByteBuffer buffer) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = buffer.position(); i < buffer.limit(); ++i) {
+            final String b = Integer.toHexString(buffer.get(i) & 0xFF);
+            if (b.length() == 1) {
+                sb.append('0');
+            }
+            sb.append(b);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,362 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.undertow.util.HeaderMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_ENHANCE_YOUR_CALM;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_FRAME_SIZE_ERROR;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_PROTOCOL_ERROR;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_ACK;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_STREAM;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_PADDED;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_PRIORITY;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_HEADER_LENGTH;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_CONTINUATION;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_DATA;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_GOAWAY;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_PING;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_PRIORITY;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_PUSH_PROMISE;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_RST_STREAM;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_SETTINGS;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_WINDOW_UPDATE;
+import static io.undertow.server.protocol.http2.Http2Channel.PREFACE;
+import static io.undertow.server.protocol.http2.Http2Channel.PRIOR_KNOWLEDGE_PREFACE_OFFSET;
+
+/**
+ * Tests the frame parser on its own, with a listener that records what the connection would be told.
+ *
+ * @author Stuart Douglas
+ */
+public class Http2FrameParserTestCase {
+
+    private static final int MAX_HEADER_BLOCK_SIZE = 1000;
+
+    @Test
+    public void testFramesSplitAtAnyPoint() throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(PREFACE);
+        data.write(frame(FRAME_TYPE_SETTINGS, 0, 0, Http2TestClient.settingsPayload(Http2Channel.SETTINGS_ENABLE_PUSH, 0, Http2Channel.SETTINGS_INITIAL_WINDOW_SIZE, 1000)));
+        //a padded header block with priority information, split across a continuation frame
+        data.write(frame(FRAME_TYPE_HEADERS, FLAG_PADDED | FLAG_PRIORITY, 1, bytes(3, 0, 0, 0, 0, 16, 'a', 'b', 'c', 0, 0, 0)));
+        data.write(frame(FRAME_TYPE_CONTINUATION, FLAG_END_HEADERS, 1, bytes('d', 'e')));
+        data.write(frame(FRAME_TYPE_DATA, FLAG_PADDED, 1, bytes(2, 'h', 'e', 'l', 'l', 'o', 0, 0)));
+        data.write(frame(FRAME_TYPE_PRIORITY, 0, 1, bytes(0, 0, 0, 0, 16)));
+        data.write(frame(FRAME_TYPE_PING, 0, 0, bytes(1, 2, 3, 4, 5, 6, 7, 8)));
+        data.write(frame(FRAME_TYPE_HEADERS, FLAG_END_HEADERS | FLAG_END_STREAM, 3, bytes('x')));
+        //unknown frame types are skipped
+        data.write(frame(0xFA, 0, 1, bytes(9, 9, 9, 9)));
+        data.write(frame(FRAME_TYPE_DATA, FLAG_END_STREAM, 1, bytes(' ', 'w', 'o', 'r', 'l', 'd')));
+        data.write(frame(FRAME_TYPE_WINDOW_UPDATE, 0, 0, bytes(0x80, 0, 1, 0)));
+        data.write(frame(FRAME_TYPE_RST_STREAM, 0, 3, bytes(0, 0, 0, 8)));
+        data.write(frame(FRAME_TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]));
+        data.write(frame(FRAME_TYPE_GOAWAY, 0, 0, bytes(0, 0, 0, 3, 0, 0, 0, 0)));
+        final byte[] input = data.toByteArray();
+
+        final List<String> expected = new ArrayList<String>();
+        expected.add("settings 12");
+        expected.add("headers 1 false abcde");
+        expected.add("stream 1 false");
+        //flow control covers the whole frame, including the padding
+        expected.add("data 1 8 false");
+        expected.add("ping 1");
+        expected.add("headers 3 true x");
+        expected.add("stream 3 true");
+        expected.add("data 1 6 true");
+        expected.add("end 1");
+        expected.add("window-update 0 256");
+        expected.add("rst 3");
+        expected.add("settings-ack");
+        expected.add("goaway 0");
+
+        for (int chunkSize : new int[]{input.length, 1, 2, 3, 7, 10, 64}) {
+            final RecordingListener listener = new RecordingListener();
+            final Http2FrameParser parser = new Http2FrameParser(listener, 0, MAX_HEADER_BLOCK_SIZE);
+            parse(parser, listener, input, chunkSize);
+            Assert.assertEquals("chunk size " + chunkSize, expected, listener.events);
+            Assert.assertEquals("chunk size " + chunkSize, "hello world", new String(listener.data.get(1).toByteArray(), "US-ASCII"));
+            Assert.assertEquals(-1, listener.connectionError);
+        }
+    }
+
+    @Test
+    public void testPriorKnowledgePreface() throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(PREFACE, PRIOR_KNOWLEDGE_PREFACE_OFFSET, PREFACE.length - PRIOR_KNOWLEDGE_PREFACE_OFFSET);
+        data.write(frame(FRAME_TYPE_SETTINGS, 0, 0, new byte[0]));
+        final RecordingListener listener = new RecordingListener();
+        parse(new Http2FrameParser(listener, PRIOR_KNOWLEDGE_PREFACE_OFFSET, MAX_HEADER_BLOCK_SIZE), listener, data.toByteArray(), 4);
+        Assert.assertEquals(listOf("settings 0"), listener.events);
+    }
+
+    @Test
+    public void testIncorrectPreface() throws IOException {
+        final byte[] preface = PREFACE.clone();
+        preface[3] = 'X';
+        final RecordingListener listener = new RecordingListener();
+        try {
+            parse(new Http2FrameParser(listener, 0, MAX_HEADER_BLOCK_SIZE), listener, preface, preface.length);
+            Assert.fail();
+        } catch (IOException expected) {
+        }
+        Assert.assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void testFrameLargerThanMaxFrameSize() throws IOException {
+        final byte[] header = Http2Channel.createFrame(FRAME_TYPE_DATA, 0, 1, Http2Channel.DEFAULT_MAX_FRAME_SIZE + 1);
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(copyOf(header, FRAME_HEADER_LENGTH)));
+    }
+
+    @Test
+    public void testDataOnStreamZero() throws IOException {
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_DATA, 0, 0, bytes(1, 2, 3))));
+    }
+
+    @Test
+    public void testPaddingLongerThanFrame() throws IOException {
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_DATA, FLAG_PADDED, 1, bytes(3, 0, 0))));
+    }
+
+    @Test
+    public void testHeadersOnStreamZero() throws IOException {
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_HEADERS, FLAG_END_HEADERS, 0, bytes('a'))));
+    }
+
+    @Test
+    public void testFrameInsideHeaderBlock() throws IOException {
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(
+                frame(FRAME_TYPE_HEADERS, 0, 1, bytes('a')),
+                frame(FRAME_TYPE_PING, 0, 0, new byte[8])));
+        //a continuation for another stream is not allowed either
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(
+                frame(FRAME_TYPE_HEADERS, 0, 1, bytes('a')),
+                frame(FRAME_TYPE_CONTINUATION, FLAG_END_HEADERS, 3, bytes('b'))));
+    }
+
+    @Test
+    public void testContinuationWithoutHeaders() throws IOException {
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_CONTINUATION, FLAG_END_HEADERS, 1, bytes('a'))));
+    }
+
+    @Test
+    public void testHeaderBlockTooLarge() throws IOException {
+        final byte[] part = new byte[MAX_HEADER_BLOCK_SIZE / 2 + 1];
+        assertConnectionError(ERROR_ENHANCE_YOUR_CALM, prefaced(
+                frame(FRAME_TYPE_HEADERS, 0, 1, part),
+                frame(FRAME_TYPE_CONTINUATION, FLAG_END_HEADERS, 1, part)));
+    }
+
+    @Test
+    public void testInvalidSettings() throws IOException {
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(frame(FRAME_TYPE_SETTINGS, 0, 0, new byte[5])));
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(frame(FRAME_TYPE_SETTINGS, FLAG_ACK, 0, new byte[6])));
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_SETTINGS, 0, 1, new byte[0])));
+    }
+
+    @Test
+    public void testPing() throws IOException {
+        final RecordingListener listener = new RecordingListener();
+        parse(new Http2FrameParser(listener, 0, MAX_HEADER_BLOCK_SIZE), listener, prefaced(
+                frame(FRAME_TYPE_PING, FLAG_ACK, 0, bytes(1, 0, 0, 0, 0, 0, 0, 0)),
+                frame(FRAME_TYPE_PING, 0, 0, bytes(2, 0, 0, 0, 0, 0, 0, 0))), 100);
+        //only pings that are not acknowledgements are answered
+        Assert.assertEquals(listOf("ping 2"), listener.events);
+
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(frame(FRAME_TYPE_PING, 0, 0, new byte[7])));
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_PING, 0, 1, new byte[8])));
+    }
+
+    @Test
+    public void testRstStreamAndGoAway() throws IOException {
+        final RecordingListener listener = new RecordingListener();
+        parse(new Http2FrameParser(listener, 0, MAX_HEADER_BLOCK_SIZE), listener, prefaced(
+                frame(FRAME_TYPE_RST_STREAM, 0, 5, bytes(0, 0, 0, 8)),
+                frame(FRAME_TYPE_GOAWAY, 0, 0, bytes(0, 0, 0, 5, 0, 0, 0, 2, 'd', 'e', 'b', 'u', 'g'))), 5);
+        Assert.assertEquals(listOf("rst 5", "goaway 2"), listener.events);
+
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_RST_STREAM, 0, 0, new byte[4])));
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(frame(FRAME_TYPE_RST_STREAM, 0, 1, new byte[3])));
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_GOAWAY, 0, 1, new byte[8])));
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(frame(FRAME_TYPE_GOAWAY, 0, 0, new byte[7])));
+    }
+
+    @Test
+    public void testWindowUpdate() throws IOException {
+        final RecordingListener listener = new RecordingListener();
+        parse(new Http2FrameParser(listener, 0, MAX_HEADER_BLOCK_SIZE), listener, prefaced(
+                frame(FRAME_TYPE_WINDOW_UPDATE, 0, 0, bytes(0, 1, 0, 0)),
+                frame(FRAME_TYPE_WINDOW_UPDATE, 0, 7, bytes(0, 0, 0, 0))), 3);
+        //a zero increment is passed on, as it is a stream error for streams and a connection error for the connection
+        Assert.assertEquals(listOf("window-update 0 65536", "window-update 7 0"), listener.events);
+
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(frame(FRAME_TYPE_WINDOW_UPDATE, 0, 1, new byte[5])));
+    }
+
+    @Test
+    public void testPushPromiseRejected() throws IOException {
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_PUSH_PROMISE, FLAG_END_HEADERS, 1, new byte[4])));
+    }
+
+    @Test
+    public void testPriority() throws IOException {
+        assertConnectionError(ERROR_FRAME_SIZE_ERROR, prefaced(frame(FRAME_TYPE_PRIORITY, 0, 1, new byte[4])));
+        assertConnectionError(ERROR_PROTOCOL_ERROR, prefaced(frame(FRAME_TYPE_PRIORITY, 0, 0, new byte[5])));
+    }
+
+    private static void assertConnectionError(final int errorCode, final byte[] input) {
+        final RecordingListener listener = new RecordingListener();
+        try {
+            parse(new Http2FrameParser(listener, 0, MAX_HEADER_BLOCK_SIZE), listener, input, input.length);
+            Assert.fail("Expected connection error " + errorCode);
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(errorCode, listener.connectionError);
+    }
+
+    /**
+     * Feeds the input to the parser in chunks of the given size, in the same way the connection does. The data of
+     * <code>DATA</code> frames is left in the buffer by the parser, and is consumed here.
+     */
+    private static void parse(final Http2FrameParser parser, final RecordingListener listener, final byte[] input, final int chunkSize) throws IOException {
+        for (int pos = 0; pos < input.length; pos += chunkSize) {
+            final ByteBuffer buffer = ByteBuffer.wrap(input, pos, Math.min(chunkSize, input.length - pos));
+            Http2FrameHeaderData result = parser.parse(buffer);
+            while (result != null) {
+                if (result.getType() == FRAME_TYPE_HEADERS) {
+                    listener.events.add("stream " + result.getStreamId() + " " + result.isEndStream());
+                } else {
+                    final int length = (int) result.getFrameLength();
+                    listener.dataFor(result.getStreamId()).write(input, buffer.position(), length);
+                    buffer.position(buffer.position() + length);
+                    if (result.isEndStream()) {
+                        listener.events.add("end " + result.getStreamId());
+                    }
+                }
+                result = parser.parse(buffer);
+            }
+            Assert.assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    private static byte[] prefaced(final byte[]... frames) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(PREFACE);
+        for (byte[] frame : frames) {
+            data.write(frame);
+        }
+        return data.toByteArray();
+    }
+
+    private static byte[] frame(final int type, final int flags, final int streamId, final byte[] payload) {
+        final byte[] frame = Http2Channel.createFrame(type, flags, streamId, payload.length);
+        System.arraycopy(payload, 0, frame, FRAME_HEADER_LENGTH, payload.length);
+        return frame;
+    }
+
+    private static byte[] bytes(final int... values) {
+        final byte[] ret = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            ret[i] = (byte) values[i];
+        }
+        return ret;
+    }
+
+    private static byte[] copyOf(final byte[] data, final int length) {
+        final byte[] ret = new byte[length];
+        System.arraycopy(data, 0, ret, 0, length);
+        return ret;
+    }
+
+    private static List<String> listOf(final String... values) {
+        final List<String> ret = new ArrayList<String>();
+        for (String value : values) {
+            ret.add(value);
+        }
+        return ret;
+    }
+
+    /**
+     * Records the calls made by the parser. Streams are not opened, so the data of every frame is reported without a
+     * stream to pass it to.
+     */
+    private static final class RecordingListener implements Http2FrameParser.FrameListener {
+
+        final List<String> events = new ArrayList<String>();
+        final Map<Integer, ByteArrayOutputStream> data = new TreeMap<Integer, ByteArrayOutputStream>();
+        int connectionError = -1;
+
+        ByteArrayOutputStream dataFor(final int streamId) {
+            ByteArrayOutputStream ret = data.get(streamId);
+            if (ret == null) {
+                ret = new ByteArrayOutputStream();
+                data.put(streamId, ret);
+            }
+            return ret;
+        }
+
+        @Override
+        public Http2StreamSourceChannel handleData(final int streamId, final int length, final boolean endStream) {
+            events.add("data " + streamId + " " + length + " " + endStream);
+            return null;
+        }
+
+        @Override
+        public void paddingReceived(final Http2StreamSourceChannel source, final int length) {
+            events.add("padding " + length);
+        }
+
+        @Override
+        public Http2FrameHeaderData handleHeaders(final int streamId, final boolean endStream, final byte[] block, final int length) {
+            events.add("headers " + streamId + " " + endStream + " " + new String(block, 0, length));
+            return Http2FrameHeaderData.headers(streamId, endStream, new HeaderMap());
+        }
+
+        @Override
+        public void handleRstStream(final int streamId) {
+            events.add("rst " + streamId);
+        }
+
+        @Override
+        public void handleSettings(final byte[] payload, final int length) {
+            events.add("settings " + length);
+        }
+
+        @Override
+        public void handleSettingsAck() {
+            events.add("settings-ack");
+        }
+
+        @Override
+        public void handlePing(final byte[] payload) {
+            events.add("ping " + payload[0]);
+        }
+
+        @Override
+        public void handleGoAway(final int errorCode) {
+            events.add("goaway " + errorCode);
+        }
+
+        @Override
+        public void handleWindowUpdate(final int streamId, final int increment) {
+            events.add("window-update " + streamId + " " + increment);
+        }
+
+        @Override
+        public IOException connectionError(final int errorCode) {
+            connectionError = errorCode;
+            return new IOException("Connection error " + errorCode);
+        }
+    }
+}
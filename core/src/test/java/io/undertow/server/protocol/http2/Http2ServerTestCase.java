@@ -0,0 +1,446 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.testutils.AjpIgnore;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_CANCEL;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_FLOW_CONTROL_ERROR;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_NO_ERROR;
+import static io.undertow.server.protocol.http2.Http2Channel.ERROR_PROTOCOL_ERROR;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_DATA;
+import static io.undertow.server.protocol.http2.Http2Channel.SETTINGS_ENABLE_PUSH;
+import static io.undertow.server.protocol.http2.Http2Channel.SETTINGS_INITIAL_WINDOW_SIZE;
+import static io.undertow.server.protocol.http2.Http2Channel.SETTINGS_MAX_CONCURRENT_STREAMS;
+import static io.undertow.server.protocol.http2.Http2Channel.readInt;
+
+/**
+ * Tests HTTP/2 over cleartext against the default server, using a client that works at the level of frames.
+ * <p/>
+ * Connections are made both with prior knowledge, where the preface is picked up by the HTTP/1.1 read listener, and
+ * by upgrading a HTTP/1.1 request.
+ *
+ * @author Stuart Douglas
+ */
+@RunWith(DefaultServer.class)
+@AjpIgnore
+@ProxyIgnore
+public class Http2ServerTestCase {
+
+    private static final String MESSAGE = "Hello World";
+
+    private static OptionMap existing;
+
+    private static volatile CountDownLatch waitLatch;
+
+    private static volatile CountDownLatch waitComplete;
+
+    @BeforeClass
+    public static void setup() {
+        existing = DefaultServer.getUndertowOptions();
+        DefaultServer.setUndertowOptions(OptionMap.builder().addAll(existing).set(UndertowOptions.ENABLE_HTTP2, true).getMap());
+        final PathHandler pathHandler = new PathHandler();
+        pathHandler.addPrefixPath("/path", new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+                final String a = exchange.getQueryParameters().containsKey("a") ? exchange.getQueryParameters().get("a").getFirst() : null;
+                exchange.getResponseSender().send(exchange.getRequestMethod() + " " + exchange.getRequestPath() + " " + a + " "
+                        + exchange.getProtocol() + " " + exchange.getRequestHeaders().getFirst("x-test") + " "
+                        + (exchange.getConnection() instanceof Http2ServerConnection));
+            }
+        });
+        pathHandler.addPrefixPath("/echo", new BlockingHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                final InputStream in = exchange.getInputStream();
+                final OutputStream out = exchange.getOutputStream();
+                final byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                out.close();
+            }
+        }));
+        pathHandler.addPrefixPath("/large", new BlockingHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                final int size = Integer.parseInt(exchange.getQueryParameters().get("size").getFirst());
+                final OutputStream out = exchange.getOutputStream();
+                out.write(data(size));
+                out.close();
+            }
+        }));
+        pathHandler.addPrefixPath("/wait", new BlockingHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                try {
+                    if (!waitLatch.await(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Latch was not released");
+                    }
+                    exchange.getOutputStream().write(MESSAGE.getBytes("UTF-8"));
+                } finally {
+                    waitComplete.countDown();
+                }
+            }
+        }));
+        DefaultServer.setRootHandler(new Http2UpgradeHandler(pathHandler));
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        DefaultServer.setUndertowOptions(existing);
+    }
+
+    @Test
+    public void testPriorKnowledge() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            final Http2TestClient.Frame settings = client.awaitServerSettings();
+            Assert.assertEquals(Integer.valueOf(0), settings.getSetting(SETTINGS_ENABLE_PUSH));
+            Assert.assertNotNull(settings.getSetting(SETTINGS_MAX_CONCURRENT_STREAMS));
+
+            client.sendHeaders(1, true, "GET", "/path?a=b", "x-test", "value");
+            final Http2TestClient.Response response = client.awaitResponse(1);
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("text/plain", response.headers.getFirst(Headers.CONTENT_TYPE));
+            Assert.assertEquals("GET /path b HTTP/2.0 value true", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testUpgrade() throws IOException {
+        final Http2TestClient client = Http2TestClient.upgrade("/path?a=upgrade", SETTINGS_ENABLE_PUSH, 0);
+        try {
+            //the upgrade request is answered on stream 1
+            Http2TestClient.Response response = client.awaitResponse(1);
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("GET /path upgrade HTTP/2.0 null true", response.getBodyAsString());
+
+            client.sendHeaders(3, true, "GET", "/path?a=next", "x-test", "value");
+            response = client.awaitResponse(3);
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("GET /path next HTTP/2.0 value true", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testRequestWithEntityIsNotUpgraded() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            final HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/echo");
+            post.addHeader("Connection", "Upgrade, HTTP2-Settings");
+            post.addHeader("Upgrade", "h2c");
+            post.addHeader("HTTP2-Settings", "AAMAAABkAAQAAP__");
+            post.setEntity(new StringEntity(MESSAGE));
+            final HttpResponse result = client.execute(post);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testEachStreamIsAnExchange() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.sendHeaders(1, true, "GET", "/path?a=1", "x-test", "one");
+            client.sendHeaders(3, true, "DELETE", "/path/sub?a=2", "x-test", "two");
+            client.sendHeaders(5, true, "HEAD", "/path?a=3");
+            Assert.assertEquals("DELETE /path/sub 2 HTTP/2.0 two true", client.awaitResponse(3).getBodyAsString());
+            Assert.assertEquals("GET /path 1 HTTP/2.0 one true", client.awaitResponse(1).getBodyAsString());
+            final Http2TestClient.Response head = client.awaitResponse(5);
+            Assert.assertEquals(200, head.status);
+            Assert.assertEquals(0, head.body.size());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testRequestBody() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.sendHeaders(1, false, "POST", "/echo");
+            client.sendDataFrame(1, "Hello ".getBytes("UTF-8"), -1, false);
+            client.sendDataFrame(1, "padded ".getBytes("UTF-8"), 20, false);
+            client.sendDataFrame(1, "World".getBytes("UTF-8"), -1, false);
+            //the stream is ended by an empty frame
+            client.sendDataFrame(1, new byte[0], -1, true);
+            final Http2TestClient.Response response = client.awaitResponse(1);
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("Hello padded World", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testRequestBodyLargerThanWindow() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.awaitServerSettings();
+            //larger than both the stream and the connection window, so the client has to wait for the server to read
+            //the data and open the windows again
+            final byte[] data = data(300000);
+            client.sendHeaders(1, false, "POST", "/echo");
+            client.sendData(1, data, 16384, true);
+            final Http2TestClient.Response response = client.awaitResponse(1);
+            Assert.assertEquals(-1, response.resetError);
+            Assert.assertArrayEquals(data, response.body.toByteArray());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentStreams() throws IOException {
+        resetWait();
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.sendHeaders(1, true, "GET", "/wait");
+            for (int i = 0; i < 20; ++i) {
+                client.sendHeaders(3 + i * 2, true, "GET", "/path?a=" + i);
+            }
+            //the blocked request does not hold up the others
+            for (int i = 0; i < 20; ++i) {
+                Assert.assertEquals("GET /path " + i + " HTTP/2.0 null true", client.awaitResponse(3 + i * 2).getBodyAsString());
+            }
+            Assert.assertNull(client.getResponse(1));
+            waitLatch.countDown();
+            Assert.assertEquals(MESSAGE, client.awaitResponse(1).getBodyAsString());
+        } finally {
+            waitLatch.countDown();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testClientResetsStream() throws IOException {
+        resetWait();
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.sendHeaders(1, true, "GET", "/wait");
+            client.sendRstStream(1, ERROR_CANCEL);
+            //frames are handled in order, so once the ping is answered the reset has been processed
+            client.sendPing(new byte[8]);
+            client.awaitPingAck();
+            waitLatch.countDown();
+
+            client.sendHeaders(3, true, "GET", "/path?a=after");
+            Assert.assertEquals("GET /path after HTTP/2.0 null true", client.awaitResponse(3).getBodyAsString());
+            //once the handler for the reset stream has finished nothing is sent for it, not even when the exchange ends
+            Assert.assertTrue(waitComplete.await(10, TimeUnit.SECONDS));
+            awaitQuiet(client);
+            Assert.assertNull(client.getResponse(1));
+        } finally {
+            waitLatch.countDown();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testMalformedRequestIsReset() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            //no :path
+            client.sendHeaders(1, true, "GET", null);
+            Assert.assertEquals(ERROR_PROTOCOL_ERROR, client.awaitResponse(1).resetError);
+            //the connection is still usable
+            client.sendHeaders(3, true, "GET", "/path?a=ok");
+            Assert.assertEquals("GET /path ok HTTP/2.0 null true", client.awaitResponse(3).getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testWindowUpdateOverflowResetsStream() throws IOException {
+        resetWait();
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.sendHeaders(1, true, "GET", "/wait");
+            client.sendWindowUpdate(1, Integer.MAX_VALUE);
+            Assert.assertEquals(ERROR_FLOW_CONTROL_ERROR, client.awaitResponse(1).resetError);
+        } finally {
+            waitLatch.countDown();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testClientGoAway() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.sendHeaders(1, true, "GET", "/path?a=1");
+            client.awaitResponse(1);
+            client.sendGoAway(0, ERROR_NO_ERROR);
+            //there are no open streams, so the server goes away as well
+            final Http2TestClient.Frame goAway = client.awaitGoAway();
+            Assert.assertEquals(1, readInt(goAway.payload, 0));
+            Assert.assertEquals(ERROR_NO_ERROR, readInt(goAway.payload, 4));
+            Assert.assertTrue(client.isClosedByServer());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConnectionErrorSendsGoAway() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            client.sendHeaders(1, true, "GET", "/path?a=1");
+            client.awaitResponse(1);
+            client.writeFrame(FRAME_TYPE_DATA, 0, 0, new byte[4]);
+            final Http2TestClient.Frame goAway = client.awaitGoAway();
+            Assert.assertEquals(1, readInt(goAway.payload, 0));
+            Assert.assertEquals(ERROR_PROTOCOL_ERROR, readInt(goAway.payload, 4));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testPing() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect();
+        try {
+            final byte[] data = {1, 2, 3, 4, 5, 6, 7, 8};
+            client.sendPing(data);
+            Assert.assertArrayEquals(data, client.awaitPingAck().payload);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testResponseWaitsForStreamWindow() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect(SETTINGS_INITIAL_WINDOW_SIZE, 1000);
+        try {
+            client.setAutoWindowUpdate(false);
+            client.sendHeaders(1, true, "GET", "/large?size=5000");
+            awaitQuiet(client);
+            final Http2TestClient.Response response = client.getResponse(1);
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals(1000, response.body.size());
+            Assert.assertFalse(response.ended);
+
+            client.sendWindowUpdate(1, 4000);
+            client.awaitResponse(1);
+            Assert.assertArrayEquals(data(5000), response.body.toByteArray());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testResponseWaitsForConnectionWindow() throws IOException {
+        final Http2TestClient client = Http2TestClient.connect(SETTINGS_INITIAL_WINDOW_SIZE, 1000000);
+        try {
+            client.setAutoWindowUpdate(false);
+            client.sendHeaders(1, true, "GET", "/large?size=100000");
+            awaitQuiet(client);
+            final Http2TestClient.Response response = client.getResponse(1);
+            Assert.assertEquals(Http2Channel.DEFAULT_INITIAL_WINDOW_SIZE, response.body.size());
+            Assert.assertFalse(response.ended);
+
+            client.sendWindowUpdate(0, 100000 - Http2Channel.DEFAULT_INITIAL_WINDOW_SIZE);
+            client.awaitResponse(1);
+            Assert.assertArrayEquals(data(100000), response.body.toByteArray());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSmallReceiveWindowIsEnforcedOnceAcknowledged() throws IOException {
+        DefaultServer.setUndertowOptions(OptionMap.builder().addAll(existing)
+                .set(UndertowOptions.ENABLE_HTTP2, true)
+                .set(UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE, 1000)
+                .getMap());
+        try {
+            final Http2TestClient client = Http2TestClient.connect();
+            try {
+                client.setAutoAckSettings(false);
+                Assert.assertEquals(Integer.valueOf(1000), client.awaitServerSettings().getSetting(SETTINGS_INITIAL_WINDOW_SIZE));
+
+                //until the settings are acknowledged the client may still use the default window
+                final byte[] data = data(3000);
+                client.sendHeaders(1, false, "POST", "/echo");
+                client.sendDataFrame(1, data, -1, true);
+                Http2TestClient.Response response = client.awaitResponse(1);
+                Assert.assertEquals(-1, response.resetError);
+                Assert.assertArrayEquals(data, response.body.toByteArray());
+
+                //a stream that was opened before the acknowledgement has its window reduced
+                client.sendHeaders(3, false, "POST", "/echo");
+                client.sendSettingsAck();
+                client.sendDataFrame(3, data(2000), -1, true);
+                Assert.assertEquals(ERROR_FLOW_CONTROL_ERROR, client.awaitResponse(3).resetError);
+
+                client.sendHeaders(5, false, "POST", "/echo");
+                client.sendDataFrame(5, data(2000), -1, true);
+                Assert.assertEquals(ERROR_FLOW_CONTROL_ERROR, client.awaitResponse(5).resetError);
+
+                client.sendHeaders(7, false, "POST", "/echo");
+                client.sendDataFrame(7, data(1000), -1, true);
+                response = client.awaitResponse(7);
+                Assert.assertEquals(-1, response.resetError);
+                Assert.assertArrayEquals(data(1000), response.body.toByteArray());
+            } finally {
+                client.close();
+            }
+        } finally {
+            DefaultServer.setUndertowOptions(OptionMap.builder().addAll(existing).set(UndertowOptions.ENABLE_HTTP2, true).getMap());
+        }
+    }
+
+    private static void resetWait() {
+        waitLatch = new CountDownLatch(1);
+        waitComplete = new CountDownLatch(1);
+    }
+
+    /**
+     * Reads frames until the server stops sending, which happens when it runs out of flow control window.
+     */
+    private static void awaitQuiet(final Http2TestClient client) throws IOException {
+        while (!client.isQuiet(500)) {
+        }
+    }
+
+    private static byte[] data(final int size) {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,535 @@
+package io.undertow.server.protocol.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.testutils.DefaultServer;
+import io.undertow.util.FlexBase64;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+
+import static io.undertow.server.protocol.http2.Http2Channel.DEFAULT_INITIAL_WINDOW_SIZE;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_ACK;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_END_STREAM;
+import static io.undertow.server.protocol.http2.Http2Channel.FLAG_PADDED;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_HEADER_LENGTH;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_CONTINUATION;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_DATA;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_GOAWAY;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_HEADERS;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_PING;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_RST_STREAM;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_SETTINGS;
+import static io.undertow.server.protocol.http2.Http2Channel.FRAME_TYPE_WINDOW_UPDATE;
+import static io.undertow.server.protocol.http2.Http2Channel.PREFACE;
+import static io.undertow.server.protocol.http2.Http2Channel.SETTINGS_INITIAL_WINDOW_SIZE;
+import static io.undertow.server.protocol.http2.Http2Channel.SETTING_LENGTH;
+import static io.undertow.server.protocol.http2.Http2Channel.readInt;
+import static io.undertow.server.protocol.http2.Http2Channel.writeInt;
+
+/**
+ * A minimal blocking HTTP/2 client for testing the server, which works at the level of frames.
+ * <p/>
+ * Frames for all streams are read by {@link #awaitResponse(int)} and collected into a {@link Response} for each
+ * stream, so several streams can be in flight at once. By default settings from the server are acknowledged and the
+ * flow control windows of responses are replenished as data arrives, both can be turned off to test how the server
+ * behaves when they are not. Request data is only sent when the windows of the server allow it.
+ *
+ * @author Stuart Douglas
+ */
+class Http2TestClient implements Closeable {
+
+    private static final int TIMEOUT = 10000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+
+    private final Map<Integer, Response> responses = new HashMap<Integer, Response>();
+    private final Map<Integer, Integer> streamSendWindows = new HashMap<Integer, Integer>();
+    private int connectionSendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+    private int initialSendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+
+    private boolean autoAckSettings = true;
+    private boolean autoWindowUpdate = true;
+
+    private Frame serverSettings;
+    private Frame goAway;
+    private Frame pingAck;
+
+    /**
+     * The header block that is being read, if it has been split into <code>CONTINUATION</code> frames
+     */
+    private ByteArrayOutputStream headerBlock;
+    private int headerBlockStreamId;
+    private boolean headerBlockEndStream;
+
+    private Http2TestClient() throws IOException {
+        socket = new Socket();
+        socket.connect(DefaultServer.getDefaultServerAddress());
+        socket.setSoTimeout(TIMEOUT);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    /**
+     * Connects with prior knowledge, by sending the connection preface straight away.
+     *
+     * @param settings The client settings, as pairs of identifier and value
+     */
+    static Http2TestClient connect(final int... settings) throws IOException {
+        final Http2TestClient client = new Http2TestClient();
+        client.out.write(PREFACE);
+        client.writeFrame(FRAME_TYPE_SETTINGS, 0, 0, settingsPayload(settings));
+        return client;
+    }
+
+    /**
+     * Connects with an <code>Upgrade: h2c</code> request, the response to which is read from stream 1.
+     *
+     * @param path     The path of the upgrade request
+     * @param settings The client settings, as pairs of identifier and value, which are sent in the
+     *                 <code>HTTP2-Settings</code> header
+     */
+    static Http2TestClient upgrade(final String path, final int... settings) throws IOException {
+        final Http2TestClient client = new Http2TestClient();
+        final String http2Settings = FlexBase64.encodeString(settingsPayload(settings), false)
+                .replace('+', '-').replace('/', '_').replace("=", "");
+        final String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + DefaultServer.getHostAddress("default") + "\r\n" +
+                "Connection: Upgrade, HTTP2-Settings\r\n" +
+                "Upgrade: h2c\r\n" +
+                "HTTP2-Settings: " + http2Settings + "\r\n\r\n";
+        client.out.write(request.getBytes("US-ASCII"));
+        client.out.flush();
+        final String statusLine = client.readLine();
+        if (!statusLine.startsWith("HTTP/1.1 101 ")) {
+            throw new IOException("Upgrade failed: " + statusLine);
+        }
+        String line;
+        do {
+            line = client.readLine();
+        } while (!line.isEmpty());
+        client.out.write(PREFACE);
+        client.writeFrame(FRAME_TYPE_SETTINGS, 0, 0, settingsPayload(settings));
+        return client;
+    }
+
+    void setAutoAckSettings(final boolean autoAckSettings) {
+        this.autoAckSettings = autoAckSettings;
+    }
+
+    void setAutoWindowUpdate(final boolean autoWindowUpdate) {
+        this.autoWindowUpdate = autoWindowUpdate;
+    }
+
+    /**
+     * Sends the headers of a request.
+     *
+     * @param headers Any more headers, as pairs of name and value
+     */
+    void sendHeaders(final int streamId, final boolean endStream, final String method, final String path, final String... headers) throws IOException {
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        if (method != null) {
+            writeLiteral(block, ":method", method);
+        }
+        writeLiteral(block, ":scheme", "http");
+        if (path != null) {
+            writeLiteral(block, ":path", path);
+        }
+        writeLiteral(block, ":authority", DefaultServer.getHostAddress("default"));
+        for (int i = 0; i < headers.length; i += 2) {
+            writeLiteral(block, headers[i], headers[i + 1]);
+        }
+        streamSendWindows.put(streamId, initialSendWindow);
+        writeFrame(FRAME_TYPE_HEADERS, FLAG_END_HEADERS | (endStream ? FLAG_END_STREAM : 0), streamId, block.toByteArray());
+    }
+
+    /**
+     * Sends request data, in frames of at most the given size, waiting for the server to open the flow control
+     * windows when they are exhausted.
+     */
+    void sendData(final int streamId, final byte[] data, final int frameSize, final boolean endStream) throws IOException {
+        int pos = 0;
+        do {
+            final int window = awaitSendWindow(streamId);
+            final int length = Math.min(Math.min(frameSize, window), data.length - pos);
+            final byte[] payload = new byte[length];
+            System.arraycopy(data, pos, payload, 0, length);
+            pos += length;
+            connectionSendWindow -= length;
+            streamSendWindows.put(streamId, streamSendWindows.get(streamId) - length);
+            writeFrame(FRAME_TYPE_DATA, endStream && pos == data.length ? FLAG_END_STREAM : 0, streamId, payload);
+        } while (pos < data.length);
+    }
+
+    /**
+     * Sends a <code>DATA</code> frame without checking the flow control windows.
+     *
+     * @param padding The amount of padding, or -1 if the frame is not padded
+     */
+    void sendDataFrame(final int streamId, final byte[] data, final int padding, final boolean endStream) throws IOException {
+        final int flags = endStream ? FLAG_END_STREAM : 0;
+        if (padding < 0) {
+            writeFrame(FRAME_TYPE_DATA, flags, streamId, data);
+            return;
+        }
+        final byte[] payload = new byte[1 + data.length + padding];
+        payload[0] = (byte) padding;
+        System.arraycopy(data, 0, payload, 1, data.length);
+        writeFrame(FRAME_TYPE_DATA, flags | FLAG_PADDED, streamId, payload);
+    }
+
+    void sendSettingsAck() throws IOException {
+        writeFrame(FRAME_TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]);
+    }
+
+    void sendWindowUpdate(final int streamId, final int increment) throws IOException {
+        final byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        writeFrame(FRAME_TYPE_WINDOW_UPDATE, 0, streamId, payload);
+    }
+
+    void sendRstStream(final int streamId, final int errorCode) throws IOException {
+        final byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        writeFrame(FRAME_TYPE_RST_STREAM, 0, streamId, payload);
+    }
+
+    void sendGoAway(final int lastStreamId, final int errorCode) throws IOException {
+        final byte[] payload = new byte[8];
+        writeInt(payload, 0, lastStreamId);
+        writeInt(payload, 4, errorCode);
+        writeFrame(FRAME_TYPE_GOAWAY, 0, 0, payload);
+    }
+
+    void sendPing(final byte[] data) throws IOException {
+        writeFrame(FRAME_TYPE_PING, 0, 0, data);
+    }
+
+    void writeFrame(final int type, final int flags, final int streamId, final byte[] payload) throws IOException {
+        final byte[] frame = Http2Channel.createFrame(type, flags, streamId, payload.length);
+        System.arraycopy(payload, 0, frame, FRAME_HEADER_LENGTH, payload.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Reads frames until the response on the given stream is complete, either because the stream has ended or
+     * because it has been reset.
+     */
+    Response awaitResponse(final int streamId) throws IOException {
+        Response response = responses.get(streamId);
+        while (response == null || !response.isComplete()) {
+            readAndHandleFrame();
+            response = responses.get(streamId);
+        }
+        return response;
+    }
+
+    /**
+     * @return The settings frame sent by the server
+     */
+    Frame awaitServerSettings() throws IOException {
+        while (serverSettings == null) {
+            readAndHandleFrame();
+        }
+        return serverSettings;
+    }
+
+    Frame awaitGoAway() throws IOException {
+        while (goAway == null) {
+            readAndHandleFrame();
+        }
+        return goAway;
+    }
+
+    Frame awaitPingAck() throws IOException {
+        while (pingAck == null) {
+            readAndHandleFrame();
+        }
+        return pingAck;
+    }
+
+    /**
+     * Waits for the given time for a frame, and handles it if one arrives.
+     *
+     * @return <code>true</code> if nothing was read
+     */
+    boolean isQuiet(final int time) throws IOException {
+        socket.setSoTimeout(time);
+        try {
+            readAndHandleFrame();
+            return false;
+        } catch (SocketTimeoutException expected) {
+            return true;
+        } finally {
+            socket.setSoTimeout(TIMEOUT);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the server has closed the connection
+     */
+    boolean isClosedByServer() throws IOException {
+        try {
+            for (;;) {
+                readAndHandleFrame();
+            }
+        } catch (EOFException e) {
+            return true;
+        } catch (IOException e) {
+            //a reset is also a close
+            return !(e instanceof SocketTimeoutException);
+        }
+    }
+
+    Response getResponse(final int streamId) {
+        return responses.get(streamId);
+    }
+
+    private int awaitSendWindow(final int streamId) throws IOException {
+        for (;;) {
+            final int window = Math.min(connectionSendWindow, streamSendWindows.get(streamId));
+            if (window > 0) {
+                return window;
+            }
+            final Response response = responses.get(streamId);
+            if (response != null && response.resetError >= 0) {
+                throw new IOException("Stream " + streamId + " was reset with error " + response.resetError);
+            }
+            readAndHandleFrame();
+        }
+    }
+
+    private Frame readFrame() throws IOException {
+        final byte[] header = new byte[FRAME_HEADER_LENGTH];
+        in.readFully(header);
+        final Frame frame = new Frame();
+        final int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+        frame.type = header[3] & 0xFF;
+        frame.flags = header[4] & 0xFF;
+        frame.streamId = readInt(header, 5) & 0x7FFFFFFF;
+        frame.payload = new byte[length];
+        in.readFully(frame.payload);
+        return frame;
+    }
+
+    private void readAndHandleFrame() throws IOException {
+        final Frame frame = readFrame();
+        switch (frame.type) {
+            case FRAME_TYPE_SETTINGS: {
+                if ((frame.flags & FLAG_ACK) == 0) {
+                    serverSettings = frame;
+                    final Integer window = frame.getSetting(SETTINGS_INITIAL_WINDOW_SIZE);
+                    if (window != null) {
+                        for (final Map.Entry<Integer, Integer> entry : streamSendWindows.entrySet()) {
+                            entry.setValue(entry.getValue() + window - initialSendWindow);
+                        }
+                        initialSendWindow = window;
+                    }
+                    if (autoAckSettings) {
+                        sendSettingsAck();
+                    }
+                }
+                break;
+            }
+            case FRAME_TYPE_WINDOW_UPDATE: {
+                final int increment = readInt(frame.payload, 0);
+                if (frame.streamId == 0) {
+                    connectionSendWindow += increment;
+                } else if (streamSendWindows.containsKey(frame.streamId)) {
+                    streamSendWindows.put(frame.streamId, streamSendWindows.get(frame.streamId) + increment);
+                }
+                break;
+            }
+            case FRAME_TYPE_PING: {
+                if ((frame.flags & FLAG_ACK) != 0) {
+                    pingAck = frame;
+                }
+                break;
+            }
+            case FRAME_TYPE_GOAWAY: {
+                goAway = frame;
+                break;
+            }
+            case FRAME_TYPE_RST_STREAM: {
+                response(frame.streamId).resetError = readInt(frame.payload, 0);
+                break;
+            }
+            case FRAME_TYPE_HEADERS: {
+                headerBlock = new ByteArrayOutputStream();
+                headerBlockStreamId = frame.streamId;
+                headerBlockEndStream = (frame.flags & FLAG_END_STREAM) != 0;
+                headerBlock.write(frame.payload, 0, frame.payload.length);
+                if ((frame.flags & FLAG_END_HEADERS) != 0) {
+                    headerBlockComplete();
+                }
+                break;
+            }
+            case FRAME_TYPE_CONTINUATION: {
+                headerBlock.write(frame.payload, 0, frame.payload.length);
+                if ((frame.flags & FLAG_END_HEADERS) != 0) {
+                    headerBlockComplete();
+                }
+                break;
+            }
+            case FRAME_TYPE_DATA: {
+                final Response response = response(frame.streamId);
+                response.body.write(frame.payload, 0, frame.payload.length);
+                response.dataFrames++;
+                if ((frame.flags & FLAG_END_STREAM) != 0) {
+                    response.ended = true;
+                }
+                if (autoWindowUpdate && frame.payload.length > 0) {
+                    sendWindowUpdate(0, frame.payload.length);
+                    if (!response.ended) {
+                        sendWindowUpdate(frame.streamId, frame.payload.length);
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private void headerBlockComplete() throws IOException {
+        final Response response = response(headerBlockStreamId);
+        try {
+            decoder.decode(ByteBuffer.wrap(headerBlock.toByteArray()), new HpackDecoder.HeaderListener() {
+                @Override
+                public void emitHeader(final HttpString name, final String value) {
+                    if (name.toString().equals(":status")) {
+                        response.status = Integer.parseInt(value);
+                    } else {
+                        response.headers.add(name, value);
+                    }
+                }
+            });
+        } catch (HpackException e) {
+            throw new IOException(e);
+        }
+        if (headerBlockEndStream) {
+            response.ended = true;
+        }
+        headerBlock = null;
+    }
+
+    private Response response(final int streamId) {
+        Response response = responses.get(streamId);
+        if (response == null) {
+            response = new Response();
+            responses.put(streamId, response);
+        }
+        return response;
+    }
+
+    private String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (;;) {
+            final int c = in.read();
+            if (c == -1) {
+                throw new EOFException();
+            } else if (c == '\n') {
+                return line.toString();
+            } else if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static byte[] settingsPayload(final int... settings) {
+        final byte[] payload = new byte[settings.length / 2 * SETTING_LENGTH];
+        for (int i = 0; i < settings.length; i += 2) {
+            final int pos = i / 2 * SETTING_LENGTH;
+            payload[pos] = (byte) (settings[i] >> 8);
+            payload[pos + 1] = (byte) settings[i];
+            writeInt(payload, pos + 2, settings[i + 1]);
+        }
+        return payload;
+    }
+
+    /**
+     * Writes a header as a literal without indexing, so the encoder state of the client never needs to be tracked.
+     */
+    private static void writeLiteral(final ByteArrayOutputStream block, final String name, final String value) throws IOException {
+        block.write(0);
+        writeString(block, name);
+        writeString(block, value);
+    }
+
+    private static void writeString(final ByteArrayOutputStream block, final String value) throws IOException {
+        final byte[] bytes = value.getBytes("UTF-8");
+        //the length is a 7 bit prefix integer, without huffman coding
+        int length = bytes.length;
+        if (length < 0x7F) {
+            block.write(length);
+        } else {
+            block.write(0x7F);
+            length -= 0x7F;
+            while (length >= 0x80) {
+                block.write((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            block.write(length);
+        }
+        block.write(bytes, 0, bytes.length);
+    }
+
+    static final class Frame {
+        int type;
+        int flags;
+        int streamId;
+        byte[] payload;
+
+        /**
+         * @return The value of a setting in a <code>SETTINGS</code> frame, or <code>null</code> if it is not present
+         */
+        Integer getSetting(final int id) {
+            for (int i = 0; i < payload.length; i += SETTING_LENGTH) {
+                if ((((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF)) == id) {
+                    return readInt(payload, i + 2);
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class Response {
+        int status = -1;
+        final HeaderMap headers = new HeaderMap();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int dataFrames;
+        boolean ended;
+        /**
+         * The error code of the <code>RST_STREAM</code> frame the server sent for the stream, or -1
+         */
+        int resetError = -1;
+
+        boolean isComplete() {
+            return ended || resetError >= 0;
+        }
+
+        String getBodyAsString() throws IOException {
+            return body.toString("UTF-8");
+        }
+    }
+}
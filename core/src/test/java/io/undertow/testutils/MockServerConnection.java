@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.testutils;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.HttpUpgradeListener;
+import io.undertow.server.SSLSessionInfo;
+import io.undertow.server.ServerConnection;
+import org.xnio.ChannelListener;
+import org.xnio.Option;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.StreamConnection;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.ConnectedChannel;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * A connection that is not backed by a channel, so conduits can be tested without a server. Only the buffer pool
+ * is provided.
+ *
+ * @author Stuart Douglas
+ */
+public class MockServerConnection extends ServerConnection {
+
+    private final Pool<ByteBuffer> bufferPool;
+    private SSLSessionInfo sslSessionInfo;
+
+    public MockServerConnection(final Pool<ByteBuffer> bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public Pool<ByteBuffer> getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return null;
+    }
+
+    @Override
+    public XnioIoThread getIoThread() {
+        return null;
+    }
+
+    @Override
+    public HttpServerExchange sendOutOfBandResponse(final HttpServerExchange exchange) {
+        throw new IllegalStateException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsOption(final Option<?> option) {
+        return false;
+    }
+
+    @Override
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return null;
+    }
+
+    @Override
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public SocketAddress getPeerAddress() {
+        return null;
+    }
+
+    @Override
+    public <A extends SocketAddress> A getPeerAddress(final Class<A> type) {
+        return null;
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends ConnectedChannel> getCloseSetter() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public <A extends SocketAddress> A getLocalAddress(final Class<A> type) {
+        return null;
+    }
+
+    @Override
+    public OptionMap getUndertowOptions() {
+        return OptionMap.EMPTY;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return 1024;
+    }
+
+    @Override
+    public SSLSessionInfo getSslSessionInfo() {
+        return sslSessionInfo;
+    }
+
+    @Override
+    public void setSslSessionInfo(final SSLSessionInfo sessionInfo) {
+        sslSessionInfo = sessionInfo;
+    }
+
+    @Override
+    public void addCloseListener(final CloseListener listener) {
+    }
+
+    @Override
+    protected StreamConnection upgradeChannel() {
+        return null;
+    }
+
+    @Override
+    protected ConduitStreamSinkChannel getSinkChannel() {
+        return null;
+    }
+
+    @Override
+    protected ConduitStreamSourceChannel getSourceChannel() {
+        return null;
+    }
+
+    @Override
+    protected StreamSinkConduit getSinkConduit(final HttpServerExchange exchange, final StreamSinkConduit conduit) {
+        return conduit;
+    }
+
+    @Override
+    protected boolean isUpgradeSupported() {
+        return false;
+    }
+
+    @Override
+    protected void exchangeComplete(final HttpServerExchange exchange) {
+    }
+
+    @Override
+    protected void setUpgradeListener(final HttpUpgradeListener upgradeListener) {
+    }
+}
@@ -0,0 +1,75 @@
+package io.undertow.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Stuart Douglas
+ */
+public class ByteRangeTestCase {
+
+    @Test
+    public void testParse() {
+        ByteRange range = ByteRange.parse("bytes=0-4, 10-, -20");
+        Assert.assertEquals(3, range.getRanges());
+        Assert.assertEquals(0, range.getStart(0));
+        Assert.assertEquals(4, range.getEnd(0));
+        Assert.assertEquals(10, range.getStart(1));
+        Assert.assertEquals(-1, range.getEnd(1));
+        Assert.assertEquals(-1, range.getStart(2));
+        Assert.assertEquals(20, range.getEnd(2));
+
+        Assert.assertNull(ByteRange.parse("bytes=10-2"));
+        Assert.assertNull(ByteRange.parse("bytes=1-2-3"));
+        Assert.assertNull(ByteRange.parse("items=1-2"));
+    }
+
+    @Test
+    public void testTooManyRangesAreIgnored() {
+        final StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 100; ++i) {
+            header.append(',').append(i * 2).append('-').append(i * 2);
+        }
+        Assert.assertEquals(100, ByteRange.parse(header.toString()).getRanges());
+        header.append(",1000-1000");
+        Assert.assertNull(ByteRange.parse(header.toString()));
+    }
+
+    @Test
+    public void testOverlappingRangesAreCoalesced() {
+        ByteRange.RangeResponseResult result = ByteRange.parse("bytes=0-,0-,0-,-100").getResponseResult(100, null, null, null);
+        Assert.assertEquals(206, result.getStatusCode());
+        Assert.assertEquals(1, result.getRanges());
+        Assert.assertEquals("bytes 0-99/100", result.getContentRange(0));
+
+        //adjacent and overlapping ranges are merged, others are left alone
+        result = ByteRange.parse("bytes=50-59,0-9,10-19,15-29,40-45").getResponseResult(100, null, null, null);
+        Assert.assertEquals(3, result.getRanges());
+        Assert.assertEquals("bytes 0-29/100", result.getContentRange(0));
+        Assert.assertEquals("bytes 40-45/100", result.getContentRange(1));
+        Assert.assertEquals("bytes 50-59/100", result.getContentRange(2));
+
+        //if nothing overlaps the requested order is kept
+        result = ByteRange.parse("bytes=50-59,0-9").getResponseResult(100, null, null, null);
+        Assert.assertEquals(2, result.getRanges());
+        Assert.assertEquals("bytes 50-59/100", result.getContentRange(0));
+        Assert.assertEquals("bytes 0-9/100", result.getContentRange(1));
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() {
+        ByteRange.RangeResponseResult result = ByteRange.parse("bytes=-5").getResponseResult(0, null, null, null);
+        Assert.assertEquals(416, result.getStatusCode());
+        Assert.assertEquals("bytes */0", result.getUnsatisfiedContentRange());
+
+        result = ByteRange.parse("bytes=0-").getResponseResult(0, null, null, null);
+        Assert.assertEquals(416, result.getStatusCode());
+
+        result = ByteRange.parse("bytes=100-,-0").getResponseResult(100, null, null, null);
+        Assert.assertEquals(416, result.getStatusCode());
+
+        result = ByteRange.parse("bytes=-500").getResponseResult(100, null, null, null);
+        Assert.assertEquals(206, result.getStatusCode());
+        Assert.assertEquals("bytes 0-99/100", result.getContentRange(0));
+    }
+}
@@ -87,4 +87,60 @@ public final class HeaderMapTestCase {
         Assert.assertEquals("a", headerMap.getFirst("Link"));
         Assert.assertEquals("b", headerMap.getFirst("Rest"));
     }
+
+    @Test
+    public void testEncodedValue() {
+        final HeaderMap headerMap = new HeaderMap();
+        final HttpString contentType = new HttpString("application/json");
+        headerMap.put(Headers.CONTENT_TYPE, contentType);
+        assertEquals("application/json", headerMap.getFirst(Headers.CONTENT_TYPE));
+        assertSame(contentType, headerMap.get(Headers.CONTENT_TYPE).getEncodedValue(0));
+
+        //once the value has been modified the encoded form is no longer used
+        headerMap.add(Headers.CONTENT_TYPE, "text/plain");
+        assertNull(headerMap.get(Headers.CONTENT_TYPE).getEncodedValue(0));
+        headerMap.get(Headers.CONTENT_TYPE).removeLast();
+        assertSame(contentType, headerMap.get(Headers.CONTENT_TYPE).getEncodedValue(0));
+        headerMap.get(Headers.CONTENT_TYPE).set(0, "text/html");
+        assertNull(headerMap.get(Headers.CONTENT_TYPE).getEncodedValue(0));
+        headerMap.put(Headers.CONTENT_TYPE, contentType);
+        assertSame(contentType, headerMap.get(Headers.CONTENT_TYPE).getEncodedValue(0));
+        headerMap.put(Headers.CONTENT_TYPE, "text/xml");
+        assertNull(headerMap.get(Headers.CONTENT_TYPE).getEncodedValue(0));
+
+        headerMap.add(Headers.CONNECTION, Headers.CLOSE);
+        assertEquals("close", headerMap.getFirst(Headers.CONNECTION));
+        assertSame(Headers.CLOSE, headerMap.get(Headers.CONNECTION).getEncodedValue(0));
+    }
+
+    @Test
+    public void testLazyValue() {
+        final HeaderMap headerMap = new HeaderMap();
+        final byte[] arena = "xxtext/htmlgzip".getBytes();
+        headerMap.addLazy(Headers.ACCEPT, arena, 2, 9);
+        headerMap.addLazy(Headers.ACCEPT_ENCODING, arena, 11, 4);
+        assertTrue(headerMap.contains(Headers.ACCEPT));
+        assertTrue(headerMap.contains("Accept-Encoding"));
+        assertEquals(1, headerMap.get(Headers.ACCEPT).size());
+        assertEquals("text/html", headerMap.getFirst(Headers.ACCEPT));
+        assertEquals("gzip", headerMap.getLast(Headers.ACCEPT_ENCODING));
+
+        //a second value is added as a string
+        headerMap.addLazy(Headers.ACCEPT_ENCODING, arena, 2, 4);
+        assertEquals(2, headerMap.get(Headers.ACCEPT_ENCODING).size());
+        assertEquals("gzip", headerMap.get(Headers.ACCEPT_ENCODING, 0));
+        assertEquals("text", headerMap.get(Headers.ACCEPT_ENCODING, 1));
+
+        //values that have never been read can be modified and removed
+        headerMap.addLazy(Headers.HOST, arena, 0, 2);
+        headerMap.get(Headers.HOST).addFirst("first");
+        assertEquals("first", headerMap.get(Headers.HOST, 0));
+        assertEquals("xx", headerMap.get(Headers.HOST, 1));
+        headerMap.addLazy(Headers.USER_AGENT, arena, 0, 2);
+        headerMap.get(Headers.USER_AGENT).clear();
+        assertFalse(headerMap.contains(Headers.USER_AGENT));
+        headerMap.addLazy(Headers.FROM, arena, 2, 4);
+        assertEquals("text", headerMap.get(Headers.FROM).removeFirst());
+        assertTrue(headerMap.get(Headers.FROM).isEmpty());
+    }
 }
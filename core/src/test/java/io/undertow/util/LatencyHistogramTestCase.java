@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Stuart Douglas
+ */
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        int last = -1;
+        for (long value = 0; value < 100000; ++value) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(index == last || index == last + 1);
+            last = index;
+        }
+        Assert.assertEquals(LatencyHistogram.bucketIndex((1L << 36) - 1), LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBucketPrecision() {
+        for (long value = 1; value < (1L << 36); value = value * 3 + 1) {
+            long reported = LatencyHistogram.bucketValue(LatencyHistogram.bucketIndex(value));
+            Assert.assertTrue(value + " " + reported, Math.abs(reported - value) <= value * 0.04);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000000L, snapshot.getMin());
+        Assert.assertEquals(1000000000L, snapshot.getMax());
+        Assert.assertEquals(500500000000L, snapshot.getTotal());
+        assertWithin(500000000L, snapshot.getValueAtPercentile(50));
+        assertWithin(900000000L, snapshot.getValueAtPercentile(90));
+        assertWithin(990000000L, snapshot.getValueAtPercentile(99));
+        Assert.assertEquals(1000000000L, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSnapshotThenReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotThenReset();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(10, snapshot.getMin());
+        Assert.assertEquals(20, snapshot.getMax());
+
+        snapshot = histogram.snapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(50));
+
+        histogram.record(5);
+        snapshot = histogram.snapshot();
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(5, snapshot.getMin());
+        Assert.assertEquals(5, snapshot.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(expected + " " + actual, Math.abs(expected - actual) <= expected * 0.04);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.Deque;
+import java.util.Map;
+
+import io.undertow.server.protocol.ajp.AjpHeaderNameMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the generated token matchers.
+ *
+ * @author Stuart Douglas
+ */
+public class TokenMatcherTestCase {
+
+    @Test
+    public void testMatchAllTokens() {
+        final TokenMatcher matcher = QueryParameterNameMatcher.INSTANCE;
+        for (int i = 0; i < matcher.getTokenCount(); ++i) {
+            final String token = matcher.getToken(i);
+            Assert.assertEquals(i, matcher.match(token, 0, token.length()));
+            Assert.assertEquals(i, matcher.match(new StringBuilder("a=b&").append(token).append("=c"), 4, 4 + token.length()));
+        }
+    }
+
+    @Test
+    public void testNoMatch() {
+        final TokenMatcher matcher = QueryParameterNameMatcher.INSTANCE;
+        Assert.assertEquals(-1, matcher.match("", 0, 0));
+        Assert.assertEquals(-1, matcher.match("pag", 0, 3));
+        Assert.assertEquals(-1, matcher.match("pages", 0, 5));
+        Assert.assertEquals(-1, matcher.match("pagE", 0, 4));
+        Assert.assertEquals(-1, matcher.match("Id", 0, 2));
+        Assert.assertNull(matcher.matchToken("unknown", 0, 7));
+        Assert.assertEquals("ag", matcher.substring("page", 1, 3));
+    }
+
+    @Test
+    public void testTokensAreInterned() {
+        Assert.assertSame(Cookies.VERSION, CookieNameMatcher.INSTANCE.substring("a$Version=1", 1, 9));
+        Assert.assertSame("page", QueryParameterNameMatcher.INSTANCE.matchToken("?page=1", 1, 5));
+        Assert.assertSame(Headers.ORIGIN, AjpHeaderNameMatcher.INSTANCE.matchHeader(new StringBuilder(Headers.ORIGIN_STRING)));
+        Assert.assertSame(Headers.X_FORWARDED_FOR, AjpHeaderNameMatcher.INSTANCE.matchHeader(Headers.X_FORWARDED_FOR_STRING));
+        Assert.assertNull(AjpHeaderNameMatcher.INSTANCE.matchHeader("X-Unknown"));
+    }
+
+    @Test
+    public void testParsedNamesAreInterned() {
+        final Map<String, Deque<String>> params = QueryParameterUtils.parseQueryString("page=1&other=2&q");
+        for (String key : params.keySet()) {
+            if (key.equals("page")) {
+                Assert.assertSame("page", key);
+            } else if (key.equals("q")) {
+                Assert.assertSame("q", key);
+            }
+        }
+        Assert.assertEquals("2", params.get("other").getFirst());
+        Assert.assertEquals("", params.get("q").getFirst());
+    }
+}
@@ -37,7 +37,11 @@ import javax.tools.JavaFileObject;
 /**
  * @author Stuart Douglas
  */
-@SupportedAnnotationTypes("io.undertow.annotationprocessor.HttpParserConfig")
+@SupportedAnnotationTypes({
+        "io.undertow.annotationprocessor.HttpParserConfig",
+        "io.undertow.annotationprocessor.HttpResponseParserConfig",
+        "io.undertow.annotationprocessor.TokenMatcherConfig"
+})
 @SupportedOptions({
 })
 @SupportedSourceVersion(SourceVersion.RELEASE_6)
@@ -100,6 +104,29 @@ public class HttpParserAnnotationProcessor extends AbstractProcessor {
                 throw new RuntimeException(e);
             }
         }
+        final TokenMatcherGenerator matcherGenerator = new TokenMatcherGenerator();
+        for (Element element : roundEnv.getElementsAnnotatedWith(TokenMatcherConfig.class)) {
+            final TokenMatcherConfig matcher = element.getAnnotation(TokenMatcherConfig.class);
+            if (matcher == null) {
+                continue;
+            }
+            final byte[] newClass = matcherGenerator.createMatcher(((TypeElement) element).getQualifiedName().toString(), matcher.tokens());
+            try {
+                JavaFileObject file = filer.createClassFile(((TypeElement) element).getQualifiedName() + AbstractParserGenerator.CLASS_NAME_SUFFIX, element);
+                final OutputStream out = file.openOutputStream();
+                try {
+                    out.write(newClass);
+                } finally {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
 
         return true;
     }
@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.annotationprocessor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * If this annotation is applied to a class a sub class will be generated that matches a range of characters against
+ * the given tokens, without creating any objects.
+ * <p/>
+ * The annotated class must have a constructor that takes a <code>String[]</code>. The generated sub class has a no
+ * argument constructor that passes it the tokens, in the order they were declared, and implements
+ * <code>int match(CharSequence value, int start, int end)</code>, which returns the index of the matching token or
+ * <code>-1</code>.
+ *
+ * @author Stuart Douglas
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface TokenMatcherConfig {
+    String[] tokens();
+}
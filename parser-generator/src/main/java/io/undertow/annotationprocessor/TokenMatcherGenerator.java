@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.annotationprocessor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.classfilewriter.AccessFlag;
+import org.jboss.classfilewriter.ClassFile;
+import org.jboss.classfilewriter.ClassMethod;
+import org.jboss.classfilewriter.code.BranchEnd;
+import org.jboss.classfilewriter.code.CodeAttribute;
+import org.jboss.classfilewriter.code.LookupSwitchBuilder;
+import org.jboss.classfilewriter.util.DescriptorUtils;
+
+/**
+ * Generates matchers for a fixed set of tokens.
+ * <p/>
+ * Unlike the HTTP parsers these do not need to be resumable, as the value being matched is always complete. The
+ * generated <code>match</code> method switches on the length of the value, and then walks a tree of the tokens of that
+ * length a character at a time, so a value is rejected as soon as it can no longer match, and nothing is allocated.
+ *
+ * @author Stuart Douglas
+ */
+public class TokenMatcherGenerator {
+
+    public static final String MATCH_METHOD = "match";
+
+    private static final int VALUE_VAR = 1;
+    private static final int START_VAR = 2;
+    private static final int END_VAR = 3;
+
+    public byte[] createMatcher(final String existingClassName, final String[] tokens) {
+        final String className = existingClassName + AbstractParserGenerator.CLASS_NAME_SUFFIX;
+        final ClassFile file = new ClassFile(className, existingClassName);
+
+        //the constructor passes the tokens to the super class, as the literals are interned the
+        //returned tokens will be the same objects as any constants they were declared with
+        final ClassMethod ctor = file.addMethod(AccessFlag.PUBLIC, "<init>", "V");
+        final CodeAttribute cc = ctor.getCodeAttribute();
+        cc.aload(0);
+        cc.iconst(tokens.length);
+        cc.anewarray(String.class.getName());
+        for (int i = 0; i < tokens.length; ++i) {
+            cc.dup();
+            cc.iconst(i);
+            cc.ldc(tokens[i]);
+            cc.aastore();
+        }
+        cc.invokespecial(existingClassName, "<init>", "([Ljava/lang/String;)V");
+        cc.returnInstruction();
+
+        final ClassMethod match = file.addMethod(AccessFlag.PUBLIC | AccessFlag.FINAL, MATCH_METHOD, "I", DescriptorUtils.makeDescriptor(CharSequence.class), "I", "I");
+        writeMatch(match.getCodeAttribute(), tokens);
+        return file.toBytecode();
+    }
+
+    private void writeMatch(final CodeAttribute c, final String[] tokens) {
+        //group the tokens by length, if a token is declared twice the first index is used
+        final Map<Integer, List<Integer>> byLength = new TreeMap<Integer, List<Integer>>();
+        final Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < tokens.length; ++i) {
+            if (!seen.add(tokens[i])) {
+                continue;
+            }
+            List<Integer> list = byLength.get(tokens[i].length());
+            if (list == null) {
+                byLength.put(tokens[i].length(), list = new ArrayList<Integer>());
+            }
+            list.add(i);
+        }
+        if (byLength.isEmpty()) {
+            c.iconst(-1);
+            c.returnInstruction();
+            return;
+        }
+        final List<BranchEnd> noMatch = new ArrayList<BranchEnd>();
+
+        c.iload(END_VAR);
+        c.iload(START_VAR);
+        c.isub();
+        final LookupSwitchBuilder builder = new LookupSwitchBuilder();
+        final Map<Integer, AtomicReference<BranchEnd>> ends = new TreeMap<Integer, AtomicReference<BranchEnd>>();
+        for (Integer length : byLength.keySet()) {
+            ends.put(length, builder.add(length));
+        }
+        c.lookupswitch(builder);
+        noMatch.add(builder.getDefaultBranchEnd().get());
+        for (Map.Entry<Integer, AtomicReference<BranchEnd>> e : ends.entrySet()) {
+            c.branchEnd(e.getValue().get());
+            writeNode(c, tokens, byLength.get(e.getKey()), 0, e.getKey(), noMatch);
+        }
+
+        for (BranchEnd b : noMatch) {
+            c.branchEnd(b);
+        }
+        c.iconst(-1);
+        c.returnInstruction();
+    }
+
+    /**
+     * Writes the code that matches the character at <code>pos</code>. All the candidates have the same length, and
+     * have already matched every character before <code>pos</code>.
+     */
+    private void writeNode(final CodeAttribute c, final String[] tokens, final List<Integer> candidates, final int pos, final int length, final List<BranchEnd> noMatch) {
+        if (pos == length) {
+            //duplicates have been removed, so there is exactly one candidate left
+            c.iconst(candidates.get(0));
+            c.returnInstruction();
+            return;
+        }
+        final Map<Character, List<Integer>> byChar = new TreeMap<Character, List<Integer>>();
+        for (Integer candidate : candidates) {
+            final char ch = tokens[candidate].charAt(pos);
+            List<Integer> list = byChar.get(ch);
+            if (list == null) {
+                byChar.put(ch, list = new ArrayList<Integer>());
+            }
+            list.add(candidate);
+        }
+
+        c.aload(VALUE_VAR);
+        c.iload(START_VAR);
+        if (pos != 0) {
+            c.iconst(pos);
+            c.iadd();
+        }
+        c.invokeinterface(CharSequence.class.getName(), "charAt", "(I)C");
+        if (byChar.size() == 1) {
+            final Map.Entry<Character, List<Integer>> entry = byChar.entrySet().iterator().next();
+            c.iconst(entry.getKey());
+            noMatch.add(c.ifIcmpne());
+            writeNode(c, tokens, entry.getValue(), pos + 1, length, noMatch);
+            return;
+        }
+        final LookupSwitchBuilder builder = new LookupSwitchBuilder();
+        final Map<Character, AtomicReference<BranchEnd>> ends = new TreeMap<Character, AtomicReference<BranchEnd>>();
+        for (Character ch : byChar.keySet()) {
+            ends.put(ch, builder.add(ch));
+        }
+        c.lookupswitch(builder);
+        noMatch.add(builder.getDefaultBranchEnd().get());
+        for (Map.Entry<Character, AtomicReference<BranchEnd>> e : ends.entrySet()) {
+            c.branchEnd(e.getValue().get());
+            writeNode(c, tokens, byChar.get(e.getKey()), pos + 1, length, noMatch);
+        }
+    }
+}
@@ -56,6 +56,8 @@ public class BlockingWriterSenderImpl implements Sender {
     private final PrintWriter writer;
 
     private FileChannel pendingFile;
+    private long pendingFilePosition = -1;
+    private long pendingFileCount = -1;
     private boolean inCall;
     private String next;
     private IoCallback queuedCallback;
@@ -144,20 +146,40 @@ public class BlockingWriterSenderImpl implements Sender {
     @Override
     public void transferFrom(FileChannel source, IoCallback callback) {
         if (inCall) {
-            queue(source, callback);
+            queue(source, -1, -1, callback);
             return;
         }
         performTransfer(source, callback);
     }
 
+    @Override
+    public void transferFrom(FileChannel source, long position, long count, IoCallback callback) {
+        if (inCall) {
+            queue(source, position, count, callback);
+            return;
+        }
+        performTransfer(source, position, count, callback);
+    }
+
     private void performTransfer(FileChannel source, IoCallback callback) {
+        try {
+            performTransfer(source, source.position(), source.size() - source.position(), callback);
+        } catch (IOException e) {
+            callback.onException(exchange, this, e);
+        }
+    }
+
+    private void performTransfer(FileChannel source, long position, long count, IoCallback callback) {
 
         ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
         try {
-            long pos = source.position();
-            long size = source.size();
+            long pos = position;
+            long size = position + count;
             while (size - pos > 0) {
-                int ret = source.read(buffer);
+                if (size - pos < buffer.remaining()) {
+                    buffer.limit((int) (size - pos));
+                }
+                int ret = source.read(buffer, pos);
                 if (ret <= 0) {
                     break;
                 }
@@ -219,11 +241,21 @@ public class BlockingWriterSenderImpl implements Sender {
         } finally {
             inCall = false;
         }
-        while (next != null) {
+        while (next != null || pendingFile != null) {
             String next = this.next;
             IoCallback queuedCallback = this.queuedCallback;
+            FileChannel file = this.pendingFile;
             this.next = null;
             this.queuedCallback = null;
+            this.pendingFile = null;
+            if (file != null) {
+                if (pendingFileCount == -1) {
+                    performTransfer(file, queuedCallback);
+                } else {
+                    performTransfer(file, pendingFilePosition, pendingFileCount, queuedCallback);
+                }
+                continue;
+            }
             writer.write(next);
             if (writer.checkError()) {
                 queuedCallback.onException(exchange, this, new IOException());
@@ -264,12 +296,14 @@ public class BlockingWriterSenderImpl implements Sender {
         next = data;
         queuedCallback = callback;
     }
-    private void queue(final FileChannel data, final IoCallback callback) {
+    private void queue(final FileChannel data, final long position, final long count, final IoCallback callback) {
         //if data is sent from withing the callback we queue it, to prevent the stack growing indefinitely
         if (next != null || pendingFile != null) {
             throw UndertowMessages.MESSAGES.dataAlreadyQueued();
         }
         pendingFile = data;
+        pendingFilePosition = position;
+        pendingFileCount = count;
         queuedCallback = callback;
     }
 
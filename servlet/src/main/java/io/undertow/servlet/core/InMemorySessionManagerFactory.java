@@ -30,17 +30,28 @@ import io.undertow.servlet.api.SessionManagerFactory;
 public class InMemorySessionManagerFactory implements SessionManagerFactory {
 
     private final int maxSessions;
+    private final boolean timerWheelExpiry;
 
     public InMemorySessionManagerFactory() {
         this(-1);
     }
 
     public InMemorySessionManagerFactory(int maxSessions) {
+        this(maxSessions, false);
+    }
+
+    /**
+     * @param maxSessions      The maximum number of sessions, or -1 for no limit
+     * @param timerWheelExpiry <code>true</code> if sessions should be expired using a timer wheel
+     * @see InMemorySessionManager#InMemorySessionManager(String, int, boolean)
+     */
+    public InMemorySessionManagerFactory(int maxSessions, boolean timerWheelExpiry) {
         this.maxSessions = maxSessions;
+        this.timerWheelExpiry = timerWheelExpiry;
     }
 
     @Override
     public SessionManager createSessionManager(Deployment deployment) {
-        return new InMemorySessionManager(deployment.getDeploymentInfo().getDeploymentName(), maxSessions);
+        return new InMemorySessionManager(deployment.getDeploymentInfo().getDeploymentName(), maxSessions, timerWheelExpiry);
     }
 }